@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+/**
+ * A Benchmark measures the throughput of one operation. The BenchmarkRunner calls
+ * setup() once, then run() repeatedly during warmup and measurement iterations,
+ * and finally tearDown(). Results of the measured operations should be passed to
+ * one of the consume() methods to prevent the JIT from eliminating dead code.
+ */
+public abstract class Benchmark {
+	private String mName;
+	private volatile int mSink;
+
+	protected Benchmark(String name) {
+		mName = name;
+		}
+
+	public String getName() {
+		return mName;
+		}
+
+	/**
+	 * Prepares all input data. Time spent here is not measured.
+	 * @param referenceSet
+	 * @throws Exception
+	 */
+	public void setup(ReferenceSet referenceSet) throws Exception {}
+
+	/**
+	 * Performs one benchmark invocation, which may consist of multiple operations,
+	 * e.g. parsing all molecules of the reference set.
+	 * @return number of operations performed
+	 * @throws Exception
+	 */
+	public abstract int run() throws Exception;
+
+	public void tearDown() {}
+
+	protected void consume(Object o) {
+		mSink += (o == null) ? 0 : System.identityHashCode(o);
+		}
+
+	protected void consume(int value) {
+		mSink += value;
+		}
+
+	protected void consume(float value) {
+		mSink += Float.floatToIntBits(value);
+		}
+
+	protected void consume(boolean value) {
+		if (value)
+			mSink++;
+		}
+	}
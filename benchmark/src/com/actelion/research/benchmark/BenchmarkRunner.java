@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.actelion.research.chem.descriptor.DescriptorConstants;
+
+/**
+ * Runs all or selected benchmarks with warmup and measurement iterations of fixed
+ * duration on the current thread. For every benchmark it reports the throughput
+ * in operations per second with a 99.9% confidence interval and, if the JVM supports
+ * it, the number of bytes allocated per operation. Results can be written as JSON
+ * and compared with the JSON file of an earlier run to detect regressions. The exit code
+ * is 1, if any benchmark is slower than REGRESSION_LIMIT times its baseline or if a benchmark failed.
+ * <p>Usage: BenchmarkRunner [-w warmupIterations] [-i iterations] [-t secondsPerIteration]
+ * [-f regex] [-o result.json] [-b baseline.json] [-l]
+ */
+public class BenchmarkRunner {
+	private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+	private static final int DEFAULT_ITERATIONS = 5;
+	private static final double DEFAULT_ITERATION_SECONDS = 1.0;
+	private static final double REGRESSION_LIMIT = 0.9;
+
+	private static final String[] DESCRIPTOR = {
+		DescriptorConstants.DESCRIPTOR_FFP512.shortName,
+		DescriptorConstants.DESCRIPTOR_PFP512.shortName,
+		DescriptorConstants.DESCRIPTOR_HashedCFp.shortName,
+		DescriptorConstants.DESCRIPTOR_SkeletonSpheres.shortName,
+		DescriptorConstants.DESCRIPTOR_OrganicFunctionalGroups.shortName,
+		DescriptorConstants.DESCRIPTOR_FULL_FRAGMENT_SET.shortName,
+		DescriptorConstants.DESCRIPTOR_Flexophore.shortName
+		};
+
+	private int mWarmupIterations,mIterations;
+	private long mIterationNanos;
+	private ThreadMXBean mThreadBean;
+	private ArrayList<Result> mResultList;
+
+	public static void main(String[] args) {
+		int warmup = DEFAULT_WARMUP_ITERATIONS;
+		int iterations = DEFAULT_ITERATIONS;
+		double seconds = DEFAULT_ITERATION_SECONDS;
+		String filter = null;
+		String output = null;
+		String baseline = null;
+		boolean listOnly = false;
+
+		try {
+			for (int i=0; i<args.length; i++) {
+				if (args[i].equals("-w"))
+					warmup = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-i"))
+					iterations = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-t"))
+					seconds = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-f"))
+					filter = args[++i];
+				else if (args[i].equals("-o"))
+					output = args[++i];
+				else if (args[i].equals("-b"))
+					baseline = args[++i];
+				else if (args[i].equals("-l"))
+					listOnly = true;
+				else
+					throw new IllegalArgumentException(args[i]);
+				}
+			}
+		catch (RuntimeException e) {
+			System.out.println("Usage: BenchmarkRunner [-w warmupIterations] [-i iterations] [-t secondsPerIteration]"
+							 + " [-f regex] [-o result.json] [-b baseline.json] [-l]");
+			System.exit(1);
+			}
+
+		ArrayList<Benchmark> benchmarkList = new ArrayList<Benchmark>();
+		Pattern pattern = (filter == null) ? null : Pattern.compile(filter);
+		for (Benchmark benchmark:createBenchmarks())
+			if (pattern == null || pattern.matcher(benchmark.getName()).find())
+				benchmarkList.add(benchmark);
+
+		if (listOnly) {
+			for (Benchmark benchmark:benchmarkList)
+				System.out.println(benchmark.getName());
+			return;
+			}
+
+		try {
+			ReferenceSet referenceSet = ReferenceSet.load();
+			System.out.println("Reference set: "+referenceSet.getSize()+" molecules");
+
+			BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, seconds);
+			for (Benchmark benchmark:benchmarkList)
+				runner.run(benchmark, referenceSet);
+
+			if (output != null)
+				runner.writeJSON(new File(output));
+			if (baseline != null && runner.compare(new File(baseline)) != 0) {
+				System.out.flush();
+				System.exit(1);
+				}
+			}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+			}
+		}
+
+	public static ArrayList<Benchmark> createBenchmarks() {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new IDCodeParserBenchmark(IDCodeParserBenchmark.MODE_NEW_MOLECULE));
+		list.add(new IDCodeParserBenchmark(IDCodeParserBenchmark.MODE_CONTAINER));
+		list.add(new IDCodeParserBenchmark(IDCodeParserBenchmark.MODE_BUFFER_REUSE));
+		list.add(new CanonizerBenchmark());
+		list.add(new SmilesParserBenchmark());
+		list.add(new MolfileParserBenchmark());
+		list.add(new SubstructureSearchBenchmark());
+		list.add(new SSSIndexBenchmark());
+		for (String shortName:DESCRIPTOR)
+			list.add(new DescriptorBenchmark(shortName, DescriptorBenchmark.MODE_CREATE));
+		for (String shortName:DESCRIPTOR)
+			list.add(new DescriptorBenchmark(shortName, DescriptorBenchmark.MODE_SIMILARITY));
+		list.add(new CoordinateInventorBenchmark());
+		list.add(new TableLoaderBenchmark(10000));
+		return list;
+		}
+
+	public BenchmarkRunner(int warmupIterations, int iterations, double secondsPerIteration) {
+		mWarmupIterations = warmupIterations;
+		mIterations = Math.max(1, iterations);
+		mIterationNanos = (long)(secondsPerIteration * 1000000000.0);
+		mResultList = new ArrayList<Result>();
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+		 && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+			((com.sun.management.ThreadMXBean)bean).setThreadAllocatedMemoryEnabled(true);
+			mThreadBean = bean;
+			}
+		}
+
+	public Result run(Benchmark benchmark, ReferenceSet referenceSet) throws Exception {
+		benchmark.setup(referenceSet);
+
+		for (int i=0; i<mWarmupIterations; i++)
+			runIteration(benchmark, null);
+
+		double[] opsPerSecond = new double[mIterations];
+		long[] allocation = new long[2];	// bytes, operations
+		for (int i=0; i<mIterations; i++)
+			opsPerSecond[i] = runIteration(benchmark, allocation);
+
+		benchmark.tearDown();
+
+		Result result = new Result(benchmark.getName(), opsPerSecond,
+				(mThreadBean == null || allocation[1] == 0) ? Double.NaN : (double)allocation[0] / allocation[1]);
+		mResultList.add(result);
+		System.out.println(result.toString());
+		return result;
+		}
+
+	/**
+	 * Calls benchmark.run() repeatedly until the iteration time is exceeded.
+	 * @param benchmark
+	 * @param allocation null or array to which allocated bytes and operations are added
+	 * @return operations per second
+	 * @throws Exception
+	 */
+	private double runIteration(Benchmark benchmark, long[] allocation) throws Exception {
+		long threadID = Thread.currentThread().getId();
+		long bytes = getAllocatedBytes(threadID);
+		long operations = 0;
+		long start = System.nanoTime();
+		long end = start;
+		do {
+			operations += benchmark.run();
+			end = System.nanoTime();
+			} while (end - start < mIterationNanos);
+
+		if (allocation != null) {
+			allocation[0] += getAllocatedBytes(threadID) - bytes;
+			allocation[1] += operations;
+			}
+
+		return operations * 1000000000.0 / (end - start);
+		}
+
+	private long getAllocatedBytes(long threadID) {
+		return (mThreadBean == null) ? 0L : ((com.sun.management.ThreadMXBean)mThreadBean).getThreadAllocatedBytes(threadID);
+		}
+
+	public void writeJSON(File file) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write("[");
+		for (int i=0; i<mResultList.size(); i++) {
+			Result result = mResultList.get(i);
+			writer.write(i == 0 ? "\n" : ",\n");
+			writer.write("  {\"benchmark\": \""+result.name+"\", \"mode\": \"thrpt\", \"unit\": \"ops/s\", "
+					   + "\"iterations\": "+result.iterations+", "
+					   + "\"score\": "+format(result.score)+", \"scoreError\": "+format(result.error)+", "
+					   + "\"allocatedBytesPerOp\": "+(Double.isNaN(result.bytesPerOp) ? "null" : format(result.bytesPerOp))+"}");
+			}
+		writer.write("\n]\n");
+		writer.close();
+		}
+
+	/**
+	 * Compares the scores of this run with those of an earlier run written by writeJSON()
+	 * and lists all benchmarks that became slower by more than 10%.
+	 * @param baseline
+	 * @return number of regressions
+	 * @throws IOException
+	 */
+	public int compare(File baseline) throws IOException {
+		TreeMap<String,Double> baselineScore = new TreeMap<String,Double>();
+		Pattern pattern = Pattern.compile("\"benchmark\":\\s*\"([^\"]*)\".*\"score\":\\s*([-+0-9.Ee]+)");
+		BufferedReader reader = new BufferedReader(new FileReader(baseline));
+		String line = reader.readLine();
+		while (line != null) {
+			Matcher matcher = pattern.matcher(line);
+			if (matcher.find())
+				baselineScore.put(matcher.group(1), Double.valueOf(matcher.group(2)));
+			line = reader.readLine();
+			}
+		reader.close();
+
+		int regressionCount = 0;
+		System.out.println();
+		System.out.println("Comparison with "+baseline.getName()+" (ratio > 1.0 means faster):");
+		for (Result result:mResultList) {
+			Double score = baselineScore.get(result.name);
+			if (score != null && score.doubleValue() > 0.0) {
+				double ratio = result.score / score.doubleValue();
+				boolean isRegression = ratio < REGRESSION_LIMIT;
+				if (isRegression)
+					regressionCount++;
+				System.out.println(String.format(Locale.US, "%-50s %8.3f%s", result.name, ratio, isRegression ? "  REGRESSION" : ""));
+				}
+			}
+		return regressionCount;
+		}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.6g", value);
+		}
+
+	public static class Result {
+		public final String name;
+		public final int iterations;
+		public final double score,error,bytesPerOp;
+
+		public Result(String name, double[] opsPerSecond, double bytesPerOp) {
+			this.name = name;
+			this.iterations = opsPerSecond.length;
+			this.bytesPerOp = bytesPerOp;
+
+			double mean = 0.0;
+			for (double v:opsPerSecond)
+				mean += v;
+			mean /= opsPerSecond.length;
+
+			double variance = 0.0;
+			for (double v:opsPerSecond)
+				variance += (v - mean) * (v - mean);
+			variance = (opsPerSecond.length < 2) ? 0.0 : variance / (opsPerSecond.length - 1);
+
+			this.score = mean;
+			// 3.29 is the z-value of a two-sided 99.9% interval (normal approximation)
+			this.error = 3.29 * Math.sqrt(variance / opsPerSecond.length);
+			}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%-50s %14.2f +- %10.2f ops/s %14s", name, score, error,
+					Double.isNaN(bytesPerOp) ? "" : String.format(Locale.US, "%.0f B/op", bytesPerOp));
+			}
+		}
+	}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.Canonizer;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Creates the canonical idcode of freshly copied reference molecules.
+ */
+public class CanonizerBenchmark extends Benchmark {
+	private StereoMolecule[] mMol;
+
+	public CanonizerBenchmark() {
+		super("Canonizer.getIDCode");
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mMol = new StereoMolecule[referenceSet.getSize()];
+		for (int i=0; i<mMol.length; i++)
+			mMol[i] = referenceSet.getMolecule(i);
+		}
+
+	@Override
+	public int run() {
+		for (int i=0; i<mMol.length; i++)
+			consume(new Canonizer(new StereoMolecule(mMol[i])).getIDCode());
+		return mMol.length;
+		}
+	}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.CoordinateInventor;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Generates 2D-coordinates for all reference molecules.
+ */
+public class CoordinateInventorBenchmark extends Benchmark {
+	private StereoMolecule[] mMol;
+	private CoordinateInventor mInventor;
+
+	public CoordinateInventorBenchmark() {
+		super("CoordinateInventor.invent");
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mMol = new StereoMolecule[referenceSet.getSize()];
+		for (int i=0; i<mMol.length; i++)
+			mMol[i] = referenceSet.getMoleculeCopy(i);
+		mInventor = new CoordinateInventor();
+		mInventor.setRandomSeed(12345L);
+		}
+
+	@Override
+	public int run() {
+		for (int i=0; i<mMol.length; i++) {
+			mInventor.invent(mMol[i]);
+			consume(mMol[i].getAtomX(0));
+			}
+		return mMol.length;
+		}
+	}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.descriptor.DescriptorHandler;
+import com.actelion.research.chem.descriptor.DescriptorHandlerStandardFactory;
+
+/**
+ * Measures either the creation of a descriptor from a molecule or the similarity
+ * calculation between two descriptors. Every invocation handles one molecule, which
+ * in similarity mode is compared to all reference molecules, to keep invocations
+ * short even for expensive descriptors like the Flexophore.
+ */
+public class DescriptorBenchmark extends Benchmark {
+	public static final int MODE_CREATE = 0;
+	public static final int MODE_SIMILARITY = 1;
+
+	private String mShortName;
+	private int mMode,mCurrent;
+	private DescriptorHandler<Object,StereoMolecule> mHandler;
+	private StereoMolecule[] mMol;
+	private Object[] mDescriptor;
+
+	public DescriptorBenchmark(String shortName, int mode) {
+		super((mode == MODE_CREATE ? "createDescriptor:" : "getSimilarity:")+shortName);
+		mShortName = shortName;
+		mMode = mode;
+		}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mHandler = DescriptorHandlerStandardFactory.getFactory().create(mShortName);
+		mMol = new StereoMolecule[referenceSet.getSize()];
+		for (int i=0; i<mMol.length; i++)
+			mMol[i] = referenceSet.getMolecule(i);
+
+		if (mMode == MODE_SIMILARITY) {
+			mDescriptor = new Object[mMol.length];
+			for (int i=0; i<mMol.length; i++)
+				mDescriptor[i] = mHandler.createDescriptor(new StereoMolecule(mMol[i]));
+			}
+		mCurrent = 0;
+		}
+
+	@Override
+	public int run() {
+		int current = mCurrent;
+		mCurrent = (mCurrent+1) % mMol.length;
+
+		if (mMode == MODE_CREATE) {
+			consume(mHandler.createDescriptor(new StereoMolecule(mMol[current])));
+			return 1;
+			}
+
+		for (int i=0; i<mDescriptor.length; i++)
+			consume(mHandler.getSimilarity(mDescriptor[current], mDescriptor[i]));
+		return mDescriptor.length;
+		}
+	}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.IDCodeParser;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Parses idcodes with 2D-coordinates and perceives helper arrays as any subsequent
+ * consumer would do. Molecules are either created new for every idcode, or a container
+ * molecule is reused, optionally in buffer reuse mode, which retains helper arrays.
+ * Comparing the allocated bytes per operation of the three modes shows the effect
+ * of buffer reuse on the allocation rate.
+ */
+public class IDCodeParserBenchmark extends Benchmark {
+	public static final int MODE_NEW_MOLECULE = 0;
+	public static final int MODE_CONTAINER = 1;
+	public static final int MODE_BUFFER_REUSE = 2;
+	private static final String[] MODE_NAME = { ":newMolecule", "", ":bufferReuse" };
+
+	private byte[][] mIDCode,mCoordinates;
+	private IDCodeParser mParser;
+	private StereoMolecule mMol;
+	private int mMode;
+
+	public IDCodeParserBenchmark() {
+		this(MODE_CONTAINER);
+		}
+
+	public IDCodeParserBenchmark(int mode) {
+		super("IDCodeParser.parse"+MODE_NAME[mode]);
+		mMode = mode;
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mIDCode = new byte[referenceSet.getSize()][];
+		mCoordinates = new byte[referenceSet.getSize()][];
+		for (int i=0; i<referenceSet.getSize(); i++) {
+			mIDCode[i] = referenceSet.getIDCode(i).getBytes();
+			mCoordinates[i] = referenceSet.getCoordinates(i).getBytes();
+			}
+		mParser = new IDCodeParser();
+		mMol = new StereoMolecule();
+		mMol.setBufferReuse(mMode == MODE_BUFFER_REUSE);
+		}
+
+	@Override
+	public int run() {
+		for (int i=0; i<mIDCode.length; i++) {
+			StereoMolecule mol = mMol;
+			if (mMode == MODE_NEW_MOLECULE)
+				mol = mParser.getCompactMolecule(mIDCode[i], mCoordinates[i]);
+			else
+				mParser.parse(mol, mIDCode[i], mCoordinates[i]);
+			mol.ensureHelperArrays(StereoMolecule.cHelperRings);
+			consume(mol.getAllAtoms());
+			}
+		return mIDCode.length;
+		}
+	}
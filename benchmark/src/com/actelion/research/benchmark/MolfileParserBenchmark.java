@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.MolfileParser;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Parses V2000 molfiles created from the reference molecules.
+ */
+public class MolfileParserBenchmark extends Benchmark {
+	private String[] mMolfile;
+	private MolfileParser mParser;
+	private StereoMolecule mMol;
+
+	public MolfileParserBenchmark() {
+		super("MolfileParser.parse");
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mMolfile = new String[referenceSet.getSize()];
+		for (int i=0; i<mMolfile.length; i++)
+			mMolfile[i] = referenceSet.getMolfile(i);
+		mParser = new MolfileParser();
+		mMol = new StereoMolecule();
+		}
+
+	@Override
+	public int run() {
+		for (int i=0; i<mMolfile.length; i++) {
+			consume(mParser.parse(mMol, mMolfile[i]));
+			consume(mMol.getAllAtoms());
+			}
+		return mMolfile.length;
+		}
+	}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.calc.ProgressController;
+
+/**
+ * Silent ProgressController for running table operations without user interface.
+ */
+public class NullProgressController implements ProgressController {
+	@Override
+	public void startProgress(String text, int min, int max) {}
+
+	@Override
+	public void updateProgress(int value) {}
+
+	@Override
+	public void stopProgress() {}
+
+	@Override
+	public void showErrorMessage(String message) {
+		System.out.println("ERROR: "+message);
+		}
+
+	@Override
+	public boolean threadMustDie() {
+		return false;
+		}
+	}
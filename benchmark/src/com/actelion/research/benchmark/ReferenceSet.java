@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+import com.actelion.research.chem.Canonizer;
+import com.actelion.research.chem.MolfileCreator;
+import com.actelion.research.chem.SmilesParser;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * The molecules all benchmarks work on. They are read from the bundled SMILES file
+ * and converted once into all representations the benchmarks need as input.
+ */
+public class ReferenceSet {
+	public static final String MOLECULE_RESOURCE = "/benchmark/referenceSet.smi";
+
+	private static final String[] FRAGMENT_SMILES = {
+		"c1ccccc1",
+		"C(=O)[OH]",
+		"C(=O)N",
+		"c1ccncc1",
+		"C1CNCCN1",
+		"c1ccc2ccccc2c1",
+		"S(=O)(=O)N",
+		"C1CCC2C(C1)CCC1C2CCC2CCCC12",
+		"c1ccc2[nH]ccc2c1",
+		"Cl"
+		};
+
+	private ArrayList<String> mName,mSmiles,mIDCode,mCoordinates,mMolfile;
+	private ArrayList<StereoMolecule> mMolecule;
+	private StereoMolecule[] mFragment;
+
+	public static ReferenceSet load() throws IOException {
+		InputStream is = ReferenceSet.class.getResourceAsStream(MOLECULE_RESOURCE);
+		if (is == null)
+			throw new IOException("Resource not found: "+MOLECULE_RESOURCE);
+
+		ReferenceSet set = new ReferenceSet();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+		try {
+			String line = reader.readLine();
+			while (line != null) {
+				if (line.length() != 0 && !line.startsWith("#")) {
+					int index = line.indexOf('\t');
+					String smiles = (index == -1) ? line : line.substring(0, index);
+					String name = (index == -1) ? smiles : line.substring(index+1);
+					set.add(smiles, name);
+					}
+				line = reader.readLine();
+				}
+			}
+		finally {
+			reader.close();
+			}
+
+		set.createFragments();
+		return set;
+		}
+
+	private ReferenceSet() {
+		mName = new ArrayList<String>();
+		mSmiles = new ArrayList<String>();
+		mIDCode = new ArrayList<String>();
+		mCoordinates = new ArrayList<String>();
+		mMolfile = new ArrayList<String>();
+		mMolecule = new ArrayList<StereoMolecule>();
+		}
+
+	private void add(String smiles, String name) {
+		StereoMolecule mol = new StereoMolecule();
+		try {
+			new SmilesParser().parse(mol, smiles);
+			}
+		catch (Exception e) {
+			System.out.println("WARNING: Skipping reference molecule '"+name+"': "+e.getMessage());
+			return;
+			}
+
+		Canonizer canonizer = new Canonizer(mol);
+		mName.add(name);
+		mSmiles.add(smiles);
+		mIDCode.add(canonizer.getIDCode());
+		mCoordinates.add(canonizer.getEncodedCoordinates());
+		mMolfile.add(new MolfileCreator(mol).getMolfile());
+		mMolecule.add(mol);
+		}
+
+	private void createFragments() {
+		mFragment = new StereoMolecule[FRAGMENT_SMILES.length];
+		for (int i=0; i<FRAGMENT_SMILES.length; i++) {
+			mFragment[i] = new StereoMolecule();
+			try {
+				new SmilesParser().parse(mFragment[i], FRAGMENT_SMILES[i]);
+				}
+			catch (Exception e) {}
+			mFragment[i].setFragment(true);
+			}
+		}
+
+	public int getSize() {
+		return mMolecule.size();
+		}
+
+	public String getName(int i) {
+		return mName.get(i);
+		}
+
+	public String getSmiles(int i) {
+		return mSmiles.get(i);
+		}
+
+	public String getIDCode(int i) {
+		return mIDCode.get(i);
+		}
+
+	/**
+	 * @param i
+	 * @return encoded 2D-coordinates matching getIDCode(i)
+	 */
+	public String getCoordinates(int i) {
+		return mCoordinates.get(i);
+		}
+
+	public String getMolfile(int i) {
+		return mMolfile.get(i);
+		}
+
+	/**
+	 * @param i
+	 * @return the reference molecule; benchmarks must not modify it
+	 */
+	public StereoMolecule getMolecule(int i) {
+		return mMolecule.get(i);
+		}
+
+	/**
+	 * @return a new copy of the reference molecule
+	 */
+	public StereoMolecule getMoleculeCopy(int i) {
+		return new StereoMolecule(mMolecule.get(i));
+		}
+
+	/**
+	 * @return typical substructure search queries
+	 */
+	public StereoMolecule[] getFragments() {
+		return mFragment;
+		}
+	}
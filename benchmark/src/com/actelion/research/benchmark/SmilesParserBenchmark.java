@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import com.actelion.research.chem.SmilesParser;
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Parses SMILES including coordinate generation and stereo perception.
+ */
+public class SmilesParserBenchmark extends Benchmark {
+	private byte[][] mSmiles;
+	private SmilesParser mParser;
+	private StereoMolecule mMol;
+
+	public SmilesParserBenchmark() {
+		super("SmilesParser.parse");
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) {
+		mSmiles = new byte[referenceSet.getSize()][];
+		for (int i=0; i<mSmiles.length; i++)
+			mSmiles[i] = referenceSet.getSmiles(i).getBytes();
+		mParser = new SmilesParser();
+		mMol = new StereoMolecule();
+		}
+
+	@Override
+	public int run() throws Exception {
+		for (int i=0; i<mSmiles.length; i++) {
+			mParser.parse(mMol, mSmiles[i]);
+			consume(mMol.getAllAtoms());
+			}
+		return mSmiles.length;
+		}
+	}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import com.actelion.research.chem.io.CompoundFileHelper;
+import com.actelion.research.table.CompoundTableLoader;
+import com.actelion.research.table.CompoundTableModel;
+
+/**
+ * Loads a generated tab delimited file with an idcode column, a text column
+ * and numerical columns into a new CompoundTableModel.
+ */
+public class TableLoaderBenchmark extends Benchmark {
+	private static final int NUMERICAL_COLUMNS = 5;
+
+	private int mRowCount;
+	private File mFile;
+
+	public TableLoaderBenchmark(int rowCount) {
+		super("CompoundTableLoader.readFile:"+rowCount);
+		mRowCount = rowCount;
+		}
+
+	@Override
+	public void setup(ReferenceSet referenceSet) throws IOException {
+		mFile = File.createTempFile("benchmark", ".txt");
+		mFile.deleteOnExit();
+
+		Random random = new Random(mRowCount);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(mFile));
+		writer.write("idcode\tName");
+		for (int i=0; i<NUMERICAL_COLUMNS; i++)
+			writer.write("\tValue "+(i+1));
+		writer.newLine();
+		for (int row=0; row<mRowCount; row++) {
+			int index = random.nextInt(referenceSet.getSize());
+			writer.write(referenceSet.getIDCode(index));
+			writer.write("\t"+referenceSet.getName(index)+" "+row);
+			for (int i=0; i<NUMERICAL_COLUMNS; i++)
+				writer.write("\t"+(float)(100.0*random.nextGaussian()));
+			writer.newLine();
+			}
+		writer.close();
+		}
+
+	@Override
+	public int run() {
+		CompoundTableModel tableModel = new CompoundTableModel();
+		new CompoundTableLoader(null, tableModel, new NullProgressController()).readFile(mFile, null, CompoundFileHelper.cFileTypeTextTabDelimited);
+		consume(tableModel.getTotalRowCount());
+		return 1;
+		}
+
+	@Override
+	public void tearDown() {
+		mFile.delete();
+		}
+	}
@@ -18,6 +18,9 @@
 
 package com.actelion.research.calc;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 
 public class CorrelationCalculator {
     public static final String[] TYPE_NAME = { "Bravais-Pearson",
@@ -26,6 +29,9 @@ public class CorrelationCalculator {
     public static final int TYPE_BRAVAIS_PEARSON = 0;
     public static final int TYPE_SPEARMAN = 1;
 
+    private static final int MATRIX_BLOCK_SIZE = 16;
+    private static final int MATRIX_ROW_CHUNK = 4096;
+
     /**
      * Calculates the correlation coefficient between two columns of data.
      * Use the TYPE_BRAVAIS_PEARSON for normal distributed data and the
@@ -109,8 +115,8 @@ public class CorrelationCalculator {
             double mean = ((double)realCount) / 2;
             for (int i=0; i<valueCount; i++) {
             	if (!Double.isNaN(column1.getValueAt(i)) && !Double.isNaN(column2.getValueAt(i))) {
-	                double xPosition = getPosition(xValue, column1.getValueAt(i));
-	                double yPosition = getPosition(yValue, column2.getValueAt(i));
+	                double xPosition = getRank(xValue, column1.getValueAt(i));
+	                double yPosition = getRank(yValue, column2.getValueAt(i));
 	                double dx = xPosition - mean;
 	                double dy = yPosition - mean;
 	                sumdxdx += dx*dx;
@@ -125,29 +131,457 @@ public class CorrelationCalculator {
         }
 
     /**
-     * Calculates a half correlation matrix of all passed numerical columns
+     * Calculates a half correlation matrix of all passed numerical columns.
+     * The values of every column are read once, standardized (Bravais-Pearson)
+     * or converted into ranks (Spearman) and kept as float arrays. NaN values are
+     * replaced by 0 and their rows are tracked in a bit mask. Then all sums needed
+     * for the coefficients are calculated block-wise for groups of column pairs
+     * on multiple threads. The results equal those of calculateCorrelation().
      * @param numericalColumn
      * @param type
      * @return half matrix with matrix.length=numericalColumn.length and matrix[i].length=i
+     * @throws RuntimeException if the calculation failed on any thread
      */
-    public static double[][] calculateMatrix(final INumericalDataColumn[] numericalColumn, int type) {
-        double[][] matrix = new double[numericalColumn.length][];
-        for (int i=1; i<numericalColumn.length; i++) {
+    public static double[][] calculateMatrix(final INumericalDataColumn[] numericalColumn, final int type) {
+        final int columnCount = numericalColumn.length;
+        final double[][] matrix = new double[columnCount][];
+        for (int i=1; i<columnCount; i++)
             matrix[i] = new double[i];
-            for (int j=0; j<i; j++)
-                matrix[i][j] = CorrelationCalculator.calculateCorrelation(numericalColumn[i], numericalColumn[j], type);
-            }
+        if (columnCount < 2)
+            return matrix;
+
+        final PreparedColumn[] column = new PreparedColumn[columnCount];
+        final AtomicInteger nextColumn = new AtomicInteger();
+        runParallel(Math.min(getThreadCount(), columnCount), new Runnable() {
+            public void run() {
+                for (int c=nextColumn.getAndIncrement(); c<columnCount; c=nextColumn.getAndIncrement())
+                    column[c] = new PreparedColumn(numericalColumn[c], type);
+                }
+            });
+
+        final int blockCount = (columnCount + MATRIX_BLOCK_SIZE - 1) / MATRIX_BLOCK_SIZE;
+        final int taskCount = blockCount * (blockCount+1) / 2;
+        final AtomicInteger nextTask = new AtomicInteger();
+        runParallel(Math.min(getThreadCount(), taskCount), new Runnable() {
+            public void run() {
+                for (int task=nextTask.getAndIncrement(); task<taskCount; task=nextTask.getAndIncrement()) {
+                    int block1 = (int)((Math.sqrt(8.0*task+1)-1)/2);
+                    while (block1*(block1+1)/2 > task)
+                        block1--;
+                    while ((block1+1)*(block1+2)/2 <= task)
+                        block1++;
+                    int block2 = task - block1*(block1+1)/2;
+                    calculateMatrixBlock(column, matrix, type, block1*MATRIX_BLOCK_SIZE, block2*MATRIX_BLOCK_SIZE);
+                    }
+                }
+            });
+
         return matrix;
         }
 
-    private static double getPosition(double[] array, double value) {
-        int position = java.util.Arrays.binarySearch(array, value);
-        int position1 = position;
-        while (position1 > 0 && array[position1-1] == value)
-            position1--;
-        int position2 = position;
-        while (position2 < array.length-1 && array[position2+1] == value)
-            position2++;
-        return ((double)(position1+position2))/2;
+    /**
+     * Calculates the correlation coefficients of all column pairs i,j with j<i
+     * of the column blocks starting at first1 and first2. Rows are processed in chunks
+     * to keep the processed parts of all columns of both blocks in the cache.
+     */
+    private static void calculateMatrixBlock(PreparedColumn[] column, double[][] matrix, int type, int first1, int first2) {
+        int last1 = Math.min(column.length, first1+MATRIX_BLOCK_SIZE);
+        int last2 = Math.min(column.length, first2+MATRIX_BLOCK_SIZE);
+        int valueCount = column[first1].value.length;
+
+        double[][] sxy = new double[MATRIX_BLOCK_SIZE][MATRIX_BLOCK_SIZE];
+        double[][] sx = new double[MATRIX_BLOCK_SIZE][MATRIX_BLOCK_SIZE];
+        double[][] sxx = new double[MATRIX_BLOCK_SIZE][MATRIX_BLOCK_SIZE];
+        double[][] sy = new double[MATRIX_BLOCK_SIZE][MATRIX_BLOCK_SIZE];
+        double[][] syy = new double[MATRIX_BLOCK_SIZE][MATRIX_BLOCK_SIZE];
+
+        for (int start=0; start<valueCount; start+=MATRIX_ROW_CHUNK) {
+            int end = Math.min(valueCount, start+MATRIX_ROW_CHUNK);
+            for (int i=first1; i<last1; i++) {
+                PreparedColumn c1 = column[i];
+                if (c1.value.length != valueCount)
+                    continue;
+                for (int j=first2; j<last2 && j<i; j++) {
+                    PreparedColumn c2 = column[j];
+                    if (c2.value.length != valueCount)
+                        continue;
+
+                    float[] v1 = c1.value;
+                    float[] v2 = c2.value;
+                    double sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0;  // independent sums to not stall the pipeline
+                    int row = start;
+                    for (; row<end-3; row+=4) {
+                        sum1 += (double)v1[row] * v2[row];
+                        sum2 += (double)v1[row+1] * v2[row+1];
+                        sum3 += (double)v1[row+2] * v2[row+2];
+                        sum4 += (double)v1[row+3] * v2[row+3];
+                        }
+                    for (; row<end; row++)
+                        sum1 += (double)v1[row] * v2[row];
+                    sxy[i-first1][j-first2] += sum1 + sum2 + sum3 + sum4;
+
+                    // sums of one column restricted to rows with valid values in the other one
+                    if (c2.validMask != null) {
+                        double s = 0, ss = 0;
+                        for (int r=start; r<end; r++) {
+                            if ((c2.validMask[r >>> 6] & (1L << r)) != 0) {
+                                double v = v1[r];
+                                s += v;
+                                ss += v*v;
+                                }
+                            }
+                        sx[i-first1][j-first2] += s;
+                        sxx[i-first1][j-first2] += ss;
+                        }
+                    if (c1.validMask != null) {
+                        double s = 0, ss = 0;
+                        for (int r=start; r<end; r++) {
+                            if ((c1.validMask[r >>> 6] & (1L << r)) != 0) {
+                                double v = v2[r];
+                                s += v;
+                                ss += v*v;
+                                }
+                            }
+                        sy[i-first1][j-first2] += s;
+                        syy[i-first1][j-first2] += ss;
+                        }
+                    }
+                }
+            }
+
+        for (int i=first1; i<last1; i++) {
+            for (int j=first2; j<last2 && j<i; j++) {
+                PreparedColumn c1 = column[i];
+                PreparedColumn c2 = column[j];
+                if (c1.value.length != c2.value.length) {
+                    matrix[i][j] = Double.NaN;
+                    continue;
+                    }
+
+                int count = (c1.validMask == null) ? c2.validCount
+                          : (c2.validMask == null) ? c1.validCount : c1.getCommonValidCount(c2);
+                double sumX = (c2.validMask == null) ? c1.sum : sx[i-first1][j-first2];
+                double sumXX = (c2.validMask == null) ? c1.sumSquares : sxx[i-first1][j-first2];
+                double sumY = (c1.validMask == null) ? c2.sum : sy[i-first1][j-first2];
+                double sumYY = (c1.validMask == null) ? c2.sumSquares : syy[i-first1][j-first2];
+                double sumXY = sxy[i-first1][j-first2];
+
+                if (type == TYPE_BRAVAIS_PEARSON) {
+                    if (count < 2) {
+                        matrix[i][j] = Double.NaN;
+                        continue;
+                        }
+                    matrix[i][j] = (sumXY - sumX*sumY/count)
+                                 / Math.sqrt((sumXX - sumX*sumX/count) * (sumYY - sumY*sumY/count));
+                    }
+                else if (type == TYPE_SPEARMAN) {
+                    if (c1.value.length < 2) {
+                        matrix[i][j] = Double.NaN;
+                        continue;
+                        }
+                    // ranks are stored relative to the column's mean rank, but the deviations
+                    // are taken from half the smaller valid value count as in calculateCorrelation()
+                    double mean = ((double)Math.min(c1.validCount, c2.validCount)) / 2;
+                    double a = c1.meanRank - mean;
+                    double b = c2.meanRank - mean;
+                    double sumdxdy = sumXY + b*sumX + a*sumY + count*a*b;
+                    double sumdxdx = sumXX + 2*a*sumX + count*a*a;
+                    double sumdydy = sumYY + 2*b*sumY + count*b*b;
+                    matrix[i][j] = sumdxdy / Math.sqrt(sumdxdx * sumdydy);
+                    }
+                else {
+                    matrix[i][j] = Double.NaN;
+                    }
+                }
+            }
+        }
+
+    /**
+     * Calculates correlation coefficients between x and y values separately for every group
+     * of values in one pass. This is equivalent to calling calculateCorrelation() for every group
+     * with columns only containing the group's values. Ranks for TYPE_SPEARMAN are derived
+     * from the given sort orders, which may be cached by the caller as long as the values
+     * don't change, such that no sorting is needed here.
+     * @param x values; NaN values are skipped
+     * @param y values; NaN values are skipped
+     * @param group null or group index for every value
+     * @param groupCount
+     * @param xOrder null or indexes of x sorted by value as from getSortOrder()
+     * @param yOrder null or indexes of y sorted by value as from getSortOrder()
+     * @param correlationType
+     * @return correlation coefficient of every group
+     */
+    public static double[] calculateCorrelation(float[] x, float[] y, int[] group, int groupCount,
+                                                int[] xOrder, int[] yOrder, int correlationType) {
+        double[] r = new double[groupCount];
+        java.util.Arrays.fill(r, Double.NaN);
+        if (x.length != y.length)
+            return r;
+
+        int[] valueCount = new int[groupCount];
+        for (int i=0; i<x.length; i++)
+            valueCount[group == null ? 0 : group[i]]++;
+
+        double[] sumdxdx = new double[groupCount];
+        double[] sumdxdy = new double[groupCount];
+        double[] sumdydy = new double[groupCount];
+
+        if (correlationType == TYPE_BRAVAIS_PEARSON) {
+            int[] realValueCount = new int[groupCount];
+            double[] xMean = new double[groupCount];
+            double[] yMean = new double[groupCount];
+            for (int i=0; i<x.length; i++) {
+                if (!Float.isNaN(x[i]) && !Float.isNaN(y[i])) {
+                    int g = (group == null) ? 0 : group[i];
+                    xMean[g] += x[i];
+                    yMean[g] += y[i];
+                    realValueCount[g]++;
+                    }
+                }
+            for (int g=0; g<groupCount; g++) {
+                xMean[g] /= realValueCount[g];
+                yMean[g] /= realValueCount[g];
+                }
+
+            for (int i=0; i<x.length; i++) {
+                if (!Float.isNaN(x[i]) && !Float.isNaN(y[i])) {
+                    int g = (group == null) ? 0 : group[i];
+                    double dx = x[i] - xMean[g];
+                    double dy = y[i] - yMean[g];
+                    sumdxdx[g] += dx*dx;
+                    sumdxdy[g] += dx*dy;
+                    sumdydy[g] += dy*dy;
+                    }
+                }
+
+            for (int g=0; g<groupCount; g++)
+                if (realValueCount[g] >= 2)
+                    r[g] = sumdxdy[g] / Math.sqrt(sumdxdx[g] * sumdydy[g]);
+            }
+        else if (correlationType == TYPE_SPEARMAN) {
+            int[] xCount = new int[groupCount];
+            int[] yCount = new int[groupCount];
+            float[] xRank = getRanks(x, group, groupCount, (xOrder != null) ? xOrder : getSortOrder(x), xCount);
+            float[] yRank = getRanks(y, group, groupCount, (yOrder != null) ? yOrder : getSortOrder(y), yCount);
+
+            for (int i=0; i<x.length; i++) {
+                if (!Float.isNaN(x[i]) && !Float.isNaN(y[i])) {
+                    int g = (group == null) ? 0 : group[i];
+                    double mean = ((double)Math.min(xCount[g], yCount[g])) / 2;
+                    double dx = xRank[i] - mean;
+                    double dy = yRank[i] - mean;
+                    sumdxdx[g] += dx*dx;
+                    sumdxdy[g] += dx*dy;
+                    sumdydy[g] += dy*dy;
+                    }
+                }
+
+            for (int g=0; g<groupCount; g++)
+                if (valueCount[g] >= 2)
+                    r[g] = sumdxdy[g] / Math.sqrt(sumdxdx[g] * sumdydy[g]);
+            }
+
+        return r;
+        }
+
+    /**
+     * @param value
+     * @return indexes of all values in ascending order of the values with NaN values at the end
+     */
+    public static int[] getSortOrder(float[] value) {
+        long[] key = new long[value.length];
+        for (int i=0; i<value.length; i++) {
+            int bits = Float.floatToIntBits(value[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;  // make signed int comparison reflect float order
+            key[i] = ((long)bits << 32) | i;
+            }
+        java.util.Arrays.sort(key);
+        int[] order = new int[value.length];
+        for (int i=0; i<value.length; i++)
+            order[i] = (int)key[i];
+        return order;
+        }
+
+    /**
+     * Determines the 0-based rank of every non-NaN value within its group. Equal values
+     * of one group get their average rank. The order may be the sort order of values, of which
+     * some have been replaced by NaN afterwards.
+     * @param count receives the number of non-NaN values of every group
+     */
+    private static float[] getRanks(float[] value, int[] group, int groupCount, int[] order, int[] count) {
+        float[] rank = new float[value.length];
+        int[] tieCount = new int[groupCount];
+        int index = 0;
+        while (index < order.length) {
+            float v = value[order[index]];
+            if (Float.isNaN(v)) {
+                index++;
+                continue;
+                }
+            // a cached order may contain rows, whose value was set to NaN (e.g. invisible rows),
+            // between equal values; these must not break the run of equal values
+            int end = index+1;
+            while (end < order.length && (value[order[end]] == v || Float.isNaN(value[order[end]])))
+                end++;
+            for (int i=index; i<end; i++)
+                if (!Float.isNaN(value[order[i]]))
+                    tieCount[group == null ? 0 : group[order[i]]]++;
+            for (int i=index; i<end; i++) {
+                int row = order[i];
+                if (!Float.isNaN(value[row])) {
+                    int g = (group == null) ? 0 : group[row];
+                    rank[row] = count[g] + (tieCount[g] - 1) / 2f;
+                    }
+                }
+            for (int i=index; i<end; i++) {
+                int row = order[i];
+                if (!Float.isNaN(value[row])) {
+                    int g = (group == null) ? 0 : group[row];
+                    count[g] += tieCount[g];
+                    tieCount[g] = 0;
+                    }
+                }
+            index = end;
+            }
+        return rank;
+        }
+
+    private static int getThreadCount() {
+        return Runtime.getRuntime().availableProcessors();
+        }
+
+    /**
+     * Runs task on threadCount threads and waits for all of them to finish.
+     * @throws RuntimeException or Error, if any thread failed; the first failure is rethrown
+     */
+    private static void runParallel(int threadCount, final Runnable task) {
+        if (threadCount <= 1) {
+            task.run();
+            return;
+            }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] worker = new Thread[threadCount];
+        for (int i=0; i<threadCount; i++) {
+            worker[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                        }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        }
+                    }
+                }, "Correlation Calculator "+(i+1));
+            worker[i].start();
+            }
+        for (Thread t:worker)
+            try { t.join(); } catch (InterruptedException ie) {}
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if (t instanceof Error)
+            throw (Error)t;
+        if (t != null)
+            throw new RuntimeException(t);
+        }
+
+    /**
+     * Determines the position of a value in a sorted array.
+     * NaN values at the end of the array are ignored.
+     * @return average position of all entries equal to value, which must be contained
+     */
+    private static double getRank(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value)
+                low = middle + 1;
+            else
+                high = middle;
+            }
+        int first = low;
+        high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= value)
+                low = middle + 1;
+            else
+                high = middle;
+            }
+        return ((double)(first+low-1))/2;
+        }
+
+    /**
+     * Column values read once and prepared for the block-wise matrix calculation:
+     * standardized values for TYPE_BRAVAIS_PEARSON, ranks relative to the mean rank for
+     * TYPE_SPEARMAN. Ranks are multiples of 0.5 and, thus, exact as float.
+     * NaN values are stored as 0 and validMask is null, if there are no NaN values.
+     */
+    private static class PreparedColumn {
+        float[] value;
+        long[] validMask;
+        int validCount;
+        double sum,sumSquares,meanRank;
+
+        public PreparedColumn(INumericalDataColumn column, int type) {
+            int valueCount = column.getValueCount();
+            double[] v = new double[valueCount];
+            for (int i=0; i<valueCount; i++) {
+                v[i] = column.getValueAt(i);
+                if (!Double.isNaN(v[i]))
+                    validCount++;
+                }
+
+            if (validCount != valueCount) {
+                validMask = new long[(valueCount+63) / 64];
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        validMask[i >>> 6] |= (1L << i);
+                }
+
+            value = new float[valueCount];
+            if (type == TYPE_SPEARMAN) {
+                double[] sorted = new double[validCount];
+                int count = 0;
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        sorted[count++] = v[i];
+                java.util.Arrays.sort(sorted);
+                meanRank = ((double)validCount - 1) / 2;
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        value[i] = (float)(getRank(sorted, v[i]) - meanRank);
+                }
+            else {
+                double mean = 0;
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        mean += v[i];
+                mean /= Math.max(1, validCount);
+                double variance = 0;
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        variance += (v[i]-mean)*(v[i]-mean);
+                double scale = (variance == 0) ? 1 : Math.sqrt(variance / validCount);
+                for (int i=0; i<valueCount; i++)
+                    if (!Double.isNaN(v[i]))
+                        value[i] = (float)((v[i]-mean) / scale);
+                }
+
+            for (int i=0; i<valueCount; i++) {
+                sum += value[i];
+                sumSquares += (double)value[i] * value[i];
+                }
+            }
+
+        public int getCommonValidCount(PreparedColumn column) {
+            int count = 0;
+            for (int i=0; i<validMask.length; i++)
+                count += Long.bitCount(validMask[i] & column.validMask[i]);
+            return count;
+            }
         }
     }
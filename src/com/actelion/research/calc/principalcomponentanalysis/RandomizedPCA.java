@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.calc.principalcomponentanalysis;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.actelion.research.calc.ProgressController;
+import com.actelion.research.calc.SingularValueDecomposition;
+
+/**
+ * Calculates the first principal components of the correlation matrix of a potentially
+ * large data set without building the complete covariance matrix. It uses randomized
+ * subspace iteration, where every iteration multiplies the implicit correlation matrix
+ * with a small block of vectors in one parallel pass over all rows. Rows are supplied
+ * in sparse form, which makes the passes proportional to the number of set bits
+ * in case of binary fingerprints. Parameters with zero variance are ignored.
+ */
+public class RandomizedPCA {
+	private static final int BLOCK_SIZE = 1024;
+	private static final int OVERSAMPLING = 10;
+	private static final int POWER_ITERATIONS = 4;
+	private static final long RANDOM_SEED = 0x20140612L;
+
+	private static final int PASS_STATISTICS = 0;
+	private static final int PASS_MULTIPLY = 1;
+	private static final int PASS_PROJECT = 2;
+
+	private SparseParameterRowProvider mProvider;
+	private ProgressController mProgressController;
+	private int mRowCount,mParameterCount,mThreadCount,mBlockSize;
+	private double[] mMean,mStdDev,mEigenValue,mOffset;
+	private double[][] mEigenVector,mWeight,mFactor;
+	private double mTotalVariance;
+
+	/**
+	 * @param provider row source; must allow concurrent access
+	 * @param pc may be null
+	 */
+	public RandomizedPCA(SparseParameterRowProvider provider, ProgressController pc) {
+		mProvider = provider;
+		mProgressController = pc;
+		mRowCount = provider.getRowCount();
+		mParameterCount = provider.getParameterCount();
+		mThreadCount = Runtime.getRuntime().availableProcessors();
+		}
+
+	/**
+	 * Calculates the first componentCount principal components of the standardized parameters.
+	 * @param componentCount
+	 * @return false if the calculation was cancelled
+	 * @throws RuntimeException or Error thrown by the row provider on any of the worker threads
+	 */
+	public boolean calculate(int componentCount) {
+		if (mRowCount < 2)
+			return false;
+
+		if (!processRows(PASS_STATISTICS, "Calculating parameter statistics...", null))
+			return false;
+
+		int vectorCount = Math.min(mParameterCount, componentCount + OVERSAMPLING);
+		componentCount = Math.min(componentCount, vectorCount);
+
+		Random random = new Random(RANDOM_SEED);
+		double[][] q = new double[mParameterCount][vectorCount];
+		for (int i=0; i<mParameterCount; i++)
+			for (int j=0; j<vectorCount; j++)
+				q[i][j] = random.nextGaussian();
+		orthonormalize(q);
+
+		double[][] z = null;
+		for (int iteration=0; iteration<=POWER_ITERATIONS; iteration++) {
+			if (!processRows(PASS_MULTIPLY, "Subspace iteration "+(iteration+1)+" of "+(POWER_ITERATIONS+1)+"...", q))
+				return false;
+			z = mFactor;	// product of correlation matrix and q
+			mFactor = null;
+			if (iteration < POWER_ITERATIONS) {
+				q = z;
+				orthonormalize(q);
+				}
+			}
+
+			// Rayleigh-Ritz: eigen decomposition of the small projected matrix q'Cq
+		double[][] b = new double[vectorCount][vectorCount];
+		for (int i=0; i<vectorCount; i++)
+			for (int j=0; j<vectorCount; j++)
+				for (int k=0; k<mParameterCount; k++)
+					b[i][j] += q[k][i] * z[k][j];
+		for (int i=0; i<vectorCount; i++)
+			for (int j=0; j<i; j++)
+				b[i][j] = b[j][i] = (b[i][j] + b[j][i]) / 2.0;
+
+		SingularValueDecomposition svd = new SingularValueDecomposition(b, null, null);
+		double[][] u = svd.getU();
+		double[] s = svd.getSingularValues();
+
+		mEigenValue = new double[componentCount];
+		mEigenVector = new double[mParameterCount][componentCount];
+		for (int c=0; c<componentCount; c++) {
+			mEigenValue[c] = s[c];
+			for (int i=0; i<mParameterCount; i++)
+				for (int j=0; j<vectorCount; j++)
+					mEigenVector[i][c] += q[i][j] * u[j][c];
+			}
+
+		return true;
+		}
+
+	/**
+	 * Calculates the principal component values of all rows in one parallel pass.
+	 * @return [row][component] or null, if cancelled
+	 * @throws RuntimeException or Error thrown by the row provider on any of the worker threads
+	 */
+	public double[][] calculateFactors() {
+		if (!processRows(PASS_PROJECT, "Multiplying descriptors with eigenvectors...", mEigenVector))
+			return null;
+
+		double[][] factor = mFactor;
+		mFactor = null;
+		return factor;
+		}
+
+	/**
+	 * @return [parameter][component] orthonormal eigenvectors of the correlation matrix
+	 */
+	public double[][] getEigenVectors() {
+		return mEigenVector;
+		}
+
+	/**
+	 * @return eigenvalues of the calculated components in descending order
+	 */
+	public double[] getEigenValues() {
+		return mEigenValue;
+		}
+
+	/**
+	 * @return sum of all eigenvalues, i.e. the number of parameters with non-zero variance
+	 */
+	public double getTotalVariance() {
+		return mTotalVariance;
+		}
+
+	public double[] getMean() {
+		return mMean;
+		}
+
+	public double[] getStandardDeviation() {
+		return mStdDev;
+		}
+
+	/**
+	 * Runs one parallel pass over all rows.
+	 * PASS_STATISTICS calculates means and standard deviations.
+	 * PASS_MULTIPLY calculates C*v, where C is the correlation matrix, into mFactor.
+	 * PASS_PROJECT calculates X*v, where X is the standardized data matrix, into mFactor.
+	 * @param pass
+	 * @param text progress text
+	 * @param v [parameter][vector] or null for PASS_STATISTICS
+	 * @return false if cancelled
+	 */
+	private boolean processRows(final int pass, String text, double[][] v) {
+		if (mProgressController != null)
+			mProgressController.startProgress(text, 0, mRowCount);
+
+		final int vectorCount = (v == null) ? 2 : v[0].length;
+		if (v != null)
+			calculateWeights(v);
+
+		if (pass == PASS_PROJECT)
+			mFactor = new double[mRowCount][vectorCount];
+
+		mBlockSize = Math.max(1, Math.min(BLOCK_SIZE, mRowCount / (4 * mThreadCount)));
+		final AtomicInteger nextBlock = new AtomicInteger(0);
+		final AtomicInteger rowsDone = new AtomicInteger(0);
+		final int blockCount = (mRowCount + mBlockSize - 1) / mBlockSize;
+
+		final double[][] sum = new double[mThreadCount][];	// per thread: [parameter*vectorCount+vector]
+		final double[][] total = new double[mThreadCount][];	// per thread: [vector]
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] t = new Thread[mThreadCount];
+		for (int i=0; i<mThreadCount; i++) {
+			final int threadIndex = i;
+			t[i] = new Thread("PCA Worker "+(i+1)) {
+				public void run() {
+					try {
+						process();
+						}
+					catch (Throwable e) {	// stops the other workers and is rethrown after joining them
+						failure.compareAndSet(null, e);
+						}
+					}
+
+				private void process() {
+					int[] index = new int[mParameterCount];
+					double[] value = new double[mParameterCount];
+					double[] y = new double[vectorCount];
+					double[] s = (pass == PASS_PROJECT) ? null : new double[mParameterCount*vectorCount];
+					double[] tot = new double[vectorCount];
+					int block = nextBlock.getAndIncrement();
+					while (block < blockCount && !threadMustDie() && failure.get() == null) {
+						int row1 = block * mBlockSize;
+						int row2 = Math.min(mRowCount, row1 + mBlockSize);
+						for (int row=row1; row<row2; row++) {
+							int count = mProvider.getParameterRow(row, index, value);
+							if (pass == PASS_STATISTICS) {
+								for (int i=0; i<count; i++) {
+									s[2*index[i]] += value[i];
+									s[2*index[i]+1] += value[i] * value[i];
+									}
+								continue;
+								}
+
+							for (int j=0; j<vectorCount; j++)
+								y[j] = -mOffset[j];
+							for (int i=0; i<count; i++) {
+								double[] w = mWeight[index[i]];
+								for (int j=0; j<vectorCount; j++)
+									y[j] += value[i] * w[j];
+								}
+
+							if (pass == PASS_PROJECT) {
+								System.arraycopy(y, 0, mFactor[row], 0, vectorCount);
+								continue;
+								}
+
+							for (int j=0; j<vectorCount; j++)
+								tot[j] += y[j];
+							for (int i=0; i<count; i++) {
+								int offset = index[i] * vectorCount;
+								for (int j=0; j<vectorCount; j++)
+									s[offset+j] += value[i] * y[j];
+								}
+							}
+
+						if (mProgressController != null)
+							mProgressController.updateProgress(rowsDone.addAndGet(row2 - row1));
+						block = nextBlock.getAndIncrement();
+						}
+					sum[threadIndex] = s;
+					total[threadIndex] = tot;
+					}
+				};
+			t[i].setPriority(Thread.MIN_PRIORITY);
+			t[i].start();
+			}
+
+		for (int i=0; i<mThreadCount; i++)
+			try { t[i].join(); } catch (InterruptedException ie) {}
+
+		Throwable e = failure.get();
+		if (e instanceof RuntimeException)
+			throw (RuntimeException)e;
+		if (e instanceof Error)
+			throw (Error)e;
+		if (e != null)
+			throw new RuntimeException(e);
+
+		if (threadMustDie())
+			return false;
+
+		if (pass == PASS_PROJECT)
+			return true;
+
+		double[] s = sum[0];
+		double[] tot = total[0];
+		for (int i=1; i<mThreadCount; i++) {
+			for (int j=0; j<s.length; j++)
+				s[j] += sum[i][j];
+			for (int j=0; j<vectorCount; j++)
+				tot[j] += total[i][j];
+			}
+
+		if (pass == PASS_STATISTICS) {
+			mMean = new double[mParameterCount];
+			mStdDev = new double[mParameterCount];
+			mTotalVariance = 0.0;
+			for (int i=0; i<mParameterCount; i++) {
+				mMean[i] = s[2*i] / mRowCount;
+				double variance = (s[2*i+1] - mRowCount * mMean[i] * mMean[i]) / (mRowCount - 1);
+				mStdDev[i] = (variance <= 0.0) ? 0.0 : Math.sqrt(variance);
+				if (mStdDev[i] != 0.0)
+					mTotalVariance += 1.0;
+				}
+			return true;
+			}
+
+		mFactor = new double[mParameterCount][vectorCount];
+		for (int i=0; i<mParameterCount; i++) {
+			if (mStdDev[i] != 0.0) {
+				double f = 1.0 / (mStdDev[i] * (mRowCount - 1));
+				for (int j=0; j<vectorCount; j++)
+					mFactor[i][j] = (s[i*vectorCount+j] - mMean[i] * tot[j]) * f;
+				}
+			}
+		return true;
+		}
+
+	/**
+	 * Folds standardization into the vectors v: y = sum(value*mWeight) - mOffset
+	 * equals the product of a standardized row with v.
+	 * @param v
+	 */
+	private void calculateWeights(double[][] v) {
+		int vectorCount = v[0].length;
+		mWeight = new double[mParameterCount][vectorCount];
+		mOffset = new double[vectorCount];
+		for (int i=0; i<mParameterCount; i++) {
+			if (mStdDev[i] != 0.0) {
+				for (int j=0; j<vectorCount; j++) {
+					mWeight[i][j] = v[i][j] / mStdDev[i];
+					mOffset[j] += mMean[i] * mWeight[i][j];
+					}
+				}
+			}
+		}
+
+	/**
+	 * Orthonormalizes the columns of m in place using modified Gram-Schmidt
+	 * with one reorthogonalization step. Linearly dependent columns become zero.
+	 * @param m [row][column]
+	 */
+	private void orthonormalize(double[][] m) {
+		int columns = m[0].length;
+		for (int c=0; c<columns; c++) {
+			for (int pass=0; pass<2; pass++) {
+				for (int p=0; p<c; p++) {
+					double dot = 0.0;
+					for (int i=0; i<m.length; i++)
+						dot += m[i][c] * m[i][p];
+					for (int i=0; i<m.length; i++)
+						m[i][c] -= dot * m[i][p];
+					}
+				}
+			double norm = 0.0;
+			for (int i=0; i<m.length; i++)
+				norm += m[i][c] * m[i][c];
+			norm = Math.sqrt(norm);
+			double f = (norm < 1e-12) ? 0.0 : 1.0 / norm;
+			for (int i=0; i<m.length; i++)
+				m[i][c] *= f;
+			}
+		}
+
+	private boolean threadMustDie() {
+		return mProgressController != null && mProgressController.threadMustDie();
+		}
+	}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.calc.principalcomponentanalysis;
+
+/**
+ * Provides the raw parameter values of the rows of a data set in sparse form,
+ * i.e. only the non-zero values of a row together with their parameter indexes.
+ * Implementations must allow concurrent calls from multiple threads.
+ */
+public interface SparseParameterRowProvider {
+	public int getRowCount();
+	public int getParameterCount();
+
+	/**
+	 * Writes all non-zero parameter values of the given row into value and
+	 * their parameter indexes into index. Both arrays have at least
+	 * getParameterCount() elements.
+	 * @param row
+	 * @param index receives the parameter indexes of the non-zero values
+	 * @param value receives the non-zero values
+	 * @return number of non-zero values written
+	 */
+	public int getParameterRow(int row, int[] index, double[] value);
+	}
@@ -24,7 +24,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.actelion.research.calc.DataProcessor;
+import com.actelion.research.chem.descriptor.CountDescriptorHandler;
 import com.actelion.research.chem.descriptor.DescriptorHandler;
+import com.actelion.research.chem.descriptor.PackedCounts;
 
 public class Clusterer<T> extends DataProcessor {
 	private int[]			mClusterNo,mNoOfMembers;
@@ -32,6 +34,7 @@ public class Clusterer<T> extends DataProcessor {
 	private float[][]		mSimilarityMatrix;
 	private T[]		mDescriptor;
 	private DescriptorHandler<T,StereoMolecule> mDescriptorHandler;
+	private PackedCounts[]	mPackedCounts;
 	private boolean[]		mIsRepresentative;
 	private AtomicInteger	mSMPCompoundIndex;
 	private ExecutorService	mExecutor;
@@ -43,6 +46,13 @@ public class Clusterer<T> extends DataProcessor {
 		mDescriptor = descriptor;
 		mNoOfCompounds = mDescriptor.length;
 
+		// count based descriptors are packed once for the many comparisons of the similarity matrix
+		if (descriptorHandler instanceof CountDescriptorHandler) {
+			mPackedCounts = new PackedCounts[mNoOfCompounds];
+			for (int i=0; i<mNoOfCompounds; i++)
+				mPackedCounts[i] = ((CountDescriptorHandler)descriptorHandler).getPackedCounts((byte[])mDescriptor[i]);
+			}
+
 		mSimilarityMatrix = new float[mNoOfCompounds][];
 		for (int i=1; i<mNoOfCompounds; i++)
 			mSimilarityMatrix[i] = new float[i];
@@ -202,7 +212,7 @@ public class Clusterer<T> extends DataProcessor {
 			for (int compound2=1; compound2<mNoOfCompounds && !threadMustDie(); compound2++) {
 				for (int compound1=0; compound1<compound2; compound1++)
 					if (!withinClustersOnly || mClusterNo[compound1] == mClusterNo[compound2])
-						mSimilarityMatrix[compound2][compound1] = (float)mDescriptorHandler.getSimilarity(mDescriptor[compound1], mDescriptor[compound2]);
+						mSimilarityMatrix[compound2][compound1] = getSimilarity(compound1, compound2);
 
 				updateProgress((int)(1000.0*compound2*compound2/mNoOfCompounds/mNoOfCompounds));
 				}
@@ -216,6 +226,13 @@ public class Clusterer<T> extends DataProcessor {
 		}
 
 
+	private float getSimilarity(int compound1, int compound2) {
+		return (mPackedCounts != null) ?
+				((CountDescriptorHandler)mDescriptorHandler).getSimilarity(mPackedCounts[compound1], mPackedCounts[compound2])
+			  : mDescriptorHandler.getSimilarity(mDescriptor[compound1], mDescriptor[compound2]);
+		}
+
+
 	private void findRepresentatives() {
 		calculateSimilarityMatrix(true);
 		if (threadMustDie())
@@ -295,7 +312,7 @@ public class Clusterer<T> extends DataProcessor {
 				int compound2 = mSMPCompoundIndex.decrementAndGet();
 				while (compound2 >= 1 && !threadMustDie()) {
 					for (int compound1=0; compound1<compound2; compound1++)
-						mSimilarityMatrix[compound2][compound1] = (float)mDescriptorHandler.getSimilarity(mDescriptor[compound1], mDescriptor[compound2]);
+						mSimilarityMatrix[compound2][compound1] = getSimilarity(compound1, compound2);
 
     				compound2 = mSMPCompoundIndex.decrementAndGet();
     				updateProgress(1000-(int)(1000.0*compound2*compound2/mNoOfCompounds/mNoOfCompounds));
@@ -306,7 +323,7 @@ public class Clusterer<T> extends DataProcessor {
 				while (compound2 >= 1 && !threadMustDie()) {
 					for (int compound1=0; compound1<compound2; compound1++)
 						if (mClusterNo[compound1] == mClusterNo[compound2])
-							mSimilarityMatrix[compound2][compound1] = (float)mDescriptorHandler.getSimilarity(mDescriptor[compound1], mDescriptor[compound2]);
+							mSimilarityMatrix[compound2][compound1] = getSimilarity(compound1, compound2);
 
     				compound2 = mSMPCompoundIndex.decrementAndGet();
     				updateProgress(1000-(int)(1000.0*compound2*compound2/mNoOfCompounds/mNoOfCompounds));
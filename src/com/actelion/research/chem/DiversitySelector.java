@@ -18,24 +18,57 @@
 
 package com.actelion.research.chem;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import com.actelion.research.calc.DataProcessor;
 
 public class DiversitySelector extends DataProcessor {
-	private int			mNoOfFeatures,mExistingSetCount;
+	/**
+	 * Repeatedly selects the compound with the lowest dot product between its
+	 * normalized key vector and the centroid vector of all selected compounds.
+	 */
+	public static final int MODE_CENTROID = 0;
+
+	/**
+	 * Repeatedly selects the compound with the lowest maximum Tanimoto similarity
+	 * to any of the selected compounds (MaxMin picking).
+	 */
+	public static final int MODE_MAX_MIN = 1;
+
+	private static final int MIN_COMPOUNDS_PER_THREAD = 16384;
+	private static final float SELECTED = 2.0f;	// larger than any similarity
+
+	private int			mNoOfFeatures,mExistingSetCount,mMode;
 	private int[][] 	mFeatureList;
 	private boolean		mAddingToExistingSet;
 	private double[]	mCentroidVector;
+	private int[]		mBitCount;
+	private float[]		mMaxSimilarity;
+	private ArrayList<int[]> mExistingSet;
 
 	public DiversitySelector() {
 		super();
+		mMode = MODE_CENTROID;
+		mExistingSet = new ArrayList<int[]>();
+		}
+
+	/**
+	 * @param mode MODE_CENTROID (default) or MODE_MAX_MIN
+	 */
+	public void setMode(int mode) {
+		mMode = mode;
 		}
 
 	public void initializeExistingSet(int noOfKeys) {
 		mFeatureList = new int[1][];
 		mCentroidVector = new double[noOfKeys];
 		mExistingSetCount = 0;
+		mExistingSet.clear();
 	    }
 
 	public void addToExistingSet(int[] featureList) {
@@ -44,6 +77,7 @@ public class DiversitySelector extends DataProcessor {
 		record.addToCentroidVector();
 		mAddingToExistingSet = true;
 		mExistingSetCount++;
+		mExistingSet.add(featureList);
     	}
 
 
@@ -58,10 +92,22 @@ public class DiversitySelector extends DataProcessor {
 
 		mAddingToExistingSet = true;
 		mExistingSetCount = featureList.length;
+		mExistingSet.clear();
+		mExistingSet.addAll(Arrays.asList(featureList));
 		}
 
 
+	/**
+	 * Selects a diverse subset of compounds depending on the mode.
+	 * If an existing set was defined, then compounds are selected to be diverse from it, too.
+	 * @param featureList binary fingerprints of all compounds to select from
+	 * @param compoundsToSelect
+	 * @return compound indices sorted by the selection order or null if cancelled
+	 */
 	public int[] select(int[][] featureList, int compoundsToSelect) {
+		if (mMode == MODE_MAX_MIN)
+			return selectMaxMin(featureList, compoundsToSelect);
+
 		int compoundsAvailable = featureList.length;
 		mNoOfFeatures = 32*featureList[0].length;
 		mFeatureList = featureList;
@@ -194,6 +240,227 @@ e.printStackTrace();
 		}
 
 
+	/**
+	 * MaxMin picking: Every candidate keeps its maximum similarity to any selected compound
+	 * or to the existing set. After every pick these values are updated on all cores.
+	 * Candidates whose bit count ratio to the new pick doesn't exceed their current maximum,
+	 * cannot become more similar to the new pick and are skipped. The next pick,
+	 * i.e. the candidate with the lowest maximum similarity, is located by the same pass.
+	 */
+	private int[] selectMaxMin(int[][] featureList, int compoundsToSelect) {
+		int compoundsAvailable = featureList.length;
+		if (compoundsToSelect > compoundsAvailable)
+			compoundsToSelect = compoundsAvailable;
+
+		mFeatureList = featureList;
+		mBitCount = new int[compoundsAvailable];
+		for (int compound=0; compound<compoundsAvailable; compound++)
+			mBitCount[compound] = getBitCount(featureList[compound]);
+		mMaxSimilarity = new float[compoundsAvailable];
+
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), 1 + compoundsAvailable / MIN_COMPOUNDS_PER_THREAD);
+		MaxMinWorker[] worker = new MaxMinWorker[threadCount];
+		for (int t=0; t<threadCount; t++)
+			worker[t] = new MaxMinWorker(t*compoundsAvailable/threadCount, (t+1)*compoundsAvailable/threadCount);
+		ExecutorService executor = (threadCount == 1) ? null : Executors.newFixedThreadPool(threadCount);
+
+		try {
+			int pick = -1;
+			if (mExistingSet.size() != 0) {
+				startProgress("Comparing With Existing Set...", 0, mExistingSet.size());
+				for (int i=0; i<mExistingSet.size(); i++) {
+					pick = updateMaxSimilarities(mExistingSet.get(i), worker, executor);
+					if (pick == -1 || threadMustDie()) {
+					    stopProgress("Selection cancelled");
+						return null;
+						}
+					updateProgress(i);
+					}
+				}
+			else {
+			    startProgress("Locating Starting Compound...", 0, 0);
+				pick = getMostCentralCompound();
+				}
+
+		    startProgress("Selecting Compounds...", 0, compoundsToSelect);
+
+			int[] selected = new int[compoundsToSelect];
+			for (int compound=0; compound<compoundsToSelect; compound++) {
+				selected[compound] = pick;
+				mMaxSimilarity[pick] = SELECTED;
+				if (compound+1 < compoundsToSelect)
+					pick = updateMaxSimilarities(featureList[pick], worker, executor);
+
+				if (pick == -1 || threadMustDie()) {
+				    stopProgress("Selection cancelled");
+					return null;
+					}
+				updateProgress(compound);
+				}
+
+		    stopProgress("Compound Selection Done");
+			return selected;
+			}
+		finally {
+			if (executor != null)
+				executor.shutdown();
+			mBitCount = null;
+			mMaxSimilarity = null;
+			}
+		}
+
+	/**
+	 * Updates the maximum similarities of all unselected compounds considering one new
+	 * selected compound and returns the compound with the lowest maximum similarity.
+	 * Ties are resolved by the lower compound index, independent of the number of threads.
+	 * @return the next pick or -1, if the calling thread was interrupted
+	 */
+	private int updateMaxSimilarities(int[] features, MaxMinWorker[] worker, ExecutorService executor) {
+		int bitCount = getBitCount(features);
+		if (executor == null) {
+			worker[0].initJob(features, bitCount, null);
+			worker[0].run();
+			}
+		else {
+			CountDownLatch doneSignal = new CountDownLatch(worker.length);
+			for (MaxMinWorker w:worker) {
+				w.initJob(features, bitCount, doneSignal);
+				executor.execute(w);
+				}
+			try {
+				doneSignal.await();
+				}
+			catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				return -1;
+				}
+			}
+
+		int pick = -1;
+		float minSimilarity = SELECTED;
+		for (MaxMinWorker w:worker) {
+			if (minSimilarity > w.getMinSimilarity()) {
+				minSimilarity = w.getMinSimilarity();
+				pick = w.getMinCompound();
+				}
+			}
+		return pick;
+		}
+
+	/**
+	 * Locates the compound with the highest dot product between its normalized key vector
+	 * and the centroid vector of all other compounds, i.e. the most typical compound.
+	 */
+	private int getMostCentralCompound() {
+		double[] weight = new double[mFeatureList.length];
+		double[] centroid = new double[32*mFeatureList[0].length];
+		for (int compound=0; compound<mFeatureList.length; compound++) {
+			if (mBitCount[compound] != 0) {
+				weight[compound] = 1.0 / Math.sqrt((double)mBitCount[compound]);
+				int[] features = mFeatureList[compound];
+				for (int i=0; i<features.length; i++)
+					for (int bits=features[i]; bits!=0; bits&=bits-1)
+						centroid[32*i+Integer.numberOfTrailingZeros(bits)] += weight[compound];
+				}
+			}
+
+		double maxDotProduct = 0.0;
+		int maxCompoundIndex = 0;
+		for (int compound=0; compound<mFeatureList.length; compound++) {
+			double dotProduct = 0.0;
+			int[] features = mFeatureList[compound];
+			for (int i=0; i<features.length; i++)
+				for (int bits=features[i]; bits!=0; bits&=bits-1)
+					dotProduct += (centroid[32*i+Integer.numberOfTrailingZeros(bits)] - weight[compound]) * weight[compound];
+			if (maxDotProduct < dotProduct) {
+				maxDotProduct = dotProduct;
+				maxCompoundIndex = compound;
+				}
+			}
+		return maxCompoundIndex;
+		}
+
+	private static int getBitCount(int[] features) {
+		int count = 0;
+		for (int i=0; i<features.length; i++)
+			count += Integer.bitCount(features[i]);
+		return count;
+		}
+
+
+	private class MaxMinWorker implements Runnable {
+		private int mFirstCompound,mLastCompound,mPickBitCount,mMinCompound;
+		private int[] mPickFeatures;
+		private float mMinSimilarity;
+		private CountDownLatch mDoneSignal;
+
+		/**
+		 * @param firstCompound first compound index processed by this worker
+		 * @param lastCompound index after the last compound processed by this worker
+		 */
+		public MaxMinWorker(int firstCompound, int lastCompound) {
+			mFirstCompound = firstCompound;
+			mLastCompound = lastCompound;
+			}
+
+		public void initJob(int[] features, int bitCount, CountDownLatch doneSignal) {
+			mPickFeatures = features;
+			mPickBitCount = bitCount;
+			mDoneSignal = doneSignal;
+			}
+
+		public float getMinSimilarity() {
+			return mMinSimilarity;
+			}
+
+		public int getMinCompound() {
+			return mMinCompound;
+			}
+
+		public void run() {
+			mMinSimilarity = SELECTED;
+			mMinCompound = -1;
+
+			// an interrupted selection may already have released the arrays
+			float[] maxSimilarityList = mMaxSimilarity;
+			int[] bitCountList = mBitCount;
+			if (maxSimilarityList == null || bitCountList == null)
+				return;
+
+			for (int compound=mFirstCompound; compound<mLastCompound; compound++) {
+				float maxSimilarity = maxSimilarityList[compound];
+				if (maxSimilarity == SELECTED)
+					continue;
+
+				// Tanimoto similarity cannot exceed the ratio of the smaller and larger bit count
+				int bitCount = bitCountList[compound];
+				int maxBitCount = Math.max(bitCount, mPickBitCount);
+				if (maxBitCount == 0 || (float)Math.min(bitCount, mPickBitCount) / maxBitCount > maxSimilarity) {
+					int[] features = mFeatureList[compound];
+					int sharedCount = 0;
+					for (int i=0; i<features.length; i++)
+						sharedCount += Integer.bitCount(features[i] & mPickFeatures[i]);
+					int unitedCount = bitCount + mPickBitCount - sharedCount;
+					float similarity = (unitedCount == 0) ? 1.0f : (float)sharedCount / unitedCount;
+					if (maxSimilarity < similarity) {
+						maxSimilarity = similarity;
+						maxSimilarityList[compound] = similarity;
+						}
+					}
+
+				if (mMinSimilarity > maxSimilarity) {
+					mMinSimilarity = maxSimilarity;
+					mMinCompound = compound;
+					}
+				}
+
+			if (mDoneSignal != null)
+				mDoneSignal.countDown();
+			}
+		}
+
+
 	protected class DiversitySelectorRecord {
 		private int mCompoundIndex;
 		private int[] mKeyList;
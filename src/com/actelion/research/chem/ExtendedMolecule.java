@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import com.actelion.research.util.Angle;
 
@@ -61,6 +62,9 @@ public class ExtendedMolecule extends Molecule implements Serializable {
     transient private int mConnAtom[][];
     transient private int mConnBond[][];
     transient private int mConnBondOrder[][];
+    transient private boolean mReuseBuffers;
+    transient private boolean mAtomBuffer[],mBondBuffer[];
+    transient private int mAtomRingBondCount[];
 
 	public ExtendedMolecule() {
 		}
@@ -76,6 +80,26 @@ public class ExtendedMolecule extends Molecule implements Serializable {
 		}
 
 
+	/**
+	 * A molecule that serves as container, which is repeatedly filled with different structures,
+	 * e.g. by IDCodeParser.parse(mol, idcode) for every row of a structure column, normally
+	 * allocates new helper arrays and a new RingCollection whenever the helper arrays are updated.
+	 * In buffer reuse mode these are kept and only grow, if a larger structure requires it.
+	 * Then a RingCollection obtained from getRingSet() stays valid only until the helper arrays
+	 * are updated again. Thus, a molecule in buffer reuse mode should be owned by one thread and
+	 * its RingCollection must not be kept beyond the current structure.
+	 * @param b
+	 */
+	public void setBufferReuse(boolean b) {
+		mReuseBuffers = b;
+		}
+
+
+	public boolean isBufferReuse() {
+		return mReuseBuffers;
+		}
+
+
 	/**
 	 * Copies a part of this Molecule into destMol, being defined by a mask of atoms to be included.
 	 * @param destMol receives the part of this Molecule
@@ -2469,7 +2493,7 @@ public class ExtendedMolecule extends Molecule implements Serializable {
 	 */
 	private void handleHydrogens() {
 		// find all hydrogens that are connected to a non-H atom and therefore can be implicit		
-		boolean[] isSimpleHydrogen = new boolean[mAllAtoms];
+		boolean[] isSimpleHydrogen = getAtomBuffer();
 		for (int bond=0; bond<mAllBonds; bond++)
 			for (int i=0; i<2; i++)
 				if (isSimpleHydrogen(mBondAtom[i][bond]) && !isSimpleHydrogen(mBondAtom[1-i][bond]))
@@ -2501,7 +2525,7 @@ public class ExtendedMolecule extends Molecule implements Serializable {
 			return;
 			}
 
-		boolean isHydrogenBond[] = new boolean[mAllBonds];
+		boolean isHydrogenBond[] = getBondBuffer();
 		for (int bond=0; bond<mAllBonds; bond++) {	// mark all bonds to hydrogen
 			int atom1 = mBondAtom[0][bond];
 			int atom2 = mBondAtom[1][bond];
@@ -2570,24 +2594,58 @@ public class ExtendedMolecule extends Molecule implements Serializable {
 		}
 
 
+	private boolean[] getAtomBuffer() {
+		if (!mReuseBuffers)
+			return new boolean[mAllAtoms];
+		if (mAtomBuffer == null || mAtomBuffer.length < mAllAtoms)
+			mAtomBuffer = new boolean[Math.max(mAllAtoms, mMaxAtoms)];
+		else
+			Arrays.fill(mAtomBuffer, 0, mAllAtoms, false);
+		return mAtomBuffer;
+		}
+
+
+	private boolean[] getBondBuffer() {
+		if (!mReuseBuffers)
+			return new boolean[mAllBonds];
+		if (mBondBuffer == null || mBondBuffer.length < mAllBonds)
+			mBondBuffer = new boolean[Math.max(mAllBonds, mMaxBonds)];
+		else
+			Arrays.fill(mBondBuffer, 0, mAllBonds, false);
+		return mBondBuffer;
+		}
+
+
 	private void calculateNeighbours() {
-		mConnAtoms = new int[mAllAtoms];
-		mAllConnAtoms = new int[mAllAtoms];
-		mConnAtom = new int[mAllAtoms][];
-		mConnBond = new int[mAllAtoms][];
-		mConnBondOrder = new int[mAllAtoms][];
-		mPi = new int[mAtoms];
-
-        int[] connCount = new int[mAllAtoms];
+		if (mReuseBuffers && mConnAtoms != null && mConnAtoms.length >= mAllAtoms && mPi.length >= mAtoms) {
+			Arrays.fill(mConnAtoms, 0, mAllAtoms, 0);
+			Arrays.fill(mAllConnAtoms, 0, mAllAtoms, 0);
+			Arrays.fill(mPi, 0, mAtoms, 0);
+			}
+		else {
+			// in reuse mode all arrays get the molecule's capacity, mPi included
+			int size = mReuseBuffers ? Math.max(mAllAtoms, mMaxAtoms) : mAllAtoms;
+			mConnAtoms = new int[size];
+			mAllConnAtoms = new int[size];
+			mConnAtom = new int[size][];
+			mConnBond = new int[size][];
+			mConnBondOrder = new int[size][];
+			mPi = new int[mReuseBuffers ? size : mAtoms];
+			}
+
+        int[] connCount = mAllConnAtoms;	// used as counter and reset afterwards
         for(int bnd=0; bnd<mAllBonds; bnd++) {
             connCount[mBondAtom[0][bnd]]++;
             connCount[mBondAtom[1][bnd]]++;
             }
 
         for(int atom=0; atom<mAllAtoms; atom++) {
-            mConnAtom[atom] = new int[connCount[atom]];
-            mConnBond[atom] = new int[connCount[atom]];
-            mConnBondOrder[atom] = new int[connCount[atom]];
+            if (mConnAtom[atom] == null || mConnAtom[atom].length < connCount[atom]) {
+                mConnAtom[atom] = new int[connCount[atom]];
+                mConnBond[atom] = new int[connCount[atom]];
+                mConnBondOrder[atom] = new int[connCount[atom]];
+                }
+            connCount[atom] = 0;
             }
 
         for(int bnd=0; bnd<mAllBonds; bnd++) {
@@ -2615,9 +2673,21 @@ public class ExtendedMolecule extends Molecule implements Serializable {
 
 
 	private void findRings() {
-        mRingSet = new RingCollection(this, RingCollection.MODE_SMALL_AND_LARGE_RINGS_AND_AROMATICITY);
+        if (mReuseBuffers && mRingSet != null)
+            mRingSet.update(RingCollection.MODE_SMALL_AND_LARGE_RINGS_AND_AROMATICITY);
+        else
+            mRingSet = new RingCollection(this, RingCollection.MODE_SMALL_AND_LARGE_RINGS_AND_AROMATICITY);
 
-        int[] atomRingBondCount = new int[mAtoms];
+        int[] atomRingBondCount;
+        if (mReuseBuffers && mAtomRingBondCount != null && mAtomRingBondCount.length >= mAtoms) {
+            atomRingBondCount = mAtomRingBondCount;
+            Arrays.fill(atomRingBondCount, 0, mAtoms, 0);
+            }
+        else {
+            atomRingBondCount = new int[mAtoms];
+            if (mReuseBuffers)
+                mAtomRingBondCount = atomRingBondCount;
+            }
         for (int bond=0; bond<mBonds; bond++) {
             if (mRingSet.getBondRingSize(bond) != 0) {
                 mBondFlags[bond] |= cBondFlagRing;
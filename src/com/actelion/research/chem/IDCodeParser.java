@@ -18,9 +18,12 @@
 
 package com.actelion.research.chem;
 
+import java.util.Arrays;
+
 public class IDCodeParser {
 	private StereoMolecule mMol;
-	private byte[]		mDecodingBytes;
+	private byte[]		mDecodingBytes,mIDCodeBuffer;
+	private boolean[]	mIsAromaticBondBuffer;
 	private	int			mIDCodeBitsAvail,mIDCodeTempData,mIDCodeBufferIndex;
 	private boolean		mEnsure2DCoordinates;
 
@@ -83,8 +86,16 @@ public class IDCodeParser {
 		return mol;
 		}
 
+	/**
+	 * Parses the idcode into the given container molecule. If mol is in buffer reuse mode
+	 * (see ExtendedMolecule.setBufferReuse()), then this parser also keeps its internal buffers
+	 * between subsequent calls. In this case a thread should use its own parser and container
+	 * molecule to iterate over many structures with minimal memory allocation.
+	 * @param mol
+	 * @param idcode
+	 */
 	public void parse(StereoMolecule mol, String idcode) {
-		parse(mol, (idcode == null) ? null : idcode.getBytes(), null);
+		parse(mol, getIDCodeBytes(mol, idcode), null);
 		}
 
 	public void parse(StereoMolecule mol, byte[] idcode) {
@@ -92,7 +103,7 @@ public class IDCodeParser {
 		}
 
 	public void parse(StereoMolecule mol, String idcode, String coordinates) {
-		byte[] idcodeBytes = (idcode == null) ? null : idcode.getBytes();
+		byte[] idcodeBytes = getIDCodeBytes(mol, idcode);
 		byte[] coordinateBytes = (coordinates == null) ? null : coordinates.getBytes();
 		parse(mol, idcodeBytes, coordinateBytes);
 		}
@@ -217,7 +228,7 @@ public class IDCodeParser {
 			mMol.addBond(decodeBits(abits),
 						 decodeBits(abits), Molecule.cBondTypeSingle);
 
-		boolean[] isAromaticBond = new boolean[allBonds];
+		boolean[] isAromaticBond = getAromaticBondBuffer(allBonds);
 
 		for (int bond=0; bond<allBonds; bond++) {
 			int bondOrder = decodeBits(2);
@@ -742,6 +753,38 @@ public class IDCodeParser {
 		return decodeBits(abits);
 		}
 
+	/**
+	 * Idcodes contain ASCII characters only. Thus, if mol is in buffer reuse mode,
+	 * we may copy the characters into a retained buffer instead of a new byte array.
+	 * @param mol
+	 * @param idcode
+	 * @return null or idcode bytes, which may be followed by remaining bytes of a previous idcode
+	 */
+	private byte[] getIDCodeBytes(StereoMolecule mol, String idcode) {
+		if (idcode == null)
+			return null;
+		if (idcode.length() == 0 || !mol.isBufferReuse())
+			return idcode.getBytes();
+
+		int length = idcode.length();
+		if (mIDCodeBuffer == null || mIDCodeBuffer.length < length)
+			mIDCodeBuffer = new byte[length + length / 2];
+		for (int i=0; i<length; i++)
+			mIDCodeBuffer[i] = (byte)idcode.charAt(i);
+		return mIDCodeBuffer;
+		}
+
+	private boolean[] getAromaticBondBuffer(int bonds) {
+		if (!mMol.isBufferReuse())
+			return new boolean[bonds];
+
+		if (mIsAromaticBondBuffer == null || mIsAromaticBondBuffer.length < bonds)
+			mIsAromaticBondBuffer = new boolean[Math.max(bonds, mMol.getMaxBonds())];
+		else
+			Arrays.fill(mIsAromaticBondBuffer, 0, bonds, false);
+		return mIsAromaticBondBuffer;
+		}
+
 	private void decodeBitsStart(byte[] bytes, int offset) {
 		mIDCodeBitsAvail = 6;
 		mIDCodeBufferIndex = offset;
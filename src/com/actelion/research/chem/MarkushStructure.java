@@ -206,7 +206,7 @@ public class MarkushStructure implements java.io.Serializable {
         if (mCoreIndex == mCoreList.size())
             return null;
 
-        StereoMolecule mol = createCurrentEnumeration();
+        StereoMolecule mol = createEnumeration(mCoreIndex, mSubstituentIndex);
 
         boolean incrementCoreIndex = true;
         for (int rGroup=0; rGroup<mRGroupList.size(); rGroup++) {
@@ -227,27 +227,67 @@ public class MarkushStructure implements java.io.Serializable {
         return mol;
         }
 
+    /**
+     * After calling validate() this method returns the number of enumerated
+     * structures, some of which may be identical.
+     * @return number of enumerations
+     */
+    public long getEnumerationCount() {
+        long count = mCoreList.size();
+        for (int rGroup=0; rGroup<mRGroupList.size(); rGroup++)
+            if (mSubstituentCount[rGroup] > 1)
+                count *= mSubstituentCount[rGroup];
+        return count;
+        }
+
+    /**
+     * After calling validate() this method constructs the enumeration with the given index
+     * independent of the state of getNextEnumeration(). The index refers to the same order in
+     * which getNextEnumeration() returns the structures. This method may be called
+     * concurrently from multiple threads.
+     * @param index 0 ... getEnumerationCount()-1
+     * @return
+     */
+    public StereoMolecule getEnumeration(long index) {
+        long count = 1;
+        for (int rGroup=0; rGroup<mRGroupList.size(); rGroup++)
+            if (mSubstituentCount[rGroup] > 1)
+                count *= mSubstituentCount[rGroup];
+
+        int coreIndex = (int)(index / count);
+        long remainder = index % count;
+        int[] substituentIndex = new int[mRGroupList.size()];
+        for (int rGroup=0; rGroup<mRGroupList.size(); rGroup++) {
+            if (mSubstituentCount[rGroup] > 1) {
+                substituentIndex[rGroup] = (int)(remainder % mSubstituentCount[rGroup]);
+                remainder /= mSubstituentCount[rGroup];
+                }
+            }
+
+        return createEnumeration(coreIndex, substituentIndex);
+        }
+
     private int getRGroupIndex(int atomicNo) {
         if (atomicNo < 129 || atomicNo > 144)
             return -1;
         return (atomicNo >= 142) ? atomicNo - 142 : atomicNo - 126;
         }
 
-    private StereoMolecule createCurrentEnumeration() {
+    private StereoMolecule createEnumeration(int coreIndex, int[] substituentIndex) {
         StereoMolecule mol = new StereoMolecule();
 
-        mol.addMolecule(mCoreList.get(mCoreIndex));
+        mol.addMolecule(mCoreList.get(coreIndex));
         for (int atom=0; atom<mol.getAllAtoms(); atom++) {
             int rGroup = getRGroupIndex(mol.getAtomicNo(atom));
             if (rGroup != -1)
-                mol.addSubstituent(mSubstituent[rGroup][mSubstituentIndex[rGroup]],
+                mol.addSubstituent(mSubstituent[rGroup][substituentIndex[rGroup]],
                                    getAttachmentAtom(mol, atom));
             }
         for (int atom=0; atom<mol.getAllAtoms(); atom++)
             mol.setAtomSelection(atom, getRGroupIndex(mol.getAtomicNo(atom)) != -1);
         mol.deleteSelectedAtoms();
 
-        int coreAtoms = mCoreList.get(mCoreIndex).getAllAtoms() - mCoreRGroup[mCoreIndex].length;
+        int coreAtoms = mCoreList.get(coreIndex).getAllAtoms() - mCoreRGroup[coreIndex].length;
         for (int atom=0; atom<coreAtoms; atom++)
             mol.setAtomMarker(atom, true);
         new CoordinateInventor(CoordinateInventor.MODE_REMOVE_HYDROGEN | CoordinateInventor.MODE_PREFER_MARKED_ATOM_COORDS).invent(mol);
@@ -19,6 +19,7 @@
 package com.actelion.research.chem;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class RingCollection {
     public static final int MAX_SMALL_RING_SIZE = 7;
@@ -46,24 +47,60 @@ public class RingCollection {
     private boolean[] mAromaticityHandled;
     private boolean[] mIsAromatic;
     private boolean[] mIsDelocalized;
+    private boolean[] mIsConfirmedChainAtom,mIsConfirmedChainBond;
+    private int[] mGraphAtom,mGraphLevel,mGraphParent,mFragmentGraphAtom,mFragmentNo;
+    private int[] mRingAtomBuffer,mRingBondBuffer,mSortedRingBuffer,mRingMembership;
+    private int[][] mAnnelatedRing;
+    private ArrayList<int[]> mSpareRingArray;
 
 	public RingCollection(ExtendedMolecule mol, int mode) {
 		mMol = mol;
 		mRingAtomSet = new ArrayList<int[]>();
         mRingBondSet = new ArrayList<int[]>();
+        findRings(mode);
+        }
+
 
-        mAtomRingSize = new int[mMol.getAtoms()];
-        mBondRingSize = new int[mMol.getBonds()];
+    /**
+     * Recalculates all rings of the molecule, whose structure may have changed completely
+     * since this RingCollection was created. Internal arrays are reused and only grow if the
+     * new structure requires it. Thus, ring information obtained before is invalid afterwards.
+     * This is used by molecules in buffer reuse mode. The ring atom and ring bond arrays
+     * of the previous structure are recycled for rings of the same size.
+     * @param mode
+     */
+    protected void update(int mode) {
+        if (mSpareRingArray == null)
+            mSpareRingArray = new ArrayList<int[]>();
+        mSpareRingArray.addAll(mRingAtomSet);
+        mSpareRingArray.addAll(mRingBondSet);
+        mRingAtomSet.clear();
+        mRingBondSet.clear();
+        findRings(mode);
+        }
 
+
+    private void findRings(int mode) {
         mMol.ensureHelperArrays(ExtendedMolecule.cHelperNeighbours);
 
-        boolean[] isConfirmedChainAtom = new boolean[mMol.getAtoms()];
-        boolean[] isConfirmedChainBond = new boolean[mMol.getBonds()];
+        int atoms = mMol.getAtoms();
+        int bonds = mMol.getBonds();
+        mAtomRingSize = clearedBuffer(mAtomRingSize, atoms);
+        mBondRingSize = clearedBuffer(mBondRingSize, bonds);
+        mGraphAtom = buffer(mGraphAtom, atoms);
+        mGraphLevel = buffer(mGraphLevel, atoms);
+        mGraphParent = buffer(mGraphParent, atoms);
+        mRingAtomBuffer = buffer(mRingAtomBuffer, atoms);
+        mRingBondBuffer = buffer(mRingBondBuffer, atoms);
+        mSortedRingBuffer = buffer(mSortedRingBuffer, atoms);
+
+        boolean[] isConfirmedChainAtom = mIsConfirmedChainAtom = clearedBuffer(mIsConfirmedChainAtom, atoms);
+        boolean[] isConfirmedChainBond = mIsConfirmedChainBond = clearedBuffer(mIsConfirmedChainBond, bonds);
 
         boolean found;
         do {    // detect atoms of side chains as non-ring-atoms
             found = false;
-            for (int atom=0; atom<mMol.getAtoms(); atom++) {
+            for (int atom=0; atom<atoms; atom++) {
                 if (!isConfirmedChainAtom[atom]) {
                     int potentialRingNeighbours = 0;
                     for (int i=0; i<mMol.getConnAtoms(atom); i++)
@@ -83,15 +120,15 @@ public class RingCollection {
 
                 // generate graph of potential ring atoms to find ring closure bonds
         int startAtom = 0;  // simply take the first potential ring atom as graph base
-        while ((startAtom < mMol.getAtoms()) && isConfirmedChainAtom[startAtom])
+        while ((startAtom < atoms) && isConfirmedChainAtom[startAtom])
             startAtom++;
-        if (startAtom == mMol.getAtoms())
+        if (startAtom == atoms)
             return;         // no rings found
 
                 // find all rings with less than 8 members of all closure bonds
-        int graphAtom[] = new int[mMol.getAtoms()];
+        int graphAtom[] = mFragmentGraphAtom = buffer(mFragmentGraphAtom, atoms);
         graphAtom[0] = startAtom;
-        int fragmentNo[] = new int[mMol.getAtoms()];
+        int fragmentNo[] = mFragmentNo = clearedBuffer(mFragmentNo, atoms);
         fragmentNo[startAtom] = 1;
         int current = 0;
         int highest = 0;
@@ -113,7 +150,7 @@ public class RingCollection {
             current++;
             if (current > highest) {
                     // if run out of atoms look for new base atom of other fragment
-                for (int atom=0; atom<mMol.getAtoms(); atom++) {
+                for (int atom=0; atom<atoms; atom++) {
                     if (fragmentNo[atom] == 0 && !isConfirmedChainAtom[atom]) {
                         fragmentNo[atom] = ++noOfFragments;
                         graphAtom[++highest] = atom;
@@ -124,34 +161,87 @@ public class RingCollection {
             }
 
         if ((mode & MODE_AROMATICITY) != 0) {
-            mAromaticityHandled = new boolean[mRingAtomSet.size()];
-            mIsAromatic = new boolean[mRingAtomSet.size()];
-            mIsDelocalized = new boolean[mRingAtomSet.size()];
-            mHeteroPosition = new int[mRingAtomSet.size()];
+            initializeAromaticity();
             determineAromaticity();
             }
 
         // find large rings by examining every potential ring bond
         // which is not a member of a small ring
         if ((mode & MODE_LARGE_RINGS) != 0) {
-            for (int bond=0; bond<mMol.getBonds(); bond++) {
+            for (int bond=0; bond<bonds; bond++) {
                 if (!isConfirmedChainBond[bond]) {
-                    int ringAtom[] = findSmallestRing(bond, isConfirmedChainAtom);
-                    if (ringAtom != null)
-                        updateRingSizes(ringAtom, getRingBonds(ringAtom));
+                    int ringAtoms = findSmallestRing(bond, isConfirmedChainAtom);
+                    if (ringAtoms != 0) {
+                        getRingBonds(mRingAtomBuffer, ringAtoms, mRingBondBuffer);
+                        updateRingSizes(mRingAtomBuffer, mRingBondBuffer, ringAtoms);
+                        }
                     }
                 }
             }
         }
 
 
-    private int[] findSmallestRing(int bond, boolean[] isConfirmedChainAtom) {
-        // find smallest ring of given bond
+    private void initializeAromaticity() {
+        int rings = mRingAtomSet.size();
+        mAromaticityHandled = clearedBuffer(mAromaticityHandled, rings);
+        mIsAromatic = clearedBuffer(mIsAromatic, rings);
+        mIsDelocalized = clearedBuffer(mIsDelocalized, rings);
+        mHeteroPosition = clearedBuffer(mHeteroPosition, rings);
+        }
+
+
+    private static int[] buffer(int[] array, int size) {
+        return (array != null && array.length >= size) ? array : new int[size];
+        }
+
+
+    private static int[] clearedBuffer(int[] array, int size) {
+        if (array == null || array.length < size)
+            return new int[size];
+        Arrays.fill(array, 0, size, 0);
+        return array;
+        }
+
+
+    private static boolean[] clearedBuffer(boolean[] array, int size) {
+        if (array == null || array.length < size)
+            return new boolean[size];
+        Arrays.fill(array, 0, size, false);
+        return array;
+        }
+
+
+    /**
+     * Returns an array for the atoms or bonds of a new ring, which is taken from the
+     * arrays of the previous structure, if this collection was updated.
+     */
+    private int[] newRingArray(int size) {
+        if (mSpareRingArray != null) {
+            for (int i=mSpareRingArray.size()-1; i>=0; i--) {
+                int[] array = mSpareRingArray.get(i);
+                if (array.length == size) {
+                    int last = mSpareRingArray.size() - 1;
+                    mSpareRingArray.set(i, mSpareRingArray.get(last));
+                    mSpareRingArray.remove(last);
+                    return array;
+                    }
+                }
+            }
+        return new int[size];
+        }
+
+
+    /**
+     * Finds the smallest ring of the given bond and puts its atoms into mRingAtomBuffer.
+     * @return number of ring atoms or 0, if the bond is not a ring bond
+     */
+    private int findSmallestRing(int bond, boolean[] isConfirmedChainAtom) {
     int atom1 = mMol.getBondAtom(0, bond);
     int atom2 = mMol.getBondAtom(1, bond);
-    int graphAtom[] = new int[mMol.getAtoms()];
-    int graphLevel[] = new int[mMol.getAtoms()];
-    int graphParent[] = new int[mMol.getAtoms()];
+    int graphAtom[] = mGraphAtom;
+    int graphLevel[] = mGraphLevel;
+    int graphParent[] = mGraphParent;
+    Arrays.fill(graphLevel, 0, mMol.getAtoms(), 0);
     graphAtom[0] = atom1;
     graphAtom[1] = atom2;
     graphLevel[atom1] = 1;
@@ -166,13 +256,13 @@ public class RingCollection {
         for (int i=0; i<mMol.getConnAtoms(graphAtom[current]); i++) {
             int candidate = mMol.getConnAtom(graphAtom[current], i);
             if ((current > 1) && candidate == atom1) {
-                int ringAtom[] = new int[graphLevel[graphAtom[current]]];
+                int ringAtoms = graphLevel[graphAtom[current]];
                 int atom = graphAtom[current];
-                for (int j=0; j<ringAtom.length; j++) {
-                    ringAtom[j] = atom;
+                for (int j=0; j<ringAtoms; j++) {
+                    mRingAtomBuffer[j] = atom;
                     atom = graphParent[atom];
                     }
-                return ringAtom;
+                return ringAtoms;
                 }
             if (graphLevel[candidate] == 0 && !isConfirmedChainAtom[candidate]) {
                 graphAtom[++highest] = candidate;
@@ -182,7 +272,7 @@ public class RingCollection {
             }
         current++;
         }
-    return null;
+    return 0;
     }
 
 
@@ -204,9 +294,10 @@ public class RingCollection {
     private void addSmallRingsToSet(int closureBond, boolean[] isConfirmedChainAtom) {
         int atom1 = mMol.getBondAtom(0, closureBond);
         int atom2 = mMol.getBondAtom(1, closureBond);
-        int graphAtom[] = new int[mMol.getAtoms()];
-        int graphLevel[] = new int[mMol.getAtoms()];
-        int graphParent[] = new int[mMol.getAtoms()];
+        int graphAtom[] = mGraphAtom;
+        int graphLevel[] = mGraphLevel;
+        int graphParent[] = mGraphParent;
+        Arrays.fill(graphLevel, 0, mMol.getAtoms(), 0);
         graphAtom[0] = atom1;
         graphAtom[1] = atom2;
         graphLevel[atom1] = 1;
@@ -221,13 +312,13 @@ public class RingCollection {
             for (int i=0; i<mMol.getConnAtoms(graphAtom[current]); i++) {
                 int candidate = mMol.getConnAtom(graphAtom[current], i);
                 if ((current > 1) && candidate == atom1) {
-                    int ringAtom[] = new int[graphLevel[graphAtom[current]]];
+                    int ringAtoms = graphLevel[graphAtom[current]];
                     int atom = graphAtom[current];
-                    for (int j=0; j<ringAtom.length; j++) {
-                        ringAtom[j] = atom;
+                    for (int j=0; j<ringAtoms; j++) {
+                        mRingAtomBuffer[j] = atom;
                         atom = graphParent[atom];
                         }
-                    addRingIfNew(ringAtom);
+                    addRingIfNew(mRingAtomBuffer, ringAtoms);
                     continue;
                     }
                 if (graphLevel[candidate] == 0 && !isConfirmedChainAtom[candidate]) {
@@ -241,8 +332,7 @@ public class RingCollection {
         }
 
 
-	private void addRingIfNew(int ringAtom[]) {
-		int ringAtoms = ringAtom.length;
+	private void addRingIfNew(int ringAtom[], int ringAtoms) {
 		int lowAtom = mMol.getMaxAtoms();
 		int lowIndex = 0;
 		for (int i=0; i<ringAtoms; i++) {
@@ -252,7 +342,7 @@ public class RingCollection {
 				}
 			}
 
-		int sortedRing[] = new int[ringAtoms];
+		int sortedRing[] = mSortedRingBuffer;
 		int leftIndex = (lowIndex > 0) ? lowIndex - 1 : ringAtoms - 1;
 		int rightIndex = (lowIndex < ringAtoms - 1) ? lowIndex + 1 : 0;
 		boolean inverse = (ringAtom[leftIndex] < ringAtom[rightIndex]);
@@ -283,11 +373,14 @@ public class RingCollection {
 				return;
 			}
 
-		mRingAtomSet.add(sortedRing);
-        int[] ringBond = getRingBonds(sortedRing);
+		int[] newRingAtom = newRingArray(ringAtoms);
+		System.arraycopy(sortedRing, 0, newRingAtom, 0, ringAtoms);
+		mRingAtomSet.add(newRingAtom);
+        int[] ringBond = newRingArray(ringAtoms);
+        getRingBonds(newRingAtom, ringAtoms, ringBond);
         mRingBondSet.add(ringBond);
 
-        updateRingSizes(sortedRing, ringBond);
+        updateRingSizes(newRingAtom, ringBond, ringAtoms);
 	    }
 
 
@@ -388,8 +481,7 @@ public class RingCollection {
 		}
 
 
-    private void updateRingSizes(int[] ringAtom, int[] ringBond) {
-        int ringSize = ringAtom.length;
+    private void updateRingSizes(int[] ringAtom, int[] ringBond, int ringSize) {
         for (int i=0; i<ringSize; i++)
             if (mAtomRingSize[ringAtom[i]] == 0
              || mAtomRingSize[ringAtom[i]] > ringSize)
@@ -402,9 +494,7 @@ public class RingCollection {
         }
 
     
-    private int[] getRingBonds(int[] ringAtom) {
-        int ringAtoms = ringAtom.length;
-        int ringBond[] = new int[ringAtoms];
+    private void getRingBonds(int[] ringAtom, int ringAtoms, int[] ringBond) {
         for (int i=0; i<ringAtoms; i++) {
             int atom = (i == ringAtoms - 1) ? ringAtom[0] : ringAtom[i+1];
             for (int j=0; j<mMol.getConnAtoms(ringAtom[i]); j++) {
@@ -414,19 +504,24 @@ public class RingCollection {
                     }
                 }
             }
-        return ringBond;
         }
 
 
     private void determineAromaticity() {
-        int[][] annelatedRing = new int[mRingAtomSet.size()][];
-        for (int i=0; i<mRingAtomSet.size(); i++) {
-            annelatedRing[i] = new int[mRingAtomSet.get(i).length];
-            for (int j=0; j<mRingAtomSet.get(i).length; j++)
-                annelatedRing[i][j] = -1;
+        int rings = mRingAtomSet.size();
+        if (mAnnelatedRing == null)
+            mAnnelatedRing = new int[rings][];
+        else if (mAnnelatedRing.length < rings)
+            mAnnelatedRing = Arrays.copyOf(mAnnelatedRing, rings);
+        int[][] annelatedRing = mAnnelatedRing;
+        for (int i=0; i<rings; i++) {
+            int ringSize = mRingAtomSet.get(i).length;
+            if (annelatedRing[i] == null || annelatedRing[i].length < ringSize)
+                annelatedRing[i] = new int[ringSize];
+            Arrays.fill(annelatedRing[i], 0, ringSize, -1);
             }
 
-        int[] ringMembership = new int[mMol.getBonds()];
+        int[] ringMembership = mRingMembership = clearedBuffer(mRingMembership, mMol.getBonds());
         for (int ring=0; ring<mRingBondSet.size(); ring++) {
             int[] ringBond = mRingBondSet.get(ring);
             if (ringBond.length >= 5 && ringBond.length <= 7) {
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.chem;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.actelion.research.calc.ProgressController;
+
+/**
+ * Calculates canonical keys for many structures using all available cores.
+ * Depending on the key type, structures that differ in stereo configuration,
+ * tautomeric form or attached salts and solvents may get the same key.
+ * Keys are idcodes of normalized structures as created by CanonizerUtil.
+ * Since idcodes are canonical already, the key for type NORMAL of entire
+ * structures is the original idcode and structures are not parsed at all.
+ * Keys are typically put into a ByteArrayHashTable to find equivalent structures.
+ */
+public class StructureKeyBuilder {
+	private static final int PROGRESS_STEP = 64;
+
+	private CanonizerUtil.IDCODE_TYPE mType;
+	private boolean mLargestFragmentOnly;
+	private ProgressController mProgressController;
+
+	/**
+	 * @param type kind of structure normalization applied before canonicalization
+	 * @param largestFragmentOnly if true, then keys consider the largest fragment only
+	 * @param pc null or progress controller to show progress and to stop calculation
+	 */
+	public StructureKeyBuilder(CanonizerUtil.IDCODE_TYPE type, boolean largestFragmentOnly, ProgressController pc) {
+		mType = type;
+		mLargestFragmentOnly = largestFragmentOnly;
+		mProgressController = pc;
+		}
+
+	/**
+	 * @return true if keys are the original idcodes, which don't need to be calculated
+	 */
+	public boolean isIdentityKey() {
+		return mType == CanonizerUtil.IDCODE_TYPE.NORMAL && !mLargestFragmentOnly;
+		}
+
+	/**
+	 * Calculates keys for all passed idcodes. Cells with multiple structures, i.e. with
+	 * multiple idcodes separated by '\n', are considered one structure with multiple fragments.
+	 * @param idcode idcodes, which may contain null entries
+	 * @param coordinates null or encoded 2D-coordinates matching idcode entries
+	 * @return keys with null entries, where idcode is null or where no key could be created
+	 */
+	public byte[][] createKeys(final byte[][] idcode, final byte[][] coordinates) {
+		final byte[][] key = new byte[idcode.length][];
+
+		if (isIdentityKey()) {
+			for (int i=0; i<idcode.length; i++)
+				key[i] = idcode[i];
+			return key;
+			}
+
+		if (mProgressController != null)
+			mProgressController.startProgress("Creating structure keys...", 0, idcode.length);
+
+		final AtomicInteger nextIndex = new AtomicInteger(0);
+		final AtomicInteger doneCount = new AtomicInteger(0);
+
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), 1 + idcode.length / PROGRESS_STEP);
+		Thread[] t = new Thread[threadCount];
+		for (int i=0; i<threadCount; i++) {
+			t[i] = new Thread("Structure Key Builder "+(i+1)) {
+				public void run() {
+					IDCodeParser parser = new IDCodeParser(true);
+					StereoMolecule container = new StereoMolecule();
+					container.setBufferReuse(true);
+
+					int index = nextIndex.getAndIncrement();
+					while (index < idcode.length && !threadMustDie()) {
+						if (idcode[index] != null) {
+							StereoMolecule mol = getMolecule(parser, container, idcode[index],
+									(coordinates == null) ? null : coordinates[index]);
+							if (mol != null && mol.getAllAtoms() != 0) {
+								String keyString = CanonizerUtil.getIDCode(mol, mType, mLargestFragmentOnly);
+								if (keyString != null)
+									key[index] = keyString.getBytes();
+								}
+							}
+
+						if (mProgressController != null && (index % PROGRESS_STEP) == PROGRESS_STEP-1)
+							mProgressController.updateProgress(doneCount.addAndGet(PROGRESS_STEP));
+
+						index = nextIndex.getAndIncrement();
+						}
+					}
+				};
+			t[i].setPriority(Thread.MIN_PRIORITY);
+			t[i].start();
+			}
+
+		for (int i=0; i<threadCount; i++)
+			try { t[i].join(); } catch (InterruptedException e) {}
+
+		return key;
+		}
+
+	private StereoMolecule getMolecule(IDCodeParser parser, StereoMolecule container, byte[] idcode, byte[] coords) {
+		try {
+			int index1 = 0;
+			while (index1<idcode.length && idcode[index1] != '\n')
+				index1++;
+
+			if (index1 == idcode.length) {
+				parser.parse(container, idcode, coords);
+				return container;
+				}
+
+			// multiple structures in one cell: coordinates cannot be used
+			StereoMolecule mol = new StereoMolecule();
+			int index0 = 0;
+			while (index0 < idcode.length) {
+				if (index1 > index0) {
+					byte[] subIDCode = new byte[index1-index0];
+					System.arraycopy(idcode, index0, subIDCode, 0, index1-index0);
+					mol.addMolecule(parser.getCompactMolecule(subIDCode));
+					}
+				index0 = index1+1;
+				index1 = index0;
+				while (index1<idcode.length && idcode[index1] != '\n')
+					index1++;
+				}
+			return mol;
+			}
+		catch (Exception e) {
+			return null;
+			}
+		}
+
+	private boolean threadMustDie() {
+		return mProgressController != null && mProgressController.threadMustDie();
+		}
+	}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Joel Freyss
+ */
+package com.actelion.research.chem.calculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Matrix4d;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.FFMolecule;
+import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.forcefield.ForceField;
+import com.actelion.research.forcefield.optimizer.AlgoLBFGS;
+import com.actelion.research.forcefield.optimizer.EvaluableConformation;
+import com.actelion.research.forcefield.optimizer.EvaluableForceField;
+
+/**
+ * Generates an ensemble of diverse, low energy conformations of a molecule.
+ * 
+ * The conformations are sampled with TorsionCalculator.createConformations(), optionally minimized,
+ * sorted by energy and deduplicated: a conformation is kept, if its RMSD to all conformations 
+ * already kept is at least minRMSD. Before aligning two conformations with the SuperposeCalculator,
+ * the RMSD is bracketed cheaply:
+ * - the difference of the interatomic distance matrices gives a lower bound (no alignment needed)
+ * - the RMSD of the unaligned coordinates gives an upper bound
+ * Only the heavy atoms are considered.
+ * 
+ * If the sampling fails for a molecule, e.g. because it has no rotatable bond, all torsion
+ * combinations are enumerated with createAllConformations() instead. Such fallbacks are
+ * logged and counted (see getFallbackCount()).
+ * 
+ * An instance holds no state during the calculation apart from the fallback count and can be
+ * used by several threads concurrently, e.g. to process the molecules of a library in parallel.
+ */
+public class ConformerEnsembleGenerator {
+	
+	public static final double DEFAULT_MIN_RMSD = 0.5;
+	
+	private final int maxConformers;
+	private final double minRMSD;
+	private final boolean minimize;
+	private final AtomicInteger fallbackCount = new AtomicInteger();
+	
+	/**
+	 * @param maxConformers maximum number of conformations returned per molecule
+	 * @param minRMSD minimum heavy atom RMSD between 2 returned conformations 
+	 * @param minimize whether the conformations are minimized with the forcefield
+	 */
+	public ConformerEnsembleGenerator(int maxConformers, double minRMSD, boolean minimize) {
+		this.maxConformers = maxConformers;
+		this.minRMSD = minRMSD;
+		this.minimize = minimize;
+	}
+	
+	/**
+	 * @return the number of molecules, for which the conformations were enumerated systematically,
+	 * because the sampling failed
+	 */
+	public int getFallbackCount() {
+		return fallbackCount.get();
+	}
+	
+	/**
+	 * Creates the ensemble of conformations of mol.
+	 * The atoms of the returned molecules are in the order of mol, hydrogens may have been added.
+	 * Each conformation has its forcefield energy stored as the auxiliary info "SE".
+	 * @param mol
+	 * @return the conformations sorted by increasing energy or an empty list
+	 */
+	public List<FFMolecule> createEnsemble(StereoMolecule mol) {
+		List<FFMolecule> candidates = new ArrayList<FFMolecule>();
+		mol.ensureHelperArrays(Molecule.cHelperNeighbours);
+		if(mol.getAllAtoms()==0) return candidates;
+		
+		//Sample more conformations than needed, some of them will be removed as duplicates
+		try {
+			candidates = TorsionCalculator.createConformations(new FFMolecule(mol), 2*maxConformers);
+		} catch(RuntimeException e) {
+			fallbackCount.incrementAndGet();
+			System.err.println("ConformerEnsembleGenerator: sampling failed for "+(mol.getName()==null? "unnamed molecule": mol.getName())+" ("+e+"), enumerating all torsions instead");
+			candidates = TorsionCalculator.createAllConformations(new FFMolecule(mol));
+		}
+				
+		for(FFMolecule m: candidates) {
+			ForceField f = new ForceField(m);
+			if(minimize) {
+				new AlgoLBFGS().optimize(new EvaluableConformation(f));
+				new AlgoLBFGS().optimize(new EvaluableForceField(f));
+			}
+			m.setAuxiliaryInfo("SE", f.getTerms().getFGValue(null));
+		}
+		Collections.sort(candidates, new Comparator<FFMolecule>() {
+			@Override
+			public int compare(FFMolecule o1, FFMolecule o2) {
+				return Double.compare((Double) o1.getAuxiliaryInfo("SE"), (Double) o2.getAuxiliaryInfo("SE"));
+			}
+		});
+		
+		return removeDuplicates(candidates, mol.getAtoms());
+	}
+	
+	/**
+	 * Keeps the first conformation and every following one, whose RMSD to all kept conformations is at least minRMSD.
+	 * @param conformers
+	 * @param nHeavyAtoms the number of leading atoms to consider
+	 * @return
+	 */
+	private List<FFMolecule> removeDuplicates(List<FFMolecule> conformers, int nHeavyAtoms) {
+		List<FFMolecule> res = new ArrayList<FFMolecule>();
+		List<Coordinates[]> keptCoordinates = new ArrayList<Coordinates[]>();
+		List<double[]> keptDistances = new ArrayList<double[]>();
+		
+		final int n = nHeavyAtoms;
+		//Sum over all pairs of (d_ij-d'_ij)^2 <= 2(n-1) * sum of e_i^2 = 2n(n-1) * rmsd^2 
+		final double maxDistanceDeviation = 2.0 * n * (n-1) * minRMSD * minRMSD;
+		
+		for(FFMolecule m: conformers) {
+			if(res.size()>=maxConformers) break;
+			Coordinates[] c = new Coordinates[n];
+			for (int i = 0; i < n; i++) c[i] = m.getCoordinates(i);
+			double[] d = getDistances(c);
+			
+			boolean isDuplicate = false;
+			for (int k = 0; k < res.size() && !isDuplicate; k++) {
+				double[] dk = keptDistances.get(k);
+				double sum = 0;
+				for (int i = 0; i < d.length && sum < maxDistanceDeviation; i++) {
+					double delta = d[i] - dk[i];
+					sum += delta * delta;
+				}
+				if(sum >= maxDistanceDeviation) continue;	//certainly different
+
+				isDuplicate = getRMSD(keptCoordinates.get(k), c) < minRMSD;
+			}
+			
+			if(!isDuplicate) {
+				res.add(m);
+				keptCoordinates.add(c);
+				keptDistances.add(d);
+			}
+		}
+		return res;
+	}
+
+	private static double[] getDistances(Coordinates[] c) {
+		double[] d = new double[c.length*(c.length-1)/2];
+		int index = 0;
+		for (int i = 1; i < c.length; i++) {
+			for (int j = 0; j < i; j++) {
+				d[index++] = c[i].distance(c[j]);
+			}
+		}
+		return d;
+	}
+
+	private double getRMSD(Coordinates[] c1, Coordinates[] c2) {
+		//The RMSD without alignment is an upper bound
+		double sum = 0;
+		for (int i = 0; i < c1.length; i++) sum += c1[i].distSquareTo(c2[i]);
+		if(sum < minRMSD * minRMSD * c1.length) return Math.sqrt(sum / c1.length);
+		
+		Coordinates[] model = new Coordinates[c1.length];
+		Coordinates[] copy = new Coordinates[c2.length];
+		for (int i = 0; i < c1.length; i++) {
+			model[i] = new Coordinates(c1[i]);
+			copy[i] = new Coordinates(c2[i]);
+		}
+		Matrix4d M = new Matrix4d();
+		M.setIdentity();
+		return SuperposeCalculator.superpose(model, copy, M);
+	}
+	
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.chem.descriptor;
+
+import com.actelion.research.chem.StereoMolecule;
+
+/**
+ * Implemented by handlers of count based descriptors that are compatible with PackedCounts.
+ * When comparing many descriptors with each other, callers may convert all descriptors
+ * once with getPackedCounts() and use the PackedCounts based similarity methods,
+ * which return the same values as getSimilarity(byte[], byte[]), but are much faster.
+ */
+public interface CountDescriptorHandler extends DescriptorHandler<byte[], StereoMolecule> {
+	public abstract PackedCounts getPackedCounts(byte[] descriptor);
+	public abstract float getSimilarity(PackedCounts d1, PackedCounts d2);
+
+	/**
+	 * Use this for threshold based similarity searches, because it skips the comparison of
+	 * individual bins whenever the upper bound derived from the total counts is too low.
+	 * @param d1
+	 * @param d2
+	 * @param minSimilarity
+	 * @return the similarity or 0.0, if the similarity is lower than minSimilarity
+	 */
+	public abstract float getSimilarity(PackedCounts d1, PackedCounts d2, float minSimilarity);
+	}
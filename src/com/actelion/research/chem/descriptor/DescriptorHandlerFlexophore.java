@@ -41,6 +41,9 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 	
 	private static final double CORRECTION_FACTOR = 0.44;
 	
+	// Compensates rounding errors when comparing similarity upper bounds with thresholds.
+	private static final double TOLERANCE_UPPER_BOUND = 0.0001;
+	
 	private static DescriptorHandlerFlexophore INSTANCE;
 	
     private static final int MIN_NUM_ATOMS = 6;
@@ -246,6 +249,20 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 
    
     public float getSimilarity(Object query, Object base) {
+    	return getSimilarity(query, base, 0.0f);
+    }
+    
+    /**
+     * Calculates the similarity like <code>getSimilarity(query, base)</code>, but skips
+     * the graph matching whenever a cheap upper bound of the similarity, which is derived
+     * from node counts and node similarities, is lower than minSimilarity. 
+     * Use this for threshold based similarity searches.
+     * @param query
+     * @param base
+     * @param minSimilarity
+     * @return the similarity or 0, if the similarity is lower than minSimilarity.
+     */
+    public float getSimilarity(Object query, Object base, float minSimilarity) {
     	float sc=0;
     	
     	
@@ -256,7 +273,7 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 			IMolDistHist mdhvQuery = (IMolDistHist)query;
     		
     		
-    		sc = (float) getSimilarity(mdhvBase, mdhvQuery);
+    		sc = (float) getSimilarity(mdhvBase, mdhvQuery, (double)minSimilarity);
     		
     		return sc;
     	}
@@ -304,7 +321,7 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 					
 				}
 				
-				sc = (float)getMinimumSimilarity(mdhvBase, mdhvQuery);
+				sc = (float)getMinimumSimilarity(mdhvBase, mdhvQuery, denormalizeValue(minSimilarity));
 				
 			} catch (Exception e) {
 				// should only show unexpected exceptions but not things like: Number of maximum (30) pharmacophores exceeded 36
@@ -315,23 +332,28 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
         return normalizeValue(sc);
     }
     
-    private double getMinimumSimilarity(IMolDistHist mdhvBase, IMolDistHist mdhvQuery){
+    private double getMinimumSimilarity(IMolDistHist mdhvBase, IMolDistHist mdhvQuery, double minSimilarity){
     	
     	double sc = 0;
     	
     	if(mdhvBase.getNumPPNodes() == mdhvQuery.getNumPPNodes()){
-    		double s1 = getSimilarity(mdhvBase, mdhvQuery);
-    		double s2 = getSimilarity(mdhvQuery, mdhvBase);
+    		double s1 = getSimilarity(mdhvBase, mdhvQuery, minSimilarity);
+    		double s2 = getSimilarity(mdhvQuery, mdhvBase, minSimilarity);
     		
     		sc = Math.max(s1, s2);
     	} else {
-    		sc = getSimilarity(mdhvBase, mdhvQuery);
+    		sc = getSimilarity(mdhvBase, mdhvQuery, minSimilarity);
     	}
     	return sc;
     }
     
-    
-    private double getSimilarity(IMolDistHist mdhvBase, IMolDistHist mdhvQuery){
+    /**
+     * @param mdhvBase
+     * @param mdhvQuery
+     * @param minSimilarity not normalized similarity threshold; 0 calculates the similarity in any case
+     * @return
+     */
+    private double getSimilarity(IMolDistHist mdhvBase, IMolDistHist mdhvQuery, double minSimilarity){
     	
     	CompleteGraphMatcher<IMolDistHist> cgMatcher = queueCGM.poll();
 		
@@ -341,6 +363,14 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 		
 		cgMatcher.set(mdhvBase, mdhvQuery);
 		
+		if(minSimilarity > 0
+		 && cgMatcher.calculateSimilarityUpperBound() + TOLERANCE_UPPER_BOUND < minSimilarity){
+			
+			queueCGM.add(cgMatcher);
+			
+			return 0;
+		}
+		
 		double sc = (float)cgMatcher.calculateSimilarity();
 
 		queueCGM.add(cgMatcher);
@@ -359,6 +389,17 @@ public class DescriptorHandlerFlexophore implements DescriptorHandler {
 			 : (float)(1.0-Math.pow(1-Math.pow(value, CORRECTION_FACTOR) ,1.0/CORRECTION_FACTOR));
 	}
 
+	/**
+	 * Inverse of <code>normalizeValue()</code>.
+	 * @param value
+	 * @return
+	 */
+	private double denormalizeValue(double value) {
+		return value <= 0.0 ? 0.0
+			 : value >= 1.0 ? 1.0
+			 : Math.pow(1-Math.pow(1-value, CORRECTION_FACTOR), 1.0/CORRECTION_FACTOR);
+	}
+
 	public boolean calculationFailed(Object o) {
 		
 		if(o instanceof MolDistHist){
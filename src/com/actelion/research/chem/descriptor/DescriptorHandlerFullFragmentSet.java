@@ -23,23 +23,29 @@ import java.util.List;
 
 import com.actelion.research.chem.Canonizer;
 import com.actelion.research.chem.ExtendedMoleculeFunctions;
-import com.actelion.research.chem.IDCodeParser;
 import com.actelion.research.chem.Molecule;
 import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.mcs.BondVector2Hash;
 import com.actelion.research.chem.mcs.BondVector2IdCode;
 import com.actelion.research.chem.mcs.ExhaustiveFragmentGeneratorBonds;
 import com.actelion.research.chem.properties.complexity.BitArray128;
 import com.actelion.research.chem.properties.complexity.IBitArray;
+import com.actelion.research.chem.shredder.Fragment;
 import com.actelion.research.util.BurtleHasher;
 
 /**
  * Creates all fragments from a molecule. 
- * Calculates the idcode of a fragment and hashes it into a histogram.
+ * Calculates a canonical hash code for each fragment and adds it into a histogram.
+ * Each fragment is counted for the original molecule, for the molecule with stripped
+ * stereo and isotope information and for its carbon skeleton.
+ * The hash is calculated from the bond vector of the fragment by BondVector2Hash.
+ * Only fragments that keep a stereo feature, fragments for which the hash is not canonical
+ * (see BondVector2Hash.isCanonical()) and fragments with wild cards are hashed via their idcode.
  *
  * Jun 27, 2014 MvK Start implementation
  * Jul 8, 2014 MvK Hash of idcodes instead of unfolded descriptor.
  */
-public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[], StereoMolecule> {
+public class DescriptorHandlerFullFragmentSet implements CountDescriptorHandler {
 	
     private static final int BITS_VECTOR_BONDS = BitArray128.MAX_NUM_BITS;
 
@@ -55,6 +61,7 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 
     private static final int HASH_INIT = 13;
 
+    private static final String VERSION = "1.0";
     
     private static DescriptorHandlerFullFragmentSet INSTANCCE;
     
@@ -68,9 +75,8 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 	
 	private int descriptorFields;
 	
-	IDCodeParser parser;
-	
-	private ExhaustiveFragmentGeneratorBonds efg;
+	// The fragment generator holds large buffers, which are reused for all molecules of a thread.
+	private ThreadLocal<ExhaustiveFragmentGeneratorBonds> tlEFG;
 
 	/**
 	 * 
@@ -91,9 +97,7 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		
 		descriptorFields = (1 << hashBits);
 				
-		efg = new ExhaustiveFragmentGeneratorBonds(BITS_VECTOR_BONDS, maxBondsFrag, false);
-		
-		parser = new IDCodeParser();
+		initFragmentGenerator();
 		
 	}
 	
@@ -110,9 +114,17 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		
 		this.descriptorFields = dhFS.descriptorFields;
 		
-		efg = new ExhaustiveFragmentGeneratorBonds(BITS_VECTOR_BONDS, maxBondsFrag, false);
+		initFragmentGenerator();
+	}
+	
+	private void initFragmentGenerator(){
 		
-		parser = new IDCodeParser();
+		tlEFG = new ThreadLocal<ExhaustiveFragmentGeneratorBonds>() {
+			@Override
+			protected ExhaustiveFragmentGeneratorBonds initialValue() {
+				return new ExhaustiveFragmentGeneratorBonds(BITS_VECTOR_BONDS, maxBondsFrag, false);
+			}
+		};
 	}
 	
 	private int getIndexInDescriptorFromIdCode(String idCode){
@@ -125,11 +137,150 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		
 	}
 
+	private int getIndexInDescriptorFromHash(long hash){
+		
+		int indexInDescriptor = ((int)(hash ^ (hash >>> 32)) & BurtleHasher.hashmask(hashBits));
+		
+		return indexInDescriptor;
+		
+	}
 	
 	public byte [] createDescriptor(StereoMolecule mol){
 		
 		byte [] arrDescriptor = new byte [descriptorFields];
 		
+		if(addWildCards) {
+			
+			addFromIdCodes(mol, arrDescriptor);
+			
+			return arrDescriptor;
+		}
+		
+		mol.ensureHelperArrays(Molecule.cHelperParities);
+		
+		//
+		// The fragments are generated only once. The stripped molecule and the carbon skeleton have the
+		// same bonds as the original molecule and differ only in the atom invariants of the hash.
+		//
+		ExhaustiveFragmentGeneratorBonds efg = tlEFG.get();
+		
+		efg.set(mol, maxBondsFrag);
+		
+		efg.generateFragmentsAllBonds();
+		
+		BondVector2Hash bondVector2Hash = new BondVector2Hash(mol);
+		
+		BondVector2IdCode bondVector2IdCode = new BondVector2IdCode(mol);
+		
+		int bonds = mol.getBonds();
+		
+		int bondsFragments = Math.min(bonds, maxBondsFrag+1);
+		
+		for (int i = 0; i < bondsFragments; i++) {
+			
+			List<IBitArray> liFragDefByBnds = efg.getFragments(i);
+			
+			for (IBitArray fragDefByBnds : liFragDefByBnds) {
+				
+				if(!cleaveRingBonds && bondVector2IdCode.containsFragmentOpenRing(fragDefByBnds)){
+					continue;
+				}
+				
+				bondVector2Hash.set(fragDefByBnds);
+				
+				//
+				// Original molecule. The hash does not cover stereo features, for those the idcode is needed.
+				// The parent molecule only tells, which fragments may keep a stereo feature. Whether they
+				// actually do is decided on the fragment itself, because the hash must be used otherwise.
+				//
+				boolean stereo = false;
+				
+				int index = -1;
+				
+				Fragment fragment = null;
+				
+				if(bondVector2Hash.containsStereoFeature()) {
+					
+					fragment = bondVector2IdCode.getFragment(fragDefByBnds, false);
+					
+					if(containsStereoFeature(fragment.getMol())) {
+						
+						stereo = true;
+						
+						index = getIndexInDescriptorFromIdCode(fragment.getIdcode());
+					}
+				}
+				
+				if(!stereo) {
+					
+					long hash = bondVector2Hash.getHash(BondVector2Hash.MODE_COMPLETE);
+					
+					if(bondVector2Hash.isCanonical()) {
+						index = getIndexInDescriptorFromHash(hash);
+					} else {
+						
+						if(fragment == null) {
+							fragment = bondVector2IdCode.getFragment(fragDefByBnds, false);
+						}
+						
+						index = getIndexInDescriptorFromIdCode(getFallbackIdCode(fragment.getMol(), BondVector2Hash.MODE_COMPLETE));
+					}
+				}
+				
+				increment(arrDescriptor, index);
+				
+				//
+				// Molecule with stripped stereo and isotope information
+				//
+				if(stereo || bondVector2Hash.containsIsotope()) {
+					
+					long hash = bondVector2Hash.getHash(BondVector2Hash.MODE_NO_ISOTOPES);
+					
+					if(bondVector2Hash.isCanonical()) {
+						index = getIndexInDescriptorFromHash(hash);
+					} else {
+						
+						if(fragment == null) {
+							fragment = bondVector2IdCode.getFragment(fragDefByBnds, false);
+						}
+						
+						index = getIndexInDescriptorFromIdCode(getFallbackIdCode(fragment.getMol(), BondVector2Hash.MODE_NO_ISOTOPES));
+					}
+				}
+				
+				increment(arrDescriptor, index);
+				
+				//
+				// Carbon skeleton of the stripped molecule
+				//
+				long hash = bondVector2Hash.getHash(BondVector2Hash.MODE_CARBON_SKELETON);
+				
+				if(bondVector2Hash.isCanonical()) {
+					index = getIndexInDescriptorFromHash(hash);
+				} else {
+					
+					if(fragment == null) {
+						fragment = bondVector2IdCode.getFragment(fragDefByBnds, false);
+					}
+					
+					index = getIndexInDescriptorFromIdCode(getFallbackIdCode(fragment.getMol(), BondVector2Hash.MODE_CARBON_SKELETON));
+				}
+				
+				increment(arrDescriptor, index);
+			}
+		}
+		
+		return arrDescriptor;
+		
+	}
+	
+	/**
+	 * Fragments with wild cards are not covered by BondVector2Hash. Here, the idcode of each fragment is hashed. 
+	 * @param mol
+	 * @param arrDescriptor
+	 */
+	private void addFromIdCodes(StereoMolecule mol, byte [] arrDescriptor){
+		
 		//
 		// Create descriptor for original molecule
 		//
@@ -140,18 +291,11 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		//
 		StereoMolecule molStrippedStereo = new StereoMolecule(mol);
 		
-		molStrippedStereo.ensureHelperArrays(Molecule.cHelperSymmetryEnantiotopic);
-		
 		molStrippedStereo.stripIsotopInfo();
 		
-		molStrippedStereo.ensureHelperArrays(Molecule.cHelperSymmetryEnantiotopic);
-		
-		
-		Canonizer can = new Canonizer(molStrippedStereo);
+		molStrippedStereo.stripStereoInformation();
 		
-		molStrippedStereo = parser.getCompactMolecule(can.getIDCode());
-		
-		molStrippedStereo.ensureHelperArrays(Molecule.cHelperSymmetryEnantiotopic);
+		molStrippedStereo.ensureHelperArrays(Molecule.cHelperRings);
 		
 		add(molStrippedStereo, arrDescriptor);
 				
@@ -164,15 +308,14 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		
 		add(skel, arrDescriptor);
 		
-
-		return arrDescriptor;
-		
 	}
 	
 	private void add(StereoMolecule mol, byte [] arrDescriptor){
 		
 		BondVector2IdCode bondVector2IdCode = new BondVector2IdCode(mol);
 
+		ExhaustiveFragmentGeneratorBonds efg = tlEFG.get();
+		
 		efg.set(mol, maxBondsFrag);
 		
 		efg.generateFragmentsAllBonds();
@@ -193,15 +336,87 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 											
 				String idcode = bondVector2IdCode.getFragment(fragDefByBnds, addWildCards).getIdcode();
 												
-				final int index = getIndexInDescriptorFromIdCode(idcode);
-							
-                if (arrDescriptor[index] < DescriptorEncoder.MAX_COUNT_VALUE)
-                	arrDescriptor[index]++;
+				increment(arrDescriptor, getIndexInDescriptorFromIdCode(idcode));
 
 			}
 		}
 	}
 	
+	/**
+	 * Encodes a fragment, for which the hash is not canonical, with the same information as the hash.
+	 * Delocalized bonds of the parent molecule are kept as delocalized query bonds, because partial
+	 * aromatic rings cannot be given a Kekule structure, which is independent of the atom order.
+	 * @param frag fragment without stereo feature
+	 * @param mode one of BondVector2Hash.MODE_COMPLETE, MODE_NO_ISOTOPES, MODE_CARBON_SKELETON
+	 * @return idcode of the fragment.
+	 */
+	private static String getFallbackIdCode(StereoMolecule frag, int mode){
+		
+		StereoMolecule m = new StereoMolecule(frag);
+		
+		if(mode != BondVector2Hash.MODE_COMPLETE) {
+			
+			m.stripIsotopInfo();
+			
+			m.stripStereoInformation();
+		}
+		
+		if(mode == BondVector2Hash.MODE_CARBON_SKELETON) {
+			m = ExtendedMoleculeFunctions.getConverted2CarbonSkeleton(m);
+		}
+		
+		m.setFragment(true);
+		
+		for (int i = 0; i < m.getAllBonds(); i++) {
+			
+			if(m.getBondType(i) == Molecule.cBondTypeDelocalized) {
+				
+				m.setBondType(i, Molecule.cBondTypeSingle);
+				
+				m.setBondQueryFeature(i, Molecule.cBondQFDelocalized, true);
+			}
+		}
+		
+		return new Canonizer(m).getIDCode();
+	}
+	
+	/**
+	 * 
+	 * @param frag
+	 * @return true if the fragment has a stereo center or a stereo bond with a defined parity.
+	 */
+	private static boolean containsStereoFeature(StereoMolecule frag){
+		
+		frag.ensureHelperArrays(Molecule.cHelperParities);
+		
+		for (int i = 0; i < frag.getAtoms(); i++) {
+			
+			int parity = frag.getAtomParity(i);
+			
+			if(parity == Molecule.cAtomParity1 || parity == Molecule.cAtomParity2){
+				return true;
+			}
+		}
+		
+		for (int i = 0; i < frag.getBonds(); i++) {
+			
+			int parity = frag.getBondParity(i);
+			
+			if(parity == Molecule.cBondParityEor1 || parity == Molecule.cBondParityZor2){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static void increment(byte [] arrDescriptor, int index){
+		
+        if (arrDescriptor[index] < DescriptorEncoder.MAX_COUNT_VALUE)
+        	arrDescriptor[index]++;
+        
+	}
+	
 	
 	public int getSize(){
 		return descriptorFields;
@@ -217,22 +432,49 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 		
 		float similarity = 0;
 		
-		float ccOverlap=0;
+		int ccOverlap=0;
 		
-		float ccTotal=0;
+		// Sum of both descriptors. The sum of the maxima is obtained by subtracting the overlap.
+		int ccSum=0;
 
 		for (int i = 0; i < arr2.length; i++) {
 			
-			ccOverlap += Math.min(arr1[i], arr2[i]);
-			ccTotal += Math.max(arr1[i], arr2[i]);
+			int c1 = arr1[i];
+			
+			int c2 = arr2[i];
+			
+			ccOverlap += Math.min(c1, c2);
+			
+			ccSum += c1 + c2;
 		
 		}
 		
-        similarity = ccOverlap / ccTotal;
+        similarity = (float)ccOverlap / (float)(ccSum - ccOverlap);
 		
 		return similarity;
 	}
 	
+	public PackedCounts getPackedCounts(byte [] arr) {
+		
+		return (arr == null) ? null : new PackedCounts(arr);
+	}
+	
+	public float getSimilarity(PackedCounts p1, PackedCounts p2) {
+		
+		int ccOverlap = p1.getMatchingCount(p2);
+		
+		return (float)ccOverlap / (float)(p1.getTotalCount() + p2.getTotalCount() - ccOverlap);
+	}
+	
+	public float getSimilarity(PackedCounts p1, PackedCounts p2, float minSimilarity) {
+		
+		if(p1.getSimilarityUpperBound(p2) < minSimilarity){
+			return 0;
+		}
+		
+		return getSimilarity(p1, p2);
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.actelion.research.chem.descriptor.DescriptorHandler#getInfo()
 	 */
@@ -246,8 +488,7 @@ public class DescriptorHandlerFullFragmentSet implements DescriptorHandler<byte[
 	 */
 	@Override
 	public String getVersion() {
-		// TODO Auto-generated method stub
-		return null;
+		return VERSION;
 	}
 
 	
@@ -25,7 +25,7 @@ import com.actelion.research.chem.Molecule;
 import com.actelion.research.chem.StereoMolecule;
 import com.actelion.research.util.BurtleHasher;
 
-public class DescriptorHandlerSkeletonSpheres implements DescriptorHandler<byte[], StereoMolecule> {
+public class DescriptorHandlerSkeletonSpheres implements CountDescriptorHandler {
     private static final double CORRECTION_FACTOR = 0.7;
 
     private static final byte[] FAILED_OBJECT = new byte[0];
@@ -153,12 +153,16 @@ public class DescriptorHandlerSkeletonSpheres implements DescriptorHandler<byte[
         if (d1 == null || d2 == null)
             return Float.NaN;
 
+        // the sum of maximum counts equals the sum of both totals minus the sum of minimum counts
         int total = 0;
         int matching = 0;
         for (int i=0; i<d1.length; i++) {
-            total += Math.max(d1[i], d2[i]);
-            matching += Math.min(d1[i], d2[i]);
+            int c1 = d1[i];
+            int c2 = d2[i];
+            total += c1 + c2;
+            matching += Math.min(c1, c2);
             }
+        total -= matching;
 /*
 if (((double)matching/(double)total) > 0.8) {
     System.out.print("i:");
@@ -181,6 +185,27 @@ if (((double)matching/(double)total) > 0.8) {
         return normalizeValue((double)matching/(double)total);
         }
 
+    public PackedCounts getPackedCounts(byte[] descriptor) {
+        return (descriptor == null) ? null : new PackedCounts(descriptor);
+        }
+
+    public float getSimilarity(PackedCounts d1, PackedCounts d2) {
+        if (d1 == null || d2 == null)
+            return Float.NaN;
+
+        return normalizeValue(d1.getSimilarity(d2));
+        }
+
+    public float getSimilarity(PackedCounts d1, PackedCounts d2, float minSimilarity) {
+        if (d1 == null || d2 == null)
+            return Float.NaN;
+
+        if (normalizeValue(d1.getSimilarityUpperBound(d2)) < minSimilarity)
+            return 0.0f;
+
+        return normalizeValue(d1.getSimilarity(d2));
+        }
+
 	private float normalizeValue(double value) {
 		return value <= 0.0f ? 0.0f
 			 : value >= 1.0f ? 1.0f
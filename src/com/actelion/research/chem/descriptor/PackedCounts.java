@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.chem.descriptor;
+
+/**
+ * Count based descriptors like SkeletonSpheres are byte arrays with one count per bin,
+ * which is in the range 0...DescriptorEncoder.MAX_COUNT_VALUE. For comparing many
+ * descriptors with each other it pays off to convert them once into PackedCounts,
+ * which keep eight counts in every long. This allows to determine the minimum counts
+ * of eight bins with a few arithmetic operations. The total count of all bins is
+ * calculated once and provides a cheap upper bound of the similarity.
+ */
+public class PackedCounts {
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+	private static final long LOW_SHORTS = 0x0000FFFF0000FFFFL;
+
+	// Minimum counts are summed up in four 16-bit lanes, each receiving at most 2*127 per word.
+	private static final int MAX_WORDS_PER_SUM = 256;
+
+	private long[]	mWord;
+	private int		mTotalCount;
+
+	/**
+	 * @param counts count based descriptor with no count exceeding 127
+	 */
+	public PackedCounts(byte[] counts) {
+		mWord = new long[(counts.length+7) >> 3];
+		for (int i=0; i<counts.length; i++) {
+			mWord[i >> 3] |= (long)(counts[i] & 0xFF) << ((i & 7) << 3);
+			mTotalCount += counts[i];
+			}
+		}
+
+	/**
+	 * @return sum of all counts
+	 */
+	public int getTotalCount() {
+		return mTotalCount;
+		}
+
+	/**
+	 * @param p
+	 * @return sum of the minimum counts of all bins, i.e. the count that both descriptors share
+	 */
+	public int getMatchingCount(PackedCounts p) {
+		int words = Math.min(mWord.length, p.mWord.length);
+		int count = 0;
+		for (int start=0; start<words; start+=MAX_WORDS_PER_SUM) {
+			int end = Math.min(words, start+MAX_WORDS_PER_SUM);
+			long sum = 0;
+			for (int i=start; i<end; i++) {
+				long w1 = mWord[i];
+				long w2 = p.mWord[i];
+				// A high bit of (w1+128)-w2 remains set in those bytes, where w1 >= w2.
+				// Bytes don't borrow from each other, because all counts are below 128.
+				long mask = ((((w1 | HIGH_BITS) - w2) & HIGH_BITS) >>> 7) * 0xFF;
+				long min = (w2 & mask) | (w1 & ~mask);
+				sum += (min & LOW_BYTES) + ((min >>> 8) & LOW_BYTES);
+				}
+			sum = (sum & LOW_SHORTS) + ((sum >>> 16) & LOW_SHORTS);
+			count += (int)(sum + (sum >>> 32));
+			}
+		return count;
+		}
+
+	/**
+	 * The ratio of matching count and the count covered by any of both descriptors,
+	 * which is the same as the sum of minimum counts divided by the sum of maximum counts.
+	 * @param p
+	 * @return similarity or NaN, if both descriptors are empty
+	 */
+	public double getSimilarity(PackedCounts p) {
+		int matching = getMatchingCount(p);
+		return (double)matching / (double)(mTotalCount + p.mTotalCount - matching);
+		}
+
+	/**
+	 * The similarity cannot exceed the ratio of the smaller and the larger total count,
+	 * because the matching count is limited by the smaller one and the count covered by
+	 * any of both descriptors is at least the larger one.
+	 * @param p
+	 * @return upper bound of getSimilarity(p)
+	 */
+	public double getSimilarityUpperBound(PackedCounts p) {
+		return (double)Math.min(mTotalCount, p.mTotalCount) / (double)Math.max(mTotalCount, p.mTotalCount);
+		}
+	}
@@ -11,6 +11,7 @@ import com.actelion.research.chem.descriptor.flexophore.PPNode;
 import com.actelion.research.chem.descriptor.flexophore.generator.CGMult;
 import com.actelion.research.chem.descriptor.sphere.ScaleClasses;
 import com.actelion.research.util.Formatter;
+import com.actelion.research.util.graph.complete.CompleteGraphMatcher;
 import com.actelion.research.util.graph.complete.IObjectiveCompleteGraph;
 import com.actelion.research.util.graph.complete.SolutionCompleteGraph;
 
@@ -418,6 +419,97 @@ public class ObjectiveFlexophoreHardMatchUncovered implements IObjectiveComplete
 
 
 
+	/**
+	 * The similarity of a solution is the average pairwise mapping score multiplied with
+	 * the coverage and the node count ratio. Because the coverage and the histogram
+	 * similarity are at most 1.0, the pairwise mapping score of any solution cannot exceed
+	 * the product of the squared similarities of the two best mapping query nodes.
+	 * Additionally, a solution needs at least <code>CompleteGraphMatcher.MIN_NUM_NODES_SIM</code>
+	 * mapping nodes in query and base and a hetero atom node on both sides.
+	 * The node similarities calculated here are memorized and re-used by the search.
+	 * @return upper bound of the similarity of any solution for the current base and query.
+	 */
+	public float getSimilarityUpperBound() {
+		if(resetSimilarityArrays){
+			resetSimilarityMatrices();
+		}
+		
+		if(nodesQuery < CompleteGraphMatcher.MIN_NUM_NODES_SIM || nodesBase < CompleteGraphMatcher.MIN_NUM_NODES_SIM){
+			return 0;
+		}
+		
+		if(!hasHeteroNode(cgQuery) || !hasHeteroNode(cgBase)){
+			return 0;
+		}
+		
+		int mappingNodesQuery = 0;
+		double maxSimilarity1 = 0;
+		double maxSimilarity2 = 0;
+		for (int i = 0; i < nodesQuery; i++) {
+			double maxSimilarity = 0;
+			for (int j = 0; j < nodesBase; j++) {
+				double simNodes = getSimilarityNodes(i, j);
+				if(simNodes >= threshNodeMinSimilarity && simNodes > maxSimilarity){
+					maxSimilarity = simNodes;
+				}
+			}
+			
+			if(maxSimilarity > 0){
+				mappingNodesQuery++;
+				if(maxSimilarity > maxSimilarity1){
+					maxSimilarity2 = maxSimilarity1;
+					maxSimilarity1 = maxSimilarity;
+				} else if(maxSimilarity > maxSimilarity2){
+					maxSimilarity2 = maxSimilarity;
+				}
+			}
+		}
+		
+		if(mappingNodesQuery < CompleteGraphMatcher.MIN_NUM_NODES_SIM){
+			return 0;
+		}
+		
+		int mappingNodesBase = 0;
+		for (int j = 0; j < nodesBase; j++) {
+			for (int i = 0; i < nodesQuery; i++) {
+				if(getSimilarityNodes(i, j) >= threshNodeMinSimilarity){
+					mappingNodesBase++;
+					break;
+				}
+			}
+		}
+		
+		if(mappingNodesBase < CompleteGraphMatcher.MIN_NUM_NODES_SIM){
+			return 0;
+		}
+		
+		// Scaled node similarities never exceed the unscaled ones nor 1.0.
+		double simNode1Scaled = Math.min(1.0, maxSimilarity1);
+		double simNode2Scaled = Math.min(1.0, maxSimilarity2);
+		double maxPairwiseMapping = simNode1Scaled * simNode1Scaled * simNode2Scaled * simNode2Scaled;
+		
+		double nodesQuerySq = nodesQuery * nodesQuery;
+		double nodesBaseSq = nodesBase * nodesBase;
+		double ratioNodes = Math.min(nodesQuerySq, nodesBaseSq) / Math.max(nodesQuerySq, nodesBaseSq);
+		if(queryBias) {
+			ratioNodes = 1;
+			if(nodesQuery > nodesBase){
+				ratioNodes = nodesBaseSq / nodesQuerySq;
+			}
+		}
+		
+		return (float)Math.min(1.0, maxPairwiseMapping * ratioNodes);
+	}
+	
+	private boolean hasHeteroNode(IMolDistHist mdh){
+		for (int i = 0; i < mdh.getNumPPNodes(); i++) {
+			if(mdh.getNode(i).hasHeteroAtom()){
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Sets the color information for the visualization of the Flexophore PPPoints.
 	 * Call before visualization. Method sets identical info values for corresponding nodes.
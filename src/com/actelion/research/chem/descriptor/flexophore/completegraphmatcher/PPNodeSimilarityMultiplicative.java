@@ -1,6 +1,5 @@
 package com.actelion.research.chem.descriptor.flexophore.completegraphmatcher;
 
-import com.actelion.research.calc.Matrix;
 import com.actelion.research.chem.descriptor.flexophore.PPNode;
 import com.actelion.research.forcefield.interaction.ClassInteractionTable;
 
@@ -26,7 +25,7 @@ public class PPNodeSimilarityMultiplicative {
 	
 	private boolean invalidAtomMappping;
 	
-	private Matrix maSimilarity;
+	private double [][] arrSimilarity;
 	
 	/**
 	 * This constructor is used for parallel mode.
@@ -34,7 +33,7 @@ public class PPNodeSimilarityMultiplicative {
 	public PPNodeSimilarityMultiplicative(){
 				
 		
-		maSimilarity = new Matrix(SIZE_SIM_MATRIX, SIZE_SIM_MATRIX);
+		arrSimilarity = new double [SIZE_SIM_MATRIX][SIZE_SIM_MATRIX];
 		
 		threshAtomSimilarity = ObjectiveFlexophoreHardMatchUncovered.THRESH_NODE_SIMILARITY;
 		if(CIT==null) {
@@ -66,28 +65,44 @@ public class PPNodeSimilarityMultiplicative {
 	 */
 	public double getSimilarity(PPNode query, PPNode base) {
 		
-		maSimilarity.set(0);
+		int countQuery = query.getInteractionTypeCount();
 		
-		for (int i = 0; i < query.getInteractionTypeCount(); i++) {
+		int countBase = base.getInteractionTypeCount();
+		
+		for (int i = 0; i < countQuery; i++) {
 			
 			int interactionIdQuery = query.getInteractionId(i);
 			
-			for (int j = 0; j < base.getInteractionTypeCount(); j++) {
+			double [] arrSimilarityRow = arrSimilarity[i];
+			
+			for (int j = 0; j < countBase; j++) {
 				int interactionIdBase = base.getInteractionId(j);
-				double similarity = 1.0 - CIT.getDistance(interactionIdQuery, interactionIdBase);
-				maSimilarity.set(i,j,similarity);
+				arrSimilarityRow[j] = 1.0 - CIT.getDistance(interactionIdQuery, interactionIdBase);
 			}
 		}
 		
 		double sim = 1.0;
 		
-		if(base.getInteractionTypeCount() > query.getInteractionTypeCount()) {
-			for (int j = 0; j < base.getInteractionTypeCount(); j++) {
-				sim *= maSimilarity.getMax(j);
+		// Rows and columns outside the interaction types count as zero similarity,
+		// as in the formerly used fully initialized similarity matrix.
+		if(countBase > countQuery) {
+			for (int j = 0; j < countBase; j++) {
+				double max = (countQuery < SIZE_SIM_MATRIX) ? 0 : -Double.MAX_VALUE;
+				for (int i = 0; i < countQuery; i++) {
+					if(arrSimilarity[i][j] > max)
+						max = arrSimilarity[i][j];
+				}
+				sim *= max;
 			}
 		} else {
-			for (int i = 0; i < query.getInteractionTypeCount(); i++) {
-				sim *= maSimilarity.getMaxRow(i);
+			for (int i = 0; i < countQuery; i++) {
+				double max = (countBase < SIZE_SIM_MATRIX) ? 0 : -Double.MAX_VALUE;
+				double [] arrSimilarityRow = arrSimilarity[i];
+				for (int j = 0; j < countBase; j++) {
+					if(arrSimilarityRow[j] > max)
+						max = arrSimilarityRow[j];
+				}
+				sim *= max;
 			}
 		}
 		
@@ -2,8 +2,6 @@ package com.actelion.research.chem.descriptor.sphere;
 
 import java.util.List;
 
-import com.actelion.research.util.datamodel.ByteVec;
-
 /**
  * 
  * 
@@ -95,24 +93,45 @@ public class CenteredSkeletonSpheresComparator {
 			
 			byte [] a2 = liDescriptor2.get(i);
 			
-			if(isAllZero(a1) && isAllZero(a2)){
-				arrSim[i] = DEFAULT_SCORE_ZERO;
-			} else {
-				arrSim[i] = ByteVec.getTanimotoDist(a1, a2);	
-			}
+			arrSim[i] = getTanimotoSimilarity(a1, a2);
 		}
 		
 		return arrSim;
 	}
 	
-	private static final boolean isAllZero(byte [] a){
+	/**
+	 * Calculates the same value as ByteVec.getTanimotoDist(a1, a2), but needs only one pass over both arrays,
+	 * which also tells whether both are all zero.
+	 * @param a1
+	 * @param a2
+	 * @return DEFAULT_SCORE_ZERO if both arrays are all zero.
+	 */
+	private static final double getTanimotoSimilarity(byte [] a1, byte [] a2){
+		
+		int dAtB = 0;
+		
+		int dAtA = 0;
+		
+		int dBtB = 0;
+		
+		for (int i = 0; i < a1.length; i++) {
+			
+			int v1 = a1[i];
+			
+			int v2 = a2[i];
+			
+			dAtB += v1 * v2;
+			
+			dAtA += v1 * v1;
+			
+			dBtB += v2 * v2;
+		}
 		
-		for (int i = 0; i < a.length; i++) {
-			if(a[i] != 0)
-				return false;
+		if(dAtA == 0 && dBtB == 0){
+			return DEFAULT_SCORE_ZERO;
 		}
 		
-		return true;
+		return (double)dAtB / ((double)dAtA + dBtB - dAtB);
 	}
 
 	public void setWeighingScheme(double[] arrWeighingScheme) {
@@ -258,8 +258,7 @@ public abstract class CompoundFileHelper {
 	 */
 	public static String removePathAndExtension(String filePath) {
 		int i1 = filePath.lastIndexOf(File.separatorChar);
-		int i2 = (getFileType(filePath) != cFileTypeUnknown) ?
-				filePath.lastIndexOf('.') : -1;
+		int i2 = getExtensionIndex(filePath);
 		if (i1 == -1)
 			return (i2 == -1) ? filePath : filePath.substring(0, i2);
 		else
@@ -272,12 +271,42 @@ public abstract class CompoundFileHelper {
 	 * @return file name or path without extension
 	 */
 	public static String removeExtension(String filePath) {
-		int i = (getFileType(filePath) != cFileTypeUnknown) ?
-				filePath.lastIndexOf('.') : -1;
+		int i = getExtensionIndex(filePath);
 		return (i == -1) ? filePath : filePath.substring(0, i);
 		}
 
+	/**
+	 * @param filePath
+	 * @return index of the recognized extension including a trailing '.gz' or -1
+	 */
+	private static int getExtensionIndex(String filePath) {
+		if (getFileType(filePath) == cFileTypeUnknown)
+			return -1;
+		int end = isGZipFile(filePath) ? filePath.length() - 3 : filePath.length();
+		return filePath.lastIndexOf('.', end-1);
+		}
+
+	/**
+	 * @param filename
+	 * @return true if the file name ends with '.gz'
+	 */
+	public static boolean isGZipFile(String filename) {
+		return filename.toLowerCase().endsWith(".gz");
+		}
+
+	/**
+	 * DataWarrior, SD- and text files may be gzip compressed. Then their file name has
+	 * an additional '.gz' extension, e.g. 'data.dwar.gz', and their file type is the
+	 * type of the uncompressed file.
+	 * @param filename
+	 * @return file type or cFileTypeUnknown
+	 */
 	public static int getFileType(String filename) {
+		if (isGZipFile(filename)) {
+			int type = getFileType(filename.substring(0, filename.length() - 3));
+			return (type != cFileTypeUnknown && (type & cFileTypeDataWarriorCompatibleData) != 0) ? type : cFileTypeUnknown;
+			}
+
         int index = filename.lastIndexOf('.');
 
         if (index == -1)
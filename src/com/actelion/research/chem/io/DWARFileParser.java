@@ -495,13 +495,24 @@ public class DWARFileParser extends CompoundFileParser implements DescriptorCons
         }
 
     public Object getDescriptor(String shortName) {
-        Integer column = (mDescriptorColumnMap == null) ? null : mDescriptorColumnMap.get(shortName);
-        String s = (column == null) ? null : mFieldData[column.intValue()];
-        return (s == null || s.length() == 0) ? super.getDescriptor(shortName)
+        String s = getEncodedDescriptor(shortName);
+        return (s == null) ? super.getDescriptor(shortName)
              : (getDescriptorHandlerFactory() == null) ? null
              : getDescriptorHandlerFactory().getDefaultDescriptorHandler(shortName).decode(s);
         }
 
+    /**
+     * Returns the descriptor of the current row as stored in the file without decoding it.
+     * This allows decoding descriptors on other threads than the one reading the file.
+     * @param shortName
+     * @return encoded descriptor or null, if the file has no such descriptor or the cell is empty
+     */
+    public String getEncodedDescriptor(String shortName) {
+        Integer column = (mDescriptorColumnMap == null) ? null : mDescriptorColumnMap.get(shortName);
+        String s = (column == null) ? null : mFieldData[column.intValue()];
+        return (s == null || s.length() == 0) ? null : s;
+        }
+
     /**
      * @return the String encoded FragFp descriptor of the first column containing chemical structures
      */
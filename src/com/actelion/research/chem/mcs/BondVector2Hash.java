@@ -0,0 +1,332 @@
+package com.actelion.research.chem.mcs;
+
+import java.util.Arrays;
+
+import com.actelion.research.chem.ExtendedMolecule;
+import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.properties.complexity.IBitArray;
+
+/**
+ *
+ *
+ * BondVector2Hash
+ *
+ * Calculates a canonical hash code for a fragment given by the output of ExhaustiveFragmentGeneratorBonds
+ * without constructing the fragment molecule. The hash is derived from Morgan like invariants, which are
+ * refined over the fragment bonds only. Therefore, the hash does not depend on the atom order of the parent
+ * molecule and identical fragments from different molecules get the same hash.
+ * Stereo information is not considered. Fragments for which stereo matters must be encoded by BondVector2IdCode.
+ * containsStereoFeature() tells, which fragments need to be checked for this.
+ * The refinement alone is not canonical for all graphs. It is, if the fragment is a tree or if the refinement
+ * ends with a distinct invariant for every atom. For all other fragments isCanonical() returns false and
+ * the fragment must be encoded by BondVector2IdCode as well.
+ * <p>Copyright: Actelion Ltd., Inc. All Rights Reserved
+ *
+ * This software is the proprietary information of Actelion Pharmaceuticals, Ltd.
+ * Use is subject to license terms.</p>
+ * @author Modest von Korff
+ * @version 1.0
+ */
+public class BondVector2Hash {
+
+	/**
+	 * Atom invariants contain atomic number, charge, radical state and isotope mass.
+	 */
+	public static final int MODE_COMPLETE = 0;
+
+	/**
+	 * Like MODE_COMPLETE but without isotope mass.
+	 */
+	public static final int MODE_NO_ISOTOPES = 1;
+
+	/**
+	 * All non-hydrogen atoms are considered as carbon, isotope mass is not considered.
+	 */
+	public static final int MODE_CARBON_SKELETON = 2;
+
+	private static final long BOND_DELOCALIZED = 4;
+
+
+	private ExtendedMolecule mol;
+
+	private int [] arrFragAtomIndex;
+
+	private int [] arrFragAtoms;
+
+	private int [] arrFragBonds;
+
+	private int [] arrDegree;
+
+	private long [] arrInvariant;
+
+	private long [] arrInvariantNext;
+
+	private long [] arrInvariantSorted;
+
+	private boolean canonical;
+
+	private int atomsFrag;
+
+	private int bondsFrag;
+
+	/**
+	 *
+	 * @param mol helper arrays must be available at least on the level of Molecule.cHelperRings.
+	 * If stereo features shall be recognized Molecule.cHelperParities is needed.
+	 */
+	public BondVector2Hash(ExtendedMolecule mol) {
+
+		this.mol = mol;
+
+		int atoms = mol.getAllAtoms();
+
+		int bonds = mol.getAllBonds();
+
+		arrFragAtomIndex = new int [atoms];
+
+		for (int i = 0; i < atoms; i++) {
+			arrFragAtomIndex[i] = -1;
+		}
+
+		arrFragAtoms = new int [atoms];
+
+		arrFragBonds = new int [bonds];
+
+		arrDegree = new int [atoms];
+
+		arrInvariant = new long [atoms];
+
+		arrInvariantNext = new long [atoms];
+
+		arrInvariantSorted = new long [atoms];
+	}
+
+	/**
+	 * Collects atoms and bonds of the fragment. Has to be called before any of the other methods
+	 * is called for this fragment.
+	 * @param fragDefByBonds
+	 */
+	public void set(IBitArray fragDefByBonds){
+
+		for (int i = 0; i < atomsFrag; i++) {
+			arrFragAtomIndex[arrFragAtoms[i]] = -1;
+		}
+
+		atomsFrag = 0;
+
+		bondsFrag = 0;
+
+		int bonds = mol.getBonds();
+
+		for (int i = 0; i < bonds; i++) {
+
+			if(!fragDefByBonds.isBitSet(i)){
+				continue;
+			}
+
+			arrFragBonds[bondsFrag++] = i;
+
+			for (int j = 0; j < 2; j++) {
+
+				int indexAtom = mol.getBondAtom(j, i);
+
+				if(arrFragAtomIndex[indexAtom] == -1){
+
+					arrFragAtomIndex[indexAtom] = atomsFrag;
+
+					arrFragAtoms[atomsFrag] = indexAtom;
+
+					arrDegree[atomsFrag] = 0;
+
+					atomsFrag++;
+				}
+
+				arrDegree[arrFragAtomIndex[indexAtom]]++;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if the fragment contains a stereo center or a stereo bond of the parent molecule, which may keep
+	 * its parity in the fragment. If false, the fragment certainly has no stereo feature.
+	 */
+	public boolean containsStereoFeature(){
+
+		for (int i = 0; i < atomsFrag; i++) {
+
+			int parity = mol.getAtomParity(arrFragAtoms[i]);
+
+			if((parity == Molecule.cAtomParity1 || parity == Molecule.cAtomParity2) && arrDegree[i] > 1){
+				return true;
+			}
+		}
+
+		for (int i = 0; i < bondsFrag; i++) {
+
+			int parity = mol.getBondParity(arrFragBonds[i]);
+
+			if(parity == Molecule.cBondParityEor1 || parity == Molecule.cBondParityZor2){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 *
+	 * @return true if the fragment contains an atom with an isotope mass.
+	 */
+	public boolean containsIsotope(){
+
+		for (int i = 0; i < atomsFrag; i++) {
+
+			if(mol.getAtomMass(arrFragAtoms[i]) != 0){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 *
+	 * @param mode one of MODE_COMPLETE, MODE_NO_ISOTOPES, MODE_CARBON_SKELETON
+	 * @return hash code of the fragment, which is canonical if isCanonical() returns true afterwards.
+	 */
+	public long getHash(int mode){
+
+		for (int i = 0; i < atomsFrag; i++) {
+			arrInvariant[i] = getAtomInvariant(arrFragAtoms[i], arrDegree[i], mode);
+		}
+
+		//
+		// The number of refinement steps equals the number of bonds.
+		// Thereby, the information of each atom reaches all other atoms of the fragment.
+		//
+		for (int iteration = 0; iteration < bondsFrag; iteration++) {
+
+			for (int i = 0; i < atomsFrag; i++) {
+				arrInvariantNext[i] = arrInvariant[i];
+			}
+
+			for (int i = 0; i < bondsFrag; i++) {
+
+				int indexBond = arrFragBonds[i];
+
+				int indexAtom1 = arrFragAtomIndex[mol.getBondAtom(0, indexBond)];
+
+				int indexAtom2 = arrFragAtomIndex[mol.getBondAtom(1, indexBond)];
+
+				long bondInvariant = getBondInvariant(indexBond);
+
+				// Summation keeps the contribution of the neighbours independent from their order.
+				arrInvariantNext[indexAtom1] += mix(bondInvariant + 31 * arrInvariant[indexAtom2]);
+
+				arrInvariantNext[indexAtom2] += mix(bondInvariant + 31 * arrInvariant[indexAtom1]);
+			}
+
+			for (int i = 0; i < atomsFrag; i++) {
+				arrInvariant[i] = mix(arrInvariantNext[i]);
+			}
+		}
+
+		canonical = (bondsFrag == atomsFrag - 1) || isEveryInvariantDistinct();
+
+		long hash = mix(((long)atomsFrag << 8) | bondsFrag);
+
+		for (int i = 0; i < atomsFrag; i++) {
+			hash += mix(arrInvariant[i]);
+		}
+
+		return mix(hash);
+	}
+
+	/**
+	 * Color refinement identifies trees and all graphs, which it refines into distinct atom classes.
+	 * Other fragments, e.g. some fused or bridged ring systems, may share their hash with a
+	 * non-isomorphic fragment. Highly symmetric ring fragments are treated alike, because their
+	 * ties cannot be told apart from those of such graphs.
+	 * @return true if the hash of the last call of getHash() identifies the fragment in this mode.
+	 */
+	public boolean isCanonical() {
+		return canonical;
+	}
+
+	private boolean isEveryInvariantDistinct() {
+
+		System.arraycopy(arrInvariant, 0, arrInvariantSorted, 0, atomsFrag);
+
+		Arrays.sort(arrInvariantSorted, 0, atomsFrag);
+
+		for (int i = 1; i < atomsFrag; i++) {
+
+			if(arrInvariantSorted[i] == arrInvariantSorted[i-1]){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int getAtomsFragment() {
+		return atomsFrag;
+	}
+
+	public int getBondsFragment() {
+		return bondsFrag;
+	}
+
+	private long getAtomInvariant(int indexAtom, int degree, int mode){
+
+		int atomicNo = mol.getAtomicNo(indexAtom);
+
+		if(mode == MODE_CARBON_SKELETON && atomicNo > 1){
+			atomicNo = 6;
+		}
+
+		int mass = (mode == MODE_COMPLETE) ? mol.getAtomMass(indexAtom) : 0;
+
+		long invariant = atomicNo;
+
+		invariant = (invariant << 8) | (mol.getAtomCharge(indexAtom) & 0xFF);
+
+		invariant = (invariant << 8) | mol.getAtomRadical(indexAtom);
+
+		invariant = (invariant << 16) | mass;
+
+		invariant = (invariant << 8) | degree;
+
+		return mix(invariant);
+	}
+
+	/**
+	 * Delocalized bonds are considered independently from the Kekule structure of the parent molecule.
+	 * @param indexBond
+	 * @return
+	 */
+	private long getBondInvariant(int indexBond){
+
+		if(mol.isDelocalizedBond(indexBond)){
+			return BOND_DELOCALIZED;
+		}
+
+		return mol.getBondOrder(indexBond);
+	}
+
+	/**
+	 * Finalization step of the SplitMix64 generator.
+	 * @param z
+	 * @return
+	 */
+	private static long mix(long z){
+
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -31,6 +31,7 @@ public class Reactor {
 	private Reaction			mGenericReaction;
 	private	StereoMolecule[]	mReactant;
 	private ArrayList<StereoMolecule>[] mProductList;
+	private ArrayList<int[]>[]	mMatchList;
 	private SortedStringList[]	mIDCodeList;
 	private int[][]				mMinFreeValence;	// minimum required free valence on reactant atoms
 	private boolean[][]			mIsReactionCenter;	// reaction center flags on product atoms
@@ -40,12 +41,14 @@ public class Reactor {
         this(reaction, false);
         }
 
+    @SuppressWarnings("unchecked")
     public Reactor(Reaction reaction, boolean retainCoordinates) {
         // If retainCoordinates is true, then the relative orientation of the
         // generic product's atom coordinates are retained in the real products.
 		mGenericReaction = reaction;
 		mRetainCoordinates = retainCoordinates;
 		mReactant = new StereoMolecule[reaction.getReactants()];
+		mMatchList = new ArrayList[reaction.getReactants()];
 
 					// for sub-structure-search all generic reactants must be fragments
 		for (int i=0; i<reaction.getReactants(); i++) {
@@ -143,15 +146,61 @@ public class Reactor {
 		}
 
 
-	@SuppressWarnings("unchecked")
 	public void setReactant(int no, StereoMolecule reactant) {
+		setReactant(no, reactant, null);
+		}
+
+
+	/**
+	 * Defines a reactant together with its matches of the generic reactant,
+	 * which avoids repeating the substructure search, if the same reactant
+	 * is used for multiple products, e.g. in combinatorial library enumeration.
+	 * If a Reactor is used by one thread only, then the reactant and its match list
+	 * may be shared with other Reactors of the same reaction.
+	 * @param no
+	 * @param reactant reactant with correctly set parity flags
+	 * @param matchList null or match list created by getMatchList() for this reactant
+	 */
+	@SuppressWarnings("unchecked")
+	public void setReactant(int no, StereoMolecule reactant, ArrayList<int[]> matchList) {
 			// reactants need correctly set parity flags
 		mReactant[no] = reactant;
+		mMatchList[no] = matchList;
 		mProductList = new ArrayList[mGenericReaction.getProducts()];
 		mIDCodeList = new SortedStringList[mGenericReaction.getProducts()];
 		}
 
 
+	/**
+	 * Locates all matches of the generic reactant in the given reactant
+	 * excluding those, where the reaction would exceed an atom valence.
+	 * @param no
+	 * @param reactant
+	 * @return list of matching reactant atoms for every generic reactant atom, which is empty if no match was found
+	 */
+	public ArrayList<int[]> getMatchList(int no, StereoMolecule reactant) {
+		SSSearcher theSSSearcher = new SSSearcher();
+		theSSSearcher.setMol(mGenericReaction.getReactant(no), reactant);
+		if (theSSSearcher.findFragmentInMolecule(SSSearcher.cCountModeRigorous,
+											     SSSearcher.cMatchAtomCharge) == 0)
+			return new ArrayList<int[]>();
+
+		// eliminate matches where reaction would exceed an atom valence
+		ArrayList<int[]> matchList = theSSSearcher.getMatchList();
+		for (int j=matchList.size()-1; j>=0; j--) {
+			int[] matchingAtom = matchList.get(j);
+			for (int k=0; k<matchingAtom.length; k++) {
+				if (mMinFreeValence[no][k] > 0
+				 && mMinFreeValence[no][k] > reactant.getFreeValence(matchingAtom[k])) {
+				 	matchList.remove(j);
+				 	break;
+				 	}
+				}
+			}
+		return matchList;
+		}
+
+
 	public ArrayList<StereoMolecule> getProductList(int genericProductNo) {
 		if (mProductList[genericProductNo] == null)
 			generateProducts(genericProductNo);
@@ -188,28 +237,11 @@ public class Reactor {
 	public void generateProducts(int genericProductNo) {
 		mProductList[genericProductNo] = new ArrayList<StereoMolecule>();
 		mIDCodeList[genericProductNo] = new SortedStringList();
-		SSSearcher theSSSearcher = new SSSearcher();
-        @SuppressWarnings("unchecked")
-		ArrayList<int[]>[] matchList = new ArrayList[mReactant.length];
+		ArrayList<int[]>[] matchList = mMatchList;
 
 		for (int i=0; i<mReactant.length; i++) {
-			theSSSearcher.setMol(mGenericReaction.getReactant(i), mReactant[i]);
-			if (theSSSearcher.findFragmentInMolecule(SSSearcher.cCountModeRigorous,
-												     SSSearcher.cMatchAtomCharge) == 0)
-				return;
-
-			// eliminate matches where reaction would exceed an atom valence
-			matchList[i] = theSSSearcher.getMatchList();
-			for (int j=matchList[i].size()-1; j>=0; j--) {
-				int[] matchingAtom = matchList[i].get(j);
-				for (int k=0; k<matchingAtom.length; k++) {
-					if (mMinFreeValence[i][k] > 0
-					 && mMinFreeValence[i][k] > mReactant[i].getFreeValence(matchingAtom[k])) {
-					 	matchList[i].remove(j);
-					 	break;
-					 	}
-					}
-				}
+			if (matchList[i] == null)
+				matchList[i] = getMatchList(i, mReactant[i]);
 			if (matchList[i].size() == 0)
 				return;
 			}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.datawarrior;
+
+import com.actelion.research.chem.StereoMolecule;
+
+class CompoundTableAtomColorInfo {
+	static final int TYPE_SSS_FILTER = 1;
+	static final int TYPE_SIM_FILTER = 2;
+	static final int TYPE_CLUSTERING = 3;
+	static final int TYPE_SIM_TO_CURRENT = 4;
+
+    int idcodeColumn;
+    int type;
+    int exclusionFlag;  // used if atom coloring is associated with a filter
+	boolean inverse;
+	int[] bestMatch;	// query structure index of best match in case of a multi structure query
+	StereoMolecule[] refMol;
+	StructureHighlightCache highlightCache;	// lazily created cache of calculated atom and bond highlighting
+
+	public CompoundTableAtomColorInfo(int column,
+                                      int type,
+                                      int exclusionFlag,
+                                      boolean inverse,
+                                      StereoMolecule[] refMol) {
+        this.idcodeColumn = column;
+		this.type = type;
+		this.exclusionFlag = exclusionFlag;
+		this.inverse = inverse;
+		this.refMol = refMol;
+		}
+	}
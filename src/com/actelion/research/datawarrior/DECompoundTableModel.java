@@ -18,15 +18,11 @@
 
 package com.actelion.research.datawarrior;
 
-import java.util.ArrayList;
+import java.beans.ExceptionListener;
 import java.util.Arrays;
 import java.util.TreeMap;
 
-import com.actelion.research.chem.CoordinateInventor;
-import com.actelion.research.chem.Molecule;
-import com.actelion.research.chem.SSSearcher;
 import com.actelion.research.chem.StereoMolecule;
-import com.actelion.research.chem.mcs.MCS;
 import com.actelion.research.table.CompoundRecord;
 import com.actelion.research.table.CompoundTableEvent;
 import com.actelion.research.table.CompoundTableModel;
@@ -38,6 +34,7 @@ public class DECompoundTableModel extends CompoundTableModel {
     private static final long serialVersionUID = 0x20060904;
 
     private TreeMap<String,CompoundTableAtomColorInfo>	mColorInfoMap;
+    private int[]	mVisibleRowIndex;
 
 	public DECompoundTableModel() {
 		super();
@@ -60,7 +57,7 @@ public class DECompoundTableModel extends CompoundTableModel {
 	        	colorizeAtomsByFilter(record, idcodeColumn, mol);
 	        	break;
 	        case cStructureHiliteModeCurrentRow:
-	        	colorizeAtomsByCurrentRow(idcodeColumn, mol);
+	        	colorizeAtomsByCurrentRow(record, idcodeColumn, mol);
 	        	break;
 	        	}
         	}
@@ -89,6 +86,14 @@ public class DECompoundTableModel extends CompoundTableModel {
 		super.setSubStructureExclusion(flag, idcodeColumn, fragment, inverse);
 		}
 
+	@Override
+	public void setSubStructureExclusionAsync(int flag, int idcodeColumn, StereoMolecule[] fragment, boolean inverse, ExceptionListener failureListener) {
+		setAtomColorInfo(idcodeColumn, cStructureHiliteModeFilter,
+				new CompoundTableAtomColorInfo(idcodeColumn, CompoundTableAtomColorInfo.TYPE_SSS_FILTER,
+											   flag, inverse, fragment));
+		super.setSubStructureExclusionAsync(flag, idcodeColumn, fragment, inverse, failureListener);
+		}
+
 	@Override
 	public void setSimilarityExclusion(int flag, int descriptorColumn,
 									   StereoMolecule[] molecule,
@@ -135,6 +140,21 @@ public class DECompoundTableModel extends CompoundTableModel {
 
 	@Override
 	public void fireCompoundTableChanged(CompoundTableEvent e) {
+		if (e.getType() == CompoundTableEvent.cNewTable
+		 || e.getType() == CompoundTableEvent.cAddRows
+		 || e.getType() == CompoundTableEvent.cDeleteRows
+		 || e.getType() == CompoundTableEvent.cChangeExcluded
+		 || e.getType() == CompoundTableEvent.cChangeSortOrder)
+			mVisibleRowIndex = null;
+
+		if (e.getType() == CompoundTableEvent.cChangeColumnData)
+			invalidateHighlightCaches(e.getSpecifier());
+		else if (e.getType() == CompoundTableEvent.cNewTable
+		 || e.getType() == CompoundTableEvent.cAddRows
+		 || e.getType() == CompoundTableEvent.cDeleteRows
+		 || e.getType() == CompoundTableEvent.cRemoveColumns)
+			invalidateHighlightCaches(-1);
+
 		if (e.getType() == CompoundTableEvent.cChangeColumnData) {
 			updateCurrentRowColorInfo();
 			}
@@ -174,6 +194,11 @@ public class DECompoundTableModel extends CompoundTableModel {
 					colorInfo.refMol = new StereoMolecule[1];
 					colorInfo.refMol[0] = getChemicalStructure(currentRecord, colorInfo.idcodeColumn, CompoundTableModel.ATOM_COLOR_MODE_NONE, null);
 					}
+				if (colorInfo.highlightCache != null
+				 && (colorInfo.refMol == null || !colorInfo.highlightCache.matches(colorInfo))) {
+					colorInfo.highlightCache.invalidate();
+					colorInfo.highlightCache = null;
+					}
 				}
 			}
 		}
@@ -194,174 +219,88 @@ public class DECompoundTableModel extends CompoundTableModel {
     	return mColorInfoMap.get(cHiliteModeOption[type]+":"+getColumnTitleNoAlias(idcodeColumn));
     	}
 
+    /**
+     * Replaces the current color info. If the new one describes the same highlighting,
+     * e.g. if only the similarity limit of a filter changed, then already calculated
+     * highlighting is taken over. Otherwise, it is discarded.
+     */
     private void setAtomColorInfo(int idcodeColumn, int type, CompoundTableAtomColorInfo colorInfo) {
-    	mColorInfoMap.put(cHiliteModeOption[type]+":"+getColumnTitleNoAlias(idcodeColumn), colorInfo);
+    	CompoundTableAtomColorInfo oldColorInfo = mColorInfoMap.put(cHiliteModeOption[type]+":"+getColumnTitleNoAlias(idcodeColumn), colorInfo);
+    	if (oldColorInfo != null && oldColorInfo.highlightCache != null) {
+    		if (colorInfo != null && oldColorInfo.highlightCache.matches(colorInfo))
+    			colorInfo.highlightCache = oldColorInfo.highlightCache;
+    		else
+    			oldColorInfo.highlightCache.invalidate();
+    		}
     	}
 
-    private void colorizeAtomsByFilter(CompoundRecord record, int idcodeColumn, StereoMolecule mol) {
-    	CompoundTableAtomColorInfo colorInfo = getAtomColorInfo(idcodeColumn, cStructureHiliteModeFilter);
+    private StructureHighlightCache getHighlightCache(CompoundTableAtomColorInfo colorInfo) {
+    	if (colorInfo.highlightCache == null)
+    		colorInfo.highlightCache = new StructureHighlightCache(this, colorInfo);
+    	return colorInfo.highlightCache;
+    	}
 
-    	if (colorInfo != null
-    	 && colorInfo.type == CompoundTableAtomColorInfo.TYPE_SSS_FILTER
-		 && !colorInfo.inverse) {
-			StereoMolecule[] fragment = colorInfo.refMol;
-    		if (fragment.length != 1 && colorInfo.bestMatch == null) {
-    			colorInfo.bestMatch = new int[getTotalRowCount()];
-    			Arrays.fill(colorInfo.bestMatch, -1);
-    			}
-		    SSSearcher searcher = new SSSearcher();
-		    if (fragment.length != 1 && colorInfo.bestMatch[record.getID()] == -1) {
-		    	int maxFragmentSize = 0;
-				for (int i=0; i<fragment.length; i++) {
-					if (fragment[i].getAtoms() > maxFragmentSize) {
-						searcher.setMol(fragment[i], mol);
-						if (searcher.isFragmentInMolecule(SSSearcher.cDefaultMatchMode)) {
-							maxFragmentSize = fragment[i].getAtoms();
-							colorInfo.bestMatch[record.getID()] = i;
-							}
-						}
-					}
-		    	}
-		    int maxFragmentIndex = (colorInfo.bestMatch != null) ? colorInfo.bestMatch[record.getID()] : 0;
-			searcher.setMol(fragment[maxFragmentIndex], mol);
-			searcher.findFragmentInMolecule(SSSearcher.cCountModeOverlapping, SSSearcher.cDefaultMatchMode);
-			ArrayList<int[]> matchList = searcher.getMatchList();
-			if (matchList != null) {
-                for (int[] matching:matchList)
-					for (int k=0; k<matching.length; k++)
-						if (mol.getAtomColor(matching[k]) == Molecule.cAtomColorBlack)
-							mol.setAtomColor(matching[k], Molecule.cAtomColorDarkRed);
+    /**
+     * @param idcodeColumn -1 or the column whose structures changed
+     */
+    private void invalidateHighlightCaches(int idcodeColumn) {
+		for (CompoundTableAtomColorInfo colorInfo:mColorInfoMap.values()) {
+			if (colorInfo.highlightCache != null
+			 && (idcodeColumn == -1 || idcodeColumn == colorInfo.idcodeColumn)) {
+				colorInfo.highlightCache.invalidate();
+				colorInfo.highlightCache = null;
 				}
-            }
-
-		if (colorInfo != null
-		 && colorInfo.type == CompoundTableAtomColorInfo.TYPE_SIM_FILTER
-		 && !colorInfo.inverse) {
-			int bestMatch = (colorInfo.bestMatch == null) ? 0 : colorInfo.bestMatch[record.getID()];
-			colorizeByMCS(colorInfo.refMol[bestMatch], mol, Molecule.cAtomColorDarkGreen, false, false);
 			}
     	}
 
-    private void colorizeAtomsByCurrentRow(int idcodeColumn, StereoMolecule mol) {
+    /**
+     * @param record
+     * @return index of the record among the currently visible rows or -1, if it is not visible
+     */
+    public int getVisibleRowIndex(CompoundRecord record) {
+    	int[] visibleRowIndex = mVisibleRowIndex;
+    	if (visibleRowIndex == null || visibleRowIndex.length != getTotalRowCount()) {
+    		visibleRowIndex = new int[getTotalRowCount()];
+    		Arrays.fill(visibleRowIndex, -1);
+    		for (int row=0; row<getRowCount(); row++)
+    			visibleRowIndex[getRecord(row).getID()] = row;
+    		mVisibleRowIndex = visibleRowIndex;
+    		}
+
+    	int id = record.getID();
+    	if (id >= visibleRowIndex.length)
+    		return -1;
+    	int row = visibleRowIndex[id];
+    	return (row != -1 && row < getRowCount() && getRecord(row) == record) ? row : -1;
+    	}
+
+    private void colorizeAtomsByFilter(CompoundRecord record, int idcodeColumn, StereoMolecule mol) {
+    	CompoundTableAtomColorInfo colorInfo = getAtomColorInfo(idcodeColumn, cStructureHiliteModeFilter);
+    	if (colorInfo != null
+    	 && (colorInfo.type == CompoundTableAtomColorInfo.TYPE_SSS_FILTER
+    	  || colorInfo.type == CompoundTableAtomColorInfo.TYPE_SIM_FILTER)
+		 && !colorInfo.inverse)
+			getHighlightCache(colorInfo).colorize(record, mol);
+    	}
+
+    private void colorizeAtomsByCurrentRow(CompoundRecord record, int idcodeColumn, StereoMolecule mol) {
     	CompoundTableAtomColorInfo colorInfo = getAtomColorInfo(idcodeColumn, cStructureHiliteModeCurrentRow);
 		if (colorInfo != null
 		 && colorInfo.refMol != null
 		 && colorInfo.type == CompoundTableAtomColorInfo.TYPE_SIM_TO_CURRENT
-		 && !colorInfo.inverse) {
-			colorizeByMCS(colorInfo.refMol[0], mol, Molecule.cAtomColorBlue, true, true);
-            }
-    	}
-
-    private void colorizeByMCS(StereoMolecule refMol, StereoMolecule mol, int color, boolean hiliteBonds, boolean addNonMCSRefMolFragments) {
-		MCS mcsSearcher = new MCS();
-		mcsSearcher.set(mol, refMol);
-		StereoMolecule mcs = mcsSearcher.getMCS();
-		if (mcs != null && (mcs.getAllAtoms() >= mol.getAllAtoms() / 2)) {
-		    SSSearcher sssSearcher = new SSSearcher();
-		    sssSearcher.setMol(mcs, mol);
-			boolean[] isMatchingAtom = null;
-			boolean[] isMatchingBond = null;
-			if (sssSearcher.findFragmentInMolecule(SSSearcher.cCountModeFirstMatch, SSSearcher.cDefaultMatchMode) == 1) {
-	            int[] molMatch = sssSearcher.getMatchList().get(0);
-	    		if (hiliteBonds) {
-	    			isMatchingBond = new boolean[mol.getBonds()];
-	    			for (int bond=0; bond<mcs.getBonds(); bond++)
-	    				isMatchingBond[mol.getBond(molMatch[mcs.getBondAtom(0, bond)], molMatch[mcs.getBondAtom(1, bond)])] = true;
-	    			}
-	    		else {
-	    			isMatchingAtom = new boolean[mol.getAtoms()];
-					for (int k=0; k<molMatch.length; k++)
-						isMatchingAtom[molMatch[k]] = true;
-	    			}
-	
-	    		if (isMatchingBond != null) {
-					for (int bond=0; bond<mol.getBonds(); bond++)
-						mol.setBondBackgroundHiliting(bond, !isMatchingBond[bond]);
-					}
-		
-				if (isMatchingAtom != null) {
-					for (int atom=0; atom<mol.getAtoms(); atom++)
-						if (isMatchingAtom[atom]
-						 && mol.getAtomColor(atom) == Molecule.cAtomColorBlack)
-							mol.setAtomColor(atom, color);
-					}
-	
-				if (addNonMCSRefMolFragments) {
-				    sssSearcher.setMolecule(refMol);
-					isMatchingAtom = null;
-					isMatchingBond = null;
-					if (sssSearcher.findFragmentInMolecule(SSSearcher.cCountModeFirstMatch, SSSearcher.cDefaultMatchMode) == 1) {
-						int originalMolAtomCount = mol.getAtoms();
-			            int[] refMatch = sssSearcher.getMatchList().get(0);
-	
-			            isMatchingBond = new boolean[refMol.getBonds()];
-		    			for (int bond=0; bond<mcs.getBonds(); bond++)
-		    				isMatchingBond[refMol.getBond(refMatch[mcs.getBondAtom(0, bond)], refMatch[mcs.getBondAtom(1, bond)])] = true;
-	
-		    			isMatchingAtom = new boolean[refMol.getAtoms()];
-						for (int k=0; k<refMatch.length; k++)
-							isMatchingAtom[refMatch[k]] = true;
-	
-		    			int[] molAtom = new int[refMol.getAtoms()];
-						for (int atom=0; atom<refMol.getAtoms(); atom++) {
-							if (!isMatchingAtom[atom]) {
-								molAtom[atom] = refMol.copyAtom(mol, atom, 0, 0);	// TODO correct ESR pre- and post-processing
-								}
-							}
-	
-						// add all mcs atom to match refMol atom indices to destination mol atom indices
-						for (int atom=0; atom<mcs.getAtoms(); atom++)
-							molAtom[refMatch[atom]] = molMatch[atom];
-	
-						for (int bond=0; bond<refMol.getBonds(); bond++) {
-							if (!isMatchingBond[bond]) {
-								int destBond = refMol.copyBond(mol, bond, 0, 0, molAtom, true);	// TODO correct ESR pre- and post-processing
-								mol.setBondForegroundHiliting(destBond, true);
-								}
-							}
-	
-						for (int atom=0; atom<originalMolAtomCount; atom++)
-							mol.setAtomMarker(atom, true);
-						new CoordinateInventor(CoordinateInventor.MODE_REMOVE_HYDROGEN | CoordinateInventor.MODE_PREFER_MARKED_ATOM_COORDS).invent(mol);
-						}
-					}
-				}
-			}
+		 && !colorInfo.inverse)
+			getHighlightCache(colorInfo).colorize(record, mol);
     	}
 
 	private void removeFromList(int exclusionFlag) {
 		for (String key:mColorInfoMap.keySet()) {
 			CompoundTableAtomColorInfo colorInfo = mColorInfoMap.get(key);
 			if (colorInfo.exclusionFlag == exclusionFlag) {
+				if (colorInfo.highlightCache != null)
+					colorInfo.highlightCache.invalidate();
 				mColorInfoMap.remove(key);
 				return;
 				}
 			}
 		}
 	}
-
-class CompoundTableAtomColorInfo {
-	static final int TYPE_SSS_FILTER = 1;
-	static final int TYPE_SIM_FILTER = 2;
-	static final int TYPE_CLUSTERING = 3;
-	static final int TYPE_SIM_TO_CURRENT = 4;
-
-    int idcodeColumn;
-    int type;
-    int exclusionFlag;  // used if atom coloring is associated with a filter
-	boolean inverse;
-	int[] bestMatch;	// query structure index of best match in case of a multi structure query
-	StereoMolecule[] refMol;
-
-	public CompoundTableAtomColorInfo(int column,
-                                      int type,
-                                      int exclusionFlag,
-                                      boolean inverse,
-                                      StereoMolecule[] refMol) {
-        this.idcodeColumn = column;
-		this.type = type;
-		this.exclusionFlag = exclusionFlag;
-		this.inverse = inverse;
-		this.refMol = refMol;
-		}
-	}
@@ -120,6 +120,11 @@ public class DEDetailPane extends JMultiPanelView implements HighlightListener,C
                 if (e.getSpecifier() == viewInfo.column)
                     updateDetailView(viewInfo);
             }
+        else if (e.getType() == CompoundTableEvent.cChangeStructureHighlighting) {
+            for (DetailViewInfo viewInfo:mDetailViewList)
+                if (e.getSpecifier() == viewInfo.column && viewInfo.type.equals(STRUCTURE))
+                    updateDetailView(viewInfo);
+            }
 		else if (e.getType() == CompoundTableEvent.cRemoveColumns) {
 			for (int i=mDetailViewList.size()-1; i>=0; i--) {
 				DetailViewInfo viewInfo = mDetailViewList.get(i);
@@ -263,6 +268,9 @@ public class DEDetailPane extends JMultiPanelView implements HighlightListener,C
 	            updateDetailView(viewInfo);
 	
 			mDetailModel.detailChanged(record);
+
+			if (mTableModel.getDetailHandler() != null)
+				mTableModel.getDetailHandler().prefetchAdjacentDetails(record);
     		}
 		}
 
@@ -31,14 +31,20 @@ import java.util.prefs.Preferences;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
+import com.actelion.research.chem.SSSearcherWithIndex;
+import com.actelion.research.chem.prediction.DruglikenessPredictorWithIndex;
+import com.actelion.research.chem.prediction.ToxicityPredictor;
 import com.actelion.research.datawarrior.task.DEMacroRecorder;
 import com.actelion.research.datawarrior.task.DETaskSelectWindow;
 import com.actelion.research.datawarrior.task.StandardTaskFactory;
 import com.actelion.research.datawarrior.task.file.DETaskOpenFile;
 import com.actelion.research.datawarrior.task.file.DETaskRunMacroFromFile;
+import com.actelion.research.forcefield.interaction.ClassInteractionStatistics;
+import com.actelion.research.forcefield.mm2.MM2Parameters;
 import com.actelion.research.gui.FileHelper;
 import com.actelion.research.table.CompoundTableDetailHandler;
 import com.actelion.research.table.CompoundTableModel;
+import com.actelion.research.util.KnowledgeBaseRegistry;
 import com.actelion.research.util.Platform;
 
 public class DataWarrior implements WindowFocusListener {
@@ -83,6 +89,36 @@ public class DataWarrior implements WindowFocusListener {
 			}
 
 		mTaskFactory = createTaskFactory();
+
+		registerKnowledgeBases();
+		KnowledgeBaseRegistry.startWarmUp();
+		}
+
+	/**
+	 * Registers all knowledge bases that are parsed from resources on first usage.
+	 * They are loaded in the background after the first window is shown to avoid
+	 * a delay when the first task using them is run. Derived classes may
+	 * override this to register additional knowledge bases.
+	 */
+	public void registerKnowledgeBases() {
+		KnowledgeBaseRegistry.register("substructure search keys", new Runnable() {
+			public void run() { new SSSearcherWithIndex(); }
+			});
+		KnowledgeBaseRegistry.register("MM2 parameters", new Runnable() {
+			public void run() { MM2Parameters.getInstance(); }
+			});
+		KnowledgeBaseRegistry.register("druglikeness increments", new Runnable() {
+			public void run() { new DruglikenessPredictorWithIndex(); }
+			});
+		KnowledgeBaseRegistry.register("toxicity risk fragments", new Runnable() {
+			public void run() { new ToxicityPredictor(); }
+			});
+		KnowledgeBaseRegistry.register("protein-ligand interaction statistics", new Runnable() {
+			public void run() {
+				if (ClassInteractionStatistics.getInstance() == null)
+					throw new RuntimeException("Interaction statistics could not be read.");
+				}
+			});
 		}
 
 	public StandardTaskFactory createTaskFactory() {
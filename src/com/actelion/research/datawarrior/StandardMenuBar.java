@@ -112,6 +112,7 @@ import com.actelion.research.datawarrior.task.file.DETaskExportMacro;
 import com.actelion.research.datawarrior.task.file.DETaskImportMacro;
 import com.actelion.research.datawarrior.task.file.DETaskMergeFile;
 import com.actelion.research.datawarrior.task.file.DETaskNewFile;
+import com.actelion.research.datawarrior.task.file.DETaskNewFileFromGrouping;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromPivoting;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromReversePivoting;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromSelection;
@@ -163,7 +164,7 @@ public class StandardMenuBar extends JMenuBar implements ActionListener,
 	private JMenu jMenuFileOpenSpecial,jMenuFileSaveSpecial,jMenuDataRemoveRows,jMenuDataSelfOrganizingMap,jMenuDataSetRange,
 				  jMenuDataViewLogarithmic,jMenuChemAddDescriptor,jMenuListCreate,jMenuMacroExport,jMenuMacroRun;
 
-	private JMenuItem jMenuFileNew,jMenuFileNewFromSelection,jMenuFileNewFromPivoting,jMenuFileNewFromReversePivoting,
+	private JMenuItem jMenuFileNew,jMenuFileNewFromSelection,jMenuFileNewFromPivoting,jMenuFileNewFromReversePivoting,jMenuFileNewFromGrouping,
 					  jMenuFileOpen,jMenuFileOpenMacro,jMenuFileOpenTemplate,jMenuFileOpenMDLReactions,jMenuFileMerge,
 					  jMenuFileAppend,jMenuFileClose,jMenuFileCloseAll,jMenuFileSave,jMenuFileSaveAs,jMenuFileSaveText,
 					  jMenuFileSaveSDF,jMenuFileSaveTemplate,jMenuFileSaveVisibleAs,jMenuFilePageFormat,
@@ -220,6 +221,7 @@ public class StandardMenuBar extends JMenuBar implements ActionListener,
 		jMenuFileNewFromSelection = new JMenuItem();
 		jMenuFileNewFromPivoting = new JMenuItem();
 		jMenuFileNewFromReversePivoting = new JMenuItem();
+		jMenuFileNewFromGrouping = new JMenuItem();
 		jMenuFileOpen = new JMenuItem();
 		jMenuFileOpenSpecial = new JMenu();
 		jMenuFileOpenMacro = new JMenuItem();
@@ -251,6 +253,8 @@ public class StandardMenuBar extends JMenuBar implements ActionListener,
 		jMenuFileNewFromPivoting.addActionListener(this);
 		jMenuFileNewFromReversePivoting.setText("New From Reverse Pivoting...");
 		jMenuFileNewFromReversePivoting.addActionListener(this);
+		jMenuFileNewFromGrouping.setText("New From Grouping...");
+		jMenuFileNewFromGrouping.addActionListener(this);
 		jMenuFileOpen.setText("Open...");
 		jMenuFileOpen.setAccelerator(KeyStroke.getKeyStroke('O', MENU_MASK));
 		jMenuFileOpen.addActionListener(this);
@@ -304,6 +308,7 @@ public class StandardMenuBar extends JMenuBar implements ActionListener,
 		jMenuFile.add(jMenuFileNewFromSelection);
 		jMenuFile.add(jMenuFileNewFromPivoting);
 		jMenuFile.add(jMenuFileNewFromReversePivoting);
+		jMenuFile.add(jMenuFileNewFromGrouping);
 		jMenuFile.addSeparator();
 		jMenuFile.add(jMenuFileOpen);
 		jMenuFileOpenSpecial.add(jMenuFileOpenTemplate);
@@ -926,6 +931,8 @@ public class StandardMenuBar extends JMenuBar implements ActionListener,
 				new DETaskNewFileFromPivoting(mParentFrame, mApplication).defineAndRun();
 			else if (source == jMenuFileNewFromReversePivoting)
 				new DETaskNewFileFromReversePivoting(mParentFrame, mApplication).defineAndRun();
+			else if (source == jMenuFileNewFromGrouping)
+				new DETaskNewFileFromGrouping(mParentFrame, mApplication).defineAndRun();
 			else if (actionCommand.startsWith(OPEN_FILE))	// these are the reference,sample,etc-files
 				new DETaskOpenFile(mApplication, actionCommand.substring(OPEN_FILE.length())).defineAndRun();
 			else if (source == jMenuFileOpen)
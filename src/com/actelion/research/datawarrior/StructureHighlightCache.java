@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.datawarrior;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import com.actelion.research.chem.Canonizer;
+import com.actelion.research.chem.CoordinateInventor;
+import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.SSSearcher;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.mcs.MCS;
+import com.actelion.research.table.CompoundRecord;
+import com.actelion.research.table.CompoundTableModel;
+
+/**
+ * Caches the atom and bond highlighting of all rows for one structure column and one
+ * highlighting state, i.e. the substructure or similarity filter query or the current
+ * row's structure. Highlighting requires a substructure search or even a maximum
+ * common substructure search per row, which is now done only once per row rather than
+ * with every repaint. The result is kept as compact bit masks of the atoms and bonds to
+ * be highlighted. Whenever a row is painted, its neighbours in the current row order
+ * are queued for calculation on a shared pool of background threads, which handles
+ * the most recent requests first. Thus, rows in and near the visible area are mostly
+ * calculated, before they need to be painted. If the highlighting of a row painted on
+ * the event dispatch thread is not available yet, the row is painted without highlighting
+ * and is calculated before all other queued rows. Once available, views are told to paint
+ * the structures again. Highlighting needed by other threads, e.g. for printing,
+ * is calculated right away.<br>
+ * A cache is never updated. If the highlighting state changes, it is invalidated and replaced.
+ */
+class StructureHighlightCache {
+	private static final int PREFETCH_ROWS = 48;
+	private static final int REFRESH_DELAY = 100;	// millis to collect rows that need to be painted again
+	private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+
+	private static ExecutorService sExecutor;
+
+	private DECompoundTableModel	mTableModel;
+	private StereoMolecule[]		mRefMol;
+	private int[]					mBestMatch;
+	private int						mIDCodeColumn,mType;
+	private String					mQueryKey;
+	private Highlight[]				mHighlight;
+	private boolean[]				mIsRequested;
+	private AtomicIntegerArray		mIsPaintedUncolored;
+	private final AtomicBoolean		mIsRefreshScheduled = new AtomicBoolean();
+	private volatile boolean		mIsValid;
+
+	/**
+	 * @param tableModel
+	 * @param colorInfo describes the highlighting type and query
+	 */
+	public StructureHighlightCache(DECompoundTableModel tableModel, CompoundTableAtomColorInfo colorInfo) {
+		mTableModel = tableModel;
+		mIDCodeColumn = colorInfo.idcodeColumn;
+		mType = colorInfo.type;
+		mRefMol = colorInfo.refMol;
+		mBestMatch = colorInfo.bestMatch;
+		mHighlight = new Highlight[tableModel.getTotalRowCount()];
+		mIsRequested = new boolean[tableModel.getTotalRowCount()];
+		mIsPaintedUncolored = new AtomicIntegerArray(tableModel.getTotalRowCount());
+		mQueryKey = createQueryKey(mRefMol);
+		mIsValid = true;
+
+		// background threads work on copies, but the reference molecules must not change anymore
+		for (StereoMolecule refMol:mRefMol)
+			refMol.ensureHelperArrays(Molecule.cHelperNeighbours);
+		}
+
+	/**
+	 * @param colorInfo
+	 * @return whether this cache contains the highlighting defined by colorInfo
+	 */
+	public boolean matches(CompoundTableAtomColorInfo colorInfo) {
+		return mIsValid
+			&& mIDCodeColumn == colorInfo.idcodeColumn
+			&& mType == colorInfo.type
+			&& colorInfo.refMol != null
+			&& Arrays.equals(mBestMatch, colorInfo.bestMatch)
+			&& mQueryKey.equals(createQueryKey(colorInfo.refMol));
+		}
+
+	/**
+	 * Stops pending calculations. Afterwards, this cache must not be used anymore.
+	 */
+	public void invalidate() {
+		mIsValid = false;
+		}
+
+	/**
+	 * Highlights the atoms and bonds of mol, which represents the structure of the given record,
+	 * and queues neighbour rows for calculation. On the event dispatch thread mol is left
+	 * unchanged, if the highlighting is not available yet.
+	 * @param record
+	 * @param mol
+	 */
+	public void colorize(CompoundRecord record, StereoMolecule mol) {
+		int id = record.getID();
+		if (id >= mHighlight.length)
+			return;
+
+		prefetch(record);
+
+		Highlight highlight = mHighlight[id];
+		if (highlight == null && SwingUtilities.isEventDispatchThread()) {
+			// while a row painted without highlighting is pending, repaints must not queue it again
+			boolean isPending = (mIsPaintedUncolored.getAndSet(id, 1) != 0);
+			highlight = mHighlight[id];
+			if (highlight == null) {
+				if (!isPending)
+					submit(record, id);	// submitted last to be calculated first
+				return;
+				}
+			}
+
+		// the structure may have been parsed differently in the background, e.g. from a multi-structure cell
+		if (highlight == null || (highlight != Highlight.NONE && highlight.atomCount != mol.getAllAtoms())) {
+			highlight = calculate(mol, id);
+			mHighlight[id] = highlight;
+			mIsRequested[id] = true;
+			}
+
+		apply(highlight, mol);
+		}
+
+	private void prefetch(CompoundRecord record) {
+		int row = mTableModel.getVisibleRowIndex(record);
+		if (row == -1)
+			return;
+
+		// queue the more distant rows first, because the most recent requests are handled first
+		int rowCount = mTableModel.getRowCount();
+		for (int distance=PREFETCH_ROWS; distance>0; distance--) {
+			request(row+distance, rowCount);
+			request(row-distance, rowCount);
+			}
+		}
+
+	private void request(int row, int rowCount) {
+		if (row < 0 || row >= rowCount)
+			return;
+
+		CompoundRecord record = mTableModel.getRecord(row);
+		int id = record.getID();
+		if (id >= mHighlight.length || mIsRequested[id])
+			return;
+
+		submit(record, id);
+		}
+
+	/**
+	 * Queues the calculation of the record's highlighting. If the record was painted
+	 * without highlighting, then a repaint is scheduled once the highlighting is available.
+	 * In any case the record's painted-uncolored flag is cleared, which allows the
+	 * record to be queued again, if its highlighting could not be calculated.
+	 * @param record
+	 * @param id record ID
+	 */
+	private void submit(final CompoundRecord record, final int id) {
+		mIsRequested[id] = true;
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (mIsValid && mHighlight[id] == null) {
+					StereoMolecule mol = mTableModel.getChemicalStructure(record, mIDCodeColumn, CompoundTableModel.ATOM_COLOR_MODE_NONE, null);
+					if (mol != null)
+						mHighlight[id] = calculate(mol, id);
+					}
+				if (mIsPaintedUncolored.getAndSet(id, 0) != 0 && mIsValid && mHighlight[id] != null)
+					scheduleRefresh();
+				}
+			});
+		}
+
+	/**
+	 * Lets all views paint the structures again after a short delay, which collects
+	 * all rows that become available in the meantime into one repaint.
+	 */
+	private void scheduleRefresh() {
+		if (mIsRefreshScheduled.compareAndSet(false, true)) {
+			Timer timer = new Timer(REFRESH_DELAY, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					mIsRefreshScheduled.set(false);
+					if (mIsValid)
+						mTableModel.fireStructureHighlightingChanged(mIDCodeColumn);
+					}
+				});
+			timer.setRepeats(false);
+			timer.start();
+			}
+		}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			// a last-in-first-out queue lets recently painted rows overtake earlier requests
+			sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingDeque<Runnable>() {
+						private static final long serialVersionUID = 20150101L;
+
+						@Override
+						public boolean offer(Runnable r) {
+							return offerFirst(r);
+							}
+						},
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "Structure Highlighter");
+							t.setDaemon(true);
+							t.setPriority(Thread.MIN_PRIORITY);
+							return t;
+							}
+						});
+			}
+		return sExecutor;
+		}
+
+	private String createQueryKey(StereoMolecule[] refMol) {
+		StringBuilder key = new StringBuilder();
+		for (StereoMolecule mol:refMol)
+			key.append(new Canonizer(new StereoMolecule(mol)).getIDCode()).append('\n');
+		return key.toString();
+		}
+
+	/**
+	 * Calculates the highlighting of mol. The reference molecules are copied, because
+	 * this may run on multiple threads and the searchers modify their query molecules.
+	 * @param mol
+	 * @param id record ID
+	 * @return
+	 */
+	private Highlight calculate(StereoMolecule mol, int id) {
+		switch (mType) {
+		case CompoundTableAtomColorInfo.TYPE_SSS_FILTER:
+			return calculateSSSHighlight(mol);
+		case CompoundTableAtomColorInfo.TYPE_SIM_FILTER:
+			int bestMatch = (mBestMatch == null) ? 0 : mBestMatch[id];
+			return calculateMCSHighlight(new StereoMolecule(mRefMol[bestMatch]), mol, false, false);
+		case CompoundTableAtomColorInfo.TYPE_SIM_TO_CURRENT:
+			return calculateMCSHighlight(new StereoMolecule(mRefMol[0]), mol, true, true);
+		default:
+			return Highlight.NONE;
+			}
+		}
+
+	private Highlight calculateSSSHighlight(StereoMolecule mol) {
+		SSSearcher searcher = new SSSearcher();
+		int bestMatch = 0;
+		if (mRefMol.length != 1) {
+			bestMatch = -1;
+			int maxFragmentSize = 0;
+			for (int i=0; i<mRefMol.length; i++) {
+				if (mRefMol[i].getAtoms() > maxFragmentSize) {
+					searcher.setMol(new StereoMolecule(mRefMol[i]), mol);
+					if (searcher.isFragmentInMolecule(SSSearcher.cDefaultMatchMode)) {
+						maxFragmentSize = mRefMol[i].getAtoms();
+						bestMatch = i;
+						}
+					}
+				}
+			if (bestMatch == -1)
+				return Highlight.NONE;
+			}
+
+		searcher.setMol(new StereoMolecule(mRefMol[bestMatch]), mol);
+		searcher.findFragmentInMolecule(SSSearcher.cCountModeOverlapping, SSSearcher.cDefaultMatchMode);
+		ArrayList<int[]> matchList = searcher.getMatchList();
+		if (matchList == null || matchList.size() == 0)
+			return Highlight.NONE;
+
+		long[] atomMask = createMask(mol.getAllAtoms());
+		for (int[] matching:matchList)
+			for (int atom:matching)
+				setBit(atomMask, atom);
+		return new Highlight(mol.getAllAtoms(), atomMask, null, null, null);
+		}
+
+	private Highlight calculateMCSHighlight(StereoMolecule refMol, StereoMolecule mol, boolean hiliteBonds, boolean addNonMCSRefMolFragments) {
+		MCS mcsSearcher = new MCS();
+		mcsSearcher.set(mol, refMol);
+		StereoMolecule mcs = mcsSearcher.getMCS();
+		if (mcs == null || mcs.getAllAtoms() < mol.getAllAtoms() / 2)
+			return Highlight.NONE;
+
+		SSSearcher sssSearcher = new SSSearcher();
+		sssSearcher.setMol(mcs, mol);
+		if (sssSearcher.findFragmentInMolecule(SSSearcher.cCountModeFirstMatch, SSSearcher.cDefaultMatchMode) != 1)
+			return Highlight.NONE;
+
+		int[] molMatch = sssSearcher.getMatchList().get(0);
+		long[] atomMask = null;
+		long[] bondMask = null;
+		if (hiliteBonds) {
+			bondMask = createMask(mol.getBonds());
+			for (int bond=0; bond<mcs.getBonds(); bond++)
+				setBit(bondMask, mol.getBond(molMatch[mcs.getBondAtom(0, bond)], molMatch[mcs.getBondAtom(1, bond)]));
+			}
+		else {
+			atomMask = createMask(mol.getAtoms());
+			for (int atom:molMatch)
+				setBit(atomMask, atom);
+			}
+
+		int[] refMolAtom = null;
+		long[] refBondMask = null;
+		if (addNonMCSRefMolFragments) {
+			sssSearcher.setMolecule(refMol);
+			if (sssSearcher.findFragmentInMolecule(SSSearcher.cCountModeFirstMatch, SSSearcher.cDefaultMatchMode) == 1) {
+				int[] refMatch = sssSearcher.getMatchList().get(0);
+
+				refBondMask = createMask(refMol.getBonds());
+				for (int bond=0; bond<mcs.getBonds(); bond++)
+					setBit(refBondMask, refMol.getBond(refMatch[mcs.getBondAtom(0, bond)], refMatch[mcs.getBondAtom(1, bond)]));
+
+				refMolAtom = new int[refMol.getAtoms()];
+				Arrays.fill(refMolAtom, -1);
+				for (int atom=0; atom<mcs.getAtoms(); atom++)
+					refMolAtom[refMatch[atom]] = molMatch[atom];
+				}
+			}
+
+		return new Highlight(mol.getAllAtoms(), atomMask, bondMask, refMolAtom, refBondMask);
+		}
+
+	private void apply(Highlight highlight, StereoMolecule mol) {
+		if (highlight == Highlight.NONE)
+			return;
+
+		mol.ensureHelperArrays(Molecule.cHelperNeighbours);
+
+		if (highlight.bondMask != null)
+			for (int bond=0; bond<mol.getBonds(); bond++)
+				mol.setBondBackgroundHiliting(bond, !isSet(highlight.bondMask, bond));
+
+		if (highlight.atomMask != null) {
+			int color = (mType == CompoundTableAtomColorInfo.TYPE_SSS_FILTER) ?
+					Molecule.cAtomColorDarkRed : Molecule.cAtomColorDarkGreen;
+			for (int atom=0; atom<mol.getAllAtoms(); atom++)
+				if (isSet(highlight.atomMask, atom)
+				 && mol.getAtomColor(atom) == Molecule.cAtomColorBlack)
+					mol.setAtomColor(atom, color);
+			}
+
+		if (highlight.refMolAtom != null) {
+			StereoMolecule refMol = mRefMol[0];
+			int originalMolAtomCount = mol.getAtoms();
+
+			int[] molAtom = new int[highlight.refMolAtom.length];
+			for (int atom=0; atom<molAtom.length; atom++)
+				molAtom[atom] = (highlight.refMolAtom[atom] == -1) ?
+						refMol.copyAtom(mol, atom, 0, 0)	// TODO correct ESR pre- and post-processing
+					  : highlight.refMolAtom[atom];
+
+			for (int bond=0; bond<refMol.getBonds(); bond++) {
+				if (!isSet(highlight.refBondMask, bond)) {
+					int destBond = refMol.copyBond(mol, bond, 0, 0, molAtom, true);	// TODO correct ESR pre- and post-processing
+					mol.setBondForegroundHiliting(destBond, true);
+					}
+				}
+
+			for (int atom=0; atom<originalMolAtomCount; atom++)
+				mol.setAtomMarker(atom, true);
+			new CoordinateInventor(CoordinateInventor.MODE_REMOVE_HYDROGEN | CoordinateInventor.MODE_PREFER_MARKED_ATOM_COORDS).invent(mol);
+			}
+		}
+
+	private static long[] createMask(int size) {
+		return new long[(size+63) >> 6];
+		}
+
+	private static void setBit(long[] mask, int index) {
+		if (index >= 0 && index < (mask.length << 6))
+			mask[index >> 6] |= 1L << (index & 63);
+		}
+
+	private static boolean isSet(long[] mask, int index) {
+		return (index >> 6) < mask.length && (mask[index >> 6] & (1L << (index & 63))) != 0;
+		}
+
+	/**
+	 * Highlighting of one row with atomCount atoms: atoms to be colored, bonds not to be background highlighted,
+	 * and, if the reference molecule's non-matching parts are shown, the molecule atom of
+	 * every matching reference molecule atom (-1 if not matching) and the matching reference bonds.
+	 */
+	private static class Highlight {
+		static final Highlight NONE = new Highlight(0, null, null, null, null);
+
+		final int atomCount;
+		final long[] atomMask,bondMask,refBondMask;
+		final int[] refMolAtom;
+
+		Highlight(int atomCount, long[] atomMask, long[] bondMask, int[] refMolAtom, long[] refBondMask) {
+			this.atomCount = atomCount;
+			this.atomMask = atomMask;
+			this.bondMask = bondMask;
+			this.refMolAtom = refMolAtom;
+			this.refBondMask = refBondMask;
+			}
+		}
+	}
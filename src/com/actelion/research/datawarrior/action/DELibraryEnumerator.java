@@ -0,0 +1,417 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.datawarrior.action;
+
+import java.awt.Frame;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.JFileChooser;
+
+import com.actelion.research.chem.IDCodeParser;
+import com.actelion.research.chem.MolfileCreator;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.io.CompoundTableConstants;
+import com.actelion.research.gui.FileHelper;
+import com.actelion.research.gui.JFileChooserOverwrite;
+import com.actelion.research.gui.JProgressDialog;
+import com.actelion.research.table.BlockPipeline;
+import com.actelion.research.table.CompoundTableEvent;
+import com.actelion.research.table.CompoundTableModel;
+import com.actelion.research.table.CompoundTableSaver;
+import com.actelion.research.util.ByteArrayHashTable;
+
+/**
+ * Enumerates a virtual compound library, e.g. a combinatorial library or all structures
+ * of a Markush structure, on multiple threads. The index space 0 ... getIndexCount()-1
+ * is split into blocks, which are distributed to workers, each of which creates one
+ * or more records per index. Completed blocks are passed in the original order to the
+ * calling thread, which either collects the records to populate a new table afterwards
+ * or streams them directly into a DataWarrior- or SD-file. Only a limited number of blocks
+ * is kept pending, which allows writing libraries of any size into a file.<br>
+ * A record consists of byte arrays, two (idcode and coordinates) for every structure column
+ * and one for every other column. The first column must be a structure column.
+ * If unique structures are requested, records whose first structure was seen before are skipped.
+ */
+abstract class DELibraryEnumerator implements CompoundTableConstants {
+	public static final int OUTPUT_NEW_WINDOW = 0;
+	public static final int OUTPUT_DATAWARRIOR_FILE = 1;
+	public static final int OUTPUT_SD_FILE = 2;
+	public static final String[] OUTPUT_OPTIONS = { "a new window", "a DataWarrior file", "an SD-file" };
+
+	private static final int INDEXES_PER_BLOCK = 64;
+	private static final int MAX_PENDING_BLOCKS_PER_THREAD = 4;
+	private static final int MAX_PROGRESS = 1 << 20;
+	private static final byte[] SD_RECORD_END = "$$$$".getBytes();
+
+	private int					mOutputMode;
+	private File				mFile;
+	private JProgressDialog		mProgressDialog;
+	private String[]			mColumnTitle;
+	private int					mEntryCount;
+	private byte[]				mLineSeparator;
+	private ArrayList<byte[][]>	mRecordList;
+
+	/**
+	 * @param outputMode OUTPUT_NEW_WINDOW, OUTPUT_DATAWARRIOR_FILE or OUTPUT_SD_FILE
+	 * @param file null or the file to be written
+	 * @param progressDialog
+	 */
+	public DELibraryEnumerator(int outputMode, File file, JProgressDialog progressDialog) {
+		mOutputMode = outputMode;
+		mFile = file;
+		mProgressDialog = progressDialog;
+		mLineSeparator = System.getProperty("line.separator").getBytes();
+		}
+
+	/**
+	 * Lets the user choose the file to be written, if the output mode requires a file.
+	 * @param parent
+	 * @param outputMode
+	 * @return selected file or null, if the user cancelled or no file is needed
+	 */
+	public static File selectOutputFile(Frame parent, int outputMode) {
+		if (outputMode == OUTPUT_NEW_WINDOW)
+			return null;
+
+		int filetype = (outputMode == OUTPUT_SD_FILE) ? FileHelper.cFileTypeSD : FileHelper.cFileTypeDataWarrior;
+		JFileChooserOverwrite fileChooser = new JFileChooserOverwrite();
+		fileChooser.setCurrentDirectory(FileHelper.getCurrentDirectory());
+		fileChooser.setFileFilter(FileHelper.createFileFilter(filetype, true));
+		fileChooser.setExtension(FileHelper.getExtension(filetype));
+		int option = fileChooser.showSaveDialog(parent);
+		FileHelper.setCurrentDirectory(fileChooser.getCurrentDirectory());
+		return (option == JFileChooser.APPROVE_OPTION) ? fileChooser.getFile() : null;
+		}
+
+	/**
+	 * @return number of indexes to be passed to Worker.enumerate()
+	 */
+	public abstract long getIndexCount();
+
+	/**
+	 * Creates a new worker for exclusive use by one thread.
+	 * This method is called serially before any enumeration starts.
+	 * @return
+	 */
+	public abstract Worker createWorker();
+
+	public abstract String[] getColumnTitles();
+
+	public abstract boolean isStructureColumn(int column);
+
+	public abstract boolean isUniqueStructuresOnly();
+
+	public interface Worker {
+		/**
+		 * Creates all records belonging to the given index and adds them to the list.
+		 * @param index
+		 * @param recordList
+		 */
+		public void enumerate(long index, ArrayList<byte[][]> recordList);
+		}
+
+	/**
+	 * Runs the enumeration on multiple threads and writes the records into the file,
+	 * if the output mode is a file. Otherwise, the records are kept for populateTable().
+	 * @param progressText
+	 * @return false if the enumeration was cancelled or failed
+	 */
+	public boolean enumerate(String progressText) {
+		mColumnTitle = getColumnTitles();
+		mEntryCount = 0;
+		for (int column=0; column<mColumnTitle.length; column++)
+			mEntryCount += isStructureColumn(column) ? 2 : 1;
+
+		final long indexCount = getIndexCount();
+		final long blockCount = (indexCount + INDEXES_PER_BLOCK - 1) / INDEXES_PER_BLOCK;
+		final int progressMax = (int)Math.min(blockCount, MAX_PROGRESS);
+		mProgressDialog.startProgress(progressText, 0, progressMax);
+
+		int threadCount = (int)Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), blockCount));
+		final BlockPipeline<Block> pipeline = new BlockPipeline<Block>(threadCount * MAX_PENDING_BLOCKS_PER_THREAD);
+		final AtomicLong nextBlock = new AtomicLong();
+
+		// workers are created serially, because their construction may not be thread-safe
+		final Worker[] enumerator = new Worker[threadCount];
+		for (int i=0; i<threadCount; i++)
+			enumerator[i] = createWorker();
+
+		Thread[] worker = new Thread[threadCount];
+		for (int i=0; i<threadCount; i++) {
+			final Worker w = enumerator[i];
+			worker[i] = new Thread("Library Enumerator "+(i+1)) {
+				public void run() {
+					try {
+						RecordEncoder encoder = (mOutputMode == OUTPUT_SD_FILE) ? new SDRecordEncoder()
+											  : (mOutputMode == OUTPUT_DATAWARRIOR_FILE) ? new TextRecordEncoder() : null;
+						long block = nextBlock.getAndIncrement();
+						while (block < blockCount && pipeline.waitForCapacity(block)) {
+							Block b = new Block();
+							long end = Math.min(indexCount, (block+1)*INDEXES_PER_BLOCK);
+							for (long index=block*INDEXES_PER_BLOCK; index<end; index++)
+								w.enumerate(index, b.recordList);
+							if (encoder != null) {
+								b.encodedRecord = new byte[b.recordList.size()][];
+								for (int i=0; i<b.encodedRecord.length; i++)
+									b.encodedRecord[i] = encoder.encode(b.recordList.get(i));
+								}
+							pipeline.put(block, b);
+							block = nextBlock.getAndIncrement();
+							}
+						}
+					catch (Throwable t) {	// includes OutOfMemoryError, which would leave the consumer waiting
+						pipeline.cancel(t);
+						}
+					}
+				};
+			worker[i].setPriority(Thread.MIN_PRIORITY);
+			worker[i].start();
+			}
+
+		boolean isUnique = isUniqueStructuresOnly();
+		ByteArrayHashTable structureTable = isUnique ? new ByteArrayHashTable() : null;
+		mRecordList = (mOutputMode == OUTPUT_NEW_WINDOW) ? new ArrayList<byte[][]>() : null;
+		OutputStream os = null;
+		boolean successful = false;
+		try {
+			if (mOutputMode != OUTPUT_NEW_WINDOW) {
+				os = new BufferedOutputStream(new FileOutputStream(mFile), 65536);
+				if (mOutputMode == OUTPUT_DATAWARRIOR_FILE)
+					writeFileHeader(os);
+				}
+
+			long block = 0;
+			for (; block<blockCount; block++) {
+				if (mProgressDialog.threadMustDie()) {
+					pipeline.cancel(null);
+					break;
+					}
+
+				Block b = pipeline.take(block);
+				if (b == null)
+					break;
+
+				for (int i=0; i<b.recordList.size(); i++) {
+					byte[][] record = b.recordList.get(i);
+					if (isUnique && record[0] != null && structureTable.put(record[0], 0) != -1)
+						continue;
+
+					if (os == null)
+						mRecordList.add(record);
+					else
+						os.write(b.encodedRecord[i]);
+					}
+
+				mProgressDialog.updateProgress((int)((block+1) * progressMax / blockCount));
+				}
+
+			if (os != null) {
+				os.close();
+				os = null;
+				}
+
+			successful = (block == blockCount);
+			}
+		catch (IOException ioe) {
+			mProgressDialog.showErrorMessage(ioe.getMessage());
+			}
+		finally {
+			pipeline.cancel(null);	// releases waiting workers in case of an exception
+			for (Thread t:worker)
+				try { t.join(); } catch (InterruptedException ie) {}
+			if (os != null)
+				try { os.close(); } catch (IOException ioe) {}
+			}
+
+		if (pipeline.getException() != null) {
+			mProgressDialog.showErrorMessage(pipeline.getException().toString());
+			return false;
+			}
+
+		return successful;
+		}
+
+	/**
+	 * @return number of records collected by enumerate() for output into a new window
+	 */
+	public int getRecordCount() {
+		return mRecordList.size();
+		}
+
+	/**
+	 * Creates the columns from the column titles and fills the table with all
+	 * records collected by enumerate(). Only the first structure column gets a fingerprint.
+	 * @param tableModel
+	 */
+	public void populateTable(CompoundTableModel tableModel) {
+		mProgressDialog.startProgress("Populating Table...", 0, mRecordList.size());
+
+		int[] entryColumn = new int[mEntryCount];
+		int column = 0;
+		int entry = 0;
+		for (int i=0; i<mColumnTitle.length; i++) {
+			if (isStructureColumn(i)) {
+				entryColumn[entry++] = column;
+				entryColumn[entry++] = column+1;
+				column += (i == 0) ? 3 : 2;
+				}
+			else {
+				entryColumn[entry++] = column++;
+				}
+			}
+
+		tableModel.initializeTable(mRecordList.size(), column);
+		column = 0;
+		for (int i=0; i<mColumnTitle.length; i++) {
+			if (isStructureColumn(i)) {
+				tableModel.prepareStructureColumns(column, mColumnTitle[i], true, i == 0);
+				column += (i == 0) ? 3 : 2;
+				}
+			else {
+				tableModel.setColumnName(mColumnTitle[i], column++);
+				}
+			}
+
+		for (int row=0; row<mRecordList.size(); row++) {
+			byte[][] record = mRecordList.get(row);
+			for (entry=0; entry<record.length; entry++)
+				tableModel.setTotalDataAt(record[entry], row, entryColumn[entry]);
+			mProgressDialog.updateProgress(row);
+			}
+
+		mRecordList = null;
+
+		tableModel.finalizeTable(CompoundTableEvent.cSpecifierDefaultRuntimeProperties, mProgressDialog);
+		}
+
+	private void writeFileHeader(OutputStream os) throws IOException {
+		writeLine(os, cNativeFileHeaderStart);
+		writeLine(os, "<"+cNativeFileVersion+"=\""+CompoundTableSaver.cCurrentFileVersion+"\">");
+		writeLine(os, cNativeFileHeaderEnd);
+
+		// every structure column is followed by its coordinate column
+		String[] name = new String[mEntryCount];
+		int entry = 0;
+		for (int i=0; i<mColumnTitle.length; i++) {
+			name[entry] = CompoundTableModel.validateColumnName(mColumnTitle[i], name, entry, null);
+			entry++;
+			if (isStructureColumn(i)) {
+				name[entry] = CompoundTableModel.validateColumnName(cColumnType2DCoordinates, name, entry, null);
+				entry++;
+				}
+			}
+
+		writeLine(os, cColumnPropertyStart);
+		entry = 0;
+		for (int i=0; i<mColumnTitle.length; i++) {
+			if (isStructureColumn(i)) {
+				writeLine(os, "<"+cColumnName+"=\""+name[entry]+"\">");
+				writeLine(os, "<"+cColumnProperty+"=\""+cColumnPropertySpecialType+"\t"+cColumnTypeIDCode+"\">");
+				writeLine(os, "<"+cColumnName+"=\""+name[entry+1]+"\">");
+				writeLine(os, "<"+cColumnProperty+"=\""+cColumnPropertySpecialType+"\t"+cColumnType2DCoordinates+"\">");
+				writeLine(os, "<"+cColumnProperty+"=\""+cColumnPropertyParentColumn+"\t"+name[entry]+"\">");
+				entry += 2;
+				}
+			else {
+				entry++;
+				}
+			}
+		writeLine(os, cColumnPropertyEnd);
+
+		StringBuilder titleLine = new StringBuilder(name[0]);
+		for (int i=1; i<name.length; i++)
+			titleLine.append('\t').append(name[i]);
+		writeLine(os, titleLine.toString());
+		}
+
+	private void writeLine(OutputStream os, String line) throws IOException {
+		os.write(line.getBytes());
+		os.write(mLineSeparator);
+		}
+
+	private interface RecordEncoder {
+		public byte[] encode(byte[][] record);
+		}
+
+	private class TextRecordEncoder implements RecordEncoder {
+		private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(1024);
+
+		public byte[] encode(byte[][] record) {
+			mBuffer.reset();
+			for (int entry=0; entry<record.length; entry++) {
+				if (entry != 0)
+					mBuffer.write('\t');
+				if (record[entry] != null)
+					CompoundTableSaver.writeConvertingNewlines(record[entry], mBuffer);
+				}
+			mBuffer.write(mLineSeparator, 0, mLineSeparator.length);
+			return mBuffer.toByteArray();
+			}
+		}
+
+	/**
+	 * Writes the first structure as molfile and all other columns as data fields,
+	 * other structure columns as idcodes.
+	 */
+	private class SDRecordEncoder implements RecordEncoder {
+		private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(4096);
+		private StereoMolecule mMol = new StereoMolecule();
+		private IDCodeParser mParser = new IDCodeParser(true);
+
+		public byte[] encode(byte[][] record) {
+			mBuffer.reset();
+			if (record[0] != null)
+				mParser.parse(mMol, record[0], record[1]);
+			else
+				mMol.deleteMolecule();
+			write(new MolfileCreator(mMol).getMolfile().getBytes());
+
+			int entry = 2;
+			for (int i=1; i<mColumnTitle.length; i++) {
+				write((">  <"+mColumnTitle[i]+">").getBytes());
+				write(mLineSeparator);
+				if (record[entry] != null)
+					write(record[entry]);
+				write(mLineSeparator);
+				write(mLineSeparator);
+				entry += isStructureColumn(i) ? 2 : 1;
+				}
+
+			write(SD_RECORD_END);
+			write(mLineSeparator);
+			return mBuffer.toByteArray();
+			}
+
+		private void write(byte[] b) {
+			mBuffer.write(b, 0, b.length);
+			}
+		}
+
+	private static class Block {
+		ArrayList<byte[][]> recordList = new ArrayList<byte[][]>();
+		byte[][] encodedRecord;
+		}
+	}
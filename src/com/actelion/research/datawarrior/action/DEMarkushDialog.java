@@ -33,10 +33,10 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.TreeSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
@@ -57,8 +57,6 @@ import com.actelion.research.gui.JDrawPanel;
 import com.actelion.research.gui.JFileChooserOverwrite;
 import com.actelion.research.gui.JProgressDialog;
 import com.actelion.research.gui.clipboard.ClipboardHandler;
-import com.actelion.research.table.CompoundTableEvent;
-import com.actelion.research.table.CompoundTableModel;
 
 public class DEMarkushDialog extends JDialog implements ActionListener,KeyListener,Runnable {
     private static final long serialVersionUID = 0x20080515;
@@ -69,6 +67,9 @@ public class DEMarkushDialog extends JDialog implements ActionListener,KeyListen
 	private JDrawPanel			mDrawPanel;
     private JProgressDialog     mProgressDialog;
     private MarkushStructure    mMarkushStructure;
+    private JComboBox			mComboBoxOutput;
+    private int					mOutputMode;
+    private File				mOutputFile;
 
 	public DEMarkushDialog(Frame owner, DataWarrior application) {
 		super(owner, "Enumerate Markush Structure", true);
@@ -93,8 +94,9 @@ public class DEMarkushDialog extends JDialog implements ActionListener,KeyListen
 		bsave.addActionListener(this);
 		bp.add(bsave);
 		bp.add(new JLabel());
-		bp.add(new JLabel());
-		bp.add(new JLabel());
+		bp.add(new JLabel("Write into", JLabel.RIGHT));
+		mComboBoxOutput = new JComboBox(DELibraryEnumerator.OUTPUT_OPTIONS);
+		bp.add(mComboBoxOutput);
 		bp.add(new JLabel());
 		JButton bcancel = new JButton("Cancel");
 		bcancel.addActionListener(this);
@@ -145,6 +147,12 @@ public class DEMarkushDialog extends JDialog implements ActionListener,KeyListen
 		else if (e.getActionCommand().equals("OK")) {
 		    mMarkushStructure = mDrawPanel.getDrawArea().getMarkushStructure();
 		    if (isValid(mMarkushStructure)) {
+		    	mOutputMode = mComboBoxOutput.getSelectedIndex();
+		    	if (mOutputMode != DELibraryEnumerator.OUTPUT_NEW_WINDOW) {
+		    		mOutputFile = DELibraryEnumerator.selectOutputFile(mParentFrame, mOutputMode);
+		    		if (mOutputFile == null)
+		    			return;
+		    		}
                 enumerate();
                 setVisible(false);
                 dispose();
@@ -173,7 +181,6 @@ e.printStackTrace();
 	    }
 
 	private void enumerate() {
-		mTargetFrame = mApplication.getEmptyFrame("Markush Enumeration");
 	    mProgressDialog = new JProgressDialog(mParentFrame);
 
 	    Thread t = new Thread(this, "MarkushEnumeration");
@@ -198,52 +205,42 @@ e.printStackTrace();
         }
 
 	private void runEnumeration() {
-        mProgressDialog.startProgress("Enumerating Markush Structures...", 0, 0);
-        ArrayList<Object[]> recordList = new ArrayList<Object[]>();
-
-        TreeSet<String> idcodeSet = new TreeSet<String>();
-
-        StereoMolecule mol = mMarkushStructure.getNextEnumeration();
-        while (mol != null) {
-            Canonizer canonizer = new Canonizer(mol);
-            String idcode = canonizer.getIDCode();
-            if (!idcodeSet.contains(idcode)) {
-                idcodeSet.add(idcode);
-                Object[] record = new Object[2];
-                record[0] = idcode.getBytes();
-                record[1] = canonizer.getEncodedCoordinates().getBytes();
-                recordList.add(record);
-                }
-
-            if (mProgressDialog.threadMustDie())
-                break;
-
-            mol = mMarkushStructure.getNextEnumeration();
-            }
-
-        if (!mProgressDialog.threadMustDie())
-            populateTable(recordList);
-        }
+		DELibraryEnumerator enumerator = new DELibraryEnumerator(mOutputMode, mOutputFile, mProgressDialog) {
+			public long getIndexCount() {
+				return mMarkushStructure.getEnumerationCount();
+				}
 
-    private void populateTable(ArrayList<Object[]> recordList) {
-        int rowCount = recordList.size();
-        int columnCount = 3;
+			public String[] getColumnTitles() {
+				return new String[] { "Structure" };
+				}
 
-        mProgressDialog.startProgress("Populating Table...", 0, recordList.size());
+			public boolean isStructureColumn(int column) {
+				return true;
+				}
 
-        CompoundTableModel tableModel = mTargetFrame.getTableModel();
-        tableModel.initializeTable(rowCount, columnCount);
-        tableModel.prepareStructureColumns(0, "Structure", true, true);
+			public boolean isUniqueStructuresOnly() {
+				return true;
+				}
 
-        int row = 0;
-        for (Object[] record:recordList) {
-        	tableModel.setTotalDataAt(record[0], row, 0);
-        	tableModel.setTotalDataAt(record[1], row, 1);
-            mProgressDialog.updateProgress(row++);
-            }
+			public Worker createWorker() {
+				return new Worker() {
+					public void enumerate(long index, ArrayList<byte[][]> recordList) {
+						Canonizer canonizer = new Canonizer(mMarkushStructure.getEnumeration(index));
+						byte[][] record = new byte[2][];
+						record[0] = canonizer.getIDCode().getBytes();
+						record[1] = canonizer.getEncodedCoordinates().getBytes();
+						recordList.add(record);
+						}
+					};
+				}
+			};
 
-        tableModel.finalizeTable(CompoundTableEvent.cSpecifierDefaultRuntimeProperties, mProgressDialog);
-        }
+		if (enumerator.enumerate("Enumerating Markush Structures...")
+		 && mOutputMode == DELibraryEnumerator.OUTPUT_NEW_WINDOW) {
+			mTargetFrame = mApplication.getEmptyFrame("Markush Enumeration");
+			enumerator.populateTable(mTargetFrame.getTableModel());
+			}
+		}
 
 	public void keyPressed(KeyEvent e) {
         mDrawPanel.getDrawArea().keyPressed(e);
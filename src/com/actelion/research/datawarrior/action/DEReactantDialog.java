@@ -24,6 +24,7 @@ import java.awt.GridLayout;
 import java.awt.dnd.DnDConstants;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
@@ -36,6 +37,7 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 import com.actelion.research.chem.Canonizer;
+import com.actelion.research.chem.Molecule;
 import com.actelion.research.chem.SSSearcher;
 import com.actelion.research.chem.StereoMolecule;
 import com.actelion.research.chem.reaction.Reaction;
@@ -48,8 +50,6 @@ import com.actelion.research.gui.FileHelper;
 import com.actelion.research.gui.JProgressDialog;
 import com.actelion.research.gui.JStructureView;
 import com.actelion.research.gui.clipboard.ClipboardHandler;
-import com.actelion.research.table.CompoundTableEvent;
-import com.actelion.research.table.CompoundTableModel;
 
 public class DEReactantDialog extends JDialog implements ActionListener,Runnable {
     private static final long serialVersionUID = 0x20060904;
@@ -58,7 +58,9 @@ public class DEReactantDialog extends JDialog implements ActionListener,Runnable
 	private DataWarrior mApplication;
 	private DEFrame			mTargetFrame;
 	private Reaction		mReaction;
-    private JComboBox       mComboBox;
+    private JComboBox       mComboBox,mComboBoxOutput;
+    private int				mOutputMode;
+    private File			mOutputFile;
 	private CompoundCollectionPane<StereoMolecule>[] mReactantPane;
 	private JProgressDialog	mProgressDialog;
 
@@ -110,7 +112,18 @@ public class DEReactantDialog extends JDialog implements ActionListener,Runnable
         cbp.add(mComboBox);
         cbp.add(new JLabel("multiple possible products"));
         cbp.setBorder(BorderFactory.createEmptyBorder(8, 8, 0, 8));
-        
+
+        mComboBoxOutput = new JComboBox(DELibraryEnumerator.OUTPUT_OPTIONS);
+        JPanel obp = new JPanel();
+        obp.add(new JLabel("Write library into"));
+        obp.add(mComboBoxOutput);
+        obp.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 8));
+
+        JPanel op = new JPanel();
+        op.setLayout(new BorderLayout());
+        op.add(cbp, BorderLayout.NORTH);
+        op.add(obp, BorderLayout.SOUTH);
+
 		JPanel p2 = new JPanel();
 		p2.setLayout(new BorderLayout());
 		JPanel bp = new JPanel();
@@ -123,12 +136,12 @@ public class DEReactantDialog extends JDialog implements ActionListener,Runnable
 		bok.addActionListener(this);
 		bp.add(bok);
 		p2.add(bp, BorderLayout.EAST);
-        p2.add(cbp, BorderLayout.WEST);
+        p2.add(op, BorderLayout.WEST);
 
 		getContentPane().add(p2, BorderLayout.SOUTH);
 //		getRootPane().setDefaultButton(bok);
 
-		setSize(640, 150*reaction.getReactants()+40);
+		setSize(640, 150*reaction.getReactants()+76);
 		setLocationRelativeTo(owner);
 		setVisible(true);
 		}
@@ -143,6 +156,13 @@ public class DEReactantDialog extends JDialog implements ActionListener,Runnable
 					}
 				}
 
+			mOutputMode = mComboBoxOutput.getSelectedIndex();
+			if (mOutputMode != DELibraryEnumerator.OUTPUT_NEW_WINDOW) {
+				mOutputFile = DELibraryEnumerator.selectOutputFile(mParentFrame, mOutputMode);
+				if (mOutputFile == null)
+					return;
+				}
+
 			setVisible(false);
     		dispose();
 
@@ -218,88 +238,114 @@ public class DEReactantDialog extends JDialog implements ActionListener,Runnable
 		mProgressDialog.close(mTargetFrame);
 		}
 
+	@SuppressWarnings("unchecked")
 	private void runLibraryCreation() {
-		int rowCount = 1;
-		for (int i=0; i<mReaction.getReactants(); i++)
-			rowCount *= mReactantPane[i].getModel().getSize();
+		final int dimensions = mReaction.getReactants();
+		final StereoMolecule[][] reactant = new StereoMolecule[dimensions][];
+		final ArrayList<int[]>[][] matchList = new ArrayList[dimensions][];
+		final byte[][][] reactantID = new byte[dimensions][][];
+		final byte[][][] reactantIDCode = new byte[dimensions][][];
+		final byte[][][] reactantCoords = new byte[dimensions][][];
+
+		int reactantCount = 0;
+		for (int i=0; i<dimensions; i++)
+			reactantCount += mReactantPane[i].getModel().getSize();
+		mProgressDialog.startProgress("Analyzing Reactants...", 0, reactantCount);
+
+			// Every reactant is canonized and matched against its generic reactant only once.
+			// Reactants and match lists are shared read-only by the Reactors of all threads.
+		Reactor template = new Reactor(mReaction, true);
+		reactantCount = 0;
+		for (int i=0; i<dimensions; i++) {
+			int size = mReactantPane[i].getModel().getSize();
+			reactant[i] = new StereoMolecule[size];
+			matchList[i] = new ArrayList[size];
+			reactantID[i] = new byte[size][];
+			reactantIDCode[i] = new byte[size][];
+			reactantCoords[i] = new byte[size][];
+			for (int j=0; j<size; j++) {
+				StereoMolecule compound = new StereoMolecule(mReactantPane[i].getModel().getCompound(j));
+				String id = compound.getName();
+				reactantID[i][j] = (id!=null) ? id.getBytes() : (""+(j+1)).getBytes();
+				Canonizer canonizer = new Canonizer(compound);
+				reactantIDCode[i][j] = canonizer.getIDCode().getBytes();
+				reactantCoords[i][j] = canonizer.getEncodedCoordinates().getBytes();
+				matchList[i][j] = template.getMatchList(i, compound);
+				compound.ensureHelperArrays(Molecule.cHelperNeighbours);
+				reactant[i][j] = compound;
+
+				if (mProgressDialog.threadMustDie())
+					return;
+				mProgressDialog.updateProgress(++reactantCount);
+				}
+			}
 
-		mProgressDialog.startProgress("Creating Products...", 0, rowCount);
+		final boolean oneProductOnly = (mComboBox.getSelectedIndex() == 0);
+		DELibraryEnumerator enumerator = new DELibraryEnumerator(mOutputMode, mOutputFile, mProgressDialog) {
+			public long getIndexCount() {
+				long count = 1;
+				for (int i=0; i<dimensions; i++)
+					count *= reactant[i].length;
+				return count;
+				}
 
-		Reactor theReactor = new Reactor(mReaction, true);
-		int dimensions = mReaction.getReactants();
-		for (int i=0; i<dimensions; i++)
-			theReactor.setReactant(i, mReactantPane[i].getModel().getCompound(0));
-		int[] index = new int[dimensions];
-        ArrayList<Object[]> recordList = new ArrayList<Object[]>();
-        boolean oneProductOnly = (mComboBox.getSelectedIndex() == 0);
-		int row = 0;
-		while (row < rowCount) {
-            int productCount = oneProductOnly ? 1 : theReactor.getProducts(0);
-            for (int p=0; p<productCount; p++) {
-                Object[] record = new Object[2+3*mReaction.getReactants()];
-    			StereoMolecule product = theReactor.getProduct(0, p);
-    			if (product != null) {
-    				Canonizer canonizer = new Canonizer(product);
-                    record[0] = canonizer.getIDCode().getBytes();
-                    record[1] = canonizer.getEncodedCoordinates().getBytes();
-                    }
-    			for (int i=0; i<dimensions; i++) {
-    			    StereoMolecule reactant = mReactantPane[i].getModel().getCompound(index[i]);
-    				String id = reactant.getName();
-                    record[2+i] = (id!=null) ? id.getBytes() : (""+(index[i]+1)).getBytes();
-                    Canonizer canonizer = new Canonizer(reactant);
-                    record[2+dimensions+2*i] = canonizer.getIDCode().getBytes();
-                    record[3+dimensions+2*i] = canonizer.getEncodedCoordinates().getBytes();
-    				}
-                recordList.add(record);
-                }
-
-			int currentDimension = dimensions-1;
-			while (currentDimension >= 0
-				&& index[currentDimension] == mReactantPane[currentDimension].getModel().getSize()-1) {
-				index[currentDimension] = 0;
-				theReactor.setReactant(currentDimension, mReactantPane[currentDimension].getModel().getCompound(0));
-				currentDimension--;
+			public String[] getColumnTitles() {
+				String[] title = new String[1+2*dimensions];
+				title[0] = "Product";
+				for (int i=0; i<dimensions; i++) {
+					title[1+i] = "Reactant-ID "+(i+1);
+					title[1+dimensions+i] = "Reactant "+(i+1);
+					}
+				return title;
+				}
+
+			public boolean isStructureColumn(int column) {
+				return column == 0 || column > dimensions;
 				}
-		    if (currentDimension < 0)
-				break;
 
-			index[currentDimension]++;
-			theReactor.setReactant(currentDimension, mReactantPane[currentDimension].getModel().getCompound(index[currentDimension]));
+			public boolean isUniqueStructuresOnly() {
+				return false;
+				}
 
-			if (mProgressDialog.threadMustDie())
-				break;
+			public Worker createWorker() {
+				final Reactor reactor = new Reactor(new Reaction(mReaction), true);
+				return new Worker() {
+					public void enumerate(long index, ArrayList<byte[][]> recordList) {
+							// the last reactant changes fastest
+						int[] reactantIndex = new int[dimensions];
+						for (int i=dimensions-1; i>=0; i--) {
+							reactantIndex[i] = (int)(index % reactant[i].length);
+							index /= reactant[i].length;
+							}
+						for (int i=0; i<dimensions; i++)
+							reactor.setReactant(i, reactant[i][reactantIndex[i]], matchList[i][reactantIndex[i]]);
+
+						int productCount = oneProductOnly ? 1 : reactor.getProducts(0);
+						for (int p=0; p<productCount; p++) {
+							byte[][] record = new byte[2+3*dimensions][];
+							StereoMolecule product = reactor.getProduct(0, p);
+							if (product != null) {
+								Canonizer canonizer = new Canonizer(product);
+								record[0] = canonizer.getIDCode().getBytes();
+								record[1] = canonizer.getEncodedCoordinates().getBytes();
+								}
+							for (int i=0; i<dimensions; i++) {
+								record[2+i] = reactantID[i][reactantIndex[i]];
+								record[2+dimensions+2*i] = reactantIDCode[i][reactantIndex[i]];
+								record[3+dimensions+2*i] = reactantCoords[i][reactantIndex[i]];
+								}
+							recordList.add(record);
+							}
+						}
+					};
+				}
+			};
 
-			mProgressDialog.updateProgress(row++);
+		if (enumerator.enumerate("Creating Products...")
+		 && mOutputMode == DELibraryEnumerator.OUTPUT_NEW_WINDOW) {
+			mTargetFrame = mApplication.getEmptyFrame("Combinatorial Library");
+			enumerator.populateTable(mTargetFrame.getTableModel());
 			}
-
-        if (!mProgressDialog.threadMustDie())
-            populateTable(recordList);
-        }
-    
-    private void populateTable(ArrayList<Object[]> recordList) {
-    	mTargetFrame = mApplication.getEmptyFrame("Combinatorial Library");
-        mProgressDialog.startProgress("Populating Table...", 0, recordList.size());
-
-        CompoundTableModel tableModel = mTargetFrame.getTableModel();
-        tableModel.initializeTable(recordList.size(), 3+3*mReaction.getReactants());
-        tableModel.prepareStructureColumns(0, "Product", true, true);
-        for (int i=0; i<mReaction.getReactants(); i++) {
-        	tableModel.setColumnName("Reactant-ID "+(i+1), 3+i);
-        	tableModel.prepareStructureColumns(3+mReaction.getReactants()+2*i, "Reactant "+(i+1), true, false);
-            }
-
-        int row = 0;
-        for (Object[] record:recordList) {
-        	tableModel.setTotalDataAt(record[0], row, 0);
-        	tableModel.setTotalDataAt(record[1], row, 1);
-            for (int column=2; column<record.length; column++)
-            	tableModel.setTotalDataAt(record[column], row, column+1);
-
-            mProgressDialog.updateProgress(row++);
-            }
-
-        tableModel.finalizeTable(CompoundTableEvent.cSpecifierDefaultRuntimeProperties, mProgressDialog);
-        }
+		}
 	}
 
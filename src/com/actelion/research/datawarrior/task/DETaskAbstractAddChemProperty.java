@@ -401,6 +401,7 @@ public abstract class DETaskAbstractAddChemProperty extends ConfigurableTask imp
 		int errorCount = 0;
 
 		StereoMolecule containerMol = new StereoMolecule();
+		containerMol.setBufferReuse(true);
 		for (int row=0; row<mTableModel.getTotalRowCount(); row++) {
 			if ((row % 16) == 15)
 				updateProgress(row);
@@ -430,6 +431,7 @@ public abstract class DETaskAbstractAddChemProperty extends ConfigurableTask imp
 			t[i] = new Thread("Abstract ChemProp Calculator "+(i+1)) {
 				public void run() {
 					StereoMolecule containerMol = new StereoMolecule();
+					containerMol.setBufferReuse(true);
 					int recordIndex = mSMPRecordIndex.decrementAndGet();
 					while (recordIndex >= 0 && !threadMustDie()) {
 						try {
@@ -20,25 +20,35 @@ package com.actelion.research.datawarrior.task;
 
 import info.clearthought.layout.TableLayout;
 
+import java.awt.event.ActionEvent;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 import com.actelion.research.chem.Canonizer;
 import com.actelion.research.chem.FFMolecule;
 import com.actelion.research.chem.Molecule;
+import com.actelion.research.chem.MolfileCreator;
 import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.calculator.ConformerEnsembleGenerator;
 import com.actelion.research.chem.calculator.TorsionCalculator;
 import com.actelion.research.datawarrior.DEFrame;
+import com.actelion.research.datawarrior.task.file.JFilePathLabel;
 import com.actelion.research.forcefield.ForceField;
 import com.actelion.research.forcefield.optimizer.AlgoLBFGS;
 import com.actelion.research.forcefield.optimizer.EvaluableConformation;
 import com.actelion.research.forcefield.optimizer.EvaluableForceField;
+import com.actelion.research.gui.FileHelper;
 import com.actelion.research.table.CompoundTableModel;
+import com.actelion.research.util.DoubleFormat;
 
 
 public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implements Runnable {
@@ -47,6 +57,11 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 
 	private static final String PROPERTY_ALGORITHM = "algorithm";
 	private static final String PROPERTY_MINIMIZE = "minimize";
+	private static final String PROPERTY_CONFORMER_COUNT = "conformerCount";
+	private static final String PROPERTY_FILE_NAME = "fileName";
+
+	private static final String[] CONFORMER_COUNT_TEXT = { "1", "4", "8", "16", "32", "64" };
+	private static final int DEFAULT_CONFORMER_COUNT = 0;
 
 	/*	 reduced options because of unclear copyright situation with CCDC concerning torsion statistics
 	private static final int ADAPTIVE_RANDOM = 0;
@@ -62,13 +77,18 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 	private static final int ACTELION3D = 0;
 	private static final int DEFAULT_ALGORITHM = ACTELION3D;
 
-	private JComboBox	mComboBoxAlgorithm;
-	private JCheckBox	mCheckBoxMinimize;
+	private JComboBox	mComboBoxAlgorithm,mComboBoxConformerCount;
+	private JCheckBox	mCheckBoxMinimize,mCheckBoxFile;
+	private JFilePathLabel mLabelFileName;
 	private int			mAlgorithm;
-	private boolean		mMinimize;
+	private boolean		mMinimize,mIsInteractive,mCheckOverwrite;
+	private ConformerEnsembleGenerator mEnsembleGenerator;
+	private BufferedWriter mSDWriter;
 
 	public DETaskAdd3DCoordinates(DEFrame parent, boolean isInteractive) {
 		super(parent, DESCRIPTOR_NONE, false, true, isInteractive);
+		mIsInteractive = isInteractive;
+		mCheckOverwrite = true;
 		}
 
 	@Override
@@ -90,21 +110,67 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 	public JPanel getExtendedDialogContent() {
 		JPanel ep = new JPanel();
 		double[][] size = { {TableLayout.PREFERRED, 8, TableLayout.PREFERRED},
-							{TableLayout.PREFERRED, 8, TableLayout.PREFERRED} };
+							{TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED,
+							 8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED} };
 		ep.setLayout(new TableLayout(size));
 		ep.add(new JLabel("Algorithm:"), "0,0");
 		mComboBoxAlgorithm = new JComboBox(ALGORITHM_TEXT);
 		ep.add(mComboBoxAlgorithm, "2,0");
 		mCheckBoxMinimize = new JCheckBox("Forcefield energy minimization");
 		ep.add(mCheckBoxMinimize, "2,2");
+		ep.add(new JLabel("Conformers per molecule:"), "0,4");
+		mComboBoxConformerCount = new JComboBox(CONFORMER_COUNT_TEXT);
+		mComboBoxConformerCount.addActionListener(this);
+		ep.add(mComboBoxConformerCount, "2,4");
+		mCheckBoxFile = new JCheckBox("Write all conformers into SD-file:");
+		mCheckBoxFile.addActionListener(this);
+		ep.add(mCheckBoxFile, "0,6,2,6");
+		mLabelFileName = new JFilePathLabel(!mIsInteractive);
+		ep.add(mLabelFileName, "0,8,2,8");
 		return ep;
 		}
 
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == mComboBoxConformerCount) {
+			enableFileItems();
+			return;
+			}
+		if (e.getSource() == mCheckBoxFile) {
+			if (mCheckBoxFile.isSelected()) {
+				String filename = new FileHelper(getParentFrame()).selectFileToSave(
+						"Save Conformers To File", FileHelper.cFileTypeSD, "Conformers");
+				if (filename != null) {
+					mLabelFileName.setPath(filename);
+					mCheckOverwrite = false;
+					}
+				else {
+					mCheckBoxFile.setSelected(false);
+					mLabelFileName.setPath(null);
+					}
+				}
+			enableFileItems();
+			return;
+			}
+		super.actionPerformed(e);
+		}
+
+	private void enableFileItems() {
+		boolean isEnsemble = (mComboBoxConformerCount.getSelectedIndex() != 0);
+		mCheckBoxFile.setEnabled(isEnsemble);
+		mLabelFileName.setEnabled(isEnsemble && mCheckBoxFile.isSelected());
+		}
+
 	@Override
 	public Properties getDialogConfiguration() {
 		Properties configuration = super.getDialogConfiguration();
 		configuration.setProperty(PROPERTY_ALGORITHM, ALGORITHM_CODE[mComboBoxAlgorithm.getSelectedIndex()]);
 		configuration.setProperty(PROPERTY_MINIMIZE, mCheckBoxMinimize.isSelected() ? "true" : "false");
+		configuration.setProperty(PROPERTY_CONFORMER_COUNT, (String)mComboBoxConformerCount.getSelectedItem());
+		if (mComboBoxConformerCount.getSelectedIndex() != 0
+		 && mCheckBoxFile.isSelected()
+		 && mLabelFileName.getPath() != null)
+			configuration.setProperty(PROPERTY_FILE_NAME, mLabelFileName.getPath());
 		return configuration;
 		}
 
@@ -113,6 +179,11 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 		super.setDialogConfiguration(configuration);
 		mComboBoxAlgorithm.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_ALGORITHM), ALGORITHM_CODE, DEFAULT_ALGORITHM));
 		mCheckBoxMinimize.setSelected(configuration.getProperty(PROPERTY_MINIMIZE).equals("true"));
+		mComboBoxConformerCount.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_CONFORMER_COUNT), CONFORMER_COUNT_TEXT, DEFAULT_CONFORMER_COUNT));
+		String fileName = configuration.getProperty(PROPERTY_FILE_NAME);
+		mCheckBoxFile.setSelected(fileName != null);
+		mLabelFileName.setPath(fileName == null ? null : isFileAndPathValid(fileName, true, false) ? fileName : null);
+		enableFileItems();
 		}
 
 	@Override
@@ -120,6 +191,24 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 		super.setDialogConfigurationToDefault();
 		mComboBoxAlgorithm.setSelectedIndex(DEFAULT_ALGORITHM);
 		mCheckBoxMinimize.setSelected(true);
+		mComboBoxConformerCount.setSelectedIndex(DEFAULT_CONFORMER_COUNT);
+		mCheckBoxFile.setSelected(false);
+		mLabelFileName.setPath(null);
+		enableFileItems();
+		}
+
+	@Override
+	public boolean isConfigurationValid(Properties configuration, boolean isLive) {
+		if (!super.isConfigurationValid(configuration, isLive))
+			return false;
+
+		if (isLive) {
+			String fileName = configuration.getProperty(PROPERTY_FILE_NAME);
+			if (fileName != null && !isFileAndPathValid(fileName, true, mCheckOverwrite))
+				return false;
+			}
+
+		return true;
 		}
 
 	@Override
@@ -157,9 +246,48 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 	protected boolean preprocessRows(Properties configuration) {
 		mAlgorithm = findListIndex(configuration.getProperty(PROPERTY_ALGORITHM), ALGORITHM_CODE, DEFAULT_ALGORITHM);
 		mMinimize = configuration.getProperty(PROPERTY_MINIMIZE).equals("true");
+
+		int conformerCount = Integer.parseInt(CONFORMER_COUNT_TEXT[findListIndex(
+				configuration.getProperty(PROPERTY_CONFORMER_COUNT), CONFORMER_COUNT_TEXT, DEFAULT_CONFORMER_COUNT)]);
+		mEnsembleGenerator = (conformerCount == 1) ? null
+				: new ConformerEnsembleGenerator(conformerCount, ConformerEnsembleGenerator.DEFAULT_MIN_RMSD, mMinimize);
+
+		mSDWriter = null;
+		String fileName = configuration.getProperty(PROPERTY_FILE_NAME);
+		if (mEnsembleGenerator != null && fileName != null) {
+			try {
+				mSDWriter = new BufferedWriter(new FileWriter(resolveVariables(fileName)));
+				}
+			catch (IOException ioe) {
+				showErrorMessage(ioe.toString());
+				return false;
+				}
+			}
+
 		return true;
 		}
 
+	@Override
+	protected void postprocess(int firstNewColumn) {
+		if (mIsInteractive && mEnsembleGenerator != null && mEnsembleGenerator.getFallbackCount() != 0)
+			showInteractiveTaskMessage("Conformer sampling failed for "+mEnsembleGenerator.getFallbackCount()
+					+" molecules. Their conformers were created by systematic torsion enumeration.", JOptionPane.WARNING_MESSAGE);
+		}
+
+	@Override
+	public void runTask(Properties configuration) {
+		try {
+			super.runTask(configuration);
+			}
+		finally {
+			if (mSDWriter != null) {
+				try { mSDWriter.close(); } catch (IOException ioe) {}
+				mSDWriter = null;
+				}
+			mEnsembleGenerator = null;
+			}
+		}
+
 	@Override
 	public void processRow(int row, int firstNewColumn, StereoMolecule mol) throws Exception {
 		byte[] idcode = (byte[])getTableModel().getTotalRecord(row).getData(getStructureColumn());
@@ -192,6 +320,15 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 				mol = getChemicalStructure(row, mol);
 				isOneStereoIsomer = !hasMultipleStereoIsomers(mol);
 				if (mol != null && mol.getAllAtoms() != 0) {
+					if (mEnsembleGenerator != null) {
+						List<FFMolecule> ensemble = mEnsembleGenerator.createEnsemble(mol);
+						if (ensemble.size() != 0) {
+							ffmol = ensemble.get(0);	// lowest energy conformer, already minimized if requested
+							if (mSDWriter != null)
+								writeEnsemble(row, mol, ensemble);
+							}
+						break;
+						}
 					try {
 						List<FFMolecule> isomerList = TorsionCalculator.createAllConformations(new FFMolecule(mol));
 						if (isomerList.size() != 0)
@@ -204,7 +341,7 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 				break;
 				}
 
-			if (mol != null && mol.getAllAtoms() != 0 && mMinimize) {
+			if (mol != null && mol.getAllAtoms() != 0 && mMinimize && mEnsembleGenerator == null) {
 				if (ffmol == null)
 					ffmol = new FFMolecule(mol);	 
 
@@ -246,6 +383,37 @@ public class DETaskAdd3DCoordinates extends DETaskAbstractAddChemProperty implem
 			}
 		}
 
+	/**
+	 * Writes all conformers of one molecule into the SD-file. Molecules are written as soon
+	 * as their ensemble is complete, i.e. not necessarily in row order.
+	 * @param row
+	 * @param mol
+	 * @param ensemble
+	 */
+	private void writeEnsemble(int row, StereoMolecule mol, List<FFMolecule> ensemble) throws IOException {
+		StereoMolecule conformer = mol.getCompactCopy();
+		String name = (mol.getName() != null) ? mol.getName() : "Row "+(row+1);
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<ensemble.size(); i++) {
+			FFMolecule ffmol = ensemble.get(i);
+			for (int atom=0; atom<conformer.getAtoms(); atom++) {
+				conformer.setAtomX(atom, ffmol.getAtomX(atom));
+				conformer.setAtomY(atom, ffmol.getAtomY(atom));
+				conformer.setAtomZ(atom, ffmol.getAtomZ(atom));
+				}
+			conformer.setName(name);
+			sb.append(new MolfileCreator(conformer).getMolfile());
+			sb.append(">  <Row>\n").append(row+1).append("\n\n");
+			sb.append(">  <Conformer>\n").append(i+1).append("\n\n");
+			sb.append(">  <Energy>\n").append(DoubleFormat.toString((Double)ffmol.getAuxiliaryInfo("SE"))).append("\n\n");
+			sb.append("$$$$\n");
+			}
+
+		synchronized (mSDWriter) {
+			mSDWriter.write(sb.toString());
+			}
+		}
+
 	private boolean hasMultipleStereoIsomers(StereoMolecule mol) {
 		for (int atom=0; atom<mol.getAtoms(); atom++)
 			if (mol.getAtomParity(atom) == Molecule.cAtomParityUnknown
@@ -588,6 +588,7 @@ public class DETaskCalculateChemicalProperties extends ConfigurableTask {
 		int errorCount = 0;
 
 		StereoMolecule containerMol = new StereoMolecule();
+		containerMol.setBufferReuse(true);
 		for (int row=0; row<mTableModel.getTotalRowCount(); row++) {
 	    	if ((row % 16) == 15)
 	    		updateProgress(row);
@@ -617,6 +618,7 @@ public class DETaskCalculateChemicalProperties extends ConfigurableTask {
     		t[i] = new Thread("Chemical Property Calculator "+(i+1)) {
     			public void run() {
     				StereoMolecule containerMol = new StereoMolecule();
+    				containerMol.setBufferReuse(true);
     				int recordIndex = mSMPRecordIndex.decrementAndGet();
     				while (recordIndex >= 0 && !threadMustDie()) {
     					try {
@@ -22,10 +22,10 @@ import info.clearthought.layout.TableLayout;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Properties;
 
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
@@ -34,9 +34,12 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingConstants;
 
+import com.actelion.research.chem.CanonizerUtil;
+import com.actelion.research.chem.StructureKeyBuilder;
 import com.actelion.research.datawarrior.DEFrame;
 import com.actelion.research.table.CompoundRecord;
 import com.actelion.research.table.CompoundTableModel;
+import com.actelion.research.util.ByteArrayHashTable;
 
 public class DETaskDeleteRedundantRows extends ConfigurableTask {
 	public static final int MODE_MERGE_REDUNDANT = 0;
@@ -46,12 +49,23 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
     public static final String[] TASK_NAME = { "Merge Equivalent Rows", "Delete Redundant Rows", "Delete Unique Rows" };
 
 	private static final String PROPERTY_COLUMN_LIST = "columnList";
+	private static final String PROPERTY_STRUCTURE_KEY = "structureKey";
+	private static final String PROPERTY_LARGEST_FRAGMENT = "largestFragment";
+
+	private static final String[] STRUCTURE_KEY_TEXT = { "exactly", "ignoring stereo features", "as generic tautomers", "as generic tautomers ignoring stereo" };
+	private static final String[] STRUCTURE_KEY_CODE = { "exact", "noStereo", "tautomer", "noStereoTautomer" };
+	private static final CanonizerUtil.IDCODE_TYPE[] STRUCTURE_KEY_TYPE = { CanonizerUtil.IDCODE_TYPE.NORMAL,
+																			CanonizerUtil.IDCODE_TYPE.NOSTEREO,
+																			CanonizerUtil.IDCODE_TYPE.TAUTOMER,
+																			CanonizerUtil.IDCODE_TYPE.NOSTEREO_TAUTOMER };
 
 	private static Properties sRecentConfiguration;
 
 	private CompoundTableModel	mTableModel;
 	private JList				mListColumns;
 	private JTextArea			mTextArea;
+	private JComboBox			mComboBoxStructureKey;
+	private JCheckBox			mCheckBoxLargestFragment;
 	private int					mMode;
 	private boolean				mIsInteractive;
 
@@ -65,7 +79,8 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 	@Override
 	public JPanel createDialogContent() {
 		double[][] size = { {8, TableLayout.PREFERRED, 8},
-							{8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8} };
+							{8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 8, TableLayout.PREFERRED,
+							 16, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 8} };
 		JPanel content = new JPanel();
 		content.setLayout(new TableLayout(size));
 
@@ -92,6 +107,12 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 		scrollPane.setPreferredSize(new Dimension(220,160));
 		content.add(scrollPane, "1,5");
 
+		mComboBoxStructureKey = new JComboBox(STRUCTURE_KEY_TEXT);
+		content.add(new JLabel("Compare chemical structures"), "1,7");
+		content.add(mComboBoxStructureKey, "1,9");
+		mCheckBoxLargestFragment = new JCheckBox("Consider largest fragment only");
+		content.add(mCheckBoxLargestFragment, "1,11");
+
 		return content;
 	    }
 
@@ -123,6 +144,8 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 				: mTextArea.getText().replace('\n', '\t');
 		if (columnNames != null && columnNames.length() != 0)
 			p.setProperty(PROPERTY_COLUMN_LIST, columnNames);
+		p.setProperty(PROPERTY_STRUCTURE_KEY, STRUCTURE_KEY_CODE[mComboBoxStructureKey.getSelectedIndex()]);
+		p.setProperty(PROPERTY_LARGEST_FRAGMENT, mCheckBoxLargestFragment.isSelected() ? "true" : "false");
 		return p;
 		}
 
@@ -133,6 +156,8 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 			selectColumnsInList(mListColumns, columnNames, mTableModel);
 		else
 			mTextArea.setText(columnNames.replace('\t', '\n'));
+		mComboBoxStructureKey.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_STRUCTURE_KEY), STRUCTURE_KEY_CODE, 0));
+		mCheckBoxLargestFragment.setSelected("true".equals(configuration.getProperty(PROPERTY_LARGEST_FRAGMENT)));
 		}
 
 	@Override
@@ -141,6 +166,8 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 			mListColumns.clearSelection();
 		else
 			mTextArea.setText("");
+		mComboBoxStructureKey.setSelectedIndex(0);
+		mCheckBoxLargestFragment.setSelected(false);
 		}
 
 	@Override
@@ -205,41 +232,86 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
 			columnMask[columnList[i]] = true;
 		    }
 
-		CompoundRecord[] record = new CompoundRecord[mTableModel.getTotalRowCount()];
-		for (int row=0; row<mTableModel.getTotalRowCount(); row++)
+		int rowCount = mTableModel.getTotalRowCount();
+		CompoundRecord[] record = new CompoundRecord[rowCount];
+		for (int row=0; row<rowCount; row++)
 			record[row] = mTableModel.getTotalRecord(row);
 
-        RedundancyComparator comparator = new RedundancyComparator(mTableModel, columnList);
+		// Structure columns get canonical keys of normalized structures, if required
+		StructureKeyBuilder keyBuilder = new StructureKeyBuilder(
+				STRUCTURE_KEY_TYPE[findListIndex(configuration.getProperty(PROPERTY_STRUCTURE_KEY), STRUCTURE_KEY_CODE, 0)],
+				"true".equals(configuration.getProperty(PROPERTY_LARGEST_FRAGMENT)), this);
+		byte[][][] structureKey = new byte[columnList.length][][];
+		if (!keyBuilder.isIdentityKey()) {
+			for (int i=0; i<columnList.length; i++) {
+				if (CompoundTableModel.cColumnTypeIDCode.equals(mTableModel.getColumnSpecialType(columnList[i]))) {
+					int coordsColumn = mTableModel.getChildColumn(columnList[i], CompoundTableModel.cColumnType2DCoordinates);
+					byte[][] idcode = new byte[rowCount][];
+					byte[][] coords = (coordsColumn == -1) ? null : new byte[rowCount][];
+					for (int row=0; row<rowCount; row++) {
+						idcode[row] = (byte[])record[row].getData(columnList[i]);
+						if (coords != null)
+							coords[row] = (byte[])record[row].getData(coordsColumn);
+						}
+					structureKey[i] = keyBuilder.createKeys(idcode, coords);
+					if (threadMustDie())
+						return;
+					}
+				}
+			}
 
-        Arrays.sort(record, comparator);
+		// For every row find the first row with an equivalent key, if there is any
+		startProgress("Finding equivalent rows...", 0, 0);
+		ByteArrayHashTable keyTable = new ByteArrayHashTable(rowCount);
+		int[] firstEquivalentRow = new int[rowCount];
+		for (int row=0; row<rowCount; row++)
+			firstEquivalentRow[row] = keyTable.put(createRowKey(record[row], row, columnList, structureKey), row);
 
         if (mMode == MODE_REMOVE_UNIQUE) {
-            boolean isFirstInSet = true;
-            for (int row=0; row<mTableModel.getTotalRowCount(); row++) {
-                boolean isLastInSet = (row+1 == mTableModel.getTotalRowCount() || comparator.compare(record[row], record[row+1]) != 0);
-
-                if (isFirstInSet && isLastInSet)
-                    record[row].markForDeletion();
-
-                isFirstInSet = isLastInSet;
+            boolean[] hasEquivalent = new boolean[rowCount];
+            for (int row=0; row<rowCount; row++) {
+                if (firstEquivalentRow[row] != -1) {
+                    hasEquivalent[row] = true;
+                    hasEquivalent[firstEquivalentRow[row]] = true;
+                    }
                 }
+            for (int row=0; row<rowCount; row++)
+                if (!hasEquivalent[row])
+                    record[row].markForDeletion();
             }
         else {
-            int firstRow = 0;
-            int row = 1;
-			while (row<mTableModel.getTotalRowCount()) {
-				if (comparator.compare(record[row-1], record[row]) == 0)
-				    record[row].markForDeletion();
-				else if (mMode == MODE_MERGE_REDUNDANT) {
-				    if (firstRow < row-1)
-				        mergeRowContent(record, firstRow, row-1, columnMask, columnError);
-
-				    firstRow = row;
-				    }
-				row++;
-			    }
-            if (mMode == MODE_MERGE_REDUNDANT && firstRow < row-1)
-                mergeRowContent(record, firstRow, row-1, columnMask, columnError);
+            for (int row=0; row<rowCount; row++)
+                if (firstEquivalentRow[row] != -1)
+                    record[row].markForDeletion();
+
+            if (mMode == MODE_MERGE_REDUNDANT) {
+                // arrange records such that equivalent ones are adjacent, keeping the original order within groups
+                int[] groupSize = new int[rowCount];
+                for (int row=0; row<rowCount; row++)
+                    groupSize[(firstEquivalentRow[row] == -1) ? row : firstEquivalentRow[row]]++;
+
+                int[] groupIndex = new int[rowCount];
+                int index = 0;
+                for (int row=0; row<rowCount; row++) {
+                    if (firstEquivalentRow[row] == -1) {
+                        groupIndex[row] = index;
+                        index += groupSize[row];
+                        }
+                    }
+
+                CompoundRecord[] groupedRecord = new CompoundRecord[rowCount];
+                for (int row=0; row<rowCount; row++)
+                    groupedRecord[groupIndex[(firstEquivalentRow[row] == -1) ? row : firstEquivalentRow[row]]++] = record[row];
+
+                index = 0;
+                for (int row=0; row<rowCount; row++) {
+                    if (firstEquivalentRow[row] == -1) {
+                        if (groupSize[row] > 1)
+                            mergeRowContent(groupedRecord, index, index+groupSize[row]-1, columnMask, columnError);
+                        index += groupSize[row];
+                        }
+                    }
+                }
             }
 
         mTableModel.finalizeDeletion();
@@ -276,6 +348,60 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
             }
 		}
 
+	/**
+	 * Concatenates the row's values of all key columns. Every value is preceded by its
+	 * length, which is -1 for null values. String values are encoded with two bytes per char.
+	 * If no structure key could be created for a non-empty structure cell, then the raw
+	 * idcode is used instead, preceded by a 0 byte, which never occurs in keys.
+	 * @param record
+	 * @param row
+	 * @param columnList key columns
+	 * @param structureKey null or canonical structure keys of all rows for every key column
+	 * @return key that is equal for equivalent rows only
+	 */
+	private byte[] createRowKey(CompoundRecord record, int row, int[] columnList, byte[][][] structureKey) {
+		byte[][] part = new byte[columnList.length][];
+		int length = 4 * columnList.length;
+		for (int i=0; i<columnList.length; i++) {
+			if (structureKey[i] != null) {
+				part[i] = structureKey[i][row];
+				if (part[i] == null) {
+					byte[] idcode = (byte[])record.getData(columnList[i]);
+					if (idcode != null) {
+						part[i] = new byte[1+idcode.length];
+						System.arraycopy(idcode, 0, part[i], 1, idcode.length);
+						}
+					}
+				}
+			else {
+				String value = mTableModel.getValue(record, columnList[i]);
+				if (value != null) {
+					part[i] = new byte[2*value.length()];
+					for (int j=0; j<value.length(); j++) {
+						char c = value.charAt(j);
+						part[i][2*j] = (byte)(c >>> 8);
+						part[i][2*j+1] = (byte)c;
+						}
+					}
+				}
+			if (part[i] != null)
+				length += part[i].length;
+			}
+
+		byte[] key = new byte[length];
+		int index = 0;
+		for (int i=0; i<columnList.length; i++) {
+			int partLength = (part[i] == null) ? -1 : part[i].length;
+			for (int shift=24; shift>=0; shift-=8)
+				key[index++] = (byte)(partLength >>> shift);
+			if (part[i] != null) {
+				System.arraycopy(part[i], 0, key, index, part[i].length);
+				index += part[i].length;
+				}
+			}
+		return key;
+		}
+
 	private void mergeRowContent(CompoundRecord[] record, int firstRow, int lastRow, boolean[] skipColumn, boolean[] columnError) {
         for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
             if (mTableModel.getColumnSpecialType(column) == null) {
@@ -373,27 +499,3 @@ public class DETaskDeleteRedundantRows extends ConfigurableTask {
         return true;
 	    }
 	}
-
-class RedundancyComparator implements Comparator<CompoundRecord> {
-    private CompoundTableModel mTableModel;
-	private int[] mColumnList;
-
-	public RedundancyComparator(CompoundTableModel tableModel, int[] columnList) {
-        mTableModel = tableModel;
-		mColumnList = columnList;
-		}
-
-	public int compare(CompoundRecord o1, CompoundRecord o2) {
-        int comparison = 0;
-		for (int i=0; i<mColumnList.length; i++) {
-            String s1 = mTableModel.getValue(o1, mColumnList[i]);
-            String s2 = mTableModel.getValue(o2, mColumnList[i]);
-            comparison = (s1 == null) ? ((s2 == null) ? 0 : 1)
-                       : (s2 == null) ? -1
-                       : s1.compareTo(s2);
-            if (comparison != 0)
-                return comparison;
-			}
-		return comparison;
-		}
-	}
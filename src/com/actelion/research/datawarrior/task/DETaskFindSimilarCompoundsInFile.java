@@ -33,9 +33,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Properties;
-import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -48,9 +51,14 @@ import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.SwingConstants;
 
+import com.actelion.research.chem.IDCodeParser;
+import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.descriptor.CountDescriptorHandler;
 import com.actelion.research.chem.descriptor.DescriptorConstants;
 import com.actelion.research.chem.descriptor.DescriptorHandler;
+import com.actelion.research.chem.descriptor.DescriptorHandlerFlexophore;
 import com.actelion.research.chem.descriptor.DescriptorHelper;
+import com.actelion.research.chem.descriptor.PackedCounts;
 import com.actelion.research.chem.io.CompoundFileParser;
 import com.actelion.research.chem.io.CompoundTableConstants;
 import com.actelion.research.chem.io.DWARFileParser;
@@ -77,6 +85,7 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 	private static final int MIN_SIMILARITY = 70;
 	private static final int DEFAULT_SIMILARITY = 85;
 	private static final int MAX_DESCRIPTOR_CACHE_SIZE = 100000;
+	private static final int BATCH_SIZE = 1024;
 
 	public static final String TASK_NAME = "Find Similar Compounds In Other File";
 
@@ -545,11 +554,6 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 		int errors = 0;
 		String descriptorType = mTableModel.getColumnSpecialType(descriptorColumn);
 
-		@SuppressWarnings("unchecked")
-		final DescriptorHandler<Object,Object> dh = mTableModel.getDescriptorHandler(descriptorColumn);
-
-		TreeMap<String,Object> descriptorCache = new TreeMap<String,Object>();
-
 		int alphaNumColumnCount = 0;
 		int[] sourceColumn = null;
 		String sourceColumnNames = configuration.getProperty(PROPERTY_COLUMN_LIST);
@@ -586,115 +590,136 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 				}
 			}
 
-		int rowCount = parser.getRowCount();
-		startProgress("Processing Compounds From File...", 0, (rowCount == -1) ? 0 : rowCount);
-		while (parser.next()) {
-			if (threadMustDie())
-				break;
-
-			records++;
-
-			String idcode = parser.getIDCode();
-			if (idcode == null) {
-				errors++;
-				continue;
-				}
-
-			Object descriptor = descriptorCache.get(idcode);
-			if (descriptor == null) {
-				descriptor = parser.getDescriptor(descriptorType);
-
-				if (descriptor == null) {
-					errors++;
-					continue;
-					}
-
-				if (descriptorCache.size() < MAX_DESCRIPTOR_CACHE_SIZE)
-					descriptorCache.put(idcode, descriptor);
-				}
-
-			final float[] similarityList = (descriptorType.equals(DescriptorConstants.DESCRIPTOR_Flexophore.shortName)) ?
-					new float[mTableModel.getTotalRowCount()] : null;
-
-					// for the flexophore we pre-calculate similarities on multiple threads...
-			if (similarityList != null) {
-				int threadCount = Runtime.getRuntime().availableProcessors();
-				final AtomicInteger smtIndex = new AtomicInteger(mTableModel.getTotalRowCount());
-				final Object _descriptor = descriptor;
-
-				Thread[] t = new Thread[threadCount];
-				for (int i=0; i<threadCount; i++) {
-					t[i] = new Thread(TASK_NAME+" "+(i+1)) {
+		// index the table's descriptors once; matches of every row are collected in primitive lists
+		final int rowCount = mTableModel.getTotalRowCount();
+		final Object[] rowDescriptor = new Object[rowCount];
+		for (int row=0; row<rowCount; row++)
+			rowDescriptor[row] = mTableModel.getTotalRecord(row).getData(descriptorColumn);
+		int[][] rowMatch = new int[rowCount][];
+		float[][] rowSimilarity = new float[rowCount][];
+		int[] rowMatchCount = new int[rowCount];
+		ArrayList<FileRecord> matchingRecordList = new ArrayList<FileRecord>();
+
+		final int threadCount = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		final ConcurrentHashMap<String,Object> descriptorCache = new ConcurrentHashMap<String,Object>();
+		final boolean isFlexophore = descriptorType.equals(DescriptorConstants.DESCRIPTOR_Flexophore.shortName);
+		final float _similarityLimit = similarityLimit;
+		final String _descriptorType = descriptorType;
+		@SuppressWarnings("unchecked")
+		final DescriptorHandler<Object,Object>[] threadDH = new DescriptorHandler[threadCount];
+		for (int t=0; t<threadCount; t++)
+			threadDH[t] = mTableModel.getDescriptorHandler(descriptorColumn).getDeepCopy();
+
+		// count based descriptors of the table are packed once, which makes all comparisons much faster
+		DescriptorHandler columnDH = mTableModel.getDescriptorHandler(descriptorColumn);
+		final PackedCounts[] rowPackedCounts = (columnDH instanceof CountDescriptorHandler) ? new PackedCounts[rowCount] : null;
+		if (rowPackedCounts != null)
+			for (int row=0; row<rowCount; row++)
+				rowPackedCounts[row] = ((CountDescriptorHandler)columnDH).getPackedCounts((byte[])rowDescriptor[row]);
+
+		boolean keepText = (simWriter != null || dissimWriter != null);
+		int fileRowCount = parser.getRowCount();
+		startProgress("Processing Compounds From File...", 0, (fileRowCount == -1) ? 0 : fileRowCount);
+
+		// The file is parsed in batches on this thread, while the records of the previous batch
+		// are processed by the worker threads. Results are then merged in the original file order.
+		Throwable failure = null;
+		try {
+			ArrayList<FileRecord> batch = readBatch(parser, isSDF, sourceColumn, alphaNumColumnCount, coordsAvailable, keepText, _descriptorType);
+			while (!batch.isEmpty() && !threadMustDie()) {
+				final ArrayList<FileRecord> _batch = batch;
+				Future<?>[] future = new Future<?>[threadCount];
+				for (int t=0; t<threadCount; t++) {
+					final int thread = t;
+					future[t] = executor.submit(new Runnable() {
 						public void run() {
-							int index;
-							while ((index = smtIndex.decrementAndGet()) >= 0) {
-								CompoundRecord record = mTableModel.getTotalRecord(index);
-								similarityList[index] = dh.getSimilarity(_descriptor, record.getData(descriptorColumn));
-								}
+							for (int i=thread; i<_batch.size(); i+=threadCount)
+								processRecord(_batch.get(i), threadDH[thread], rowDescriptor, rowPackedCounts,
+											  descriptorCache, isFlexophore, _similarityLimit);
 							}
-						};
-					t[i].start();
+						});
 					}
-				for (int i=0; i<threadCount; i++)
-					try { t[i].join(); } catch (InterruptedException ie) {}
-				}
 
-			boolean isSimilar = false;
-			for (int row=0; row<mTableModel.getTotalRowCount(); row++) {
-				CompoundRecord record = mTableModel.getTotalRecord(row);
-				float similarity = (similarityList != null) ? similarityList[row]
-						: dh.getSimilarity(descriptor, record.getData(descriptorColumn));
-				if (similarity >= similarityLimit) {
-					int similarityRank = 0;
-					if (record.getData(firstNewColumn) != null) {	// if is not the only similarity value, then we have to compare
-						String[] similarityText = new String((byte[])record.getData(firstNewColumn)).split("\\n");
-						for (int i=0; i<similarityText.length; i++) {
-							if (similarity > Float.parseFloat(similarityText[i]))
-								break;
-							similarityRank++;
-							}
+				ArrayList<FileRecord> nextBatch = readBatch(parser, isSDF, sourceColumn, alphaNumColumnCount, coordsAvailable, keepText, _descriptorType);
+
+				for (int t=0; t<threadCount; t++) {
+					try {
+						future[t].get();
+						}
+					catch (ExecutionException ee) {
+						if (failure == null)
+							failure = ee.getCause();
 						}
-					if (similarityRank == 0) {
-						String _idcode = parser.getIDCode();
-						if (_idcode != null) {
-							record.setData(_idcode.getBytes(), firstNewColumn+1);
-							if (coordsAvailable) {
-								String coords = parser.getCoordinates();
-								if (coords != null)
-									record.setData(coords.getBytes(), firstNewColumn+2);
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						if (failure == null)
+							failure = ie;
+						}
+					}
+				if (failure != null)
+					break;
+
+				for (FileRecord fileRecord:batch) {
+					records++;
+					if (fileRecord.idcode == null || fileRecord.isFailed) {
+						errors++;
+						continue;
+						}
+
+					if (fileRecord.matchCount != 0) {
+						int matchIndex = matchingRecordList.size();
+						matchingRecordList.add(fileRecord);
+						for (int i=0; i<fileRecord.matchCount; i++) {
+							int row = fileRecord.matchRow[i];
+							if (rowMatchCount[row] == 0) {
+								rowMatch[row] = new int[4];
+								rowSimilarity[row] = new float[4];
+								}
+							else if (rowMatchCount[row] == rowMatch[row].length) {
+								rowMatch[row] = Arrays.copyOf(rowMatch[row], 2*rowMatchCount[row]);
+								rowSimilarity[row] = Arrays.copyOf(rowSimilarity[row], 2*rowMatchCount[row]);
 								}
+							rowMatch[row][rowMatchCount[row]] = matchIndex;
+							rowSimilarity[row][rowMatchCount[row]] = fileRecord.matchSimilarity[i];
+							rowMatchCount[row]++;
 							}
-						}
-					insertBytes(record, firstNewColumn, Float.toString(similarity).getBytes(), similarityRank);
+						fileRecord.matchRow = null;
+						fileRecord.matchSimilarity = null;
 
-					for (int i=0; i<alphaNumColumnCount; i++) {
-						String fieldData = parser.getFieldData(sourceColumn[i]);
-						int destColumn = firstNewAlphaNumColumn+i;
-						insertBytes(record, destColumn, fieldData.getBytes(), similarityRank);
 						if (!isSDF)
-							mTableModel.getDetailHandler().extractEmbeddedDetailReferences(destColumn, fieldData, detailReferences);
+							for (int i=0; i<alphaNumColumnCount; i++)
+								mTableModel.getDetailHandler().extractEmbeddedDetailReferences(firstNewAlphaNumColumn+i, fileRecord.fieldData[i], detailReferences);
 						}
 
-					isSimilar = true;
+					if (simWriter != null && fileRecord.matchCount != 0)
+						writeRecord(isSDF, fileRecord.text, simWriter);
+					if (dissimWriter != null && fileRecord.matchCount == 0)
+						writeRecord(isSDF, fileRecord.text, dissimWriter);
+					fileRecord.text = null;
 					}
-				}
-
-			if (simWriter != null && isSimilar)
-				writeRecord(isSDF, parser, simWriter);
-			if (dissimWriter != null && !isSimilar)
-				writeRecord(isSDF, parser, dissimWriter);
 
-			updateProgress(records);
+				updateProgress(records);
+				batch = nextBatch;
+				}
 			}
+		finally {
+			executor.shutdown();
+			}
+
+		for (int row=0; row<rowCount; row++)
+			if (rowMatchCount[row] != 0)
+				setMatchData(mTableModel.getTotalRecord(row), rowMatch[row], rowSimilarity[row], rowMatchCount[row],
+							 matchingRecordList, firstNewColumn, coordsAvailable, firstNewAlphaNumColumn, alphaNumColumnCount);
 
-		if (!threadMustDie() && !isSDF && detailReferences.size() != 0) {
+		if (!threadMustDie() && failure == null && !isSDF && detailReferences.size() != 0) {
 			resolveDetailIDCollisions(detailReferences);
 			HashMap<String,byte[]> details = ((DWARFileParser)parser).getDetails();
 			for (String key:detailReferences)
 				mTableModel.getDetailHandler().setEmbeddedDetail(key, details.get(key));
 			}
 
-		if (!threadMustDie()) {
+		if (!threadMustDie() && failure == null) {
 			if (!isSDF) {
 				if (simFileName != null)
 					writeHeadOrTail((DWARFileParser)parser, simWriter);
@@ -708,7 +733,9 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 		if (dissimWriter != null)
 			try { dissimWriter.close(); } catch (IOException ioe) {}
 
-		if (errors != 0)
+		if (failure != null)
+			showErrorMessage("Comparing the file compounds failed after "+records+" records: "+failure);
+		else if (errors != 0)
 			showErrorMessage(""+errors+" of "+records+" file records could not be processed and were skipped.");
 
 		mTableModel.finalizeNewColumns(firstNewColumn, getProgressController());
@@ -733,62 +760,166 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 			}
 		}
 
-	private void insertBytes(CompoundRecord record, int column, byte[] bytes, int index) {
-		// convert cLineSeparators into cEntrySeparators
-		int lineCount = 0;
-		for (byte b:bytes)
-			if (b == CompoundTableConstants.cLineSeparatorByte)
-				lineCount++;
-		if (lineCount != 0) {
-			byte[] old = bytes;
-			bytes = new byte[old.length+(lineCount*(CompoundTableConstants.cEntrySeparatorBytes.length-1))];
-			int i = 0;
-			for (byte b:old) {
-				if (b == CompoundTableConstants.cLineSeparatorByte)
-					for (byte sb:CompoundTableConstants.cEntrySeparatorBytes)
-						bytes[i++] = sb;
-				else
-					bytes[i++] = b;
+	/**
+	 * Reads the next batch of records from the file and keeps everything needed
+	 * to process the records on other threads and to merge the results later.
+	 */
+	private ArrayList<FileRecord> readBatch(CompoundFileParser parser, boolean isSDF, int[] sourceColumn,
+											int alphaNumColumnCount, boolean coordsAvailable, boolean keepText, String descriptorType) {
+		ArrayList<FileRecord> batch = new ArrayList<FileRecord>(BATCH_SIZE);
+		while (batch.size() < BATCH_SIZE && !threadMustDie() && parser.next()) {
+			FileRecord fileRecord = new FileRecord();
+			fileRecord.idcode = parser.getIDCode();
+			if (fileRecord.idcode != null) {
+				fileRecord.coords = parser.getCoordinates();
+				if (!isSDF)
+					fileRecord.encodedDescriptor = ((DWARFileParser)parser).getEncodedDescriptor(descriptorType);
+				fileRecord.fieldData = new String[alphaNumColumnCount];
+				for (int i=0; i<alphaNumColumnCount; i++)
+					fileRecord.fieldData[i] = parser.getFieldData(sourceColumn[i]);
+				if (keepText)
+					fileRecord.text = isSDF ? ((SDFileParser)parser).getNextMolFile()+((SDFileParser)parser).getNextFieldData()
+											: ((DWARFileParser)parser).getRow();
 				}
+			batch.add(fileRecord);
 			}
+		return batch;
+		}
 
-		if (record.getData(column) == null) {
-			record.setData(bytes, column);
+	/**
+	 * Decodes or calculates the descriptor of a file record and compares it with
+	 * the descriptors of all table rows. This is called on multiple threads.
+	 */
+	private void processRecord(FileRecord fileRecord, DescriptorHandler<Object,Object> dh, Object[] rowDescriptor,
+							   PackedCounts[] rowPackedCounts, ConcurrentHashMap<String,Object> descriptorCache,
+							   boolean isFlexophore, float similarityLimit) {
+		if (fileRecord.idcode == null)
 			return;
-			}
 
-		byte[] detailSeparator = mTableModel.getDetailSeparator(column).getBytes();
+		Object descriptor = descriptorCache.get(fileRecord.idcode);
+		if (descriptor == null) {
+			if (fileRecord.encodedDescriptor != null) {
+				descriptor = dh.decode(fileRecord.encodedDescriptor);
+				}
+			else {
+				StereoMolecule mol = new IDCodeParser(fileRecord.coords == null).getCompactMolecule(fileRecord.idcode, fileRecord.coords);
+				if (mol != null) {
+					descriptor = dh.createDescriptor(mol);
+					if (dh.calculationFailed(descriptor))
+						descriptor = null;
+					}
+				}
+
+			if (descriptor == null) {
+				fileRecord.isFailed = true;
+				return;
+				}
+
+			if (descriptorCache.size() < MAX_DESCRIPTOR_CACHE_SIZE)
+				descriptorCache.put(fileRecord.idcode, descriptor);
+			}
+		fileRecord.encodedDescriptor = null;
 
-		byte[] oldBytes = (byte[])record.getData(column);
-		byte[] newBytes = new byte[oldBytes.length+1+bytes.length];
-		int oldLength = getLengthWithoutDetail(oldBytes, detailSeparator);
-		int length = getLengthWithoutDetail(bytes, detailSeparator);
-		int i = 0;
-		int entryIndex = 0;
-		for (int j=0; j<oldLength; j++) {
-			if (entryIndex == index) {	// we need to insert
-				for (int k=0; k<length; k++)
-					newBytes[i++] = bytes[k];
-				newBytes[i++] = CompoundTableConstants.cLineSeparatorByte;
-				entryIndex++;
+		if (rowPackedCounts != null) {
+			CountDescriptorHandler cdh = (CountDescriptorHandler)(Object)dh;
+			PackedCounts packedCounts = cdh.getPackedCounts((byte[])descriptor);
+			for (int row=0; row<rowPackedCounts.length; row++) {
+				if (rowPackedCounts[row] != null) {
+					float similarity = cdh.getSimilarity(packedCounts, rowPackedCounts[row], similarityLimit);
+					if (similarity >= similarityLimit)
+						fileRecord.addMatch(row, similarity);
+					}
 				}
-			newBytes[i++] = oldBytes[j];
-			if (oldBytes[j] == CompoundTableConstants.cLineSeparatorByte)
-				entryIndex++;
+			return;
 			}
-		if (entryIndex < index) {	// we need to append
-			newBytes[i++] = CompoundTableConstants.cLineSeparatorByte;
-			for (int k=0; k<length; k++)
-				newBytes[i++] = bytes[k];
+
+		for (int row=0; row<rowDescriptor.length; row++) {
+			float similarity = isFlexophore ?
+					((DescriptorHandlerFlexophore)dh).getSimilarity(descriptor, rowDescriptor[row], similarityLimit)
+				  : dh.getSimilarity(descriptor, rowDescriptor[row]);
+			if (similarity >= similarityLimit)
+				fileRecord.addMatch(row, similarity);
 			}
+		}
 
-		// attach detail references to the end
-		for (int j=oldLength; j<oldBytes.length; j++)
-			newBytes[i++] = oldBytes[j];
-		for (int k=length; k<bytes.length; k++)
-			newBytes[i++] = bytes[k];
+	/**
+	 * Creates the cell content of all new columns of one table row from its matching file records,
+	 * which are listed in descending similarity order. Matches with equal similarity stay in file order.
+	 * Detail references of all matches are attached to the end of the cells in file order.
+	 */
+	private void setMatchData(CompoundRecord record, int[] match, float[] similarity, int matchCount,
+							  ArrayList<FileRecord> matchingRecordList, int firstNewColumn, boolean coordsAvailable,
+							  int firstNewAlphaNumColumn, int alphaNumColumnCount) {
+		// similarities are positive floats, whose bits sort like the values
+		long[] key = new long[matchCount];
+		for (int i=0; i<matchCount; i++)
+			key[i] = ((long)(Integer.MAX_VALUE - Float.floatToIntBits(similarity[i])) << 32) | i;
+		Arrays.sort(key);
+
+		StringBuilder similarityText = new StringBuilder();
+		for (int i=0; i<matchCount; i++) {
+			if (i != 0)
+				similarityText.append(CompoundTableConstants.cLineSeparator);
+			similarityText.append(Float.toString(similarity[(int)key[i]]));
+			}
+		record.setData(similarityText.toString().getBytes(), firstNewColumn);
+
+		FileRecord bestMatch = matchingRecordList.get(match[(int)key[0]]);
+		record.setData(bestMatch.idcode.getBytes(), firstNewColumn+1);
+		if (coordsAvailable && bestMatch.coords != null)
+			record.setData(bestMatch.coords.getBytes(), firstNewColumn+2);
+
+		for (int column=0; column<alphaNumColumnCount; column++) {
+			byte[] detailSeparator = mTableModel.getDetailSeparator(firstNewAlphaNumColumn+column).getBytes();
+			byte[][] entry = new byte[matchCount][];
+			int size = matchCount-1;
+			for (int i=0; i<matchCount; i++) {
+				String fieldData = matchingRecordList.get(match[i]).fieldData[column];
+				entry[i] = convertLineSeparators((fieldData == null) ? new byte[0] : fieldData.getBytes());
+				size += entry[i].length;
+				}
 
-		record.setData(newBytes, column);
+			byte[] bytes = new byte[size];
+			int index = 0;
+			for (int i=0; i<matchCount; i++) {
+				if (i != 0)
+					bytes[index++] = CompoundTableConstants.cLineSeparatorByte;
+				byte[] e = entry[(int)key[i]];
+				int length = getLengthWithoutDetail(e, detailSeparator);
+				System.arraycopy(e, 0, bytes, index, length);
+				index += length;
+				}
+			for (int i=0; i<matchCount; i++) {
+				int length = getLengthWithoutDetail(entry[i], detailSeparator);
+				System.arraycopy(entry[i], length, bytes, index, entry[i].length-length);
+				index += entry[i].length-length;
+				}
+			record.setData(bytes, firstNewAlphaNumColumn+column);
+			}
+		}
+
+	/**
+	 * Converts cLineSeparators into cEntrySeparators
+	 */
+	private byte[] convertLineSeparators(byte[] bytes) {
+		int lineCount = 0;
+		for (byte b:bytes)
+			if (b == CompoundTableConstants.cLineSeparatorByte)
+				lineCount++;
+		if (lineCount == 0)
+			return bytes;
+
+		byte[] old = bytes;
+		bytes = new byte[old.length+(lineCount*(CompoundTableConstants.cEntrySeparatorBytes.length-1))];
+		int i = 0;
+		for (byte b:old) {
+			if (b == CompoundTableConstants.cLineSeparatorByte)
+				for (byte sb:CompoundTableConstants.cEntrySeparatorBytes)
+					bytes[i++] = sb;
+			else
+				bytes[i++] = b;
+			}
+		return bytes;
 		}
 
 	private int getLengthWithoutDetail(byte[] data, byte[] separator) {
@@ -814,20 +945,34 @@ public class DETaskFindSimilarCompoundsInFile extends ConfigurableTask implement
 		catch (IOException ioe) {}
 		}
 
-	private void writeRecord(boolean isSDF, CompoundFileParser parser, BufferedWriter writer) {
-		if (isSDF) {
-			try {
-				writer.write(((SDFileParser)parser).getNextMolFile());
-				writer.write(((SDFileParser)parser).getNextFieldData());
-				}
-			catch (IOException ioe) {}
-			}
-		else {
-			try {
-				writer.write(((DWARFileParser)parser).getRow());
+	private void writeRecord(boolean isSDF, String text, BufferedWriter writer) {
+		try {
+			writer.write(text);
+			if (!isSDF)
 				writer.newLine();
+			}
+		catch (IOException ioe) {}
+		}
+
+	private static class FileRecord {
+		String idcode,coords,encodedDescriptor,text;
+		String[] fieldData;
+		boolean isFailed;
+		int[] matchRow;
+		float[] matchSimilarity;
+		int matchCount;
+
+		private void addMatch(int row, float similarity) {
+			if (matchRow == null) {
+				matchRow = new int[4];
+				matchSimilarity = new float[4];
 				}
-			catch (IOException ioe) {}
+			else if (matchCount == matchRow.length) {
+				matchRow = Arrays.copyOf(matchRow, 2*matchCount);
+				matchSimilarity = Arrays.copyOf(matchSimilarity, 2*matchCount);
+				}
+			matchRow[matchCount] = row;
+			matchSimilarity[matchCount++] = similarity;
 			}
 		}
 	}
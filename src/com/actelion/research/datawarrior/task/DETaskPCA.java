@@ -39,6 +39,8 @@ import javax.swing.SwingUtilities;
 import javax.swing.text.html.HTMLEditorKit;
 
 import com.actelion.research.calc.SingularValueDecomposition;
+import com.actelion.research.calc.principalcomponentanalysis.RandomizedPCA;
+import com.actelion.research.calc.principalcomponentanalysis.SparseParameterRowProvider;
 import com.actelion.research.chem.descriptor.DescriptorConstants;
 import com.actelion.research.chem.descriptor.DescriptorHelper;
 import com.actelion.research.datawarrior.DEFrame;
@@ -62,6 +64,10 @@ public class DETaskPCA extends ConfigurableTask {
 	private static final String PROPERTY_COMPONENT_COUNT = "componentCount";
 	private static final String PROPERTY_CREATE_VIEWS = "createViews";
 
+	// with more parameters the full covariance matrix and its SVD become too expensive
+	private static final int RANDOMIZED_PCA_MIN_PARAMETERS = 64;
+	private static final int EXPLAINED_VARIANCE_COMPONENTS = 10;
+
     private static Properties sRecentConfiguration;
 
     private DEFrame				mParentFrame;
@@ -397,88 +403,79 @@ public class DETaskPCA extends ConfigurableTask {
         		}
 			}
 
-		double[] rowParameter = new double[regularCount];
-
-		startProgress("Calculating mean parameters...", 0, mFullDataRowCount);
-		double[] meanParameter = new double[regularCount];
-		for (int r=0; r<mFullDataRowCount; r++) {
-			if (threadMustDie())
-				break;
-			updateProgress(r);
-
-			calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
-
-			for (int i=0; i<regularCount; i++)
-				meanParameter[i] += rowParameter[i];
-			}
-		if (!threadMustDie())
-			for (int i=0; i<regularCount; i++)
-				meanParameter[i] /= (double)mFullDataRowCount;
-
-		startProgress("Calculating variance...", 0, mFullDataRowCount);
-		double[] variance = new double[regularCount];
-		for (int r=0; r<mFullDataRowCount; r++) {
-			if (threadMustDie())
-				break;
-			updateProgress(r);
-
-			calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
+		int pcaCount = 3;
+    	try { pcaCount = Integer.parseInt(configuration.getProperty(PROPERTY_COMPONENT_COUNT, "3")); } catch (NumberFormatException nfe) {}
 
-			for (int i=0; i<regularCount; i++) {
-				double dif = (rowParameter[i] - meanParameter[i]);
-				variance[i] += dif * dif;
+		double[][] eigenVectorsLeft = null;
+		double[][] factorArray = null;
+		double[] eigenValue = null;
+		double totalVariance = 0.0;
+
+		if (regularCount >= RANDOMIZED_PCA_MIN_PARAMETERS) {
+			RandomizedPCA pca = new RandomizedPCA(new TableRowProvider(descriptorColumn, regularColumn, varyingKey, regularCount), this);
+			try {
+				if (pca.calculate(Math.max(pcaCount, EXPLAINED_VARIANCE_COMPONENTS)))
+					factorArray = pca.calculateFactors();
+				}
+			catch (RuntimeException e) {
+				showErrorMessage("The principal component analysis failed: "+e.toString());
+				return;
 				}
-			}
-		if (!threadMustDie())
-			for (int i=0; i<regularCount; i++)
-				variance[i] /= (double)(mFullDataRowCount-1);
-
-		startProgress("Building parameter matrix...", 0, mFullDataRowCount);
 
-		double[][] squareMatrix = new double[regularCount][regularCount];
-		for (int r=0; r<mFullDataRowCount; r++) {
 			if (threadMustDie())
-				break;
-			updateProgress(r);
+				return;
 
-			calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
-			for (int i=0; i<regularCount; i++)
-				rowParameter[i] = (rowParameter[i] - meanParameter[i]) / Math.sqrt(variance[i]);
+			if (factorArray == null) {
+				showErrorMessage("The principal component analysis could not be calculated.");
+				return;
+				}
 
-			for (int i=0; i<regularCount; i++)
-				for (int j=0; j<regularCount; j++)
-					squareMatrix[i][j] += rowParameter[i] * rowParameter[j];
+			eigenVectorsLeft = pca.getEigenVectors();
+			eigenValue = pca.getEigenValues();
+			totalVariance = pca.getTotalVariance();
+			if (pcaCount > eigenValue.length)
+				pcaCount = eigenValue.length;
 			}
+		else {
+			double[] rowParameter = new double[regularCount];
 
-		for (int i=0; i<regularCount; i++)
-			for (int j=0; j<regularCount; j++)
-				squareMatrix[i][j] /= (mFullDataRowCount-1);
+			startProgress("Calculating mean parameters...", 0, mFullDataRowCount);
+			double[] meanParameter = new double[regularCount];
+			for (int r=0; r<mFullDataRowCount; r++) {
+				if (threadMustDie())
+					break;
+				updateProgress(r);
 
-			// Principle component analysis
-		double[][] eigenVectorsLeft = null;
-		double[][] factorArray = null;
-		SingularValueDecomposition svd = null;
+				calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
 
-		if (!threadMustDie()) {
-			svd = new SingularValueDecomposition(squareMatrix, this, this);
-			}
+				for (int i=0; i<regularCount; i++)
+					meanParameter[i] += rowParameter[i];
+				}
+			if (!threadMustDie())
+				for (int i=0; i<regularCount; i++)
+					meanParameter[i] /= (double)mFullDataRowCount;
 
-		if (!threadMustDie()) {
-			eigenVectorsLeft = svd.getU();
-//			for (int i=0; i<eigenVectorsLeft.length; i++)
-//				System.out.println("EigenVectorsLeft["+i+"][0]"+i+": "+(eigenVectorsLeft[i][0]));
-			}
+			startProgress("Calculating variance...", 0, mFullDataRowCount);
+			double[] variance = new double[regularCount];
+			for (int r=0; r<mFullDataRowCount; r++) {
+				if (threadMustDie())
+					break;
+				updateProgress(r);
 
-		int pcaCount = 3;
-    	try { pcaCount = Integer.parseInt(configuration.getProperty(PROPERTY_COMPONENT_COUNT, "3")); } catch (NumberFormatException nfe) {}
+				calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
 
-		if (!threadMustDie()) {
-			factorArray = new double[mFullDataRowCount][pcaCount];
-			int eigenValueN = (eigenVectorsLeft.length == 0) ? 0 : eigenVectorsLeft[0].length;
-			if (pcaCount > eigenValueN)
-				pcaCount = eigenValueN;
+				for (int i=0; i<regularCount; i++) {
+					double dif = (rowParameter[i] - meanParameter[i]);
+					variance[i] += dif * dif;
+					}
+				}
+			if (!threadMustDie())
+				for (int i=0; i<regularCount; i++)
+					variance[i] /= (double)(mFullDataRowCount-1);
+
+			startProgress("Building parameter matrix...", 0, mFullDataRowCount);
 
-			startProgress("Multiplying descriptors with eigenvalues...", 0, mFullDataRowCount);
+			double[][] squareMatrix = new double[regularCount][regularCount];
 			for (int r=0; r<mFullDataRowCount; r++) {
 				if (threadMustDie())
 					break;
@@ -488,11 +485,56 @@ public class DETaskPCA extends ConfigurableTask {
 				for (int i=0; i<regularCount; i++)
 					rowParameter[i] = (rowParameter[i] - meanParameter[i]) / Math.sqrt(variance[i]);
 
-				for (int i=0; i<pcaCount; i++)
+				for (int i=0; i<regularCount; i++)
 					for (int j=0; j<regularCount; j++)
-						factorArray[r][i] += rowParameter[j] * eigenVectorsLeft[j][i];
+						squareMatrix[i][j] += rowParameter[i] * rowParameter[j];
+				}
+
+			for (int i=0; i<regularCount; i++)
+				for (int j=0; j<regularCount; j++)
+					squareMatrix[i][j] /= (mFullDataRowCount-1);
+
+				// Principle component analysis
+			SingularValueDecomposition svd = null;
+
+			if (!threadMustDie()) {
+				svd = new SingularValueDecomposition(squareMatrix, this, this);
+				}
+
+			if (!threadMustDie()) {
+				eigenVectorsLeft = svd.getU();
+//				for (int i=0; i<eigenVectorsLeft.length; i++)
+//					System.out.println("EigenVectorsLeft["+i+"][0]"+i+": "+(eigenVectorsLeft[i][0]));
 				}
-			}
+
+			if (!threadMustDie()) {
+				factorArray = new double[mFullDataRowCount][pcaCount];
+				int eigenValueN = (eigenVectorsLeft.length == 0) ? 0 : eigenVectorsLeft[0].length;
+				if (pcaCount > eigenValueN)
+					pcaCount = eigenValueN;
+
+				startProgress("Multiplying descriptors with eigenvalues...", 0, mFullDataRowCount);
+				for (int r=0; r<mFullDataRowCount; r++) {
+					if (threadMustDie())
+						break;
+					updateProgress(r);
+
+					calculateParameterRow(descriptorColumn, regularColumn, mFullDataRow[r], varyingKey, rowParameter);
+					for (int i=0; i<regularCount; i++)
+						rowParameter[i] = (rowParameter[i] - meanParameter[i]) / Math.sqrt(variance[i]);
+
+					for (int i=0; i<pcaCount; i++)
+						for (int j=0; j<regularCount; j++)
+							factorArray[r][i] += rowParameter[j] * eigenVectorsLeft[j][i];
+					}
+				}
+
+			if (!threadMustDie()) {
+				eigenValue = svd.getSingularValues();
+				for (int i=0; i<eigenValue.length; i++)
+					totalVariance += eigenValue[i];
+				}
+		}
 
 		if (!threadMustDie()) {
 			String[] columnTitle = new String[pcaCount];
@@ -539,15 +581,11 @@ public class DETaskPCA extends ConfigurableTask {
 			}
 
 		if (!threadMustDie()) {
-			double[] singularValue = svd.getSingularValues();
-			double sum = 0.0;
-			for (int i=0; i<singularValue.length; i++)
-				sum += singularValue[i];
-			int maxIndex = Math.min(10, singularValue.length);
+			int maxIndex = Math.min(EXPLAINED_VARIANCE_COMPONENTS, eigenValue.length);
 			StringBuffer sb = new StringBuffer();
 			sb.append("<b>Explained variance percentage of<BR>the first "+maxIndex+" Principal Components</b><BR>");
 			for (int i=0; i<maxIndex; i++)
-				sb.append("Explained variance percentage of PC"+(i+1)+": "+((double)((int)(100000*singularValue[i]/sum))/1000)+"<BR>");
+				sb.append("Explained variance percentage of PC"+(i+1)+": "+((double)((int)(100000*eigenValue[i]/totalVariance))/1000)+"<BR>");
 
 			SwingUtilities.invokeLater(new PCADetailDialog(sb.toString()));
 			}
@@ -600,6 +638,95 @@ public class DETaskPCA extends ConfigurableTask {
 			}
 		}
 
+	/**
+	 * Supplies the non-zero parameters of the full data rows to the RandomizedPCA
+	 * in the same order as calculateParameterRow(). Fingerprint bits are delivered
+	 * as set bit indexes only.
+	 */
+	private class TableRowProvider implements SparseParameterRowProvider {
+		private int[] mDescriptorColumn,mRegularColumn;
+		private int[][] mVaryingKey,mParameterIndex;
+		private boolean[] mIsBinary;
+		private int mParameterCount;
+
+		public TableRowProvider(int[] descriptorColumn, int[] regularColumn, int[][] varyingKey, int parameterCount) {
+			mDescriptorColumn = descriptorColumn;
+			mRegularColumn = regularColumn;
+			mVaryingKey = varyingKey;
+			mParameterCount = parameterCount;
+
+			// for binary descriptors cache the parameter index of every varying bit
+			mIsBinary = new boolean[descriptorColumn.length];
+			mParameterIndex = new int[descriptorColumn.length][];
+			int paramIndex = 0;
+			for (int fp=0; fp<descriptorColumn.length; fp++) {
+				mIsBinary[fp] = mTableModel.getDescriptorHandler(descriptorColumn[fp]).getInfo().isBinary;
+				if (mIsBinary[fp]) {
+					mParameterIndex[fp] = new int[32*varyingKey[fp].length];
+					for (int i=0; i<varyingKey[fp].length; i++)
+						for (int j=0; j<32; j++)
+							mParameterIndex[fp][32*i+j] = ((varyingKey[fp][i] & (1 << j)) != 0) ? paramIndex++ : -1;
+					}
+				else {
+					paramIndex += varyingKey[fp].length;
+					}
+				}
+			}
+
+		@Override
+		public int getRowCount() {
+			return mFullDataRowCount;
+			}
+
+		@Override
+		public int getParameterCount() {
+			return mParameterCount;
+			}
+
+		@Override
+		public int getParameterRow(int r, int[] index, double[] value) {
+			CompoundRecord record = mTableModel.getTotalRecord(mFullDataRow[r]);
+			int count = 0;
+			int paramIndex = 0;
+			for (int fp=0; fp<mDescriptorColumn.length; fp++) {
+				if (mIsBinary[fp]) {
+					int[] currentIndex = (int[])record.getData(mDescriptorColumn[fp]);
+					for (int i=0; i<currentIndex.length; i++) {
+						int bits = currentIndex[i] & mVaryingKey[fp][i];
+						while (bits != 0) {
+							int j = Integer.numberOfTrailingZeros(bits);
+							bits &= bits - 1;
+							index[count] = mParameterIndex[fp][32*i+j];
+							value[count++] = 1.0;
+							}
+						paramIndex += Integer.bitCount(mVaryingKey[fp][i]);
+						}
+					}
+				else {
+					byte[] currentIndex = (byte[])record.getData(mDescriptorColumn[fp]);
+					for (int i=0; i<mVaryingKey[fp].length; i++) {
+						if (currentIndex[mVaryingKey[fp][i]] != 0) {
+							index[count] = paramIndex;
+							value[count++] = currentIndex[mVaryingKey[fp][i]];
+							}
+						paramIndex++;
+						}
+					}
+				}
+
+			for (int i=0; i<mRegularColumn.length; i++) {
+				double v = record.getDouble(mRegularColumn[i]);
+				if (v != 0.0) {
+					index[count] = paramIndex;
+					value[count++] = v;
+					}
+				paramIndex++;
+				}
+
+			return count;
+			}
+		}
+
 	private class PCADetailDialog implements Runnable {
 		private String mMessage;
 		public PCADetailDialog(String message) {
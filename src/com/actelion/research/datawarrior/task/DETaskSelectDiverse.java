@@ -51,6 +51,12 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 	private static final String PROPERTY_DESCRIPTOR_COLUMN = "descriptorColumn";
 	private static final String PROPERTY_SELECTION_COUNT = "selectionCount";
 	private static final String PROPERTY_FILE_NAME = "fileName";
+	private static final String PROPERTY_METHOD = "method";
+
+	private static final String[] METHOD_TEXT = { "Centroid based (fast)", "MaxMin (most dissimilar)" };
+	private static final String[] METHOD_CODE = { "centroid", "maxMin" };
+	private static final int METHOD_CENTROID = 0;
+	private static final int METHOD_MAX_MIN = 1;
 
 	private static final String[] sColumnName = {"Diversity Selection Rank"};
 
@@ -60,7 +66,7 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 
 	private DEFrame			 mSourceFrame;
 	private CompoundTableModel  mTableModel;
-	private JComboBox		   mComboBoxDescriptorColumn;
+	private JComboBox		   mComboBoxDescriptorColumn,mComboBoxMethod;
 	private JTextField		  mTextFieldCount;
 	private JCheckBox		   mCheckBoxAddFile;
 	private File				mFile;
@@ -110,7 +116,7 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 	@Override
 	public JPanel createDialogContent() {
 		double[][] size = { {8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8},
-							{8, TableLayout.PREFERRED, 8,
+							{8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8,
 								TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8} };
 
 		JPanel content = new JPanel();
@@ -128,12 +134,16 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 		mTextFieldCount = new JTextField(4);
 		content.add(mTextFieldCount, "3,3");
 
+		content.add(new JLabel("Method:"), "1,5");
+		mComboBoxMethod = new JComboBox(METHOD_TEXT);
+		content.add(mComboBoxMethod, "3,5");
+
 		mCheckBoxAddFile = new JCheckBox("Avoid compounds from file:");
-		content.add(mCheckBoxAddFile, "1,5");
+		content.add(mCheckBoxAddFile, "1,7");
 		mCheckBoxAddFile.addActionListener(this);
 
 		mLabelFileName = new JLabel();
-		content.add(mLabelFileName, "3,5");
+		content.add(mLabelFileName, "3,7");
 
 		return content;
 		}
@@ -216,6 +226,7 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 			}
 
 		mTextFieldCount.setText(configuration.getProperty(PROPERTY_SELECTION_COUNT, "1000"));
+		mComboBoxMethod.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_METHOD), METHOD_CODE, METHOD_CENTROID));
 		}
 
 	@Override
@@ -225,6 +236,7 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 		else if (!mIsInteractive)
 			mComboBoxDescriptorColumn.setSelectedItem("Structure [FragFp]");
 		mTextFieldCount.setText("1000");
+		mComboBoxMethod.setSelectedIndex(METHOD_CENTROID);
 		mCheckBoxAddFile.setSelected(false);
 		mLabelFileName.setText("");
 		mFile = null;
@@ -240,6 +252,8 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 		if (mTextFieldCount.getText().length() != 0)
 			configuration.setProperty(PROPERTY_SELECTION_COUNT, mTextFieldCount.getText());
 
+		configuration.setProperty(PROPERTY_METHOD, METHOD_CODE[mComboBoxMethod.getSelectedIndex()]);
+
 		if (mCheckBoxAddFile.isSelected())
 			configuration.setProperty(PROPERTY_FILE_NAME, mFile.getAbsolutePath());
 
@@ -306,6 +320,8 @@ public class DETaskSelectDiverse extends ConfigurableTask implements ActionListe
 		DiversitySelector selector = new DiversitySelector();
 		selector.addProgressListener(getProgressController());
 		selector.setThreadMaster(getProgressController());
+		if (findListIndex(configuration.getProperty(PROPERTY_METHOD), METHOD_CODE, METHOD_CENTROID) == METHOD_MAX_MIN)
+			selector.setMode(DiversitySelector.MODE_MAX_MIN);
 
 		TreeSet<String> uniqueCompoundList = new TreeSet<String>();
 
@@ -38,11 +38,15 @@ public class DETaskSortRows extends ConfigurableTask {
 	private static final String PROPERTY_COLUMN = "column";
 	private static final String PROPERTY_DESCENDING = "descending";
 	private static final String PROPERTY_SELECTED_FIRST = "selectedFirst";
+	private static final String PROPERTY_SECOND_COLUMN = "secondColumn";
+	private static final String PROPERTY_SECOND_DESCENDING = "secondDescending";
+
+	private static final String ITEM_NONE = "<none>";
 
     private static Properties sRecentConfiguration;
 
-    private JComboBox			mComboBoxColumn;
-    private JRadioButton		mRadioButton,mRadioButtonSelectedFirst;
+    private JComboBox			mComboBoxColumn,mComboBoxSecondColumn;
+    private JRadioButton		mRadioButton,mRadioButtonSelectedFirst,mRadioButtonSecond;
     private CompoundTableModel	mTableModel;
 	private int					mDefaultColumn;
 	private boolean				mSelectedFirst;
@@ -61,7 +65,8 @@ public class DETaskSortRows extends ConfigurableTask {
 
 	@Override
 	public boolean isRedundant(Properties previousConfiguration, Properties currentConfiguration) {
-		return currentConfiguration.getProperty(PROPERTY_COLUMN).equals(previousConfiguration.getProperty(PROPERTY_COLUMN));
+		return currentConfiguration.getProperty(PROPERTY_COLUMN).equals(previousConfiguration.getProperty(PROPERTY_COLUMN))
+			&& currentConfiguration.getProperty(PROPERTY_SECOND_COLUMN, "").equals(previousConfiguration.getProperty(PROPERTY_SECOND_COLUMN, ""));
 		}
 
 	@Override
@@ -80,7 +85,8 @@ public class DETaskSortRows extends ConfigurableTask {
 	public JComponent createDialogContent() {
 		JPanel p = new JPanel();
         double[][] size = { {8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 8},
-                            {8, TableLayout.PREFERRED, 16, TableLayout.PREFERRED, TableLayout.PREFERRED, 8} };
+                            {8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 16, TableLayout.PREFERRED, 4,
+                             TableLayout.PREFERRED, 16, TableLayout.PREFERRED, 8} };
         p.setLayout(new TableLayout(size));
 
 		mComboBoxColumn = new JComboBox();
@@ -94,8 +100,20 @@ public class DETaskSortRows extends ConfigurableTask {
 		mRadioButton = new JRadioButton("Descending order");
 		p.add(mRadioButton, "1,3,3,3");
 
+		mComboBoxSecondColumn = new JComboBox();
+		mComboBoxSecondColumn.addItem(ITEM_NONE);
+		for (int column=0; column<mTableModel.getTotalColumnCount(); column++)
+			if (mTableModel.isColumnDisplayable(column))
+				mComboBoxSecondColumn.addItem(mTableModel.getColumnTitle(column));
+		mComboBoxSecondColumn.setEditable(true);
+		p.add(new JLabel("Then by:"), "1,5");
+		p.add(mComboBoxSecondColumn, "3,5");
+
+		mRadioButtonSecond = new JRadioButton("Descending order");
+		p.add(mRadioButtonSecond, "1,7,3,7");
+
 		mRadioButtonSelectedFirst = new JRadioButton("Move selected rows to top.");
-		p.add(mRadioButtonSelectedFirst, "1,4,3,4");
+		p.add(mRadioButtonSelectedFirst, "1,9,3,9");
 
         return p;
 		}
@@ -106,6 +124,10 @@ public class DETaskSortRows extends ConfigurableTask {
 		configuration.put(PROPERTY_COLUMN, mTableModel.getColumnTitleNoAlias((String)mComboBoxColumn.getSelectedItem()));
 		configuration.put(PROPERTY_DESCENDING, mRadioButton.isSelected() ? "true" : "false");
 		configuration.put(PROPERTY_SELECTED_FIRST, mRadioButtonSelectedFirst.isSelected() ? "true" : "false");
+		if (!ITEM_NONE.equals(mComboBoxSecondColumn.getSelectedItem())) {
+			configuration.put(PROPERTY_SECOND_COLUMN, mTableModel.getColumnTitleNoAlias((String)mComboBoxSecondColumn.getSelectedItem()));
+			configuration.put(PROPERTY_SECOND_DESCENDING, mRadioButtonSecond.isSelected() ? "true" : "false");
+			}
 		return configuration;
 		}
 
@@ -120,6 +142,18 @@ public class DETaskSortRows extends ConfigurableTask {
 
 		mRadioButton.setSelected("true".equals(configuration.getProperty(PROPERTY_DESCENDING)));
 		mRadioButtonSelectedFirst.setSelected("true".equals(configuration.getProperty(PROPERTY_SELECTED_FIRST)));
+
+		String secondColumnName = configuration.getProperty(PROPERTY_SECOND_COLUMN);
+		if (secondColumnName == null)
+			mComboBoxSecondColumn.setSelectedItem(ITEM_NONE);
+		else {
+			int secondColumn = mTableModel.findColumn(secondColumnName);
+			if (secondColumn != -1)
+				mComboBoxSecondColumn.setSelectedItem(mTableModel.getColumnTitle(secondColumn));
+			else
+				mComboBoxSecondColumn.setSelectedItem(secondColumnName);
+			}
+		mRadioButtonSecond.setSelected("true".equals(configuration.getProperty(PROPERTY_SECOND_DESCENDING)));
 		}
 
 	@Override
@@ -129,6 +163,8 @@ public class DETaskSortRows extends ConfigurableTask {
 
 		mRadioButton.setSelected(false);
 		mRadioButtonSelectedFirst.setSelected(false);
+		mComboBoxSecondColumn.setSelectedItem(ITEM_NONE);
+		mRadioButtonSecond.setSelected(false);
 		}
 
 	@Override
@@ -144,6 +180,14 @@ public class DETaskSortRows extends ConfigurableTask {
 				showErrorMessage("Column '"+configuration.getProperty(PROPERTY_COLUMN)+"' not found.");
 		        return false;
 				}
+			String secondColumnName = configuration.getProperty(PROPERTY_SECOND_COLUMN);
+			if (secondColumnName != null) {
+				int secondColumn = mTableModel.findColumn(secondColumnName);
+				if (secondColumn == -1 || !mTableModel.isColumnDisplayable(secondColumn)) {
+					showErrorMessage("Column '"+secondColumnName+"' not found.");
+			        return false;
+					}
+				}
 			}
 		return true;
 		}
@@ -153,7 +197,15 @@ public class DETaskSortRows extends ConfigurableTask {
 		int column = mTableModel.findColumn(configuration.getProperty(PROPERTY_COLUMN, ""));
 		boolean descending = "true".equals(configuration.getProperty(PROPERTY_DESCENDING));
 		boolean selectedFirst = "true".equals(configuration.getProperty(PROPERTY_SELECTED_FIRST));
-		mTableModel.sort(column, descending, selectedFirst);
+		String secondColumnName = configuration.getProperty(PROPERTY_SECOND_COLUMN);
+		if (secondColumnName == null) {
+			mTableModel.sort(column, descending, selectedFirst);
+			}
+		else {
+			int secondColumn = mTableModel.findColumn(secondColumnName);
+			boolean secondDescending = "true".equals(configuration.getProperty(PROPERTY_SECOND_DESCENDING));
+			mTableModel.sort(new int[] {column, secondColumn}, new boolean[] {descending, secondDescending}, selectedFirst);
+			}
 		}
 	
 	@Override
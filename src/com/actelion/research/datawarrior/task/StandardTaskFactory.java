@@ -31,6 +31,7 @@ import com.actelion.research.datawarrior.task.file.DETaskExportMacro;
 import com.actelion.research.datawarrior.task.file.DETaskImportMacro;
 import com.actelion.research.datawarrior.task.file.DETaskMergeFile;
 import com.actelion.research.datawarrior.task.file.DETaskNewFile;
+import com.actelion.research.datawarrior.task.file.DETaskNewFileFromGrouping;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromPivoting;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromReversePivoting;
 import com.actelion.research.datawarrior.task.file.DETaskNewFileFromSelection;
@@ -150,6 +151,7 @@ public class StandardTaskFactory {
 			 : codeMatches(taskCode, DETaskNewColumnWithListNames.TASK_NAME) ? new DETaskNewColumnWithListNames(frame)
 			 : codeMatches(taskCode, DETaskNewFile.TASK_NAME) ? new DETaskNewFile(application)
 			 : codeMatches(taskCode, DETaskNewFileFromPivoting.TASK_NAME) ? new DETaskNewFileFromPivoting(frame, application)
+			 : codeMatches(taskCode, DETaskNewFileFromGrouping.TASK_NAME) ? new DETaskNewFileFromGrouping(frame, application)
 			 : codeMatches(taskCode, DETaskNewFileFromReversePivoting.TASK_NAME) ? new DETaskNewFileFromReversePivoting(frame, application)
 			 : codeMatches(taskCode, DETaskNewFileFromSelection.TASK_NAME) ? new DETaskNewFileFromSelection(frame, application)
 			 : codeMatches(taskCode, DETaskNewRowList.TASK_NAME) ? new DETaskNewRowList(frame, -1)
@@ -259,6 +261,7 @@ public class StandardTaskFactory {
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_FILE, DETaskNewFile.TASK_NAME));
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_FILE, DETaskNewFileFromPivoting.TASK_NAME));
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_FILE, DETaskNewFileFromReversePivoting.TASK_NAME));
+			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_FILE, DETaskNewFileFromGrouping.TASK_NAME));
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_FILE, DETaskNewFileFromSelection.TASK_NAME));
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_LIST, DETaskNewRowList.TASK_NAME));
 			mTaskDictionary.add(new TaskSpecification(TaskSpecification.CATEGORY_VIEW, DETaskNewView.TASK_NAME));
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.datawarrior.task.file;
+
+import info.clearthought.layout.TableLayout;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Properties;
+
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+
+import com.actelion.research.datawarrior.DEFrame;
+import com.actelion.research.datawarrior.DEPruningPanel.FilterException;
+import com.actelion.research.datawarrior.DataWarrior;
+import com.actelion.research.datawarrior.task.ConfigurableTask;
+import com.actelion.research.table.CompoundTableAggregator;
+import com.actelion.research.table.CompoundTableEvent;
+import com.actelion.research.table.CompoundTableModel;
+import com.actelion.research.util.DoubleFormat;
+
+
+public class DETaskNewFileFromGrouping extends ConfigurableTask {
+	private static final String PROPERTY_GROUP_COLUMNS = "groupColumns";
+	private static final String PROPERTY_DATA_COLUMNS = "dataColumns";
+	private static final String PROPERTY_AGGREGATES = "aggregates";
+
+	public static final String TASK_NAME = "New File From Grouping";
+
+	private static Properties sRecentConfiguration;
+
+	private CompoundTableModel  mSourceTableModel;
+	private JList				mGroupColumns,mDataColumns,mAggregates;
+	private DEFrame				mSourceFrame,mTargetFrame;
+	private DataWarrior			mApplication;
+
+	public DETaskNewFileFromGrouping(DEFrame sourceFrame, DataWarrior application) {
+		super(sourceFrame, false);
+		mSourceFrame = sourceFrame;
+		mSourceTableModel = sourceFrame.getTableModel();
+		mApplication = application;
+		}
+
+	@Override
+	public JPanel createDialogContent() {
+		double[][] size = { {8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8},
+							{8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8} };
+		JPanel content = new JPanel();
+		content.setLayout(new TableLayout(size));
+
+		Comparator<String> itemComparator = new Comparator<String>() {
+			@Override
+			public int compare(String s1, String s2) {
+				return s1.compareToIgnoreCase(s2);
+				}
+			};
+
+		JLabel groupLabel = new JLabel("Group rows sharing:");
+		groupLabel.setBackground(new Color(136, 136, 232));
+		groupLabel.setOpaque(true);
+		content.add(groupLabel, "1,1");
+		ArrayList<String> groupColumnList = new ArrayList<String>();
+		for (int column=0; column<mSourceTableModel.getTotalColumnCount(); column++)
+			if (mSourceTableModel.isColumnDisplayable(column))
+				groupColumnList.add(mSourceTableModel.getColumnTitle(column));
+		String[] groupItemList = groupColumnList.toArray(new String[0]);
+		Arrays.sort(groupItemList, itemComparator);
+		mGroupColumns = new JList(groupItemList);
+		JScrollPane scrollPane1 = new JScrollPane(mGroupColumns);
+		scrollPane1.setPreferredSize(new Dimension(200,200));
+		content.add(scrollPane1, "1,3");
+
+		JLabel dataLabel = new JLabel("Summarize column(s):");
+		dataLabel.setBackground(new Color(212, 180, 0));
+		dataLabel.setOpaque(true);
+		content.add(dataLabel, "3,1");
+		ArrayList<String> dataColumnList = new ArrayList<String>();
+		for (int column=0; column<mSourceTableModel.getTotalColumnCount(); column++)
+			if (mSourceTableModel.getColumnSpecialType(column) == null)
+				dataColumnList.add(mSourceTableModel.getColumnTitle(column));
+		String[] dataItemList = dataColumnList.toArray(new String[0]);
+		Arrays.sort(dataItemList, itemComparator);
+		mDataColumns = new JList(dataItemList);
+		JScrollPane scrollPane2 = new JScrollPane(mDataColumns);
+		scrollPane2.setPreferredSize(new Dimension(200,200));
+		content.add(scrollPane2, "3,3");
+
+		JLabel aggregateLabel = new JLabel("Calculate:");
+		aggregateLabel.setBackground(new Color(212, 104, 0));
+		aggregateLabel.setOpaque(true);
+		content.add(aggregateLabel, "5,1");
+		mAggregates = new JList(CompoundTableAggregator.AGGREGATE_NAME);
+		JScrollPane scrollPane3 = new JScrollPane(mAggregates);
+		scrollPane3.setPreferredSize(new Dimension(160,200));
+		content.add(scrollPane3, "5,3");
+
+		return content;
+		}
+
+	@Override
+	public String getTaskName() {
+		return TASK_NAME;
+		}
+
+	@Override
+	public boolean isConfigurable() {
+		if (mSourceTableModel.getTotalColumnCount() < 2) {
+			showErrorMessage("Less than 2 columns found.");
+			return false;
+			}
+
+		return true;
+		}
+
+	@Override
+	public Properties getDialogConfiguration() {
+		Properties p = new Properties();
+		String groupColumnNames = getSelectedColumnsFromList(mGroupColumns, mSourceTableModel);
+		if (groupColumnNames != null)
+			p.setProperty(PROPERTY_GROUP_COLUMNS, groupColumnNames);
+
+		String dataColumnNames = getSelectedColumnsFromList(mDataColumns, mSourceTableModel);
+		if (dataColumnNames != null)
+			p.setProperty(PROPERTY_DATA_COLUMNS, dataColumnNames);
+
+		StringBuilder aggregates = null;
+		for (int index:mAggregates.getSelectedIndices()) {
+			if (aggregates == null)
+				aggregates = new StringBuilder(CompoundTableAggregator.AGGREGATE_CODE[index]);
+			else
+				aggregates.append('\t').append(CompoundTableAggregator.AGGREGATE_CODE[index]);
+			}
+		if (aggregates != null)
+			p.setProperty(PROPERTY_AGGREGATES, aggregates.toString());
+
+		return p;
+		}
+
+	@Override
+	public void setDialogConfiguration(Properties configuration) {
+		selectColumnsInList(mGroupColumns, configuration.getProperty(PROPERTY_GROUP_COLUMNS), mSourceTableModel);
+		selectColumnsInList(mDataColumns, configuration.getProperty(PROPERTY_DATA_COLUMNS), mSourceTableModel);
+
+		mAggregates.clearSelection();
+		String aggregates = configuration.getProperty(PROPERTY_AGGREGATES);
+		if (aggregates != null) {
+			for (String code:aggregates.split("\\t")) {
+				int index = findListIndex(code, CompoundTableAggregator.AGGREGATE_CODE, -1);
+				if (index != -1)
+					mAggregates.addSelectionInterval(index, index);
+				}
+			}
+		}
+
+	@Override
+	public void setDialogConfigurationToDefault() {
+		int groupColumn = -1;
+		for (int column=0; column<mSourceTableModel.getTotalColumnCount(); column++) {
+			if (mSourceTableModel.isColumnTypeCategory(column)
+			 && mSourceTableModel.getColumnSpecialType(column) == null
+			 && (groupColumn == -1 || mSourceTableModel.getCategoryCount(groupColumn) < mSourceTableModel.getCategoryCount(column)))
+				groupColumn = column;
+			}
+
+		StringBuilder dataColumns = null;
+		for (int column=0; column<mSourceTableModel.getTotalColumnCount(); column++) {
+			if (column != groupColumn
+			 && mSourceTableModel.isColumnTypeDouble(column)
+			 && !mSourceTableModel.isColumnTypeCategory(column)) {
+				if (dataColumns == null)
+					dataColumns = new StringBuilder(mSourceTableModel.getColumnTitle(column));
+				else
+					dataColumns.append('\t').append(mSourceTableModel.getColumnTitle(column));
+				}
+			}
+
+		selectColumnsInList(mGroupColumns, groupColumn == -1 ? null : mSourceTableModel.getColumnTitle(groupColumn), mSourceTableModel);
+		selectColumnsInList(mDataColumns, dataColumns == null ? null : dataColumns.toString(), mSourceTableModel);
+		mAggregates.clearSelection();
+		mAggregates.addSelectionInterval(CompoundTableAggregator.AGGREGATE_MEAN, CompoundTableAggregator.AGGREGATE_MEAN);
+		}
+
+	@Override
+	public boolean isConfigurationValid(Properties configuration, boolean isLive) {
+		String groupColumnList = configuration.getProperty(PROPERTY_GROUP_COLUMNS);
+		if (groupColumnList == null) {
+			showErrorMessage("No column(s) for grouping rows defined.");
+			return false;
+			}
+		String aggregateList = configuration.getProperty(PROPERTY_AGGREGATES, "");
+		String dataColumnList = configuration.getProperty(PROPERTY_DATA_COLUMNS);
+		if (dataColumnList != null && aggregateList.length() == 0) {
+			showErrorMessage("No summary values to be calculated.");
+			return false;
+			}
+
+		boolean needsNumericalData = false;
+		for (String code:aggregateList.split("\\t")) {
+			int aggregate = findListIndex(code, CompoundTableAggregator.AGGREGATE_CODE, -1);
+			if (aggregate == -1 && code.length() != 0) {
+				showErrorMessage("Unknown summary value '"+code+"'.");
+				return false;
+				}
+			if (aggregate != -1
+			 && aggregate != CompoundTableAggregator.AGGREGATE_COUNT
+			 && aggregate != CompoundTableAggregator.AGGREGATE_DISTINCT)
+				needsNumericalData = true;
+			}
+
+		if (!isLive)
+			return true;
+
+		boolean[] isGroupColumn = new boolean[mSourceTableModel.getTotalColumnCount()];
+		for (String columnName:groupColumnList.split("\\t")) {
+			int column = mSourceTableModel.findColumn(columnName);
+			if (column == -1) {
+				showErrorMessage("Column '"+columnName+"' not found.");
+				return false;
+				}
+			isGroupColumn[column] = true;
+			}
+
+		if (dataColumnList != null) {
+			boolean hasNumericalColumn = false;
+			for (String columnName:dataColumnList.split("\\t")) {
+				int column = mSourceTableModel.findColumn(columnName);
+				if (column == -1) {
+					showErrorMessage("Column '"+columnName+"' not found.");
+					return false;
+					}
+				if (isGroupColumn[column]) {
+					showErrorMessage("Column '"+columnName+"' is assigned twice.");
+					return false;
+					}
+				if (mSourceTableModel.isColumnTypeDouble(column))
+					hasNumericalColumn = true;
+				}
+			if (needsNumericalData && !hasNumericalColumn) {
+				showErrorMessage("Mean, median and other values require numerical columns.");
+				return false;
+				}
+			}
+
+		return true;
+		}
+
+	@Override
+	public void runTask(Properties configuration) {
+		int[] groupColumn = getColumns(configuration.getProperty(PROPERTY_GROUP_COLUMNS));
+		int[] dataColumn = getColumns(configuration.getProperty(PROPERTY_DATA_COLUMNS));
+
+		String aggregateList = configuration.getProperty(PROPERTY_AGGREGATES, "");
+		ArrayList<Integer> aggregateIndexList = new ArrayList<Integer>();
+		for (String code:aggregateList.split("\\t")) {
+			int index = findListIndex(code, CompoundTableAggregator.AGGREGATE_CODE, -1);
+			if (index != -1)
+				aggregateIndexList.add(index);
+			}
+
+		startProgress("Grouping rows...", 0, 0);
+		CompoundTableAggregator aggregator = new CompoundTableAggregator(mSourceTableModel, groupColumn);
+		aggregator.sortGroupsByKey();
+
+		// numerical summary values only for numerical columns
+		ArrayList<String> titleList = new ArrayList<String>();
+		ArrayList<float[]> valueList = new ArrayList<float[]>();
+		ArrayList<Boolean> isIntegerList = new ArrayList<Boolean>();
+		startProgress("Calculating summary values...", 0, dataColumn.length);
+		for (int i=0; i<dataColumn.length && !threadMustDie(); i++) {
+			updateProgress(i);
+			for (int aggregate:aggregateIndexList) {
+				boolean isCount = (aggregate == CompoundTableAggregator.AGGREGATE_COUNT
+								|| aggregate == CompoundTableAggregator.AGGREGATE_DISTINCT);
+				if (isCount || mSourceTableModel.isColumnTypeDouble(dataColumn[i])) {
+					titleList.add(CompoundTableAggregator.AGGREGATE_NAME[aggregate]+" of "+mSourceTableModel.getColumnTitle(dataColumn[i]));
+					valueList.add(aggregator.aggregate(dataColumn[i], aggregate));
+					isIntegerList.add(isCount);
+					}
+				}
+			}
+
+		if (threadMustDie())
+			return;
+
+		int columnCount = groupColumn.length + 1 + titleList.size();
+		mTargetFrame = mApplication.getEmptyFrame("Grouping of "+mSourceFrame.getTitle());
+		CompoundTableModel targetTableModel = mTargetFrame.getTableModel();
+		targetTableModel.initializeTable(aggregator.getGroupCount(), columnCount);
+
+		int column = 0;
+		for (int i=0; i<groupColumn.length; i++)
+			targetTableModel.setColumnName(mSourceTableModel.getColumnTitle(groupColumn[i]), column++);
+		targetTableModel.setColumnName("Row Count", column++);
+		for (String title:titleList)
+			targetTableModel.setColumnName(title, column++);
+
+		for (int group=0; group<aggregator.getGroupCount(); group++) {
+			column = 0;
+			for (byte[] key:aggregator.getGroupKey(group))
+				targetTableModel.setTotalDataAt(key, group, column++);
+			targetTableModel.setTotalValueAt(Integer.toString(aggregator.getGroupSize(group)), group, column++);
+			for (int i=0; i<valueList.size(); i++) {
+				float value = valueList.get(i)[group];
+				if (!Float.isNaN(value))
+					targetTableModel.setTotalValueAt(isIntegerList.get(i) ? Integer.toString((int)value)
+												   : DoubleFormat.toString(value), group, column);
+				column++;
+				}
+			}
+
+		for (int i=0; i<groupColumn.length; i++) {
+			HashMap<String,String> properties = mSourceTableModel.getColumnProperties(groupColumn[i]);
+			for (String key:properties.keySet())
+				targetTableModel.setColumnProperty(i, key, properties.get(key));
+			}
+
+		targetTableModel.finalizeTable(CompoundTableEvent.cSpecifierNoRuntimeProperties, getProgressController());
+
+		try {
+			for (int i=0; i<groupColumn.length; i++)
+				mTargetFrame.getMainFrame().getPruningPanel().addDefaultFilter(i);
+			}
+		catch (FilterException fpe) {
+			showErrorMessage(fpe.getMessage());
+			}
+		}
+
+	private int[] getColumns(String columnList) {
+		if (columnList == null)
+			return new int[0];
+
+		String[] columnName = columnList.split("\\t");
+		int[] column = new int[columnName.length];
+		for (int i=0; i<columnName.length; i++)
+			column[i] = mSourceTableModel.findColumn(columnName[i]);
+		return column;
+		}
+
+	@Override
+	public DEFrame getNewFrontFrame() {
+		return mTargetFrame;
+		}
+
+	@Override
+	public Properties getRecentConfiguration() {
+		return sRecentConfiguration;
+		}
+
+	@Override
+	public void setRecentConfiguration(Properties configuration) {
+		sRecentConfiguration = configuration;
+		}
+	}
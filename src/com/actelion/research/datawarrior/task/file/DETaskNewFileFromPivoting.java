@@ -31,7 +31,6 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Properties;
-import java.util.TreeMap;
 
 import javax.imageio.ImageIO;
 import javax.swing.JLabel;
@@ -44,11 +43,11 @@ import com.actelion.research.datawarrior.DEPruningPanel.FilterException;
 import com.actelion.research.datawarrior.DataWarrior;
 import com.actelion.research.datawarrior.task.ConfigurableTask;
 import com.actelion.research.table.CompoundRecord;
+import com.actelion.research.table.CompoundTableAggregator;
 import com.actelion.research.table.CompoundTableEvent;
 import com.actelion.research.table.CompoundTableModel;
 import com.actelion.research.table.view.JVisualization;
 import com.actelion.research.table.view.VisualizationPanel2D;
-import com.actelion.research.util.ByteArrayArrayComparator;
 
 
 public class DETaskNewFileFromPivoting extends ConfigurableTask {
@@ -363,23 +362,21 @@ public class DETaskNewFileFromPivoting extends ConfigurableTask {
 		for (int i=0; i<splitColumn.length; i++)
 			categoryCount *= mSourceTableModel.getCategoryCount(splitColumn[i]);
 
-		TreeMap<byte[][],byte[][]> newRowMap = new TreeMap<byte[][],byte[][]>(new ByteArrayArrayComparator());
+		CompoundTableAggregator aggregator = new CompoundTableAggregator(mSourceTableModel, groupColumn);
+		aggregator.sortGroupsByKey();
+
+		byte[][][] newRowList = new byte[aggregator.getGroupCount()][][];
+		for (int group=0; group<newRowList.length; group++) {
+			byte[][] newRecord = new byte[groupColumn.length + categoryCount*dataColumn.length][];
+			byte[][] key = aggregator.getGroupKey(group);
+			for (int i=0; i<key.length; i++)
+				newRecord[i] = key[i];
+			newRowList[group] = newRecord;
+			}
 
         for (int row=0; row<mSourceTableModel.getTotalRowCount(); row++) {
         	CompoundRecord record = mSourceTableModel.getTotalRecord(row);
-
-        	byte[][] key = new byte[groupColumn.length][];
-        	for (int i=0; i<groupColumn.length; i++)
-        		key[i] = (byte[])record.getData(groupColumn[i]);
-
-        	byte[][] newRecord = newRowMap.get(key);
-        	if (newRecord == null) {
-        		newRecord = new byte[groupColumn.length + categoryCount*dataColumn.length][];
-            	newRowMap.put(key, newRecord);
-            	int i = 0;
-            	for (byte[] id:key)
-            		newRecord[i++] = id;
-        		}
+        	byte[][] newRecord = newRowList[aggregator.getGroup(row)];
 
     		int category = mSourceTableModel.getCategoryIndex(splitColumn[0], record);
     		for (int i=1; i<splitColumn.length; i++)
@@ -394,7 +391,7 @@ public class DETaskNewFileFromPivoting extends ConfigurableTask {
 
         // determine, which target columns are really populated with some data (category and data columns)
         boolean[] isUsedTargetColumn = new boolean[groupColumn.length+categoryCount*dataColumn.length];
-        for (byte[][] newRecord:newRowMap.values())
+        for (byte[][] newRecord:newRowList)
         	for (int i=0; i<newRecord.length; i++)
         		if (newRecord[i] != null)
         			isUsedTargetColumn[i] = true;
@@ -410,7 +407,7 @@ public class DETaskNewFileFromPivoting extends ConfigurableTask {
 
         mTargetFrame = mApplication.getEmptyFrame("Pivoting of "+mSourceFrame.getTitle());
         CompoundTableModel targetTableModel = mTargetFrame.getTableModel();
-        targetTableModel.initializeTable(newRowMap.size(), usedTargetColumnCount);
+        targetTableModel.initializeTable(newRowList.length, usedTargetColumnCount);
 
         // build column titles
         int column = 0;
@@ -454,15 +451,12 @@ public class DETaskNewFileFromPivoting extends ConfigurableTask {
 			}
 
         // set cell values
-        int row = 0;
-        for (byte[][] key:newRowMap.keySet()) {
-        	byte[][] value = newRowMap.get(key);
+        for (int row=0; row<newRowList.length; row++) {
+        	byte[][] value = newRowList[row];
         	for (int i=0; i<value.length; i++) {
         		if (isUsedTargetColumn[i])
         			targetTableModel.setTotalDataAt(value[i], row, usedTargetColumn[i]);
         		}
-
-        	row++;
         	}
 
         for (int i=0; i<groupColumn.length; i++) {
@@ -23,6 +23,7 @@ import info.clearthought.layout.TableLayout;
 import java.io.File;
 import java.util.Properties;
 
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -41,6 +42,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 	private static final String PROPERTY_SD_VERSION = "version";
 	private static final String PROPERTY_STRUCTURE_COLUMN = "structureColumn";
 	private static final String PROPERTY_COORDINATE_MODE = "coordinates";
+	private static final String PROPERTY_VISIBLE_ONLY = "visibleOnly";
 	private static final String[] SD_VERSION_OPTIONS = { "Version 2", "Version 3" };
 	private static final String[] SD_VERSION_CODE = { "v2", "v3" };
 	private static final String[] COORDINATE_OPTIONS = { "2D", "3D if available" };
@@ -51,6 +53,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 
 	private Properties mPredefinedConfiguration;
 	private JComboBox mComboBoxVersion,mComboBoxStructureColumn,mComboBoxCoordinateMode;
+	private JCheckBox mCheckBoxVisibleOnly;
 
 	/**
 	 * The logic of this task is different from its parent class DETaskAbstractSaveFile:<br>
@@ -117,7 +120,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 	public JPanel createInnerDialogContent() {
 		JPanel p = new JPanel();
 		double[][] size = { {8, TableLayout.PREFERRED, 4, TableLayout.PREFERRED, 8},
-							{8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8} };
+							{8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8, TableLayout.PREFERRED, 8} };
 		p.setLayout(new TableLayout(size));
 
 		int[] columnList = getTableModel().getSpecialColumnList(CompoundTableConstants.cColumnTypeIDCode);
@@ -138,6 +141,9 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 		mComboBoxCoordinateMode = new JComboBox(COORDINATE_OPTIONS);
 		p.add(mComboBoxCoordinateMode, "3,5");
 
+		mCheckBoxVisibleOnly = new JCheckBox("Visible rows only");
+		p.add(mCheckBoxVisibleOnly, "1,7,3,7");
+
 		return p;
 		}
 
@@ -171,6 +177,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 		mComboBoxStructureColumn.setSelectedIndex(0);
 		mComboBoxVersion.setSelectedIndex(1);
 		mComboBoxCoordinateMode.setSelectedIndex(0);
+		mCheckBoxVisibleOnly.setSelected(false);
 		}
 
 	@Override
@@ -180,6 +187,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 		mComboBoxStructureColumn.setSelectedItem(configuration.getProperty(PROPERTY_STRUCTURE_COLUMN, (String)mComboBoxStructureColumn.getItemAt(0)));
 		mComboBoxVersion.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_SD_VERSION), SD_VERSION_CODE, 1));
 		mComboBoxCoordinateMode.setSelectedIndex(findListIndex(configuration.getProperty(PROPERTY_COORDINATE_MODE), COORDINATE_CODE, 1));
+		mCheckBoxVisibleOnly.setSelected("true".equals(configuration.getProperty(PROPERTY_VISIBLE_ONLY)));
 		}
 
 	@Override
@@ -188,6 +196,7 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 		configuration.setProperty(PROPERTY_STRUCTURE_COLUMN, (String)mComboBoxStructureColumn.getSelectedItem());
 		configuration.setProperty(PROPERTY_SD_VERSION, SD_VERSION_CODE[mComboBoxVersion.getSelectedIndex()]);
 		configuration.setProperty(PROPERTY_COORDINATE_MODE, COORDINATE_CODE[mComboBoxVersion.getSelectedIndex()]);
+		configuration.setProperty(PROPERTY_VISIBLE_ONLY, mCheckBoxVisibleOnly.isSelected() ? "true" : "false");
 		return configuration;
 		}
 
@@ -226,8 +235,9 @@ public class DETaskSaveSDFileAs extends DETaskAbstractSaveFile {
 		boolean prefer3D = COORDINATE_CODE[INDEX_PREFER_3D].equals(configuration.getProperty(PROPERTY_COORDINATE_MODE));
 		boolean version3 = SD_VERSION_CODE[INDEX_VERSION_3].equals(configuration.getProperty(PROPERTY_SD_VERSION));
 		int fileType = version3 ? CompoundFileHelper.cFileTypeSDV3 : CompoundFileHelper.cFileTypeSDV2;
+		boolean visibleOnly = "true".equals(configuration.getProperty(PROPERTY_VISIBLE_ONLY));
 		CompoundTableModel tableModel = ((DEFrame)getParentFrame()).getMainFrame().getTableModel();
 		JTable table = ((DEFrame)getParentFrame()).getMainFrame().getMainPane().getTable();
-		new CompoundTableSaver(getParentFrame(), tableModel, table).saveSDFile(file,  fileType, column, prefer3D);
+		new CompoundTableSaver(getParentFrame(), tableModel, table).saveSDFile(file,  fileType, column, prefer3D, visibleOnly);
 		}
 	}
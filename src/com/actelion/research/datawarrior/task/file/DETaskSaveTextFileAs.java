@@ -18,10 +18,14 @@
 
 package com.actelion.research.datawarrior.task.file;
 
+import info.clearthought.layout.TableLayout;
+
 import java.io.File;
 import java.util.Properties;
 
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
+import javax.swing.JPanel;
 import javax.swing.JTable;
 
 import com.actelion.research.chem.io.CompoundFileHelper;
@@ -32,8 +36,12 @@ import com.actelion.research.table.CompoundTableSaver;
 public class DETaskSaveTextFileAs extends DETaskAbstractSaveFile {
     public static final String TASK_NAME = "Save Text-File";
 
+	private static final String PROPERTY_VISIBLE_ONLY = "visibleOnly";
+
 	private static Properties sRecentConfiguration;
 
+	private JCheckBox mCheckBoxVisibleOnly;
+
 	public DETaskSaveTextFileAs(DEFrame parent, boolean isInteractive) {
 		super(parent, "", isInteractive);
 		}
@@ -60,7 +68,34 @@ public class DETaskSaveTextFileAs extends DETaskAbstractSaveFile {
 
 	@Override
 	public JComponent createInnerDialogContent() {
-		return null;
+		JPanel p = new JPanel();
+		double[][] size = { {8, TableLayout.PREFERRED, 8},
+							{8, TableLayout.PREFERRED, 8} };
+		p.setLayout(new TableLayout(size));
+
+		mCheckBoxVisibleOnly = new JCheckBox("Visible rows only");
+		p.add(mCheckBoxVisibleOnly, "1,1");
+
+		return p;
+		}
+
+	@Override
+	public void setDialogConfigurationToDefault() {
+		super.setDialogConfigurationToDefault();
+		mCheckBoxVisibleOnly.setSelected(false);
+		}
+
+	@Override
+	public void setDialogConfiguration(Properties configuration) {
+		super.setDialogConfiguration(configuration);
+		mCheckBoxVisibleOnly.setSelected("true".equals(configuration.getProperty(PROPERTY_VISIBLE_ONLY)));
+		}
+
+	@Override
+	public Properties getDialogConfiguration() {
+		Properties configuration = super.getDialogConfiguration();
+		configuration.setProperty(PROPERTY_VISIBLE_ONLY, mCheckBoxVisibleOnly.isSelected() ? "true" : "false");
+		return configuration;
 		}
 
 	@Override
@@ -77,6 +112,7 @@ public class DETaskSaveTextFileAs extends DETaskAbstractSaveFile {
 	public void saveFile(File file, Properties configuration) {
 		CompoundTableModel tableModel = ((DEFrame)getParentFrame()).getMainFrame().getTableModel();
 		JTable table = ((DEFrame)getParentFrame()).getMainFrame().getMainPane().getTable();
-		new CompoundTableSaver(getParentFrame(), tableModel, table).saveText(file);
+		boolean visibleOnly = "true".equals(configuration.getProperty(PROPERTY_VISIBLE_ONLY));
+		new CompoundTableSaver(getParentFrame(), tableModel, table).saveText(file, visibleOnly);
 		}
 	}
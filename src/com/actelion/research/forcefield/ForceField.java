@@ -98,6 +98,7 @@ public class ForceField implements Cloneable {
 	
 	public String getEnergyBreakdown() {
 		StringBuffer sb = new StringBuffer();
+		getTerms().getFGValue(null);	//the packed evaluator of the optimizer does not update the terms' energies
 		for(int i=0; i<getTerms().size(); i++) {
 			sb.append(getTerms().get(i)+System.getProperty("line.separator"));
 		}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Joel Freyss
+ */
+package com.actelion.research.forcefield;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.FFMolecule;
+import com.actelion.research.forcefield.interaction.KeyAssigner;
+import com.actelion.research.forcefield.interaction.PLFunctionSplineCalculator;
+import com.actelion.research.forcefield.interaction.ProteinLigandTerm;
+
+/**
+ * Precomputed potential of a protein pocket for one interaction class of ligand atoms.
+ * 
+ * The energy and its gradient are stored for every node of a regular grid in one
+ * contiguous float array (4 floats per node: e, de/dx, de/dy, de/dz) and are trilinearly
+ * interpolated in between. The grid only spans the protein atoms involved plus the
+ * cutoff of the ProteinLigandTerms, outside of it the potential is exactly 0.
+ * 
+ * The grid is filled once and in parallel. It is then written to a file in the temp directory
+ * whose name is a hash of the protein atoms, interaction classes, grid geometry and the
+ * parameters of the ProteinLigandTerms (see PARAMETER_VERSION), and accessed
+ * through a memory mapping, so that it does not occupy the heap and can be reused 
+ * by later dockings into the same pocket. Maps not used for a week are removed from the
+ * cache and its total size is limited to MAX_CACHE_SIZE.
+ * 
+ */
+public final class ProteinGridMap {
+	
+	private static final int MAGIC = 0x47524944;	//"GRID"
+	private static final int VERSION = 1;
+	private static final int PARAMETER_VERSION = 1;	//increase whenever the ProteinLigandTerm potential changes other than by its parameters
+	private static final int HEADER_SIZE = 5*4 + 4*8;
+	private static final int FLOATS_PER_NODE = 4;
+	private static final String CACHE_DIRECTORY = "actelion_gridmaps";
+	private static final long MAX_CACHE_SIZE = 1L << 30;				//1 GB
+	private static final long MAX_CACHE_AGE = 7L*24*60*60*1000;		//one week
+	
+	private final double x0, y0, z0;
+	private final double gridSize;
+	private final int nx, ny, nz;
+	private final FloatBuffer values;
+	
+	private ProteinGridMap(double x0, double y0, double z0, double gridSize, int nx, int ny, int nz, FloatBuffer values) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.z0 = z0;
+		this.gridSize = gridSize;
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+		this.values = values;
+	}
+	
+	/**
+	 * Returns the grid map of the given terms, which must be ProteinLigandTerms whose only movable atom is atom.
+	 * The map is loaded from the disk cache if a map for the same pocket exists, otherwise it is calculated.
+	 * @param mol
+	 * @param atom
+	 * @param terms
+	 * @param gridSize
+	 * @return
+	 */
+	public static ProteinGridMap create(FFMolecule mol, int atom, TermList terms, double gridSize) {
+		//Calculate the bounds of the region, where the potential is not null
+		double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		final ProteinLigandTerm[] plTerms = new ProteinLigandTerm[terms.size()];
+		for (int i = 0; i < plTerms.length; i++) {
+			plTerms[i] = (ProteinLigandTerm) terms.get(i);
+			int[] a = plTerms[i].getAtoms();
+			Coordinates c = mol.getCoordinates(a[0]==atom? a[1]: a[0]);
+			min[0] = Math.min(min[0], c.x); max[0] = Math.max(max[0], c.x);
+			min[1] = Math.min(min[1], c.y); max[1] = Math.max(max[1], c.y);
+			min[2] = Math.min(min[2], c.z); max[2] = Math.max(max[2], c.z);
+		}
+		if(plTerms.length==0) return new ProteinGridMap(0, 0, 0, gridSize, 0, 0, 0, FloatBuffer.allocate(0));
+		
+		final double margin = ProteinLigandTerm.CUTOFF + gridSize;
+		final double x0 = Math.floor((min[0]-margin)/gridSize)*gridSize;
+		final double y0 = Math.floor((min[1]-margin)/gridSize)*gridSize;
+		final double z0 = Math.floor((min[2]-margin)/gridSize)*gridSize;
+		final int nx = (int)Math.ceil((max[0]+margin-x0)/gridSize)+1;
+		final int ny = (int)Math.ceil((max[1]+margin-y0)/gridSize)+1;
+		final int nz = (int)Math.ceil((max[2]+margin-z0)/gridSize)+1;
+		
+		File file = getCacheFile(mol, atom, plTerms, x0, y0, z0, gridSize, nx, ny, nz);
+		if(file!=null && file.exists()) {
+			FloatBuffer values = map(file, nx, ny, nz);
+			if(values!=null) {
+				//the modification time tells pruneCache() when the map was used last
+				file.setLastModified(System.currentTimeMillis());
+				return new ProteinGridMap(x0, y0, z0, gridSize, nx, ny, nz, values);
+			}
+		}
+		
+		float[] values = calculate(atom, plTerms, x0, y0, z0, gridSize, nx, ny, nz);
+		if(file!=null) pruneCache(file.getParentFile(), HEADER_SIZE+4L*values.length);
+		if(file!=null && write(file, values, nx, ny, nz)) {
+			FloatBuffer mapped = map(file, nx, ny, nz);
+			if(mapped!=null) return new ProteinGridMap(x0, y0, z0, gridSize, nx, ny, nz, mapped);
+		}
+		return new ProteinGridMap(x0, y0, z0, gridSize, nx, ny, nz, FloatBuffer.wrap(values));
+	}
+
+	/**
+	 * Calculates the energy and gradient of all grid nodes using one thread per processor. 
+	 */
+	private static float[] calculate(final int atom, final ProteinLigandTerm[] terms, final double x0, final double y0, final double z0, final double gridSize, final int nx, final int ny, final int nz) {
+		final float[] values = new float[nx*ny*nz*FLOATS_PER_NODE];
+		final AtomicInteger nextPlane = new AtomicInteger();
+		int threadCount = Math.min(nx, Runtime.getRuntime().availableProcessors());
+		Thread[] thread = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			thread[t] = new Thread("Grid Map Calculator "+(t+1)) {
+				@Override
+				public void run() {
+					final Coordinates c = new Coordinates();
+					final double[] g = new double[3];
+					int X;
+					while((X = nextPlane.getAndIncrement()) < nx) {
+						c.x = x0 + X*gridSize;
+						int index = X*ny*nz*FLOATS_PER_NODE;
+						for (int Y = 0; Y < ny; Y++) {
+							c.y = y0 + Y*gridSize;
+							for (int Z = 0; Z < nz; Z++) {
+								c.z = z0 + Z*gridSize;
+								g[0] = g[1] = g[2] = 0;
+								double e = 0;
+								for (int i = 0; i < terms.length; i++) e += terms[i].getFGValueAt(atom, c, g);
+								values[index++] = (float) e;
+								values[index++] = (float) g[0];
+								values[index++] = (float) g[1];
+								values[index++] = (float) g[2];
+							}
+						}
+					}
+				}
+			};
+			thread[t].start();
+		}
+		for (int t = 0; t < threadCount; t++) {
+			try { thread[t].join(); } catch (InterruptedException ie) {}
+		}
+		return values;
+	}
+	
+	/**
+	 * @return the file of the disk cache for this pocket, or null if the cache directory is not available 
+	 */
+	private static File getCacheFile(FFMolecule mol, int atom, ProteinLigandTerm[] terms, double x0, double y0, double z0, double gridSize, int nx, int ny, int nz) {
+		File dir = new File(System.getProperty("java.io.tmpdir"), CACHE_DIRECTORY);
+		if(!dir.isDirectory() && !dir.mkdirs()) return null;
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(80 + 36*terms.length);
+			buf.putInt(VERSION).putInt(PARAMETER_VERSION).putInt(KeyAssigner.getParameterFile().hashCode());
+			buf.putDouble(PLFunctionSplineCalculator.FACTOR).putInt(mol.getAtomInteractionClass(atom));
+			buf.putDouble(x0).putDouble(y0).putDouble(z0).putDouble(gridSize);
+			buf.putInt(nx).putInt(ny).putInt(nz);
+			for (int i = 0; i < terms.length; i++) {
+				int[] a = terms[i].getAtoms();
+				int other = a[0]==atom? a[1]: a[0];
+				Coordinates c = mol.getCoordinates(other);
+				buf.putInt(mol.getAtomInteractionClass(other)).putInt(a[0]==atom? 0: 1).putInt(terms[i].getParameterHash());
+				buf.putDouble(c.x).putDouble(c.y).putDouble(c.z);
+			}
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(buf.array(), 0, buf.position());
+			StringBuilder sb = new StringBuilder();
+			for (byte b: md.digest()) sb.append(Integer.toHexString((b&0xFF)|0x100).substring(1));
+			return new File(dir, sb.append(".grid").toString());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Deletes the cache files, which were not used within MAX_CACHE_AGE, and then the least recently
+	 * used ones until the cache including a new file of newFileSize bytes does not exceed MAX_CACHE_SIZE.
+	 * Files which are still mapped may not be deletable on some platforms and are skipped. 
+	 */
+	private static synchronized void pruneCache(File dir, long newFileSize) {
+		File[] files = dir.listFiles();
+		if(files==null) return;
+		
+		final long now = System.currentTimeMillis();
+		final long[] lastModified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		long size = newFileSize;
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+			if(now-lastModified[i]>MAX_CACHE_AGE && files[i].delete()) files[i] = null;
+			else size += files[i].length();
+		}
+		if(size<=MAX_CACHE_SIZE) return;
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Long.compare(lastModified[i1], lastModified[i2]);
+			}
+		});
+		for (int i = 0; i < order.length && size>MAX_CACHE_SIZE; i++) {
+			File f = files[order[i]];
+			if(f==null || f.getName().endsWith(".tmp")) continue;
+			long length = f.length();
+			if(f.delete()) size -= length;
+		}
+	}
+	
+	private static boolean write(File file, float[] values, int nx, int ny, int nz) {
+		File tmp = new File(file.getPath()+"."+Thread.currentThread().getId()+".tmp");
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(tmp, "rw");
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			header.putInt(MAGIC).putInt(VERSION).putInt(nx).putInt(ny).putInt(nz);
+			header.rewind();
+			while(header.hasRemaining()) channel.write(header, header.position());
+			ByteBuffer data = ByteBuffer.allocate(4*values.length).order(ByteOrder.nativeOrder());
+			data.asFloatBuffer().put(values);
+			while(data.hasRemaining()) channel.write(data, HEADER_SIZE+data.position());
+			raf.close();
+			raf = null;
+			return tmp.renameTo(file) || file.exists();
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if(raf!=null) try {raf.close();} catch (IOException e) {}
+			tmp.delete();
+		}
+	}
+
+	private static FloatBuffer map(File file, int nx, int ny, int nz) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			long size = 4L*nx*ny*nz*FLOATS_PER_NODE;
+			if(channel.size()!=HEADER_SIZE+size) return null;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			while(header.hasRemaining() && channel.read(header, header.position())>0) {}
+			header.rewind();
+			if(header.getInt()!=MAGIC || header.getInt()!=VERSION || header.getInt()!=nx || header.getInt()!=ny || header.getInt()!=nz) return null;
+			//the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if(raf!=null) try {raf.close();} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * Interpolates the potential at c. 
+	 * @param c
+	 * @param gradient if not null, the interpolated gradient is added to it
+	 * @return the energy or 0 if c is outside of the grid
+	 */
+	public double getFGValue(Coordinates c, Coordinates gradient) {
+		final double dx = (c.x - x0) / gridSize;
+		final double dy = (c.y - y0) / gridSize;
+		final double dz = (c.z - z0) / gridSize;
+		if(dx<0 || dy<0 || dz<0) return 0;
+		
+		final int X = (int) dx; 
+		final int Y = (int) dy; 
+		final int Z = (int) dz;
+		
+		//Check if we are out of bounds
+		if(X+1>=nx || Y+1>=ny || Z+1>=nz) return 0;
+
+		final double x = dx - X; 
+		final double y = dy - Y; 
+		final double z = dz - Z; 
+		final double mx = 1 - x;
+		final double my = 1 - y;
+		final double mz = 1 - z;
+
+		//Nodes are ordered by X, Y, Z: the 8 corners are 4 pairs of consecutive nodes along Z
+		final int strideZ = FLOATS_PER_NODE;
+		final int strideY = nz*strideZ;
+		final int strideX = ny*strideY;
+		final int i00 = X*strideX + Y*strideY + Z*strideZ;
+		final int i10 = i00 + strideX;
+		final int i01 = i00 + strideY;
+		final int i11 = i10 + strideY;
+		
+		final double t00 = mx * my; 
+		final double t10 =  x * my; 
+		final double t01 = mx *  y; 
+		final double t11 =  x *  y; 
+		
+		final FloatBuffer v = values;
+		double e = 0, gx = 0, gy = 0, gz = 0;
+		for (int k = 0; k < 2; k++) {
+			final int o = k*strideZ;
+			final double w = k==0? mz: z;
+			final double w00 = t00*w, w10 = t10*w, w01 = t01*w, w11 = t11*w;
+			e  += v.get(i00+o)  *w00 + v.get(i10+o)  *w10 + v.get(i01+o)  *w01 + v.get(i11+o)  *w11;
+			if(gradient!=null) {
+				gx += v.get(i00+o+1)*w00 + v.get(i10+o+1)*w10 + v.get(i01+o+1)*w01 + v.get(i11+o+1)*w11;
+				gy += v.get(i00+o+2)*w00 + v.get(i10+o+2)*w10 + v.get(i01+o+2)*w01 + v.get(i11+o+2)*w11;
+				gz += v.get(i00+o+3)*w00 + v.get(i10+o+3)*w10 + v.get(i01+o+3)*w01 + v.get(i11+o+3)*w11;
+			}
+		}
+		if(gradient!=null) {
+			gradient.x += gx;
+			gradient.y += gy;
+			gradient.z += gz;
+		}
+		return e;
+	}
+	
+	/**
+	 * @return the energy at the given grid node
+	 */
+	public double getValue(int X, int Y, int Z) {
+		return values.get(((X*ny + Y)*nz + Z)*FLOATS_PER_NODE);
+	}
+	
+	public int getSizeX() {
+		return nx;
+	}
+	
+	public int getSizeY() {
+		return ny;
+	}
+	
+	public int getSizeZ() {
+		return nz;
+	}
+	
+	public double getGridSize() {
+		return gridSize;
+	}
+	
+}
@@ -27,8 +27,6 @@ import java.util.Map;
 
 import com.actelion.research.chem.Coordinates;
 import com.actelion.research.chem.FFMolecule;
-import com.actelion.research.chem.calculator.StructureCalculator;
-import com.actelion.research.forcefield.interaction.KeyAssigner;
 import com.actelion.research.forcefield.interaction.ProteinLigandTerm;
 import com.actelion.research.forcefield.mm2.MM2TermList;
 import com.actelion.research.util.ArrayUtils;
@@ -44,6 +42,7 @@ public abstract class TermList implements Cloneable {
 	protected AbstractTerm[] terms = new AbstractTerm[500];
 	protected ProteinLigandTerm[] proteinLigandTerms = new ProteinLigandTerm[500];	
 	protected FFMolecule mol;
+	protected int modCount = 0;
 
 	
 	public void setMolecule(FFMolecule mol) {
@@ -81,14 +80,11 @@ public abstract class TermList implements Cloneable {
 	 */
 	/**
 	 * Aggregate terms to speed up the calculation process.
-	 * The potential is calculated 
+	 * The potential of the protein is precalculated once per interaction class on a grid
+	 * (see ProteinGridMap), which is cached on disk and reused for the same pocket. 
 	 * 
 	 */
 	public final void aggregateTerms() {
-		//Calculate the bounds
-		final Coordinates[] bounds = StructureCalculator.getBounds(mol);		
-		//System.out.println("Used before: "+(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/1024+" / "+Runtime.getRuntime().maxMemory()/1024);
-		
 		MM2TermList[] tl = new MM2TermList[mol.getNMovables()];
 		for (int i = 0; i < tl.length; i++) tl[i] = new MM2TermList(this);
 
@@ -134,47 +130,35 @@ public abstract class TermList implements Cloneable {
 		final List<Integer> orderOfProcessing = new ArrayList<Integer>();
 		for(List<Integer> l: values) orderOfProcessing.addAll(l);
 		
-		long free = Runtime.getRuntime().maxMemory()-(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory());		
-//		int n2 = 0;
 		Map<Integer, GridTerm> map = new HashMap<Integer, GridTerm>();
 		for (int i: orderOfProcessing) {
 			//Add the new aggregated term if needed
 			if(tl[i].size()>0) {
-				
-				final double gridSize =  (tl[i].get(0) instanceof SuperposeTerm)? .5: mol.getAtomicNo(i)==6? .75:.4;
-				
-				
 				GridTerm gt = map.get(mol.getAtomInteractionClass(i));
 				if(gt==null) {
-					final int size = (int)((bounds[1].x-bounds[0].x)/gridSize *(bounds[1].y-bounds[0].y)/gridSize *(bounds[1].z-bounds[0].z)/gridSize);  
-					final int mem = (16*4)*size;
-					if(free>4*1024*1024+mem && classIdToAtom.get(mol.getAtomInteractionClass(i)).size()>0) {
-						free-=mem;
-						gt = new GridTerm(getMolecule(), i, tl[i], bounds, gridSize);
-//						n1+=tl[i].size();
-//						n2++;
-						map.put(mol.getAtomInteractionClass(i), gt);
-						//System.out.println("aggregate " + StatisticalPreference.keyAssigner.getSubKey(mol, i)+" "+classIdToAtom.get(mol.getAtomClassId(i)).size()+" TermList");
-					} else {
-						if(classIdToAtom.get(mol.getAtomInteractionClass(i)).size()>1) System.out.println("Memory low!!! Cannot aggregate "+KeyAssigner.getSubKey(mol, i)+" "+classIdToAtom.get(mol.getAtomInteractionClass(i)).size()+" TermList: "+free/(1024*1024)+"M free");
-						for (int j = 0; j < tl[i].size(); j++) add(tl[i].get(j));
-						continue;
-					}
+					final double gridSize =  (tl[i].get(0) instanceof SuperposeTerm)? .5: mol.getAtomicNo(i)==6? .75:.4;
+					gt = new GridTerm(getMolecule(), i, tl[i], gridSize);
+					map.put(mol.getAtomInteractionClass(i), gt);
 				} else {
 					gt = new GridTerm(getMolecule(), i, gt);
-//					n1+=tl[i].size();
 				}					
 				add(gt);
-				
 			}
 		}
 		//System.out.println("#TERMS="+size()+" terms with "+n2+" gridTerms" );
-		//System.out.println("Used after: "+(Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/1024+" / "+Runtime.getRuntime().maxMemory()/1024);
 	
 	}	
 	public void clear() {
 		nTerms = 0;
 		nProteinLigandTerms = 0;
+		modCount++;
+	}
+	
+	/**
+	 * @return a counter that changes whenever terms are added or removed
+	 */
+	public final int getModificationCount() {
+		return modCount;
 	}
 	
 	public final int size() {
@@ -186,6 +170,7 @@ public abstract class TermList implements Cloneable {
 	}
 
 	public final void add(AbstractTerm t) {
+		modCount++;
 		if(t instanceof ProteinLigandTerm ) {
 			if(proteinLigandTerms.length<=nProteinLigandTerms) proteinLigandTerms = (ProteinLigandTerm[]) ArrayUtils.resize(proteinLigandTerms, nProteinLigandTerms*3+100);
 			proteinLigandTerms[nProteinLigandTerms++] = (ProteinLigandTerm) t;			
@@ -221,6 +206,7 @@ public abstract class TermList implements Cloneable {
 	
 	public final AbstractTerm remove(int i) {
 		AbstractTerm res = null;
+		modCount++;
 		if(i<nTerms) {
 			res = terms[i];
 			nTerms--;
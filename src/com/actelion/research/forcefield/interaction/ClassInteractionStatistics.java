@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.actelion.research.chem.FFMolecule;
 import com.actelion.research.forcefield.mm2.MM2Parameters;
@@ -36,7 +37,7 @@ public class ClassInteractionStatistics {
 	 * Classes that are used for compatibility reasons, so that atom types are not changed with future versions.
 	 */
 	private static final String[] orderedClasses = new String[]{"12*MG", "12*MG_", "15*PPHOSPHATE", "15*PPHOSPHATE_", "16*SSULFONE", "16*SSULFONE_=C", "16*SSULFONE_=O=OCC", "16*SSULFONE_=O=OCN", "16*SSULFONE_=O=OCO", "16*SSULFONE_=O=ONN", "16*SSULFONE_=O=ONO", "16*SSULFONE_=O=OOO", "16*STHIOETHER", "16*STHIOETHER_CC", "16*STHIOETHER_CFe", "16*STHIOETHER_CS", "16*STHIOETHER_FeFe", "16*STHIOL", "16*STHIOL_H1C", "16*STHIOL_H1P", "16*STHIOPHENE", "16*STHIOPHENE_{NNS}", "16*STHIOPHENE_{NS}", "16*STHIOPHENE_{S}", "17*CL", "17*CL_", "25*MN", "25*MN_", "26*FEOCTAHEDRAL", "26*FEOCTAHEDRAL_", "30*ZNTRIGPLANAR", "30*ZNTRIGPLANAR_", "35*BR", "35*BR_", "42*MOTETRAHEDRAL", "42*MOTETRAHEDRAL_", "5*BTRIGPLANAR", "5*BTRIGPLANAR_", "53*I", "53*I_", "6*CALKANE", "6*CALKANE_CCCC", "6*CALKANE_CCCN", "6*CALKANE_CCCO", "6*CALKANE_CCCS", "6*CALKANE_CCFF", "6*CALKANE_CCNO", "6*CALKANE_CCOO", "6*CALKANE_CFFF", "6*CALKANE_CFFP", "6*CALKANE_FFFO", "6*CALKANE_H1CCC", "6*CALKANE_H1CCF", "6*CALKANE_H1CCN", "6*CALKANE_H1CCO", "6*CALKANE_H1CCS", "6*CALKANE_H1CNN", "6*CALKANE_H1CNO", "6*CALKANE_H1CNP", "6*CALKANE_H1CNS", "6*CALKANE_H1COO", "6*CALKANE_H1COS", "6*CALKANE_H1FFO", "6*CALKANE_H1NNN", "6*CALKANE_H1NNO", "6*CALKANE_H1NNS", "6*CALKANE_H2CC", "6*CALKANE_H2CCl", "6*CALKANE_H2CF", "6*CALKANE_H2CN", "6*CALKANE_H2CO", "6*CALKANE_H2CP", "6*CALKANE_H2CS", "6*CALKANE_H2NN", "6*CALKANE_H2NO", "6*CALKANE_H2OO", "6*CALKANE_H2OP", "6*CALKANE_H2PP", "6*CALKANE_H3C", "6*CALKANE_H3N", "6*CALKANE_H3O", "6*CALKANE_H3S", "6*CALKANE_H4", "6*CALKENE", "6*CALKENE_=CCC", "6*CALKENE_=CCN", "6*CALKENE_=CCO", "6*CALKENE_=CCS", "6*CALKENE_=CNN", "6*CALKENE_=CNO", "6*CALKENE_=Cl{}", "6*CALKENE_=C{NN}", "6*CALKENE_=C{N}", "6*CALKENE_=C{}", "6*CALKENE_=NCC", "6*CALKENE_=NCN", "6*CALKENE_=NCO", "6*CALKENE_=NNN", "6*CALKENE_=N{NN}", "6*CALKENE_=N{}", "6*CALKENE_Br{NN}", "6*CALKENE_Br{}", "6*CALKENE_Cl{NN}", "6*CALKENE_Cl{N}", "6*CALKENE_Cl{S}", "6*CALKENE_Cl{}", "6*CALKENE_C{NNN}", "6*CALKENE_C{NNO}", "6*CALKENE_C{NN}", "6*CALKENE_C{NO}", "6*CALKENE_C{NS}", "6*CALKENE_C{N}", "6*CALKENE_C{O}", "6*CALKENE_C{S}", "6*CALKENE_C{}", "6*CALKENE_F{NN}", "6*CALKENE_F{N}", "6*CALKENE_F{}", "6*CALKENE_H1=CC", "6*CALKENE_H1=CN", "6*CALKENE_H1=CO", "6*CALKENE_H1=NC", "6*CALKENE_H1=NN", "6*CALKENE_H1{NNN}", "6*CALKENE_H1{NN}", "6*CALKENE_H1{NO}", "6*CALKENE_H1{NS}", "6*CALKENE_H1{N}", "6*CALKENE_H1{O}", "6*CALKENE_H1{S}", "6*CALKENE_H1{}", "6*CALKENE_H2=C", "6*CALKENE_I{}", "6*CALKENE_N{NNN}", "6*CALKENE_N{NNS}", "6*CALKENE_N{NN}", "6*CALKENE_N{NO}", "6*CALKENE_N{NS}", "6*CALKENE_N{N}", "6*CALKENE_N{S}", "6*CALKENE_N{}", "6*CALKENE_O{NNN}", "6*CALKENE_O{NN}", "6*CALKENE_O{NS}", "6*CALKENE_O{N}", "6*CALKENE_O{O}", "6*CALKENE_O{S}", "6*CALKENE_O{}", "6*CALKENE_S{NNN}", "6*CALKENE_S{NNS}", "6*CALKENE_S{NN}", "6*CALKENE_S{NS}", "6*CALKENE_S{N}", "6*CALKENE_S{S}", "6*CALKENE_S{}", "6*CALKENE_{NNNNN}", "6*CALKENE_{NNNN}", "6*CALKENE_{NNN}", "6*CALKENE_{NNO}", "6*CALKENE_{NNS}", "6*CALKENE_{NN}", "6*CALKENE_{NO}", "6*CALKENE_{NS}", "6*CALKENE_{N}", "6*CALKENE_{O}", "6*CALKENE_{S}", "6*CALKENE_{}", "6*CALKYNE", "6*CALKYNE_#CC", "6*CCARBONYL", "6*CCARBONYL_=OCC", "6*CCARBONYL_=OCN", "6*CCARBONYL_=OCO", "6*CCARBONYL_=OCS", "6*CCARBONYL_=ONN", "6*CCARBONYL_=ONO", "6*CCARBONYL_=SNN", "6*CCARBONYL_H1=OC", "6*CCARBONYL_H1=ON", "6*CCYCLOPROPANE", "6*CCYCLOPROPANE_CCCC", "6*CCYCLOPROPANE_CCCN", "6*CCYCLOPROPANE_CCCO", "6*CCYCLOPROPANE_H1CCC", "6*CCYCLOPROPANE_H1CCN", "6*CCYCLOPROPANE_H1CCO", "6*CCYCLOPROPANE_H2CC", "6*CCYCLOPROPENE", "6*CISONITRILE", "6*CISONITRILE_#NC", "6*CISONITRILE_#NFe", "7*NAMIDE", "7*NAMIDE_C()C()C(=CC)", "7*NAMIDE_C()C(=CC)S", "7*NAMIDE_C()C(=CN)C(=ON)", "7*NAMIDE_C()C(=OC)C(=ON)", "7*NAMIDE_C(=C)C(C)C(CO)", "7*NAMIDE_C(=CC)C(=CN)C(C)", "7*NAMIDE_C(=CC)C(=OC)C(C)", "7*NAMIDE_C(=CC)C(C)C(C)", "7*NAMIDE_C(=CN)C(C)C(C)", "7*NAMIDE_C(=NC)C(C)C(C)", "7*NAMIDE_C(=NC)C(CO)C(N)", "7*NAMIDE_C(=OC)C(C)C(C)", "7*NAMIDE_C(=OC)C(C)C(CC)", "7*NAMIDE_C(=ON)C(C)C(CC)", "7*NAMIDE_C(=ON)C(C)C(CO)", "7*NAMIDE_H1C()C(=OC)", "7*NAMIDE_H1C(=CC)C(=CC)", "7*NAMIDE_H1C(=CC)C(=CN)", "7*NAMIDE_H1C(=CC)C(=NC)", "7*NAMIDE_H1C(=CC)C(=NN)", "7*NAMIDE_H1C(=CC)C(=NS)", "7*NAMIDE_H1C(=CC)C(=OC)", "7*NAMIDE_H1C(=CC)C(=ON)", "7*NAMIDE_H1C(=CC)C(C)", "7*NAMIDE_H1C(=CC)C(CC)", "7*NAMIDE_H1C(=CC)C(N)", "7*NAMIDE_H1C(=CC)C(NN)", "7*NAMIDE_H1C(=CC)N", "7*NAMIDE_H1C(=CC)O", "7*NAMIDE_H1C(=CC)S", "7*NAMIDE_H1C(=CN)C(=ON)", "7*NAMIDE_H1C(=CN)C(C)", "7*NAMIDE_H1C(=CN)C(CC)", "7*NAMIDE_H1C(=CN)C(CO)", "7*NAMIDE_H1C(=CN)C(N)", "7*NAMIDE_H1C(=NC)C(=ON)", "7*NAMIDE_H1C(=NC)C(C)", "7*NAMIDE_H1C(=NC)C(CC)", "7*NAMIDE_H1C(=NC)C(CO)", "7*NAMIDE_H1C(=NN)C(C)", "7*NAMIDE_H1C(=NN)C(CC)", "7*NAMIDE_H1C(=NS)C(=OC)", "7*NAMIDE_H1C(=OC)C(=ON)", "7*NAMIDE_H1C(=OC)C(C)", "7*NAMIDE_H1C(=OC)C(CC)", "7*NAMIDE_H1C(=OC)C(CO)", "7*NAMIDE_H1C(=OC)C(NO)", "7*NAMIDE_H1C(=OC)N", "7*NAMIDE_H1C(=OC)O", "7*NAMIDE_H1C(=OC)S", "7*NAMIDE_H1C(=ON)C(C)", "7*NAMIDE_H1C(=ON)C(CC)", "7*NAMIDE_H1C(=ON)C(CO)", "7*NAMIDE_H1C(=OO)C(CC)", "7*NAMIDE_H2C(=CC)", "7*NAMIDE_H2C(=CN)", "7*NAMIDE_H2C(=NC)", "7*NAMIDE_H2C(=NN)", "7*NAMIDE_H2C(=NS)", "7*NAMIDE_H2C(=OC)", "7*NAMIDE_H2C(=ON)", "7*NAMIDE_H2C(=OO)", "7*NAMINE", "7*NAMINE_C()C()C(C)", "7*NAMINE_C()C()C(CC)", "7*NAMINE_C()C(C)C(C)", "7*NAMINE_C(C)C(C)C(C)", "7*NAMINE_C(C)C(C)C(CC)", "7*NAMINE_C(C)C(C)C(CCC)", "7*NAMINE_C(C)C(C)C(CO)", "7*NAMINE_C(C)C(CC)C(CC)", "7*NAMINE_H1C()C(CC)", "7*NAMINE_H1C(C)C(C)", "7*NAMINE_H1C(C)C(CC)", "7*NAMINE_H1C(C)C(CCC)", "7*NAMINE_H1C(C)C(CO)", "7*NAMINE_H1C(C)N", "7*NAMINE_H1C(CC)C(CC)", "7*NAMINE_H1C(CC)C(CO)", "7*NAMINE_H1C(CC)C(NO)", "7*NAMINE_H1C(CC)C(NS)", "7*NAMINE_H1C(CN)C(N)", "7*NAMINE_H1C(CO)C(NO)", "7*NAMINE_H1PP", "7*NAMINE_H2C(C)", "7*NAMINE_H2C(CC)", "7*NAMINE_H2C(CCC)", "7*NAMINE_H2C(CN)", "7*NAMINE_H2C(CO)", "7*NAMINE_H2C(NN)", "7*NAMINE_H2N", "7*NAMINE_H3", "7*NAMMONIUM", "7*NAMMONIUM_C()C()C()C(C)", "7*NCONNAROMATIC", "7*NCONNAROMATIC_=C(CC)C(=CC)", "7*NCONNAROMATIC_=C(CC)C(=CN)", "7*NCONNAROMATIC_=C(CC)N", "7*NCONNAROMATIC_=NC(=CC)", "7*NCONNAROMATIC_H1=C(NN)", "7*NGUANIDINE", "7*NGUANIDINE_H1=C(NN)", "7*NGUANIDINE_H1C(=NN)C(C)", "7*NGUANIDINE_H1C(=NN)C(CC)", "7*NGUANIDINE_H2C(=NN)", "7*NIMINE", "7*NIMINE_=C(C)N", "7*NIMINE_=C(C)O", "7*NIMINE_=C(CC)C(=CC)", "7*NIMINE_=C(CC)N", "7*NIMINE_=C(CO)C(=CO)", "7*NIMINE_=C(CO)C(CC)", "7*NIMINE_=NC(=CC)", "7*NIMINE_=NC(=NC)", "7*NIMINE_=NC(=OC)", "7*NIMINE_=NC(C)", "7*NIMINE_H1=C(CN)", "7*NIMINE_H1=C(CO)", "7*NIMMONIUM", "7*NIMMONIUM_=C(CC)C()C(=N)", "7*NIMMONIUM_=C(N)C(=NC)C(CO)", "7*NIMMONIUM_C{NNN}", "7*NIMMONIUM_C{NN}", "7*NIMMONIUM_C{NS}", "7*NIMMONIUM_C{N}", "7*NIMMONIUM_O{N}", "7*NIMMONIUM_{N}", "7*NNITRILE", "7*NNITRILE_#C(C)", "7*NNITRILE_#C(Fe)", "7*NOXAZOLE", "7*NOXAZOLE_{NNNN}", "7*NOXAZOLE_{NNN}", "7*NOXAZOLE_{NNO}", "7*NOXAZOLE_{NNS}", "7*NOXAZOLE_{NN}", "7*NOXAZOLE_{NO}", "7*NOXAZOLE_{NS}", "7*NPYRIDINE", "7*NPYRIDINE_{N}", "7*NPYRIMIDINE", "7*NPYRIMIDINE_{NNN}", "7*NPYRIMIDINE_{NN}", "7*NPYRROLE", "7*NPYRROLE_C{NNN}", "7*NPYRROLE_C{NN}", "7*NPYRROLE_C{N}", "7*NPYRROLE_Fe{NN}", "7*NPYRROLE_Fe{N}", "7*NPYRROLE_H1{NNNN}", "7*NPYRROLE_H1{NNN}", "7*NPYRROLE_H1{NN}", "7*NPYRROLE_H1{N}", "7*NPYRROLE_N{N}", "7*NPYRROLE_{NNN}", "7*NPYRROLE_{NN}", "7*NPYRROLE_{N}", "7*NSULFONAMIDE", "7*NSULFONAMIDE_C(C)C(C)S", "7*NSULFONAMIDE_C(C)C(CC)S", "7*NSULFONAMIDE_H1C(=CC)S", "7*NSULFONAMIDE_H1C(C)S", "7*NSULFONAMIDE_H2S", "8*OALCOHOL", "8*OALCOHOL_H1C(=CN)", "8*OALCOHOL_H1C(=CO)", "8*OALCOHOL_H1C(=NC)", "8*OALCOHOL_H1C(=NN)", "8*OALCOHOL_H1C(C)", "8*OALCOHOL_H1C(CC)", "8*OALCOHOL_H1C(CCC)", "8*OALCOHOL_H1C(CCO)", "8*OALCOHOL_H1C(CN)", "8*OALCOHOL_H1C(CO)", "8*OALCOHOL_H1C(CPP)", "8*OALCOHOL_H1C(NN)", "8*OALCOHOL_H1N", "8*OALCOHOL_H1O", "8*OALCOHOL_H1S", "8*OAMIDE", "8*OAMIDE_=C(CN)", "8*OAMIDE_=C(N)", "8*OAMIDE_=C(NN)", "8*OAMIDE_=C(NO)", "8*OAMIDE_=S", "8*OCARBONYL", "8*OCARBONYL_=C(C)", "8*OCARBONYL_=C(CO)", "8*OCARBONYL_=C(CS)", "8*OCARBOXYL", "8*OCARBOXYL_=C(CO)", "8*OCARBOXYL_=S", "8*OCARBOXYL_C()C(=CC)", "8*OCARBOXYL_C()C(=OC)", "8*OCARBOXYL_C()C(CC)", "8*OCARBOXYL_C()C(CO)", "8*OCARBOXYL_C(=CC)C(=CC)", "8*OCARBOXYL_C(=CC)C(=NC)", "8*OCARBOXYL_C(=CC)C(=OC)", "8*OCARBOXYL_C(=CC)C(C)", "8*OCARBOXYL_C(=CC)C(CC)", "8*OCARBOXYL_C(=CC)C(CCC)", "8*OCARBOXYL_C(=CC)C(CO)", "8*OCARBOXYL_C(=CC)C(FF)", "8*OCARBOXYL_C(=CC)C(FFF)", "8*OCARBOXYL_C(=CC)C(O)", "8*OCARBOXYL_C(=NC)C(C)", "8*OCARBOXYL_C(=OC)C(C)", "8*OCARBOXYL_C(=OC)C(CC)", "8*OCARBOXYL_C(=OC)C(CCC)", "8*OCARBOXYL_C(=ON)C(C)", "8*OCARBOXYL_C(=ON)C(CC)", "8*OCARBOXYL_C(=ON)C(CCC)", "8*OCARBOXYL_C(C)C(CC)", "8*OCARBOXYL_C(C)C(CO)", "8*OCARBOXYL_C(CC)C(CC)", "8*OCARBOXYL_C(CC)C(CCO)", "8*OCARBOXYL_C(CC)C(CN)", "8*OCARBOXYL_C(CC)C(CO)", "8*OCARBOXYL_C(CC)C(CS)", "8*OCARBOXYL_C(CC)S", "8*OCARBOXYL_C(CCN)C(CN)", "8*OCARBOXYL_C(CCO)C(CO)", "8*OCARBOXYL_C(CO)C(CO)", "8*OCARBOXYL_C(CO)O", "8*OCARBOXYL_H1C(=OC)", "8*OCARBOXYL_H1S", "8*OENOL", "8*OENOL_H1C(=CC)", "8*OENOL_H1N", "8*OETHER", "8*OETHER_C()C(C)", "8*OETHER_C(=C)C(=C)", "8*OETHER_C(=C)C(C)", "8*OETHER_C(C)C(C)", "8*OETHER_C(C)C(CCO)", "8*OETHER_C(C)C(N)", "8*OETHER_C(C)N", "8*OETHER_C(C)S", "8*OETHER_OO", "8*OFURAN", "8*OFURAN_{NNO}", "8*OFURAN_{NO}", "8*OFURAN_{O}", "8*OOXO", "8*OOXO_=C(CC)", "8*OOXO_=S", "8*OPHOSPHATE", "8*OPHOSPHATE_C(=CC)P", "8*OPHOSPHATE_C(=OC)P", "8*OPHOSPHATE_C(C)P", "8*OPHOSPHATE_C(CC)P", "8*OPHOSPHATE_C(CCO)P", "8*OPHOSPHATE_C(CO)P", "8*OPHOSPHATE_OP", "8*OPHOSPHATE_P", "8*OPHOSPHATE_PP", "8*OWATER", "8*OWATER_H2", "9*F", "9*F_", "92*???", "92*???_"};
-	private static final Map<Boolean,ClassInteractionStatistics> instances = new HashMap<Boolean, ClassInteractionStatistics>();
+	private static final Map<Boolean,ClassInteractionStatistics> instances = new ConcurrentHashMap<Boolean, ClassInteractionStatistics>();
 
 	
 	
@@ -50,11 +51,12 @@ public class ClassInteractionStatistics {
 	public static ClassInteractionStatistics getInstance () {
 		return getInstance(false);
 	}
-	@SuppressWarnings("null")
 	public static ClassInteractionStatistics getInstance (boolean includeHydrogen) {
 		ClassInteractionStatistics instance = instances.get(includeHydrogen);
 		if(instance==null) {
 			synchronized (instances) {
+				//Another thread may have created the instance while we were waiting
+				instance = instances.get(includeHydrogen);
 				if(instance==null) { 
 					try {				
 						instance = new ClassInteractionStatistics(includeHydrogen);
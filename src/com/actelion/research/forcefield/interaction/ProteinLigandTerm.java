@@ -18,6 +18,7 @@
 package com.actelion.research.forcefield.interaction;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 
 import com.actelion.research.chem.Coordinates;
 import com.actelion.research.chem.FFMolecule;
@@ -38,7 +39,7 @@ public class ProteinLigandTerm extends AbstractTerm {
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 
 	//Taper to the null function close to cutoff distance
-	private final static double CUTOFF = PLFunctionSplineCalculator.CUTOFF_STATS - PLFunctionSplineCalculator.DELTA_RADIUS;	
+	public final static double CUTOFF = PLFunctionSplineCalculator.CUTOFF_STATS - PLFunctionSplineCalculator.DELTA_RADIUS;	
 	
 	public double rik2;
 	private double epsilon, radmin;
@@ -119,6 +120,58 @@ public class ProteinLigandTerm extends AbstractTerm {
 
 	}
 	
+	/**
+	 * Evaluates this term as if the given atom of the term was located at c.
+	 * The molecule and the state of this term are not modified, which allows
+	 * several threads to evaluate the same term concurrently (used to fill grid maps).
+	 * @param atom the term's atom that is placed at c
+	 * @param c
+	 * @param gradient receives the gradient of the energy with respect to c (length 3), can be null
+	 * @return the energy
+	 */
+	public final double getFGValueAt(int atom, Coordinates c, double[] gradient) {
+		final Coordinates co = getMolecule().getCoordinates(atom==atoms[0]? atoms[1]: atoms[0]);
+		final double dx = c.x - co.x;
+		final double dy = c.y - co.y;
+		final double dz = c.z - co.z;
+		final double r2 = dx*dx + dy*dy + dz*dz;
+		if(r2>CUTOFF*CUTOFF) return 0;
+
+		double e, de=0;
+		double rik = Math.sqrt(r2);
+		if(rik<1) rik = 1;
+
+		if(f!=null) {
+			double valDer[] = f.getFGValue(rik);
+			e = PLFunctionSplineCalculator.FACTOR * valDer[0];
+			if(gradient!=null) de = PLFunctionSplineCalculator.FACTOR * valDer[1];
+		} else {
+			double p2 = radmin * radmin / r2;
+			double p4 = p2 * p2;
+			double p8 = p4 * p4;
+			e = epsilon * (p8 - 2*p4);
+			if(gradient!=null) de = epsilon / rik * -8 * (p8-p4);
+		}
+
+		if(gradient!=null) {
+			double deddt = de / rik;
+			gradient[0] += dx * deddt;
+			gradient[1] += dy * deddt;
+			gradient[2] += dz * deddt;
+		}
+		return e;
+	}
+
+	/**
+	 * @return a hash of the parameters defining this term's potential, i.e. the statistics
+	 * of its function or its VDW parameters (but not the atom coordinates)
+	 */
+	public int getParameterHash() {
+		if(f!=null) return 31*f.getName().hashCode() + Arrays.hashCode(f.getOccurencesArray());
+		long bits = 31*Double.doubleToLongBits(epsilon) + Double.doubleToLongBits(radmin);
+		return (int)(bits ^ (bits>>>32));
+	}
+
 	@Override
 	public String toString() {
 		return "PL-Term  "+atoms[0] +" - "+atoms[1]+" "+new DecimalFormat("0.000").format(Math.sqrt(rik2))+" -> "+new DecimalFormat("0.0000").format(energy);
@@ -34,8 +34,8 @@ public final class AngleTerm extends AbstractTerm implements Cloneable {
 
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 	
-	private static final double ANGLE_UNIT = 0.02191418;
-	private FFParameters.AngleParameters params;
+	static final double ANGLE_UNIT = 0.02191418;
+	FFParameters.AngleParameters params;
 	private double angle;
 	private double energy;	
 
@@ -31,7 +31,7 @@ import com.actelion.research.forcefield.TermList;
 public final class BondTerm extends AbstractTerm implements Cloneable  {
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 	
-	private final static double BOND_UNIT = 71.94;
+	final static double BOND_UNIT = 71.94;
 	protected double Kb, eq;
 	private double rab;	
 	private double energy;	
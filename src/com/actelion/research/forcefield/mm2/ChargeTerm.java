@@ -28,12 +28,12 @@ import com.actelion.research.util.*;
 public final class ChargeTerm extends AbstractTerm {
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 
-	private final static double CUTOFF = 9;
-	private final static double TAPER_CUTOFF = CUTOFF * .9;
-	private final static double TAPER_COEFFS[] = MathUtils.getTaperCoeffs(CUTOFF, TAPER_CUTOFF);
+	final static double CUTOFF = 9;
+	final static double TAPER_CUTOFF = CUTOFF * .9;
+	final static double TAPER_COEFFS[] = MathUtils.getTaperCoeffs(CUTOFF, TAPER_CUTOFF);
 	private final static double DIELECTRIC = DipoleTerm.DIELECTRIC;
 	
-	private final double product; 
+	final double product; 
 	private double energy;	
 
 	private ChargeTerm(FFMolecule mol, int[] atoms, double product) {
@@ -32,11 +32,11 @@ public class DipoleTerm extends AbstractTerm {
 
 	public static double DIELECTRIC = 10; //1 in vaccum, 78 in water. Here is a good compromise
 	
-	private static final double CUTOFF = 10.0;
-	private static final double TAPER_CUTOFF = CUTOFF * .9;
-	private static final double TAPER_COEFFS[] = MathUtils.getTaperCoeffs(CUTOFF, TAPER_CUTOFF);
+	static final double CUTOFF = 10.0;
+	static final double TAPER_CUTOFF = CUTOFF * .9;
+	static final double TAPER_COEFFS[] = MathUtils.getTaperCoeffs(CUTOFF, TAPER_CUTOFF);
 	
-	private final double Fik;
+	final double Fik;
 	private final boolean isInterMolecular;
 	private double energy;	
 
@@ -0,0 +1,577 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package com.actelion.research.forcefield.mm2;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.actelion.research.chem.Coordinates;
+import com.actelion.research.chem.FFMolecule;
+import com.actelion.research.forcefield.AbstractTerm;
+import com.actelion.research.forcefield.FastMath;
+import com.actelion.research.forcefield.TermList;
+import com.actelion.research.util.MathUtils;
+
+/**
+ * Evaluates the energy and the gradient of a TermList on flat coordinate and gradient arrays.
+ * Bond, angle, torsion, 4-8 van der Waals, charge and dipole terms are packed by type into
+ * parallel arrays of atom indices and parameters. Van der Waals terms, which MM2TermList creates
+ * for both atom orders, are merged into one pair of double weight. Nonbonded pairs are screened
+ * with a Verlet neighbour list, which is updated whenever an atom moved by more than half of
+ * the skin distance.
+ * All other terms are evaluated as objects. The energies are identical to TermList.getFGValue()
+ * apart from rounding errors caused by the different summation order.
+ * 
+ * The evaluator must be re-created, if terms are added or removed (see isValidFor()).
+ * 
+ * The state of the term objects (energy, distances) is not updated by this evaluator, i.e. their
+ * toString() reflects their last own evaluation. Therefore ForceField.getEnergyBreakdown() and
+ * getEnergy() evaluate the term objects before printing them.
+ */
+public final class MM2PackedTermEvaluator {
+
+	private static final double RADIAN = 180 / Math.PI;
+	private static final double VERLET_SKIN = 1.0;
+	private static final double MAX_DISPLACEMENT_SQ = VERLET_SKIN * VERLET_SKIN / 4;
+	private static final double VDW_LIST_CUTOFF_SQ = (VDWLN48Term.CUTOFF + VERLET_SKIN) * (VDWLN48Term.CUTOFF + VERLET_SKIN);
+	private static final double CHARGE_LIST_CUTOFF_SQ = (ChargeTerm.CUTOFF + VERLET_SKIN) * (ChargeTerm.CUTOFF + VERLET_SKIN);
+	private static final double DIPOLE_LIST_CUTOFF_SQ = (DipoleTerm.CUTOFF + VERLET_SKIN) * (DipoleTerm.CUTOFF + VERLET_SKIN);
+
+	private final TermList termList;
+	private final int modCount;
+	private final FFMolecule mol;
+	private final int nMovables;
+
+	private int nBonds, nAngles, nTorsions, nVDW, nCharges, nDipoles, nOtherTerms;
+	private int[] bondAtom, angleAtom, torsionAtom, vdwAtom, chargeAtom, dipoleAtom;
+	private double[] bondKb, bondEq, angleFc, angleEq, torsionV1, torsionV2, torsionV3;
+	private double[] vdwEpsilon, vdwRadmin2, vdwVCutoff, chargeProduct, dipoleFik;
+	private AbstractTerm[] otherTerm;
+	private Coordinates[] otherGradient;
+
+	private int nVDWNeighbours, nChargeNeighbours, nDipoleNeighbours;
+	private int[] vdwNeighbour, chargeNeighbour, dipoleNeighbour;
+	private double[] coords, listCoords;
+	private boolean isNeighbourListValid;
+
+	public MM2PackedTermEvaluator(TermList termList) {
+		this.termList = termList;
+		this.modCount = termList.getModificationCount();
+		this.mol = termList.getMolecule();
+		this.nMovables = mol.getNMovables();
+
+		int size = termList.size();
+		bondAtom = new int[2*size];
+		bondKb = new double[size];
+		bondEq = new double[size];
+		angleAtom = new int[3*size];
+		angleFc = new double[size];
+		angleEq = new double[size];
+		torsionAtom = new int[4*size];
+		torsionV1 = new double[size];
+		torsionV2 = new double[size];
+		torsionV3 = new double[size];
+		vdwAtom = new int[2*size];
+		vdwEpsilon = new double[size];
+		vdwRadmin2 = new double[size];
+		vdwVCutoff = new double[size];
+		chargeAtom = new int[2*size];
+		chargeProduct = new double[size];
+		dipoleAtom = new int[4*size];
+		dipoleFik = new double[size];
+		otherTerm = new AbstractTerm[size];
+		HashMap<Long,Integer> vdwPairMap = new HashMap<Long,Integer>();
+
+		for(int i=0; i<size; i++) {
+			AbstractTerm term = termList.get(i);
+			int[] atoms = term.getAtoms();
+			if(term instanceof BondTerm) {
+				BondTerm t = (BondTerm)term;
+				System.arraycopy(atoms, 0, bondAtom, 2*nBonds, 2);
+				bondKb[nBonds] = t.Kb;
+				bondEq[nBonds] = t.eq;
+				nBonds++;
+			} else if(term instanceof AngleTerm) {
+				AngleTerm t = (AngleTerm)term;
+				System.arraycopy(atoms, 0, angleAtom, 3*nAngles, 3);
+				angleFc[nAngles] = t.params.fc;
+				angleEq[nAngles] = t.params.eq;
+				nAngles++;
+			} else if(term instanceof TorsionTerm) {
+				TorsionTerm t = (TorsionTerm)term;
+				System.arraycopy(atoms, 0, torsionAtom, 4*nTorsions, 4);
+				torsionV1[nTorsions] = t.v1;
+				torsionV2[nTorsions] = t.v2;
+				torsionV3[nTorsions] = t.v3;
+				nTorsions++;
+			} else if(term instanceof VDWLN48Term && ((VDWLN48Term)term).iv < 0 && ((VDWLN48Term)term).kv < 0) {
+				VDWLN48Term t = (VDWLN48Term)term;
+				long key = ((long)Math.min(atoms[0], atoms[1]) << 32) + Math.max(atoms[0], atoms[1]);
+				Integer mirror = vdwPairMap.get(key);
+				if(mirror != null
+				 && vdwAtom[2*mirror] == atoms[1]
+				 && vdwEpsilon[mirror] == t.epsilon
+				 && vdwRadmin2[mirror] == t.radmin * t.radmin
+				 && vdwVCutoff[mirror] == t.VCUTOFF) {
+					vdwEpsilon[mirror] += t.epsilon;
+					vdwVCutoff[mirror] += t.VCUTOFF;
+					vdwPairMap.remove(key);	// a third term with the same atoms must not be merged
+				} else {
+					System.arraycopy(atoms, 0, vdwAtom, 2*nVDW, 2);
+					vdwEpsilon[nVDW] = t.epsilon;
+					vdwRadmin2[nVDW] = t.radmin * t.radmin;
+					vdwVCutoff[nVDW] = t.VCUTOFF;
+					if(mirror == null)
+						vdwPairMap.put(key, nVDW);
+					nVDW++;
+				}
+			} else if(term instanceof ChargeTerm) {
+				System.arraycopy(atoms, 0, chargeAtom, 2*nCharges, 2);
+				chargeProduct[nCharges] = ((ChargeTerm)term).product;
+				nCharges++;
+			} else if(term.getClass() == DipoleTerm.class) {
+				System.arraycopy(atoms, 0, dipoleAtom, 4*nDipoles, 4);
+				dipoleFik[nDipoles] = ((DipoleTerm)term).Fik;
+				nDipoles++;
+			} else {
+				otherTerm[nOtherTerms++] = term;
+			}
+		}
+
+		if(nOtherTerms != 0) {
+			otherGradient = new Coordinates[nMovables];
+			for(int i=0; i<nMovables; i++)
+				otherGradient[i] = new Coordinates();
+		}
+
+		vdwNeighbour = new int[nVDW];
+		chargeNeighbour = new int[nCharges];
+		dipoleNeighbour = new int[nDipoles];
+		coords = new double[3*mol.getAllAtoms()];
+		listCoords = new double[3*mol.getAllAtoms()];
+	}
+
+	/**
+	 * @param termList
+	 * @return whether this evaluator still represents the terms of termList
+	 */
+	public boolean isValidFor(TermList termList) {
+		return termList == this.termList
+			&& termList.getModificationCount() == modCount
+			&& termList.getMolecule() == mol
+			&& mol.getAllAtoms()*3 == coords.length;
+	}
+
+	/**
+	 * Computes the energy and, if gradient is not null, the gradient in the cartesian
+	 * referential from the current coordinates of the molecule.
+	 * @param gradient null or array of size 3*nMovables receiving x,y,z gradient of every movable atom
+	 * @return energy
+	 */
+	public double getFGValue(final double[] gradient) {
+		for(int a=0, i=0; a<coords.length/3; a++) {
+			Coordinates c = mol.getCoordinates(a);
+			coords[i++] = c.x;
+			coords[i++] = c.y;
+			coords[i++] = c.z;
+		}
+
+		if(!isNeighbourListValid || isNeighbourListOutdated())
+			updateNeighbourList();
+
+		if(gradient != null)
+			Arrays.fill(gradient, 0, 3*nMovables, 0.0);
+
+		double energy = getBondEnergy(gradient)
+					  + getAngleEnergy(gradient)
+					  + getTorsionEnergy(gradient)
+					  + getVDWEnergy(gradient)
+					  + getChargeEnergy(gradient)
+					  + getDipoleEnergy(gradient);
+
+		if(nOtherTerms != 0) {
+			if(gradient == null) {
+				for(int i=0; i<nOtherTerms; i++)
+					energy += otherTerm[i].getFGValue(null);
+			} else {
+				for(int i=0; i<nMovables; i++) {
+					otherGradient[i].x = 0;
+					otherGradient[i].y = 0;
+					otherGradient[i].z = 0;
+				}
+				for(int i=0; i<nOtherTerms; i++)
+					energy += otherTerm[i].getFGValue(otherGradient);
+				for(int a=0, i=0; a<nMovables; a++) {
+					gradient[i++] += otherGradient[a].x;
+					gradient[i++] += otherGradient[a].y;
+					gradient[i++] += otherGradient[a].z;
+				}
+			}
+		}
+
+		return energy;
+	}
+
+	private boolean isNeighbourListOutdated() {
+		for(int i=0; i<coords.length; i+=3) {
+			double dx = coords[i] - listCoords[i];
+			double dy = coords[i+1] - listCoords[i+1];
+			double dz = coords[i+2] - listCoords[i+2];
+			if(dx*dx + dy*dy + dz*dz > MAX_DISPLACEMENT_SQ)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Keeps only those nonbonded pairs, which are closer than cutoff plus skin.
+	 * Dipole pairs use the distance between the bond centers.
+	 * As long as no atom moves by more than half of the skin, all other pairs
+	 * stay beyond the cutoff and don't contribute to energy nor gradient.
+	 */
+	private void updateNeighbourList() {
+		System.arraycopy(coords, 0, listCoords, 0, coords.length);
+
+		nVDWNeighbours = 0;
+		for(int i=0; i<nVDW; i++)
+			if(getDistanceSquare(vdwAtom[2*i], vdwAtom[2*i+1]) <= VDW_LIST_CUTOFF_SQ)
+				vdwNeighbour[nVDWNeighbours++] = i;
+
+		nChargeNeighbours = 0;
+		for(int i=0; i<nCharges; i++)
+			if(getDistanceSquare(chargeAtom[2*i], chargeAtom[2*i+1]) <= CHARGE_LIST_CUTOFF_SQ)
+				chargeNeighbour[nChargeNeighbours++] = i;
+
+		nDipoleNeighbours = 0;
+		for(int i=0; i<nDipoles; i++) {
+			int a1 = 3*dipoleAtom[4*i];
+			int a2 = 3*dipoleAtom[4*i+1];
+			int a3 = 3*dipoleAtom[4*i+2];
+			int a4 = 3*dipoleAtom[4*i+3];
+			double dx = 0.5 * (coords[a1] + coords[a2] - coords[a3] - coords[a4]);
+			double dy = 0.5 * (coords[a1+1] + coords[a2+1] - coords[a3+1] - coords[a4+1]);
+			double dz = 0.5 * (coords[a1+2] + coords[a2+2] - coords[a3+2] - coords[a4+2]);
+			if(dx*dx + dy*dy + dz*dz <= DIPOLE_LIST_CUTOFF_SQ)
+				dipoleNeighbour[nDipoleNeighbours++] = i;
+		}
+
+		isNeighbourListValid = true;
+	}
+
+	private double getDistanceSquare(int a1, int a2) {
+		double dx = coords[3*a1] - coords[3*a2];
+		double dy = coords[3*a1+1] - coords[3*a2+1];
+		double dz = coords[3*a1+2] - coords[3*a2+2];
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	private void addGradient(double[] gradient, int atom, double gx, double gy, double gz) {
+		if(atom < nMovables) {
+			int i = 3*atom;
+			gradient[i] += gx;
+			gradient[i+1] += gy;
+			gradient[i+2] += gz;
+		}
+	}
+
+	private double getBondEnergy(double[] gradient) {
+		double energy = 0;
+		for(int i=0; i<nBonds; i++) {
+			int a = 3*bondAtom[2*i];
+			int b = 3*bondAtom[2*i+1];
+			double abx = coords[a] - coords[b];
+			double aby = coords[a+1] - coords[b+1];
+			double abz = coords[a+2] - coords[b+2];
+			double rab = Math.sqrt(abx*abx + aby*aby + abz*abz);
+			if(rab == 0)
+				rab = 0.1;
+			double dt = rab - bondEq[i];
+			energy += BondTerm.BOND_UNIT * bondKb[i] * dt * dt;
+			if(gradient != null) {
+				double de = 2 * BondTerm.BOND_UNIT * bondKb[i] * dt / rab;
+				addGradient(gradient, bondAtom[2*i], abx*de, aby*de, abz*de);
+				addGradient(gradient, bondAtom[2*i+1], -abx*de, -aby*de, -abz*de);
+			}
+		}
+		return energy;
+	}
+
+	private double getAngleEnergy(double[] gradient) {
+		double energy = 0;
+		for(int i=0; i<nAngles; i++) {
+			int a = 3*angleAtom[3*i];
+			int b = 3*angleAtom[3*i+1];
+			int c = 3*angleAtom[3*i+2];
+			double abx = coords[a] - coords[b];
+			double aby = coords[a+1] - coords[b+1];
+			double abz = coords[a+2] - coords[b+2];
+			double cbx = coords[c] - coords[b];
+			double cby = coords[c+1] - coords[b+1];
+			double cbz = coords[c+2] - coords[b+2];
+			double rab2 = abx*abx + aby*aby + abz*abz;
+			double rcb2 = cbx*cbx + cby*cby + cbz*cbz;
+			if(rab2 < 0.2)
+				rab2 = 0.2;
+			if(rcb2 < 0.2)
+				rcb2 = 0.2;
+			double cosine = (abx*cbx + aby*cby + abz*cbz) / Math.sqrt(rab2 * rcb2);
+			double angle = RADIAN * FastMath.acos(cosine);
+			double dt = angle - angleEq[i];
+			energy += AngleTerm.ANGLE_UNIT * angleFc[i] * dt * dt;
+			if(gradient != null) {
+				// cp = cb x ab
+				double px = cby*abz - cbz*aby;
+				double py = cbz*abx - cbx*abz;
+				double pz = cbx*aby - cby*abx;
+				double rp = Math.sqrt(px*px + py*py + pz*pz);
+				if(rp == 0)
+					rp = 0.00001;
+				double deddt = 2 * AngleTerm.ANGLE_UNIT * angleFc[i] * dt * RADIAN;
+				double terma = -deddt / (rab2*rp);
+				double termc = deddt / (rcb2*rp);
+				double g0x = (aby*pz - abz*py) * terma;
+				double g0y = (abz*px - abx*pz) * terma;
+				double g0z = (abx*py - aby*px) * terma;
+				double g2x = (cby*pz - cbz*py) * termc;
+				double g2y = (cbz*px - cbx*pz) * termc;
+				double g2z = (cbx*py - cby*px) * termc;
+				addGradient(gradient, angleAtom[3*i], g0x, g0y, g0z);
+				addGradient(gradient, angleAtom[3*i+1], -g0x-g2x, -g0y-g2y, -g0z-g2z);
+				addGradient(gradient, angleAtom[3*i+2], g2x, g2y, g2z);
+			}
+		}
+		return energy;
+	}
+
+	private double getTorsionEnergy(double[] gradient) {
+		double energy = 0;
+		for(int i=0; i<nTorsions; i++) {
+			int a = 3*torsionAtom[4*i];
+			int b = 3*torsionAtom[4*i+1];
+			int c = 3*torsionAtom[4*i+2];
+			int d = 3*torsionAtom[4*i+3];
+			double bax = coords[b] - coords[a];
+			double bay = coords[b+1] - coords[a+1];
+			double baz = coords[b+2] - coords[a+2];
+			double cbx = coords[c] - coords[b];
+			double cby = coords[c+1] - coords[b+1];
+			double cbz = coords[c+2] - coords[b+2];
+			double dcx = coords[d] - coords[c];
+			double dcy = coords[d+1] - coords[c+1];
+			double dcz = coords[d+2] - coords[c+2];
+			// t = ba x cb, u = cb x dc, tu = t x u
+			double tx = bay*cbz - baz*cby;
+			double ty = baz*cbx - bax*cbz;
+			double tz = bax*cby - bay*cbx;
+			double ux = cby*dcz - cbz*dcy;
+			double uy = cbz*dcx - cbx*dcz;
+			double uz = cbx*dcy - cby*dcx;
+			double tux = ty*uz - tz*uy;
+			double tuy = tz*ux - tx*uz;
+			double tuz = tx*uy - ty*ux;
+			double rt2 = tx*tx + ty*ty + tz*tz;
+			if(rt2 < 0.1)
+				rt2 = 0.1;
+			double ru2 = ux*ux + uy*uy + uz*uz;
+			if(ru2 < 0.1)
+				ru2 = 0.1;
+			double rtru = Math.sqrt(rt2*ru2);
+			double rcb = Math.sqrt(cbx*cbx + cby*cby + cbz*cbz);
+			if(rcb < 0.1)
+				rcb = 0.1;
+			double cosine = (tx*ux + ty*uy + tz*uz) / rtru;
+			double sine = (cbx*tux + cby*tuy + cbz*tuz) / (rcb*rtru);
+			double cosine2 = cosine*cosine - sine*sine;
+			double sine2 = 2*cosine*sine;
+			double cosine3 = cosine*cosine2 - sine*sine2;
+			double v1 = torsionV1[i];
+			double v2 = torsionV2[i];
+			double v3 = torsionV3[i];
+			energy += TorsionTerm.TORSION_UNIT * (v1 * (1 + cosine) + v2 * (1 - cosine2) + v3 * (1 + cosine3));
+			if(gradient != null) {
+				double sine3 = cosine*sine2 + sine*cosine2;
+				double dedphi = TorsionTerm.TORSION_UNIT * (v1 * -sine + v2 * 2 * sine2 + v3 * 3 * -sine3);
+				double cax = coords[c] - coords[a];
+				double cay = coords[c+1] - coords[a+1];
+				double caz = coords[c+2] - coords[a+2];
+				double dbx = coords[d] - coords[b];
+				double dby = coords[d+1] - coords[b+1];
+				double dbz = coords[d+2] - coords[b+2];
+				// dedt = (t x cb) * f1, dedu = (u x cb) * f2
+				double f1 = dedphi / (rt2*rcb);
+				double f2 = -dedphi / (ru2*rcb);
+				double etx = (ty*cbz - tz*cby) * f1;
+				double ety = (tz*cbx - tx*cbz) * f1;
+				double etz = (tx*cby - ty*cbx) * f1;
+				double eux = (uy*cbz - uz*cby) * f2;
+				double euy = (uz*cbx - ux*cbz) * f2;
+				double euz = (ux*cby - uy*cbx) * f2;
+				addGradient(gradient, torsionAtom[4*i],
+						ety*cbz - etz*cby, etz*cbx - etx*cbz, etx*cby - ety*cbx);
+				addGradient(gradient, torsionAtom[4*i+1],
+						(cay*etz - caz*ety) + (euy*dcz - euz*dcy),
+						(caz*etx - cax*etz) + (euz*dcx - eux*dcz),
+						(cax*ety - cay*etx) + (eux*dcy - euy*dcx));
+				addGradient(gradient, torsionAtom[4*i+2],
+						(ety*baz - etz*bay) + (dby*euz - dbz*euy),
+						(etz*bax - etx*baz) + (dbz*eux - dbx*euz),
+						(etx*bay - ety*bax) + (dbx*euy - dby*eux));
+				addGradient(gradient, torsionAtom[4*i+3],
+						euy*cbz - euz*cby, euz*cbx - eux*cbz, eux*cby - euy*cbx);
+			}
+		}
+		return energy;
+	}
+
+	private double getVDWEnergy(double[] gradient) {
+		final double cutoff2 = VDWLN48Term.CUTOFF * VDWLN48Term.CUTOFF;
+		double energy = 0;
+		for(int n=0; n<nVDWNeighbours; n++) {
+			int i = vdwNeighbour[n];
+			int a = 3*vdwAtom[2*i];
+			int b = 3*vdwAtom[2*i+1];
+			double rx = coords[a] - coords[b];
+			double ry = coords[a+1] - coords[b+1];
+			double rz = coords[a+2] - coords[b+2];
+			double rik2 = rx*rx + ry*ry + rz*rz;
+			if(rik2 < .1)
+				rik2 = .1;
+			if(rik2 > cutoff2)
+				continue;
+			double p2 = vdwRadmin2[i] / rik2;
+			double p4 = p2 * p2;
+			double p8 = p4 * p4;
+			energy += vdwEpsilon[i] * (p8 - 2 * p4) - vdwVCutoff[i];
+			if(gradient != null) {
+				double rik = Math.sqrt(rik2);
+				double deddt = vdwEpsilon[i] * (p8-p4) * (-8/rik) / rik;
+				addGradient(gradient, vdwAtom[2*i], rx*deddt, ry*deddt, rz*deddt);
+				addGradient(gradient, vdwAtom[2*i+1], -rx*deddt, -ry*deddt, -rz*deddt);
+			}
+		}
+		return energy;
+	}
+
+	private double getChargeEnergy(double[] gradient) {
+		double energy = 0;
+		for(int n=0; n<nChargeNeighbours; n++) {
+			int i = chargeNeighbour[n];
+			int a = 3*chargeAtom[2*i];
+			int b = 3*chargeAtom[2*i+1];
+			double abx = coords[a] - coords[b];
+			double aby = coords[a+1] - coords[b+1];
+			double abz = coords[a+2] - coords[b+2];
+			double r = Math.sqrt(abx*abx + aby*aby + abz*abz);
+			if(r == 0)
+				r = 0.1;
+			if(r > ChargeTerm.CUTOFF)
+				continue;
+			double e = chargeProduct[i] / r;
+			double taper = 1;
+			double dtaper = 0;
+			if(r > ChargeTerm.TAPER_CUTOFF) {
+				taper = MathUtils.evaluateTaper(ChargeTerm.TAPER_COEFFS, r);
+				dtaper = MathUtils.evaluateDTaper(ChargeTerm.TAPER_COEFFS, r);
+			}
+			if(gradient != null) {
+				double de = (e * dtaper - chargeProduct[i]/(r*r) * taper) / r;
+				addGradient(gradient, chargeAtom[2*i], abx*de, aby*de, abz*de);
+				addGradient(gradient, chargeAtom[2*i+1], -abx*de, -aby*de, -abz*de);
+			}
+			energy += e * taper;
+		}
+		return energy;
+	}
+
+	private double getDipoleEnergy(double[] gradient) {
+		final double cutoff2 = DipoleTerm.CUTOFF * DipoleTerm.CUTOFF;
+		final double taperCutoff2 = DipoleTerm.TAPER_CUTOFF * DipoleTerm.TAPER_CUTOFF;
+		double energy = 0;
+		for(int n=0; n<nDipoleNeighbours; n++) {
+			int i = dipoleNeighbour[n];
+			int i1 = 3*dipoleAtom[4*i];
+			int i2 = 3*dipoleAtom[4*i+1];
+			int k1 = 3*dipoleAtom[4*i+2];
+			int k2 = 3*dipoleAtom[4*i+3];
+			double ix = coords[i2] - coords[i1];
+			double iy = coords[i2+1] - coords[i1+1];
+			double iz = coords[i2+2] - coords[i1+2];
+			double ri2 = ix*ix + iy*iy + iz*iz;
+			if(ri2 < 0.3)
+				ri2 = 0.3;
+			double kx = coords[k2] - coords[k1];
+			double ky = coords[k2+1] - coords[k1+1];
+			double kz = coords[k2+2] - coords[k1+2];
+			double rk2 = kx*kx + ky*ky + kz*kz;
+			if(rk2 < 0.3)
+				rk2 = 0.3;
+			// vector between the bond centers
+			double rx = (coords[i1] + coords[i2]) * 0.5 - (coords[k1] + coords[k2]) * 0.5;
+			double ry = (coords[i1+1] + coords[i2+1]) * 0.5 - (coords[k1+1] + coords[k2+1]) * 0.5;
+			double rz = (coords[i1+2] + coords[i2+2]) * 0.5 - (coords[k1+2] + coords[k2+2]) * 0.5;
+			double r2 = rx*rx + ry*ry + rz*rz;
+			if(r2 > cutoff2)
+				continue;
+			if(r2 < 0.3)
+				r2 = 0.3;
+			double fik = dipoleFik[i];
+			double rirkr3 = Math.sqrt(ri2*rk2*r2) * r2;
+			double dotp = ix*kx + iy*ky + iz*kz;
+			double doti = ix*rx + iy*ry + iz*rz;
+			double dotk = kx*rx + ky*ry + kz*rz;
+			double e = fik * (dotp - 3.0*doti*dotk/r2) / rirkr3;
+			double r = 0;
+			double taper = 1;
+			double dtaper = 0;
+			if(r2 > taperCutoff2) {
+				r = Math.sqrt(r2);
+				taper = MathUtils.evaluateTaper(DipoleTerm.TAPER_COEFFS, r);
+				dtaper = MathUtils.evaluateDTaper(DipoleTerm.TAPER_COEFFS, r);
+			}
+			if(gradient != null) {
+				double de = -fik / (rirkr3 * r2);
+				double deddotp = -de * r2;
+				double deddoti = de * 3 * dotk;
+				double deddotk = de * 3 * doti;
+				double dedr = de * (3 * dotp - 15 * doti * dotk / r2);
+				double dedrirk = de * (dotp*r2 - 3.0 * doti*dotk);
+				double tx = rx*dedr + ix*deddoti + kx*deddotk;
+				double ty = ry*dedr + iy*deddoti + ky*deddotk;
+				double tz = rz*dedr + iz*deddoti + kz*deddotk;
+				double tix = ix*(dedrirk/ri2) + kx*deddotp + rx*deddoti;
+				double tiy = iy*(dedrirk/ri2) + ky*deddotp + ry*deddoti;
+				double tiz = iz*(dedrirk/ri2) + kz*deddotp + rz*deddoti;
+				double tkx = kx*(dedrirk/rk2) + ix*deddotp + rx*deddotk;
+				double tky = ky*(dedrirk/rk2) + iy*deddotp + ry*deddotk;
+				double tkz = kz*(dedrirk/rk2) + iz*deddotp + rz*deddotk;
+				if(dtaper == 0) {
+					addGradient(gradient, dipoleAtom[4*i], tx*0.5-tix, ty*0.5-tiy, tz*0.5-tiz);
+					addGradient(gradient, dipoleAtom[4*i+1], tx*0.5+tix, ty*0.5+tiy, tz*0.5+tiz);
+					addGradient(gradient, dipoleAtom[4*i+2], tx*-0.5-tkx, ty*-0.5-tky, tz*-0.5-tkz);
+					addGradient(gradient, dipoleAtom[4*i+3], tx*-0.5+tkx, ty*-0.5+tky, tz*-0.5+tkz);
+				} else {
+					double f = dtaper*e/r*0.5;
+					addGradient(gradient, dipoleAtom[4*i], (tx*0.5-tix)*taper+rx*f, (ty*0.5-tiy)*taper+ry*f, (tz*0.5-tiz)*taper+rz*f);
+					addGradient(gradient, dipoleAtom[4*i+1], (tx*0.5+tix)*taper+rx*f, (ty*0.5+tiy)*taper+ry*f, (tz*0.5+tiz)*taper+rz*f);
+					addGradient(gradient, dipoleAtom[4*i+2], (tx*-0.5-tkx)*taper-rx*f, (ty*-0.5-tky)*taper-ry*f, (tz*-0.5-tkz)*taper-rz*f);
+					addGradient(gradient, dipoleAtom[4*i+3], (tx*-0.5+tkx)*taper-rx*f, (ty*-0.5+tky)*taper-ry*f, (tz*-0.5+tkz)*taper-rz*f);
+				}
+			}
+			energy += e * taper;
+		}
+		return energy;
+	}
+}
@@ -43,8 +43,7 @@ public class MM2Parameters extends FFParameters {
 					try {
 						instance = new MM2Parameters();
 					} catch(Exception e) {
-						e.printStackTrace();
-						System.exit(1);
+						throw new RuntimeException("Could not load the MM2 parameters", e);
 					}
 				}
 			}
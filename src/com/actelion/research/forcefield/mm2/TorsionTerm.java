@@ -30,7 +30,7 @@ import com.actelion.research.forcefield.FFParameters;
 public final class TorsionTerm extends AbstractTerm {
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 
-	private static final double TORSION_UNIT = .5;
+	static final double TORSION_UNIT = .5;
 	protected double initV1, initV2, initV3;
 	protected double v1, v2, v3;
 	private double energy;	
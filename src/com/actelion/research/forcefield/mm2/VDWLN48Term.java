@@ -37,13 +37,13 @@ import com.actelion.research.forcefield.FFParameters;
 public final class VDWLN48Term extends AbstractTerm {
 	private final static FFParameters parameters = MM2Parameters.getInstance();
 
-	private final static double CUTOFF = 8.0;
-	private final double VCUTOFF;
+	final static double CUTOFF = 8.0;
+	final double VCUTOFF;
 	
 	//Parameters used 
-	private final double epsilon, radmin;
+	final double epsilon, radmin;
 	private final double r1, r2;
-	private final int iv, kv;
+	final int iv, kv;
 	private double energy;	
 
 	
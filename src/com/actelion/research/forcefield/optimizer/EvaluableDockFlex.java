@@ -64,6 +64,9 @@ public class EvaluableDockFlex extends EvaluableTransformation {
 		//TransRotTransform t = new TransRotTransform(forcefield.getMolecule(), forcefield.getMolecule().getCoordinates(r.getAtomCenter()));
 		//ChainOfTransformations c = new ChainOfTransformations(new AbstractTransform[]{t, r}, forcefield.getMolecule());
 		setChain(c); 
+		
+		//The protein does not move during the docking: precalculate its potential on grids
+		forcefield.getTerms().aggregateTerms();
 	}
 	
 	
@@ -33,6 +33,9 @@ public class EvaluableDockRigid extends EvaluableTransformation {
 	}
 	public EvaluableDockRigid(ForceField forcefield) {
 		super(forcefield, new ChainOfTransformations(new AbstractTransform[]{new TransRotTransform(forcefield.getMolecule())}, forcefield.getMolecule()));
+		
+		//The protein does not move during the docking: precalculate its potential on grids
+		forcefield.getTerms().aggregateTerms();
 	}
 	
 	
@@ -19,6 +19,7 @@ package com.actelion.research.forcefield.optimizer;
 
 import com.actelion.research.chem.*;
 import com.actelion.research.forcefield.*;
+import com.actelion.research.forcefield.mm2.MM2PackedTermEvaluator;
 
 
 /**
@@ -28,6 +29,7 @@ import com.actelion.research.forcefield.*;
  */
 public class EvaluableForceField implements IEvaluable {
 	protected ForceField forcefield;
+	private MM2PackedTermEvaluator packedTerms;
 	
 	public EvaluableForceField(EvaluableForceField e) {
 		this.forcefield = e.forcefield;		
@@ -57,18 +59,10 @@ public class EvaluableForceField implements IEvaluable {
 	}
 	@Override
 	public double getFGValue(MultiVariate grad) {
-		FFMolecule mol = forcefield.getMolecule();
-		//Compute the Gradient in the cartesian referential			
-		Coordinates[] g = new Coordinates[mol.getNMovables()];
-		for(int i=0; i<g.length; i++) g[i] = new Coordinates(); 
-		double e = forcefield.getTerms().getFGValue(g);
-	
-		for(int i=0, a = 0; i<grad.vector.length; a++) {
-			grad.vector[i++] = g[a].x;
-			grad.vector[i++] = g[a].y;
-			grad.vector[i++] = g[a].z;
-		}
-		return e;		
+		//Compute the Gradient in the cartesian referential directly into the flat gradient vector
+		TermList terms = forcefield.getTerms();
+		if(packedTerms==null || !packedTerms.isValidFor(terms)) packedTerms = new MM2PackedTermEvaluator(terms);
+		return packedTerms.getFGValue(grad.vector);
 	}
 	
 	/**
@@ -113,6 +113,7 @@ public class FileHelper extends CompoundFileHelper {
 		fileChooser.setCurrentDirectory(getCurrentDirectory());
 		fileChooser.setFileFilter(createFileFilter(filetype, true));
 		fileChooser.setExtension(FileHelper.getExtension(filetype));
+		fileChooser.setGZipAllowed((filetype & cFileTypeDataWarriorCompatibleData) != 0);
 		if (newFileName == null) {
 			fileChooser.setSelectedFile(new File(FileHelper.getCurrentDirectory(), "Untitled"));
 			}
@@ -26,6 +26,7 @@ public class JFileChooserOverwrite extends JFileChooser {
 
 	private File	mFile;
 	private String	mExtension = null;
+	private boolean	mIsGZipAllowed;
 
 	public JFileChooserOverwrite() {
 //		super(System.getProperty("user.dir"));
@@ -35,6 +36,13 @@ public class JFileChooserOverwrite extends JFileChooser {
 		mExtension = extension;
 		}
 
+	/**
+	 * @param allowed if true, then the extension may be followed by '.gz' to save a compressed file
+	 */
+	public void setGZipAllowed(boolean allowed) {
+		mIsGZipAllowed = allowed;
+		}
+
 	public File getFile() {
 		return mFile;
 		}
@@ -42,7 +50,8 @@ public class JFileChooserOverwrite extends JFileChooser {
 	public void approveSelection() {
 		if (getSelectedFile() != null) {
 			String filename = getSelectedFile().getPath();
-			if (mExtension != null) {
+			if (mExtension != null
+			 && !(mIsGZipAllowed && filename.toLowerCase().endsWith(mExtension.toLowerCase()+".gz"))) {
 				int dotIndex = filename.lastIndexOf('.');
 				int slashIndex = filename.lastIndexOf(File.separator);
 				if (dotIndex == -1
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.table;
+
+/**
+ * Ring buffer, which passes blocks created by multiple worker threads in their original
+ * order to one consuming thread and limits the number of blocks kept in memory.
+ * Workers must catch any Throwable and pass it to cancel(), because otherwise
+ * the consumer would wait forever for the block of the failed worker.
+ */
+public class BlockPipeline<T> {
+	private Object[] mBlock;
+	private long mTakenCount;
+	private boolean mIsCancelled;
+	private Throwable mException;
+
+	/**
+	 * @param maxPendingCount maximum number of blocks created, but not yet taken
+	 */
+	public BlockPipeline(int maxPendingCount) {
+		mBlock = new Object[maxPendingCount];
+		}
+
+	/**
+	 * Waits until the block may be created without exceeding the maximum number of pending blocks.
+	 * @return false if the pipeline was cancelled
+	 */
+	public synchronized boolean waitForCapacity(long block) {
+		while (!mIsCancelled && block >= mTakenCount + mBlock.length)
+			try { wait(); } catch (InterruptedException ie) {}
+		return !mIsCancelled;
+		}
+
+	public synchronized void put(long block, T b) {
+		mBlock[(int)(block % mBlock.length)] = b;
+		notifyAll();
+		}
+
+	/**
+	 * Waits until the block is complete and removes it from the pipeline.
+	 * @return completed block or null, if the pipeline was cancelled
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T take(long block) {
+		int slot = (int)(block % mBlock.length);
+		while (!mIsCancelled && mBlock[slot] == null)
+			try { wait(); } catch (InterruptedException ie) {}
+		if (mIsCancelled)
+			return null;
+		T b = (T)mBlock[slot];
+		mBlock[slot] = null;
+		mTakenCount = block+1;
+		notifyAll();
+		return b;
+		}
+
+	/**
+	 * Releases all waiting threads. Called by a failing worker, by the consumer if
+	 * it stops early, and by the consumer after completion to release waiting workers.
+	 * @param t null or the failure, which caused the cancellation
+	 */
+	public synchronized void cancel(Throwable t) {
+		if (mException == null)
+			mException = t;
+		mIsCancelled = true;
+		notifyAll();
+		}
+
+	/**
+	 * @return the first failure passed to cancel() or null
+	 */
+	public synchronized Throwable getException() {
+		return mException;
+		}
+	}
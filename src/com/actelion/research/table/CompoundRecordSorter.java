@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.table;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.actelion.research.chem.IDCodeParser;
+
+/**
+ * Sorts CompoundRecords by multiple keys with individual sort directions.
+ * Instead of comparing records, primitive sort keys are extracted once per record
+ * and key level in parallel: the float value of numerical columns, the atom count
+ * combined with the idcode start for structure columns and a 64-bit prefix of the
+ * bytes for all other columns. Then a permutation of record indexes is sorted with
+ * a parallel and stable merge sort, which compares the full byte arrays only for
+ * records with equal prefix keys. Empty cells and NaN values are put at the end
+ * of the list independent of the sort direction and so are structures without atoms,
+ * if the order is ascending.
+ */
+class CompoundRecordSorter {
+	protected static final int TYPE_DOUBLE = 0;
+	protected static final int TYPE_STRING = 1;
+	protected static final int TYPE_IDCODE = 2;
+
+	private static final int MIN_ROWS_PER_THREAD = 8192;
+
+	private CompoundRecord[]	mRecord;
+	private int					mRecords,mLevelCount;
+	private long[][]			mKey;
+	private boolean[][]			mIsMissing;
+	private byte[][][]			mBytes;
+	private boolean[]			mIsDescending,mNeedsByteCompare;
+
+	/**
+	 * @param record the records to be sorted
+	 * @param recordCount number of valid records in record
+	 * @param column column of every sort key
+	 * @param type TYPE_DOUBLE, TYPE_STRING or TYPE_IDCODE for every sort key
+	 * @param descending sort direction of every sort key
+	 * @param selectedFirst whether selected records shall precede all other ones
+	 */
+	public CompoundRecordSorter(CompoundRecord[] record, int recordCount, int[] column, int[] type,
+								boolean[] descending, boolean selectedFirst) {
+		mRecord = record;
+		mRecords = recordCount;
+
+		int offset = selectedFirst ? 1 : 0;
+		mLevelCount = column.length + offset;
+		mKey = new long[mLevelCount][];
+		mIsMissing = new boolean[mLevelCount][];
+		mBytes = new byte[mLevelCount][][];
+		mIsDescending = new boolean[mLevelCount];
+		mNeedsByteCompare = new boolean[mLevelCount];
+
+		if (selectedFirst)
+			mKey[0] = new long[recordCount];
+		for (int i=0; i<column.length; i++) {
+			int level = i + offset;
+			mKey[level] = new long[recordCount];
+			mIsMissing[level] = new boolean[recordCount];
+			mIsDescending[level] = descending[i];
+			if (type[i] != TYPE_DOUBLE) {
+				mBytes[level] = new byte[recordCount][];
+				mNeedsByteCompare[level] = true;
+				}
+			}
+
+		extractKeys(column, type, selectedFirst);
+		}
+
+	/**
+	 * Sorts the records and returns them in a new array.
+	 * @return sorted records
+	 */
+	public CompoundRecord[] sort() {
+		int[] permutation = new int[mRecords];
+		for (int i=0; i<mRecords; i++)
+			permutation[i] = i;
+
+		final int threadCount = getThreadCount();
+		int[] buffer = new int[mRecords];
+
+		int[] bound = new int[threadCount+1];
+		for (int i=0; i<=threadCount; i++)
+			bound[i] = (int)((long)mRecords * i / threadCount);
+
+		runParallel(threadCount, new BlockTask() {
+			public void process(int block) {
+				mergeSort(permutation, buffer, bound[block], bound[block+1]);
+				}
+			});
+
+		// merge sorted blocks pairwise until one block is left
+		int[] source = permutation;
+		int[] target = buffer;
+		int blockCount = threadCount;
+		int width = 1;
+		while (blockCount > 1) {
+			final int[] _source = source;
+			final int[] _target = target;
+			final int _width = width;
+			runParallel((blockCount+1)/2, new BlockTask() {
+				public void process(int pair) {
+					int b1 = 2*pair*_width;
+					int b2 = Math.min(threadCount, b1+_width);
+					int b3 = Math.min(threadCount, b2+_width);
+					merge(_source, _target, bound[b1], bound[b2], bound[b3]);
+					}
+				});
+			source = _target;
+			target = _source;
+			blockCount = (blockCount+1)/2;
+			width *= 2;
+			}
+
+		CompoundRecord[] sortedRecord = new CompoundRecord[mRecords];
+		for (int i=0; i<mRecords; i++)
+			sortedRecord[i] = mRecord[source[i]];
+		return sortedRecord;
+		}
+
+	private int getThreadCount() {
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), mRecords / MIN_ROWS_PER_THREAD);
+		return Math.max(1, threadCount);
+		}
+
+	private void extractKeys(final int[] column, final int[] type, final boolean selectedFirst) {
+		final int blockSize = Math.max(1, Math.min(MIN_ROWS_PER_THREAD, mRecords));
+		final int blockCount = (mRecords + blockSize - 1) / blockSize;
+		final int offset = selectedFirst ? 1 : 0;
+		runParallel(getThreadCount(), new BlockTask() {
+			private AtomicInteger mNextBlock = new AtomicInteger();
+
+			public void process(int thread) {
+				IDCodeParser parser = new IDCodeParser(false);
+				int block = mNextBlock.getAndIncrement();
+				while (block < blockCount) {
+					int end = Math.min(mRecords, (block+1)*blockSize);
+					for (int row=block*blockSize; row<end; row++) {
+						CompoundRecord record = mRecord[row];
+						if (selectedFirst)
+							mKey[0][row] = record.isSelected() ? 0 : 1;
+						for (int i=0; i<column.length; i++) {
+							int level = i + offset;
+							if (type[i] == TYPE_DOUBLE)
+								extractDoubleKey(level, row, record.mFloat[column[i]]);
+							else
+								extractByteKey(level, row, (byte[])record.getData(column[i]),
+											   type[i] == TYPE_IDCODE ? parser : null);
+							}
+						}
+					block = mNextBlock.getAndIncrement();
+					}
+				}
+			});
+		}
+
+	private void extractDoubleKey(int level, int row, float value) {
+		if (Float.isNaN(value)) {
+			mIsMissing[level][row] = true;
+			return;
+			}
+
+		// map float bits to an unsigned int, which keeps the order of the values
+		int bits = Float.floatToIntBits(value == 0f ? 0f : value);
+		long key = (bits < 0) ? ~bits & 0xFFFFFFFFL : (bits & 0xFFFFFFFFL) | 0x80000000L;
+		mKey[level][row] = mIsDescending[level] ? ~key : key;
+		}
+
+	/**
+	 * Creates a key from the first bytes, which compares as unsigned long
+	 * like the byte arrays in their signed byte order. Shorter arrays are padded with
+	 * the smallest value, such that equal keys don't guarantee equal arrays, but
+	 * different keys reflect the correct order. For idcodes the upper 32 bits
+	 * contain the atom count.
+	 */
+	private void extractByteKey(int level, int row, byte[] bytes, IDCodeParser parser) {
+		if (bytes == null) {
+			mIsMissing[level][row] = true;
+			return;
+			}
+
+		mBytes[level][row] = bytes;
+
+		int prefixLength = (parser == null) ? 8 : 4;
+		long key = 0;
+		for (int i=0; i<prefixLength; i++)
+			key = (key << 8) | ((i < bytes.length) ? ((bytes[i] ^ 0x80) & 0xFF) : 0);
+
+		if (parser != null)
+			key |= (long)getAtomCount(bytes, parser) << 32;
+
+		mKey[level][row] = mIsDescending[level] ? ~key : key;
+		}
+
+	private int getAtomCount(byte[] idcode, IDCodeParser parser) {
+		int atomCount = 0;
+		int index = 0;
+		while (index < idcode.length) {
+			atomCount += parser.getAtomCount(idcode, index);
+			while (index<idcode.length && idcode[index] != '\n')
+				index++;
+			index++;
+			}
+
+			// put valid idcodes with 0 atoms at the end of the list
+		return (atomCount == 0) ? Integer.MAX_VALUE : atomCount;
+		}
+
+	private int compare(int r1, int r2) {
+		for (int level=0; level<mLevelCount; level++) {
+			if (mIsMissing[level] != null) {
+				boolean m1 = mIsMissing[level][r1];
+				boolean m2 = mIsMissing[level][r2];
+				if (m1 || m2) {
+					if (m1 && m2)
+						continue;
+					return m1 ? 1 : -1;
+					}
+				}
+
+			long k1 = mKey[level][r1];
+			long k2 = mKey[level][r2];
+			if (k1 != k2)
+				return (k1 + Long.MIN_VALUE < k2 + Long.MIN_VALUE) ? -1 : 1;	// unsigned comparison
+
+			if (mNeedsByteCompare[level]) {
+				int comparison = compare(mBytes[level][r1], mBytes[level][r2]);
+				if (comparison != 0)
+					return mIsDescending[level] ? -comparison : comparison;
+				}
+			}
+		return 0;
+		}
+
+	private int compare(byte[] s1, byte[] s2) {
+		for (int i=0; i<s1.length; i++) {
+			if (s2.length == i)
+				return 1;
+			if (s1[i] != s2[i])
+				return (s1[i] < s2[i]) ? -1 : 1;
+			}
+		return (s2.length > s1.length) ? -1 : 0;
+		}
+
+	/**
+	 * Stable merge sort of index[from...to-1] using buffer[from...to-1] as temporary space.
+	 */
+	private void mergeSort(int[] index, int[] buffer, int from, int to) {
+		if (to - from < 16) {	// insertion sort for small ranges
+			for (int i=from+1; i<to; i++) {
+				int value = index[i];
+				int j = i;
+				while (j > from && compare(index[j-1], value) > 0) {
+					index[j] = index[j-1];
+					j--;
+					}
+				index[j] = value;
+				}
+			return;
+			}
+
+		int middle = (from + to) >>> 1;
+		mergeSort(index, buffer, from, middle);
+		mergeSort(index, buffer, middle, to);
+		if (compare(index[middle-1], index[middle]) <= 0)
+			return;
+
+		System.arraycopy(index, from, buffer, from, to-from);
+		merge(buffer, index, from, middle, to);
+		}
+
+	/**
+	 * Merges the sorted ranges source[from...middle-1] and source[middle...to-1]
+	 * into target[from...to-1]. Elements of the first range precede equal ones of the second.
+	 */
+	private void merge(int[] source, int[] target, int from, int middle, int to) {
+		int i = from;
+		int j = middle;
+		for (int k=from; k<to; k++) {
+			if (j >= to || (i < middle && compare(source[i], source[j]) <= 0))
+				target[k] = source[i++];
+			else
+				target[k] = source[j++];
+			}
+		}
+
+	private void runParallel(int taskCount, final BlockTask task) {
+		if (taskCount == 1) {
+			task.process(0);
+			return;
+			}
+
+		Thread[] worker = new Thread[taskCount];
+		for (int i=0; i<taskCount; i++) {
+			final int index = i;
+			worker[i] = new Thread("Record Sorter "+(i+1)) {
+				public void run() {
+					task.process(index);
+					}
+				};
+			worker[i].start();
+			}
+
+		for (Thread t:worker)
+			try { t.join(); } catch (InterruptedException ie) {}
+		}
+
+	private interface BlockTask {
+		public void process(int index);
+		}
+	}
@@ -0,0 +1,628 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.actelion.research.util.ByteArrayArrayComparator;
+
+/**
+ * Groups all rows of a CompoundTableModel by the content of one or more key columns
+ * and calculates aggregate values of other columns for every group.
+ * Rows are assigned to groups with open-addressing hash tables. If all key columns are
+ * single-entry text category columns, then the combined category indexes serve as
+ * dictionary-encoded keys. Otherwise 64-bit hash values of the cell content are used.
+ * Rows with equal keys are compared byte by byte, such that groups always
+ * consist of rows with identical key cells.
+ * Grouping and aggregation are done in parallel on row blocks; the partial results
+ * of all threads are merged thereafter. Groups are numbered in the order of their
+ * first occurrence in the table unless sortGroupsByKey() is called.
+ * Empty cells of key columns form their own key value.
+ */
+public class CompoundTableAggregator {
+	public static final int AGGREGATE_COUNT = 0;
+	public static final int AGGREGATE_SUM = 1;
+	public static final int AGGREGATE_MEAN = 2;
+	public static final int AGGREGATE_MIN = 3;
+	public static final int AGGREGATE_MAX = 4;
+	public static final int AGGREGATE_MEDIAN = 5;
+	public static final int AGGREGATE_STDDEV = 6;
+	public static final int AGGREGATE_DISTINCT = 7;
+
+	public static final String[] AGGREGATE_CODE = { "count", "sum", "mean", "min", "max", "median", "stddev", "distinct" };
+	public static final String[] AGGREGATE_NAME = { "Value Count", "Sum", "Mean", "Minimum", "Maximum",
+													"Median", "Standard Deviation", "Distinct Value Count" };
+
+	private static final int MIN_ROWS_PER_THREAD = 16384;
+
+	private CompoundTableModel	mTableModel;
+	private int[]				mKeyColumn,mRowGroup,mGroupRow,mGroupSize;
+	private long[]				mKeyRadix;
+	private int					mRowCount,mGroupCount;
+
+	/**
+	 * Creates an aggregator and assigns all rows of the table model to groups.
+	 * @param tableModel
+	 * @param keyColumn one or more total column indexes
+	 */
+	public CompoundTableAggregator(CompoundTableModel tableModel, int[] keyColumn) {
+		mTableModel = tableModel;
+		mKeyColumn = keyColumn;
+		mRowCount = tableModel.getTotalRowCount();
+		mKeyRadix = createKeyRadix();
+		group();
+		}
+
+	public int getGroupCount() {
+		return mGroupCount;
+		}
+
+	/**
+	 * @param row total row index
+	 * @return group index of the row
+	 */
+	public int getGroup(int row) {
+		return mRowGroup[row];
+		}
+
+	/**
+	 * @param group
+	 * @return number of rows belonging to the group
+	 */
+	public int getGroupSize(int group) {
+		return mGroupSize[group];
+		}
+
+	/**
+	 * @param group
+	 * @return total index of the first row of the group, which represents the group's key values
+	 */
+	public int getGroupRow(int group) {
+		return mGroupRow[group];
+		}
+
+	/**
+	 * @param group
+	 * @return cell content of all key columns for the given group
+	 */
+	public byte[][] getGroupKey(int group) {
+		CompoundRecord record = mTableModel.getTotalRecord(mGroupRow[group]);
+		byte[][] key = new byte[mKeyColumn.length][];
+		for (int i=0; i<mKeyColumn.length; i++)
+			key[i] = (byte[])record.getData(mKeyColumn[i]);
+		return key;
+		}
+
+	/**
+	 * Renumbers the groups such that their key values are in ascending order
+	 * as defined by the ByteArrayArrayComparator.
+	 */
+	public void sortGroupsByKey() {
+		final byte[][][] key = new byte[mGroupCount][][];
+		Integer[] order = new Integer[mGroupCount];
+		for (int group=0; group<mGroupCount; group++) {
+			key[group] = getGroupKey(group);
+			order[group] = group;
+			}
+
+		final ByteArrayArrayComparator comparator = new ByteArrayArrayComparator();
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer g1, Integer g2) {
+				return comparator.compare(key[g1], key[g2]);
+				}
+			});
+
+		int[] newGroup = new int[mGroupCount];
+		int[] groupRow = new int[mGroupCount];
+		int[] groupSize = new int[mGroupCount];
+		for (int i=0; i<mGroupCount; i++) {
+			newGroup[order[i]] = i;
+			groupRow[i] = mGroupRow[order[i]];
+			groupSize[i] = mGroupSize[order[i]];
+			}
+		mGroupRow = groupRow;
+		mGroupSize = groupSize;
+		for (int row=0; row<mRowCount; row++)
+			mRowGroup[row] = newGroup[mRowGroup[row]];
+		}
+
+	/**
+	 * Calculates one aggregate value of the given column for every group.
+	 * AGGREGATE_COUNT and AGGREGATE_DISTINCT consider the cell content of any column,
+	 * while all other aggregates require a numerical column and skip empty or NaN values.
+	 * @param column total column index
+	 * @param aggregate one of the AGGREGATE_ types
+	 * @return aggregate value for every group; NaN if a group has no values
+	 */
+	public float[] aggregate(final int column, int aggregate) {
+		switch (aggregate) {
+		case AGGREGATE_MEDIAN:
+			return calculateMedians(column);
+		case AGGREGATE_DISTINCT:
+			return calculateDistinctCounts(column);
+		default:
+			return calculateMoments(column, aggregate);
+			}
+		}
+
+	/**
+	 * Calculates count, sum, sum of squares, minimum and maximum per group with one
+	 * partial result per row block, which are merged afterwards. If there are so many
+	 * groups that partial results of all blocks would need more memory than the table's
+	 * rows, then the rows are arranged by group and groups are processed in parallel instead.
+	 */
+	private float[] calculateMoments(final int column, final int aggregate) {
+		final boolean isNumerical = (aggregate != AGGREGATE_COUNT);
+		final int blockCount = getBlockCount();
+		if (blockCount > 1 && (long)blockCount * mGroupCount > mRowCount)
+			return calculateMomentsByGroup(column, aggregate);
+
+		final int[][] count = new int[blockCount][mGroupCount];
+		final double[][] sum = new double[isNumerical ? blockCount : 0][mGroupCount];
+		final double[][] sumSq = new double[aggregate == AGGREGATE_STDDEV ? blockCount : 0][mGroupCount];
+		final float[][] min = new float[aggregate == AGGREGATE_MIN ? blockCount : 0][mGroupCount];
+		final float[][] max = new float[aggregate == AGGREGATE_MAX ? blockCount : 0][mGroupCount];
+
+		runParallel(blockCount, new BlockTask() {
+			public void process(int block, int fromRow, int toRow) {
+				if (min.length != 0)
+					Arrays.fill(min[block], Float.POSITIVE_INFINITY);
+				if (max.length != 0)
+					Arrays.fill(max[block], Float.NEGATIVE_INFINITY);
+				for (int row=fromRow; row<toRow; row++) {
+					CompoundRecord record = mTableModel.getTotalRecord(row);
+					int group = mRowGroup[row];
+					if (!isNumerical) {
+						if (record.getData(column) != null)
+							count[block][group]++;
+						continue;
+						}
+
+					float value = mTableModel.getTotalOriginalDoubleAt(row, column);
+					if (Float.isNaN(value))
+						continue;
+
+					count[block][group]++;
+					sum[block][group] += value;
+					if (sumSq.length != 0)
+						sumSq[block][group] += (double)value * value;
+					if (min.length != 0 && min[block][group] > value)
+						min[block][group] = value;
+					if (max.length != 0 && max[block][group] < value)
+						max[block][group] = value;
+					}
+				}
+			});
+
+		float[] result = new float[mGroupCount];
+		for (int group=0; group<mGroupCount; group++) {
+			int n = 0;
+			double s = 0.0;
+			double s2 = 0.0;
+			float lo = Float.POSITIVE_INFINITY;
+			float hi = Float.NEGATIVE_INFINITY;
+			for (int block=0; block<blockCount; block++) {
+				n += count[block][group];
+				if (sum.length != 0)
+					s += sum[block][group];
+				if (sumSq.length != 0)
+					s2 += sumSq[block][group];
+				if (min.length != 0)
+					lo = Math.min(lo, min[block][group]);
+				if (max.length != 0)
+					hi = Math.max(hi, max[block][group]);
+				}
+
+			result[group] = getAggregateValue(aggregate, n, s, s2, lo, hi);
+			}
+
+		return result;
+		}
+
+	private float[] calculateMomentsByGroup(final int column, final int aggregate) {
+		final int[] offset = new int[mGroupCount+1];
+		final int[] groupRows = new int[mRowCount];
+		int[] index = new int[mGroupCount];
+		for (int row=0; row<mRowCount; row++)
+			offset[mRowGroup[row]+1]++;
+		for (int group=0; group<mGroupCount; group++) {
+			offset[group+1] += offset[group];
+			index[group] = offset[group];
+			}
+		for (int row=0; row<mRowCount; row++)
+			groupRows[index[mRowGroup[row]]++] = row;
+
+		final float[] result = new float[mGroupCount];
+		runParallelOnGroups(new BlockTask() {
+			public void process(int block, int fromGroup, int toGroup) {
+				for (int group=fromGroup; group<toGroup; group++) {
+					int n = 0;
+					double s = 0.0;
+					double s2 = 0.0;
+					float lo = Float.POSITIVE_INFINITY;
+					float hi = Float.NEGATIVE_INFINITY;
+					for (int i=offset[group]; i<offset[group+1]; i++) {
+						int row = groupRows[i];
+						if (aggregate == AGGREGATE_COUNT) {
+							if (mTableModel.getTotalRecord(row).getData(column) != null)
+								n++;
+							continue;
+							}
+
+						float value = mTableModel.getTotalOriginalDoubleAt(row, column);
+						if (Float.isNaN(value))
+							continue;
+
+						n++;
+						s += value;
+						s2 += (double)value * value;
+						lo = Math.min(lo, value);
+						hi = Math.max(hi, value);
+						}
+					result[group] = getAggregateValue(aggregate, n, s, s2, lo, hi);
+					}
+				}
+			});
+
+		return result;
+		}
+
+	private static float getAggregateValue(int aggregate, int n, double s, double s2, float lo, float hi) {
+		switch (aggregate) {
+		case AGGREGATE_COUNT:
+			return n;
+		case AGGREGATE_SUM:
+			return (n == 0) ? Float.NaN : (float)s;
+		case AGGREGATE_MEAN:
+			return (n == 0) ? Float.NaN : (float)(s / n);
+		case AGGREGATE_MIN:
+			return (n == 0) ? Float.NaN : lo;
+		case AGGREGATE_MAX:
+			return (n == 0) ? Float.NaN : hi;
+		case AGGREGATE_STDDEV:
+			return (n < 2) ? Float.NaN : (float)Math.sqrt(Math.max(0.0, (s2 - s*s/n) / (n-1)));
+		default:
+			return Float.NaN;
+			}
+		}
+
+	private float[] calculateMedians(int column) {
+		final int[] offset = new int[mGroupCount+1];
+		final float[] value = new float[mRowCount];
+		int[] index = new int[mGroupCount];
+		for (int row=0; row<mRowCount; row++)
+			if (!Float.isNaN(mTableModel.getTotalOriginalDoubleAt(row, column)))
+				offset[mRowGroup[row]+1]++;
+		for (int group=0; group<mGroupCount; group++) {
+			offset[group+1] += offset[group];
+			index[group] = offset[group];
+			}
+		for (int row=0; row<mRowCount; row++) {
+			float v = mTableModel.getTotalOriginalDoubleAt(row, column);
+			if (!Float.isNaN(v))
+				value[index[mRowGroup[row]]++] = v;
+			}
+
+		final float[] result = new float[mGroupCount];
+		runParallelOnGroups(new BlockTask() {
+			public void process(int block, int fromGroup, int toGroup) {
+				for (int group=fromGroup; group<toGroup; group++) {
+					int from = offset[group];
+					int to = offset[group+1];
+					if (from == to) {
+						result[group] = Float.NaN;
+						continue;
+						}
+					Arrays.sort(value, from, to);
+					int middle = (from + to) / 2;
+					result[group] = ((to - from) % 2 == 1) ? value[middle] : (value[middle-1] + value[middle]) / 2;
+					}
+				}
+			});
+
+		return result;
+		}
+
+	/**
+	 * Sorts the non-empty cells of every group by a 32-bit hash combined with the row index.
+	 * Cells with equal hash values are compared byte by byte, such that hash collisions
+	 * don't reduce the count.
+	 */
+	private float[] calculateDistinctCounts(final int column) {
+		final int[] offset = new int[mGroupCount+1];
+		final long[] hashAndRow = new long[mRowCount];
+		int[] index = new int[mGroupCount];
+		for (int row=0; row<mRowCount; row++)
+			if (mTableModel.getTotalRecord(row).getData(column) != null)
+				offset[mRowGroup[row]+1]++;
+		for (int group=0; group<mGroupCount; group++) {
+			offset[group+1] += offset[group];
+			index[group] = offset[group];
+			}
+		for (int row=0; row<mRowCount; row++) {
+			Object data = mTableModel.getTotalRecord(row).getData(column);
+			if (data != null)
+				hashAndRow[index[mRowGroup[row]]++] = ((long)(int)hash(data) << 32) | row;
+			}
+
+		final float[] result = new float[mGroupCount];
+		runParallelOnGroups(new BlockTask() {
+			public void process(int block, int fromGroup, int toGroup) {
+				for (int group=fromGroup; group<toGroup; group++) {
+					int from = offset[group];
+					int to = offset[group+1];
+					Arrays.sort(hashAndRow, from, to);
+					ArrayList<byte[]> runValueList = new ArrayList<byte[]>();	// distinct values with the current hash
+					for (int i=from; i<to; i++) {
+						if (i == from || (hashAndRow[i] >>> 32) != (hashAndRow[i-1] >>> 32))
+							runValueList.clear();
+
+						byte[] data = (byte[])mTableModel.getTotalRecord((int)hashAndRow[i]).getData(column);
+						boolean isNew = true;
+						for (byte[] value:runValueList) {
+							if (Arrays.equals(data, value)) {
+								isNew = false;
+								break;
+								}
+							}
+						if (isNew) {
+							runValueList.add(data);
+							result[group]++;
+							}
+						}
+					}
+				}
+			});
+
+		return result;
+		}
+
+	/**
+	 * Key columns are dictionary encoded, if they are single entry text category columns
+	 * and if the product of all category counts fits into a long.
+	 * @return radix of every key column or null, if keys need to be hashed
+	 */
+	private long[] createKeyRadix() {
+		long[] radix = new long[mKeyColumn.length];
+		long product = 1;
+		for (int i=0; i<mKeyColumn.length; i++) {
+			int column = mKeyColumn[i];
+			if (!mTableModel.isColumnTypeCategory(column)
+			 || mTableModel.isColumnTypeDouble(column)
+			 || mTableModel.isColumnTypeDate(column)
+			 || mTableModel.isMultiEntryColumn(column))
+				return null;
+
+			radix[i] = product;
+			long categoryCount = mTableModel.getCategoryCount(column) + 1;	// +1 for multiple categories
+			if (product > Long.MAX_VALUE / 2 / categoryCount)
+				return null;
+			product *= categoryCount;
+			}
+		return radix;
+		}
+
+	private long getKey(CompoundRecord record) {
+		if (mKeyRadix != null) {
+			long key = 0;
+			for (int i=0; i<mKeyColumn.length; i++)
+				key += mKeyRadix[i] * mTableModel.getCategoryIndex(mKeyColumn[i], record);
+			return key;
+			}
+
+		long key = 0;
+		for (int column:mKeyColumn)
+			key = key * 0x9E3779B97F4A7C15L + hash(record.getData(column));
+		return key;
+		}
+
+	private static long hash(Object data) {
+		if (data == null)
+			return 0x5555555555555555L;
+
+		// 64-bit FNV-1a
+		long h = 0xCBF29CE484222325L;
+		for (byte b:(byte[])data)
+			h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+		return h;
+		}
+
+	private boolean isEqualKey(int row1, int row2) {
+		CompoundRecord r1 = mTableModel.getTotalRecord(row1);
+		CompoundRecord r2 = mTableModel.getTotalRecord(row2);
+		for (int column:mKeyColumn)
+			if (!Arrays.equals((byte[])r1.getData(column), (byte[])r2.getData(column)))
+				return false;
+		return true;
+		}
+
+	/**
+	 * Every thread groups a contiguous block of rows with its own hash table.
+	 * The local groups are then merged in block order into one global hash table,
+	 * which keeps the group numbering in order of first occurrence.
+	 */
+	private void group() {
+		final int blockCount = getBlockCount();
+		final long[] key = new long[mRowCount];
+		final int[] localGroup = new int[mRowCount];
+		final GroupTable[] localTable = new GroupTable[blockCount];
+
+		runParallel(blockCount, new BlockTask() {
+			public void process(int block, int fromRow, int toRow) {
+				GroupTable table = new GroupTable(Math.min(toRow-fromRow, 1024));
+				for (int row=fromRow; row<toRow; row++) {
+					key[row] = getKey(mTableModel.getTotalRecord(row));
+					localGroup[row] = table.findOrAdd(key[row], row);
+					}
+				localTable[block] = table;
+				}
+			});
+
+		GroupTable globalTable = new GroupTable(1024);
+		final int[][] localToGlobal = new int[blockCount][];
+		for (int block=0; block<blockCount; block++) {
+			GroupTable table = localTable[block];
+			localToGlobal[block] = new int[table.size];
+			for (int group=0; group<table.size; group++) {
+				int row = table.groupRow[group];
+				localToGlobal[block][group] = globalTable.findOrAdd(key[row], row);
+				}
+			}
+
+		mGroupCount = globalTable.size;
+		mGroupRow = Arrays.copyOf(globalTable.groupRow, mGroupCount);
+		mRowGroup = localGroup;
+		runParallel(blockCount, new BlockTask() {
+			public void process(int block, int fromRow, int toRow) {
+				for (int row=fromRow; row<toRow; row++)
+					mRowGroup[row] = localToGlobal[block][mRowGroup[row]];
+				}
+			});
+
+		// counted serially, because per block counts would need blockCount*groupCount memory
+		mGroupSize = new int[mGroupCount];
+		for (int row=0; row<mRowCount; row++)
+			mGroupSize[mRowGroup[row]]++;
+		}
+
+	private int getBlockCount() {
+		int blockCount = Math.min(Runtime.getRuntime().availableProcessors(), mRowCount / MIN_ROWS_PER_THREAD);
+		return Math.max(1, blockCount);
+		}
+
+	private void runParallel(final int blockCount, final BlockTask task) {
+		if (blockCount == 1) {
+			task.process(0, 0, mRowCount);
+			return;
+			}
+
+		Thread[] worker = new Thread[blockCount];
+		for (int i=0; i<blockCount; i++) {
+			final int block = i;
+			worker[i] = new Thread("Aggregator "+(i+1)) {
+				public void run() {
+					task.process(block, (int)((long)mRowCount*block/blockCount), (int)((long)mRowCount*(block+1)/blockCount));
+					}
+				};
+			worker[i].start();
+			}
+
+		for (Thread t:worker)
+			try { t.join(); } catch (InterruptedException ie) {}
+		}
+
+	private void runParallelOnGroups(final BlockTask task) {
+		final int blockCount = Math.max(1, Math.min(getBlockCount(), mGroupCount));
+		if (blockCount == 1) {
+			task.process(0, 0, mGroupCount);
+			return;
+			}
+
+		Thread[] worker = new Thread[blockCount];
+		for (int i=0; i<blockCount; i++) {
+			final int block = i;
+			worker[i] = new Thread("Aggregator "+(i+1)) {
+				public void run() {
+					task.process(block, (int)((long)mGroupCount*block/blockCount), (int)((long)mGroupCount*(block+1)/blockCount));
+					}
+				};
+			worker[i].start();
+			}
+
+		for (Thread t:worker)
+			try { t.join(); } catch (InterruptedException ie) {}
+		}
+
+	private interface BlockTask {
+		public void process(int block, int from, int to);
+		}
+
+	/**
+	 * Open-addressing hash table with linear probing that maps row keys to group indexes.
+	 * Every group is represented by the first row that was added with its key.
+	 */
+	private class GroupTable {
+		private long[]	slotKey;
+		private int[]	slotGroup,groupRow;
+		private int		size;
+
+		public GroupTable(int expectedSize) {
+			int capacity = 16;
+			while (capacity < 2*expectedSize)
+				capacity *= 2;
+			slotKey = new long[capacity];
+			slotGroup = new int[capacity];
+			Arrays.fill(slotGroup, -1);
+			groupRow = new int[Math.max(16, expectedSize)];
+			}
+
+		/**
+		 * @param key
+		 * @param row row with this key, which becomes the group's representative, if the key is new
+		 * @return index of existing or new group
+		 */
+		public int findOrAdd(long key, int row) {
+			int mask = slotKey.length - 1;
+			int slot = mix(key) & mask;
+			while (slotGroup[slot] != -1) {
+				if (slotKey[slot] == key && isEqualKey(groupRow[slotGroup[slot]], row))
+					return slotGroup[slot];
+				slot = (slot + 1) & mask;
+				}
+
+			if (size == groupRow.length)
+				groupRow = Arrays.copyOf(groupRow, 2*size);
+			groupRow[size] = row;
+			slotKey[slot] = key;
+			slotGroup[slot] = size;
+			size++;
+
+			if (2*size > slotKey.length)
+				rehash();
+
+			return size-1;
+			}
+
+		private void rehash() {
+			long[] oldKey = slotKey;
+			int[] oldGroup = slotGroup;
+			slotKey = new long[2*oldKey.length];
+			slotGroup = new int[2*oldKey.length];
+			Arrays.fill(slotGroup, -1);
+			int mask = slotKey.length - 1;
+			for (int i=0; i<oldKey.length; i++) {
+				if (oldGroup[i] != -1) {
+					int slot = mix(oldKey[i]) & mask;
+					while (slotGroup[slot] != -1)
+						slot = (slot + 1) & mask;
+					slotKey[slot] = oldKey[i];
+					slotGroup[slot] = oldGroup[i];
+					}
+				}
+			}
+
+		private int mix(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int)(key ^ (key >>> 32));
+			}
+		}
+	}
@@ -26,10 +26,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -43,15 +48,25 @@ import com.actelion.research.gui.form.ReferenceResolver;
 import com.actelion.research.gui.form.ReferencedDataConsumer;
 import com.actelion.research.gui.form.ResultDetailPopupItemProvider;
 
-public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider,ReferenceResolver,Runnable {
+public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider,ReferenceResolver {
 	public static final String URL_RESPONSE = "url/response:";
 	public static final String EMBEDDED = "embedded";
 	public static final String ABSOLUTE_PATH = "absPath:";
 	public static final String RELATIVE_PATH = "relPath:";
 
+	private static final int FETCH_THREAD_COUNT = 8;
+	private static final int MAX_FETCHES_PER_SOURCE = 4;	// don't flood individual servers
+	private static final int PREFETCH_ROW_RANGE = 2;		// rows before and after the highlighted one
+	private static final String CACHE_DIRECTORY = ".datawarrior"+File.separator+"details";	// within user.home
+
+	// fetching and caching is shared by all documents
+	private static ExecutorService					sExecutor;
+	private static DetailCache						sCache;
+	private static HashMap<String,DetailFetch>		sPendingFetchMap = new HashMap<String,DetailFetch>();
+	private static HashMap<String,SourceQueue>		sSourceQueueMap = new HashMap<String,SourceQueue>();
+
     private CompoundTableModel		mTableModel;
 	private HashMap<String,byte[]>	mEmbeddedDetailMap;
-	private ArrayList<FileRequest>	mFileRequests;
 
 	/**
 	 * This is a helper method to extract all detail references that refer to embedded details.
@@ -101,14 +116,62 @@ public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider
         if (source.equals(EMBEDDED))
 			return getEmbeddedDetail(reference);
 		if (source.startsWith(ABSOLUTE_PATH)
-         || source.startsWith(RELATIVE_PATH))
-			return getDataFromFile(getPathFromFileSource(source)+reference);
-		if (source.startsWith(URL_RESPONSE))
-			return getURLResponse(source.substring(URL_RESPONSE.length()), reference);
+         || source.startsWith(RELATIVE_PATH)
+         || source.startsWith(URL_RESPONSE)) {
+			byte[] data = getCache().get(getCacheKey(source, reference));
+			return (data != null) ? data : startFetch(source, reference, null).waitForData();
+			}
 
 		return null;
 		}
 
+	/**
+	 * Starts fetching all not embedded details of the records adjacent to the given one
+	 * in the background, such that they are available from the cache, when the user
+	 * navigates to these records.
+	 * @param record usually the highlighted record
+	 */
+	public void prefetchAdjacentDetails(CompoundRecord record) {
+		if (record == null || !hasExternalDetails())
+			return;
+
+		int row = mTableModel.getRowIndex(record);
+		if (row == -1)
+			return;
+
+		int rowCount = mTableModel.getRowCount();
+		for (int i=1; i<=PREFETCH_ROW_RANGE; i++) {
+			if (row+i < rowCount)
+				prefetchDetails(mTableModel.getRecord(row+i));
+			if (row-i >= 0)
+				prefetchDetails(mTableModel.getRecord(row-i));
+			}
+		}
+
+	private boolean hasExternalDetails() {
+		for (int column=0; column<mTableModel.getTotalColumnCount(); column++)
+			for (int detail=0; detail<mTableModel.getColumnDetailCount(column); detail++)
+				if (!EMBEDDED.equals(mTableModel.getColumnDetailSource(column, detail)))
+					return true;
+
+		return false;
+		}
+
+	private void prefetchDetails(CompoundRecord record) {
+		for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
+			String[][] reference = record.getDetailReferences(column);
+			if (reference != null) {
+				for (int detail=0; detail<reference.length && detail<mTableModel.getColumnDetailCount(column); detail++) {
+					String source = mTableModel.getColumnDetailSource(column, detail);
+					if (reference[detail] != null && !EMBEDDED.equals(source))
+						for (String r:reference[detail])
+							if (getCache().getFromMemory(getCacheKey(source, r)) == null)
+								startFetch(source, r, null);
+					}
+				}
+			}
+		}
+
 	public int getEmbeddedDetailCount() {
 		return (mEmbeddedDetailMap == null) ? 0 : mEmbeddedDetailMap.size();
 		}
@@ -125,7 +188,13 @@ public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider
 		byte[] data = new byte[(int)file.length()];
 		try {
 			FileInputStream stream = new FileInputStream(file);
-			stream.read(data);
+			int offset = 0;
+			while (offset < data.length) {
+				int n = stream.read(data, offset, data.length-offset);
+				if (n == -1)
+					break;
+				offset += n;
+				}
 			stream.close();
 			}
 		catch (IOException ioe) {
@@ -135,27 +204,105 @@ public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider
 		}
 
 	private void requestDataFromFile(String source, String reference, ReferencedDataConsumer consumer) {
-		if (mFileRequests == null)
-			mFileRequests = new ArrayList<FileRequest>();
-		synchronized(mFileRequests) {
-			mFileRequests.add(new FileRequest(source, reference, consumer));
+		byte[] data = getCache().getFromMemory(getCacheKey(source, reference));
+		if (data != null)
+			consumer.setReferencedData(source, reference, data);
+		else
+			startFetch(source, reference, consumer);
+		}
+
+	private static synchronized DetailCache getCache() {
+		if (sCache == null)
+			sCache = new DetailCache(new File(System.getProperty("user.home"), CACHE_DIRECTORY),
+									 DetailCache.DEFAULT_MEMORY_SIZE, DetailCache.DEFAULT_DISK_SIZE, DetailCache.DEFAULT_MAX_AGE);
+		return sCache;
+		}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			sExecutor = Executors.newFixedThreadPool(FETCH_THREAD_COUNT, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Detail Fetcher");
+					t.setDaemon(true);
+					return t;
+					}
+				});
 			}
-		new Thread(this).run();
+		return sExecutor;
 		}
 
-	public void run() {
-		FileRequest request = null;
-		synchronized(mFileRequests) {
-			request = (FileRequest)mFileRequests.get(0);
-			mFileRequests.remove(0);
+	/**
+	 * Files are cached in memory only and their key contains the modification date,
+	 * such that changed files are loaded again.
+	 * @param source
+	 * @param reference
+	 * @return key identifying the detail in the cache and among pending fetches
+	 */
+	private String getCacheKey(String source, String reference) {
+		if (source.startsWith(URL_RESPONSE))
+			return "url:"+source.substring(URL_RESPONSE.length()).replace("%s", reference);
+
+		String path = getPathFromFileSource(source)+reference;
+		return "file:"+path+"@"+new File(path).lastModified();
+		}
+
+	/**
+	 * Returns the pending fetch for the given detail, if it is already fetched
+	 * because of an earlier request. Otherwise a new fetch is queued.
+	 * Fetches of the same source are limited to MAX_FETCHES_PER_SOURCE concurrent ones.
+	 * @param source
+	 * @param reference
+	 * @param consumer null or consumer to be notified on the event dispatch thread
+	 * @return
+	 */
+	private DetailFetch startFetch(String source, String reference, ReferencedDataConsumer consumer) {
+		String key = getCacheKey(source, reference);
+		DetailFetch fetch;
+		boolean isNew = false;
+		synchronized(sPendingFetchMap) {
+			fetch = sPendingFetchMap.get(key);
+			if (fetch == null) {
+				fetch = new DetailFetch(key, source, reference);
+				sPendingFetchMap.put(key, fetch);
+				isNew = true;
+				}
+			if (consumer != null)
+				fetch.addConsumer(source, reference, consumer);
 			}
-		final byte[] data = getDataFromFile(getPathFromFileSource(request.source)+request.reference);
-		final FileRequest _request = request;
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				_request.consumer.setReferencedData(_request.source, _request.reference, data);
+
+		if (isNew) {
+			synchronized(sSourceQueueMap) {
+				SourceQueue queue = sSourceQueueMap.get(source);
+				if (queue == null) {
+					queue = new SourceQueue();
+					sSourceQueueMap.put(source, queue);
+					}
+				if (queue.runningCount < MAX_FETCHES_PER_SOURCE) {
+					queue.runningCount++;
+					getExecutor().execute(fetch);
+					}
+				else {
+					queue.waitingFetches.add(fetch);
+					}
 				}
-			});
+			}
+
+		return fetch;
+		}
+
+	private void fetchFinished(DetailFetch fetch) {
+		synchronized(sPendingFetchMap) {
+			sPendingFetchMap.remove(fetch.key);
+			}
+		synchronized(sSourceQueueMap) {
+			SourceQueue queue = sSourceQueueMap.get(fetch.source);
+			DetailFetch next = queue.waitingFetches.poll();
+			if (next != null)
+				getExecutor().execute(next);
+			else if (--queue.runningCount == 0)
+				sSourceQueueMap.remove(fetch.source);
+			}
 		}
 
     private String getPathFromFileSource(String source) {
@@ -200,6 +347,12 @@ public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider
 	    if (progressDialog != null)
 	        progressDialog.startProgress("Embedding Detail Data...", 0, oldKey.length);
 
+		// queue all external details at once to fetch them in parallel;
+		// resolveReference() below then just waits for the pending fetches
+		if (!source.equals(EMBEDDED))
+			for (Object key:new TreeSet<Object>(Arrays.asList(oldKey)))
+				startFetch(source, (String)key, null);
+
 	    int detailID = getAvailableEmbeddedDetailID();
 		HashMap<String,String> oldToNewKeyMap = new HashMap<String,String>();
 		HashMap<String,byte[]> detail = new HashMap<String,byte[]>();
@@ -334,26 +487,100 @@ public class CompoundTableDetailHandler implements ResultDetailPopupItemProvider
 		}
 
 	protected void requestURLResponse(final String source, final String url, final String reference, final ReferencedDataConsumer consumer) {
-		new Thread() {
-			@Override
-			public void run() {
-				final byte[] response = getURLResponse(url, reference);
+		byte[] response = getCache().getFromMemory(getCacheKey(source, reference));
+		if (response != null)
+			consumer.setReferencedData(source, reference, response);
+		else
+			startFetch(source, reference, consumer);
+		}
+
+	/**
+	 * A queued or running retrieval of one detail from a file or URL. Multiple requests
+	 * of the same detail share one fetch. Consumers are notified on the event dispatch thread,
+	 * while other threads may wait for the data.
+	 */
+	private class DetailFetch implements Runnable {
+		private String	key,source,reference;
+		private byte[]	data;
+		private boolean	isDone;
+		private ArrayList<DetailRequest> consumerList;
+
+		public DetailFetch(String key, String source, String reference) {
+			this.key = key;
+			this.source = source;
+			this.reference = reference;
+			}
+
+		public void addConsumer(String source, String reference, ReferencedDataConsumer consumer) {
+			if (consumerList == null)
+				consumerList = new ArrayList<DetailRequest>();
+			consumerList.add(new DetailRequest(source, reference, consumer));
+			}
+
+		@Override
+		public void run() {
+			byte[] data = null;
+			try {
+				boolean isURL = source.startsWith(URL_RESPONSE);
+				data = getCache().get(key);
+				if (data == null) {
+					data = isURL ? getURLResponse(source.substring(URL_RESPONSE.length()), reference)
+								 : getDataFromFile(getPathFromFileSource(source)+reference);
+					if (data != null)
+						getCache().put(key, data, isURL);
+					}
+				}
+			finally {
+				// Even if fetching failed, waiting threads and consumers must get their (null) result.
+				// Remove from pending fetches before publishing the result, because
+				// consumers registered from now on get a new fetch.
+				fetchFinished(this);
+				publish(data);
+				}
+			}
+
+		private void publish(byte[] data) {
+			final ArrayList<DetailRequest> consumers;
+			synchronized(sPendingFetchMap) {
+				consumers = consumerList;
+				}
+			synchronized(this) {
+				this.data = data;
+				isDone = true;
+				notifyAll();
+				}
+
+			if (consumers != null) {
+				final byte[] _data = data;
 				SwingUtilities.invokeLater(new Runnable() {
 					public void run() {
-						consumer.setReferencedData(source, reference, response);
+						for (DetailRequest request:consumers)
+							request.consumer.setReferencedData(request.source, request.reference, _data);
 						}
-					} );
+					});
 				}
-			}.start();
+			}
+
+		public synchronized byte[] waitForData() {
+			while (!isDone) {
+				try { wait(); } catch (InterruptedException ie) { return null; }
+				}
+			return data;
+			}
+		}
+
+	private static class SourceQueue {
+		private int runningCount;
+		private ArrayDeque<DetailFetch> waitingFetches = new ArrayDeque<DetailFetch>();
 		}
 	}
 
-class FileRequest {
+class DetailRequest {
 	public String source;
 	public String reference;
 	public ReferencedDataConsumer consumer;
 
-	public FileRequest(String source, String reference, ReferencedDataConsumer consumer) {
+	public DetailRequest(String source, String reference, ReferencedDataConsumer consumer) {
 		this.source = source;
 		this.reference = reference;
 		this.consumer = consumer;
@@ -41,6 +41,7 @@ public class CompoundTableEvent extends EventObject {
 	public static final int cChangeVisibleInView = 13;	// 
 	public static final int cChangeSortOrder = 14;
 	public static final int cChangeActiveRow = 15;
+	public static final int cChangeStructureHighlighting = 16;	// specifier is idcode column, structures need to be drawn again
 
 	public static final int cChangeExtensionData = 21;	// the content data of one of the registered file extensions changed
 
@@ -25,6 +25,7 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -37,7 +38,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
@@ -51,12 +53,13 @@ import com.actelion.research.chem.SmilesParser;
 import com.actelion.research.chem.StereoMolecule;
 import com.actelion.research.chem.descriptor.DescriptorConstants;
 import com.actelion.research.chem.descriptor.DescriptorHandler;
+import com.actelion.research.chem.io.CompoundFileHelper;
 import com.actelion.research.chem.io.CompoundTableConstants;
 import com.actelion.research.chem.io.SDFileParser;
 import com.actelion.research.gui.FileHelper;
 import com.actelion.research.gui.JProgressDialog;
 import com.actelion.research.util.BinaryDecoder;
-import com.actelion.research.util.ByteArrayComparator;
+import com.actelion.research.util.ByteArrayHashTable;
 import com.actelion.research.util.FormatHelper;
 
 public class CompoundTableLoader implements CompoundTableConstants,Runnable {
@@ -82,6 +85,7 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 
 	private static final int PROGRESS_LIMIT = 50000;
 	private static final int PROGRESS_STEP = 200;
+	private static final int PARALLEL_BLOCK_SIZE = 4096;
 
 	private static final String COLUMN_TITLE_ACTELION_NO = "Actelion No";
 	private static final String COLUMN_TITLE_ELN_EXTREF = "ELN/ExtRef";
@@ -187,13 +191,21 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 	public void readFile(File file, RuntimeProperties properties, int dataType, int action) {
 		mFile = file;
 		try {
-			mDataReader = new FileReader(mFile);
+			if (CompoundFileHelper.isGZipFile(mFile.getName()))	// e.g. compressed by CompoundTableSaver
+				mDataReader = new InputStreamReader(new GZIPInputStream(new FileInputStream(mFile), 65536));
+			else
+				mDataReader = new FileReader(mFile);
 			}
 		catch (FileNotFoundException e) {
 			mTableModel.unlock();
 			JOptionPane.showMessageDialog(mParentFrame, "File not found.");
 			return;
 			}
+		catch (IOException e) {
+			mTableModel.unlock();
+			JOptionPane.showMessageDialog(mParentFrame, "IO-Exception during file retrieval.");
+			return;
+			}
 		mDataType = dataType;
 		mAction = action;
 		mWithHeaderLine = true;
@@ -227,7 +239,7 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 	 */
 	public boolean areMergeKeysUnique(String[] keyColumnName, ProgressListener pl) {
 		if (pl != null)
-			pl.startProgress("Sorting new keys...", 0, (mFieldData.length > PROGRESS_LIMIT) ? mFieldData.length : 0);
+			pl.startProgress("Checking new keys...", 0, (mFieldData.length > PROGRESS_LIMIT) ? mFieldData.length : 0);
 
 		int[] keyColumn = new int[keyColumnName.length];
 		for (int i=0; i<keyColumnName.length; i++) {
@@ -239,18 +251,14 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 				}
 			}
 
-		TreeSet<byte[]> newKeySet = new TreeSet<byte[]>(new ByteArrayComparator());
+		ByteArrayHashTable newKeyTable = new ByteArrayHashTable(mFieldData.length);
 		for (int row=0; row<mFieldData.length; row++) {
 			if (pl != null && mFieldData.length > PROGRESS_LIMIT && row%PROGRESS_STEP == 0)
 				pl.updateProgress(row);
 
 			byte[] key = constructMergeKey((Object[])mFieldData[row], keyColumn);
-			if (key != null) {
-				if (newKeySet.contains(key))
-					return false;
-
-				newKeySet.add(key);
-				}
+			if (key != null && newKeyTable.put(key, row) != -1)
+				return false;
 			}
 		return true;
 		}
@@ -263,24 +271,48 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 	 * @return null or row key as byte array
 	 */
 	private byte[] constructMergeKey(Object[] rowData, int[] keyColumn) {
-		int count = keyColumn.length - 1;	// TABs needed
+		byte[][] part = new byte[keyColumn.length][];
+		for (int i=0; i<keyColumn.length; i++)
+			part[i] = (byte[])rowData[keyColumn[i]];
+		return combineKeyParts(part);
+		}
+
+	/**
+	 * Creates the key of an existing table row from the cell bytes of the key columns
+	 * such that it matches the key of a new row with the same content.
+	 * Only descriptor cells need to be encoded.
+	 * @param record
+	 * @param keyColumn key columns of the table model
+	 * @return null or row key as byte array
+	 */
+	private byte[] constructMergeKey(CompoundRecord record, int[] keyColumn) {
+		byte[][] part = new byte[keyColumn.length][];
 		for (int i=0; i<keyColumn.length; i++) {
-			byte[] data = (byte[])rowData[keyColumn[i]];
+			Object data = record.getData(keyColumn[i]);
+			part[i] = (data == null) ? null
+					: (data instanceof byte[]) ? (byte[])data
+					: mTableModel.encodeData(record, keyColumn[i]).getBytes();
+			}
+		return combineKeyParts(part);
+		}
+
+	private byte[] combineKeyParts(byte[][] part) {
+		int count = part.length - 1;	// TABs needed
+		for (byte[] data:part)
 			if (data != null)
 				count += data.length;
-			}
-		if (count == keyColumn.length - 1)
+		if (count == part.length - 1)
 			return null;
 
 		byte[] key = new byte[count];
 		int index = 0;
-		for (int i=0; i<keyColumn.length; i++) {
+		for (int i=0; i<part.length; i++) {
 			if (i != 0)
 				key[index++] = '\t';
-			byte[] data = (byte[])rowData[keyColumn[i]];
-			if (data != null)
-				for (byte b:data)
-					key[index++] = b;
+			if (part[i] != null) {
+				System.arraycopy(part[i], 0, key, index, part[i].length);
+				index += part[i].length;
+				}
 			}
 
 		return key;
@@ -1470,47 +1502,56 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 		}
 
 	private boolean mergeTable() {
-		mProgressController.startProgress("Sorting current keys...", 0, mTableModel.getTotalRowCount());
-
-		TreeMap<String,int[]> currentKeyMap = new TreeMap<String,int[]>();
-
 		// construct key column array from mMergeMode
 		int keyColumns = 0;
 		for (int i=0; i<mMergeMode.length; i++)
 			if (mMergeMode[i] == MERGE_MODE_IS_KEY)
 				keyColumns++;
-		int[] keyColumn = new int[keyColumns];
+		final int[] keyColumn = new int[keyColumns];
+		final int[] keyDestColumn = new int[keyColumns];
 		keyColumns = 0;
-		for (int i=0; i<mMergeMode.length; i++)
-			if (mMergeMode[i] == MERGE_MODE_IS_KEY)
+		for (int i=0; i<mMergeMode.length; i++) {
+			if (mMergeMode[i] == MERGE_MODE_IS_KEY) {
+				keyDestColumn[keyColumns] = mMergeDestColumn[i];
 				keyColumn[keyColumns++] = i;
+				}
+			}
 
-		for (int row=0; row<mTableModel.getTotalRowCount(); row++) {
-			if (mProgressController.threadMustDie())
-				break;
-			if (row % PROGRESS_STEP == 0)
-				mProgressController.updateProgress(row);
-
-			// create combined key from all key columns
-			String key = mTableModel.getTotalValueAt(row, mMergeDestColumn[keyColumn[0]]);
-			for (int i=1; i<keyColumns; i++)
-				key = key.concat("\t").concat(mTableModel.getTotalValueAt(row, mMergeDestColumn[keyColumn[i]]));
-
-			if (key != null && key.length() != 0) {
-				int[] rowList = currentKeyMap.get(key);
-				if (rowList == null) {
-					rowList = new int[1];
-					rowList[0] = row;
+		// Merging is done as hash join: Keys of current rows are built from the cell bytes
+		// and are put into a hash table, which maps them to the first row with that key.
+		// Further rows with the same key are chained by nextRow. Then the keys of the new rows
+		// are looked up in parallel and finally all merge modes are applied column by column.
+		mProgressController.startProgress("Indexing current keys...", 0, 0);
+
+		final int currentRowCount = mTableModel.getTotalRowCount();
+		final byte[][] currentKey = new byte[currentRowCount][];
+		final long[] currentHash = new long[2*currentRowCount];
+		runParallel(currentRowCount, new RowTask() {
+			public void process(int row, long[] hash) {
+				byte[] key = constructMergeKey(mTableModel.getTotalRecord(row), keyDestColumn);
+				if (key != null) {
+					ByteArrayHashTable.hash128(key, hash);
+					currentKey[row] = key;
+					currentHash[2*row] = hash[0];
+					currentHash[2*row+1] = hash[1];
+					}
+				}
+			});
+
+		final ByteArrayHashTable currentKeyTable = new ByteArrayHashTable(currentRowCount);
+		int[] nextRow = new int[currentRowCount];
+		int[] lastRow = new int[currentRowCount];
+		for (int row=0; row<currentRowCount; row++) {
+			nextRow[row] = -1;
+			if (currentKey[row] != null) {
+				int firstRow = currentKeyTable.put(currentKey[row], currentHash[2*row], currentHash[2*row+1], row);
+				if (firstRow == -1) {
+					lastRow[row] = row;
 					}
 				else {
-					int[] oldRowList = rowList;
-					rowList = new int[oldRowList.length+1];
-					int i=0;
-					for (int oldRow:oldRowList)
-						rowList[i++] = oldRow;
-					rowList[i] = row;
+					nextRow[lastRow[firstRow]] = row;
+					lastRow[firstRow] = row;
 					}
-				currentKeyMap.put(key, rowList);
 				}
 			}
 
@@ -1519,11 +1560,41 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 			return true;
 			}
 
+		mProgressController.startProgress("Matching new keys...", 0, 0);
+
+		// the key table's get() is read-only and, thus, may be called concurrently
+		final int[] firstDestRow = new int[mFieldData.length];
+		runParallel(mFieldData.length, new RowTask() {
+			public void process(int row, long[] hash) {
+				firstDestRow[row] = -1;
+				byte[] key = constructMergeKey(mFieldData[row], keyColumn);
+				if (key != null) {
+					ByteArrayHashTable.hash128(key, hash);
+					firstDestRow[row] = currentKeyTable.get(key, hash[0], hash[1]);
+					}
+				}
+			});
+
 		if (mProgressController.threadMustDie()) {
 			clearBufferedData();
 			return true;
 			}
 
+		int mergedRowCount = 0;
+		int[][] destRowList = new int[mFieldData.length][];
+		for (int row=0; row<mFieldData.length; row++) {
+			if (firstDestRow[row] != -1) {
+				int count = 0;
+				for (int destRow=firstDestRow[row]; destRow!=-1; destRow=nextRow[destRow])
+					count++;
+				destRowList[row] = new int[count];
+				count = 0;
+				for (int destRow=firstDestRow[row]; destRow!=-1; destRow=nextRow[destRow])
+					destRowList[row][count++] = destRow;
+				mergedRowCount++;
+				}
+			}
+
 		int[][] destRowMap = null;
 		if (mHitlists != null)
 			destRowMap = new int[mFieldData.length][];
@@ -1538,8 +1609,6 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 
 		mFirstNewColumn = mTableModel.getTotalColumnCount();
 		if (newColumns != 0) {
-			mProgressController.startProgress("Merging data...", 0, mFieldData.length);
-
 			String[] columnName = new String[newColumns];
 			newColumns = 0;
 			for (int i=0; i<mMergeDestColumn.length; i++)
@@ -1552,57 +1621,61 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 					mMergeDestColumn[i] = destinationColumn++;
 			}
 
-		int mergedColumns = 0;
-		for (int row=0; row<mFieldData.length; row++) {
-			if (mProgressController.threadMustDie())
-				break;
-			if (row % PROGRESS_STEP == 0)
-				mProgressController.updateProgress(row);
+		// As new keys are unique, every current row is updated from one new row at most.
+		// Thus, merge modes can be applied column by column, provided that child columns
+		// with merge mode MERGE_MODE_AS_PARENT are handled before their parent columns.
+		mProgressController.startProgress("Merging data...", 0, mMergeDestColumn.length);
+		for (int pass=0; pass<2; pass++) {
+			for (int column=0; column<mMergeDestColumn.length; column++) {
+				if (mProgressController.threadMustDie())
+					break;
+				if (pass == 1)
+					mProgressController.updateProgress(column);
 
-			byte[] key = constructMergeKey(mFieldData[row], keyColumn);
-			if (key != null) {
-				int[] rowList = currentKeyMap.get(new String(key));
-				if (rowList != null) {
-					for (int destRow:rowList) {
-						// In case we have child columns with merge mode MERGE_MODE_AS_PARENT, we need to handle them first.
-						for (int column=0; column<mMergeDestColumn.length; column++) {
-							if (mMergeDestColumn[column] != NO_COLUMN) {
-								if (mMergeMode[column] == MERGE_MODE_AS_PARENT) {
-									int parentColumn = getSourceColumn(getParentColumnName(mFieldNames[column]));
-									if (mTableModel.getTotalRecord(destRow).getData(mMergeDestColumn[parentColumn]) == null)
-										mTableModel.setTotalDataAt(mFieldData[row][column], destRow, mMergeDestColumn[column]);
-									}
-								}
-							}
-						for (int column=0; column<mMergeDestColumn.length; column++) {
-							if (mMergeDestColumn[column] != NO_COLUMN) {
-								switch (mMergeMode[column]) {
-								case MERGE_MODE_APPEND:
-									mTableModel.appendTotalDataAt((byte[])mFieldData[row][column], destRow, mMergeDestColumn[column]);
-									break;
-								case MERGE_MODE_REPLACE:
-									mTableModel.setTotalDataAt(mFieldData[row][column], destRow, mMergeDestColumn[column]);
-									break;
-								case MERGE_MODE_USE_IF_EMPTY:
-									if (mTableModel.getTotalRecord(destRow).getData(mMergeDestColumn[column]) == null)
-										mTableModel.setTotalDataAt(mFieldData[row][column], destRow, mMergeDestColumn[column]);
-									break;
-								default:	// merge key don't require handling and child column merging was handled before
-									break;
-									}
+				if (mMergeDestColumn[column] == NO_COLUMN
+				 || (pass == 0) ^ (mMergeMode[column] == MERGE_MODE_AS_PARENT))
+					continue;
+
+				int destColumn = mMergeDestColumn[column];
+				int parentDestColumn = (pass == 0) ?
+						mMergeDestColumn[getSourceColumn(getParentColumnName(mFieldNames[column]))] : -1;
+				for (int row=0; row<mFieldData.length; row++) {
+					if (destRowList[row] != null) {
+						Object data = mFieldData[row][column];
+						for (int destRow:destRowList[row]) {
+							switch (mMergeMode[column]) {
+							case MERGE_MODE_AS_PARENT:
+								if (mTableModel.getTotalRecord(destRow).getData(parentDestColumn) == null)
+									mTableModel.setTotalDataAt(data, destRow, destColumn);
+								break;
+							case MERGE_MODE_APPEND:
+								mTableModel.appendTotalDataAt((byte[])data, destRow, destColumn);
+								break;
+							case MERGE_MODE_REPLACE:
+								mTableModel.setTotalDataAt(data, destRow, destColumn);
+								break;
+							case MERGE_MODE_USE_IF_EMPTY:
+								if (mTableModel.getTotalRecord(destRow).getData(destColumn) == null)
+									mTableModel.setTotalDataAt(data, destRow, destColumn);
+								break;
+							default:	// merge keys don't require handling
+								break;
 								}
 							}
 						}
-
-					if (destRowMap != null)
-						destRowMap[row] = rowList;
-	
-					mFieldData[row] = null;
-					mergedColumns++;
 					}
 				}
 			}
 
+		for (int row=0; row<mFieldData.length; row++) {
+			if (destRowList[row] != null) {
+				if (destRowMap != null)
+					destRowMap[row] = destRowList[row];
+
+				mFieldData[row] = null;
+				}
+			}
+
 		if (newColumns != 0) {
 			setColumnProperties(mMergeDestColumn);
 
@@ -1615,7 +1688,7 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 			}
 
 		final int existingRowCount = mTableModel.getTotalRowCount();
-		final int additionalRowCount = mFieldData.length - mergedColumns;
+		final int additionalRowCount = mFieldData.length - mergedRowCount;
 		if (mAppendRest && additionalRowCount > 0) {
 
 			mTableModel.addNewRows(additionalRowCount);
@@ -1704,6 +1777,44 @@ public class CompoundTableLoader implements CompoundTableConstants,Runnable {
 			}
 		}
 
+	/**
+	 * Processes rows 0...rowCount-1 in blocks on all available cores.
+	 * Tasks must not modify the table model.
+	 * @param rowCount
+	 * @param task
+	 */
+	private void runParallel(final int rowCount, final RowTask task) {
+		final int blockCount = (rowCount + PARALLEL_BLOCK_SIZE - 1) / PARALLEL_BLOCK_SIZE;
+		final AtomicInteger nextBlock = new AtomicInteger();
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), blockCount);
+		Thread[] worker = new Thread[Math.max(1, threadCount)];
+		for (int i=0; i<worker.length; i++) {
+			worker[i] = new Thread("Merge Key Worker "+(i+1)) {
+				public void run() {
+					long[] hash = new long[2];
+					int block = nextBlock.getAndIncrement();
+					while (block < blockCount && !mProgressController.threadMustDie()) {
+						int end = Math.min(rowCount, (block+1)*PARALLEL_BLOCK_SIZE);
+						for (int row=block*PARALLEL_BLOCK_SIZE; row<end; row++)
+							task.process(row, hash);
+						block = nextBlock.getAndIncrement();
+						}
+					}
+				};
+			worker[i].start();
+			}
+		for (Thread t:worker)
+			try { t.join(); } catch (InterruptedException ie) {}
+		}
+
+	private interface RowTask {
+		/**
+		 * @param row
+		 * @param hash thread specific buffer for hash128()
+		 */
+		public void process(int row, long[] hash);
+		}
+
 	private int getSourceColumn(String columnName) {
 		for (int j=0; j<mFieldNames.length; j++)
 			if (columnName.equals(mFieldNames[j]))
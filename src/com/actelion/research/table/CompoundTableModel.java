@@ -18,13 +18,13 @@
 
 package com.actelion.research.table;
 
+import java.beans.ExceptionListener;
 import java.io.File;
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,6 +34,8 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.SwingUtilities;
 import javax.swing.event.TableModelEvent;
@@ -92,6 +94,9 @@ public class CompoundTableModel extends AbstractTableModel
 
 	private CompoundTableHitlistHandler mHitlistHandler;
 	private CompoundTableDetailHandler  mDetailHandler;
+	private static final int SSS_BLOCK_SIZE = 4096;
+	private static final long SSS_PUBLISH_MILLIS = 250;
+
 	private CompoundTableExtensionHandler  mExtensionHandler;
 	private ArrayList<ProgressListener> mProgressListener;
 	private ArrayList<CompoundTableListener> mCompoundTableListener;
@@ -107,12 +112,14 @@ public class CompoundTableModel extends AbstractTableModel
 	private int[]				mDisplayableColumnToColumn,mColumnToDisplayableColumn;
 	private String				mParseDoubleModifier;
 	private float[]				mSimilarityListSMP;
+	private volatile int[]		mRecordIDToRow;
 	private CompoundTableColumnInfo[] mColumnInfo;
 	private volatile boolean	mSMPProcessWaiting,mSMPStopDescriptorCalculation;
 	private AtomicInteger		mSMPRecordIndex,mSMPWorkingThreads,mSSSRecordIndex;
 	private DescriptorColumnSpec[] mSMPColumnSpec;
 	private int					mSMPErrorCount;
 	private AtomicBoolean		mLock;
+	private final AtomicIntegerArray mExclusionGeneration = new AtomicIntegerArray(64);
 
 	/**
 	 * This is the single point of assigning DescriptorHandlers to shortNames and, thus, defines
@@ -272,6 +279,7 @@ public class CompoundTableModel extends AbstractTableModel
 
 		mRecord = new CompoundRecord[rows];
 		mNonExcludedRecord = new CompoundRecord[rows];
+		mRecordIDToRow = null;
 		for (int i=0; i<rows; i++)
 			mRecord[i] = new CompoundRecord(i, columns);
 
@@ -1023,6 +1031,43 @@ public class CompoundTableModel extends AbstractTableModel
 		return mNonExcludedRecord[row];
 		}
 
+	/**
+	 * Returns the current row of a visible record. The row index of all records is
+	 * determined once after every change of sorting or visibility, such that
+	 * subsequent calls take constant time.
+	 * @param record
+	 * @return row index of the record or -1, if the record is not visible
+	 */
+	public int getRowIndex(CompoundRecord record) {
+		int row = getCachedRowIndex(record);
+		if (row == -2) {
+			int[] recordIDToRow = new int[mRecords];
+			Arrays.fill(recordIDToRow, -1);
+			for (int i=0; i<mNonExcludedRecords; i++) {
+				int id = mNonExcludedRecord[i].getID();
+				if (id >= 0 && id < recordIDToRow.length)
+					recordIDToRow[id] = i;
+				}
+			mRecordIDToRow = recordIDToRow;
+			row = Math.max(-1, getCachedRowIndex(record));
+			}
+		return row;
+		}
+
+	/**
+	 * @return row index, -1 if not visible, or -2 if the row index map needs to be built
+	 */
+	private int getCachedRowIndex(CompoundRecord record) {
+		int[] recordIDToRow = mRecordIDToRow;
+		int id = record.getID();
+		if (recordIDToRow == null || id < 0 || id >= recordIDToRow.length)
+			return -2;
+		int row = recordIDToRow[id];
+		if (row == -1)
+			return -1;
+		return (row < mNonExcludedRecords && mNonExcludedRecord[row] == record) ? row : -2;
+		}
+
 	public CompoundRecord getTotalRecord(int row) {
 		return mRecord[row];
 		}
@@ -1255,6 +1300,18 @@ public class CompoundTableModel extends AbstractTableModel
 			}
 		}
 
+	/**
+	 * Informs all views that the atom highlighting of the column's structures has changed,
+	 * e.g. because highlighting calculated in the background has become available.
+	 * Unlike changing the column data this doesn't cause any recalculation.
+	 * @param column total column index of an idcode column
+	 */
+	public void fireStructureHighlightingChanged(int column) {
+		if (column < mColumns)
+			fireEvents(new CompoundTableEvent(this, CompoundTableEvent.cChangeStructureHighlighting, column),
+					   new TableModelEvent(this, 0, mNonExcludedRecords-1, mColumnToDisplayableColumn[column], TableModelEvent.UPDATE));
+		}
+
 	/**
 	 * Sets the hilite mode for structure columns, which determines whether and how
 	 * parts of a molecule are highlighted depending on the molecule of the current row.
@@ -1359,6 +1416,7 @@ public class CompoundTableModel extends AbstractTableModel
 		for (int row=0; row<mNonExcludedRecords; row++)
 			nonExcludedRecord[row] = mNonExcludedRecord[row];
 		mNonExcludedRecord = nonExcludedRecord;
+		mRecordIDToRow = null;
 		}
 
 	/**
@@ -2009,21 +2067,38 @@ public class CompoundTableModel extends AbstractTableModel
 			}
 		}
 
-	public synchronized void sort(int column, boolean descending, boolean selectedFirst) {
+	public void sort(int column, boolean descending, boolean selectedFirst) {
+		sort(new int[] {column}, new boolean[] {descending}, selectedFirst);
+		}
+
+	/**
+	 * Sorts all rows by the given columns. Rows with equal values in the first column
+	 * are sorted by the second column, and so on. Rows that cannot be distinguished
+	 * by any of the columns keep their current order.
+	 * @param column sort columns in order of priority
+	 * @param descending sort direction for every column
+	 * @param selectedFirst whether selected rows shall be moved to the top
+	 */
+	public synchronized void sort(int[] column, boolean[] descending, boolean selectedFirst) {
 		boolean calculateDescriptors = (mSMPWorkingThreads != null);
 		if (calculateDescriptors)
 			stopDescriptorCalculation();
 
-		String specialType = getColumnSpecialType(column);
-		if (cColumnTypeIDCode.equals(specialType))
-			Arrays.sort(mRecord, new IDCodeComparator(column, descending, selectedFirst));
-		else if (mColumnInfo[column].type == cColumnTypeRangeCategory
-		 || (mColumnInfo[column].type & cColumnTypeDouble) != 0)
-			Arrays.sort(mRecord, new DoubleComparator(column, descending, selectedFirst));
-		else
-			Arrays.sort(mRecord, new StringComparator(column, descending, selectedFirst));
+		int[] type = new int[column.length];
+		for (int i=0; i<column.length; i++) {
+			if (cColumnTypeIDCode.equals(getColumnSpecialType(column[i])))
+				type[i] = CompoundRecordSorter.TYPE_IDCODE;
+			else if (mColumnInfo[column[i]].type == cColumnTypeRangeCategory
+			 || (mColumnInfo[column[i]].type & cColumnTypeDouble) != 0)
+				type[i] = CompoundRecordSorter.TYPE_DOUBLE;
+			else
+				type[i] = CompoundRecordSorter.TYPE_STRING;
+			}
 
-		mLastSortColumn = descending ? -1 : column;
+		CompoundRecord[] sortedRecord = new CompoundRecordSorter(mRecord, mRecord.length, column, type, descending, selectedFirst).sort();
+		System.arraycopy(sortedRecord, 0, mRecord, 0, sortedRecord.length);
+
+		mLastSortColumn = descending[0] ? -1 : column[0];
 
 		compileVisibleRecords();
 
@@ -2281,6 +2356,7 @@ public class CompoundTableModel extends AbstractTableModel
 		}
 
 	public void clearCompoundFlag(int flagNo) {
+		cancelAsyncExclusion(flagNo);
 		long mask = convertCompoundFlagToMask(flagNo);
 		if ((mDirtyCompoundFlags & mask) != 0) {
 			for (int row=0; row<mRecords; row++)
@@ -2482,6 +2558,7 @@ public class CompoundTableModel extends AbstractTableModel
 	 * @param inverse
 	 */
 	public void setSubStructureExclusion(final int exclusionFlagNo, final int idcodeColumn, final StereoMolecule[] fragment, final boolean inverse) {
+		cancelAsyncExclusion(exclusionFlagNo);
 		int threadCount = Runtime.getRuntime().availableProcessors();
 		mSSSRecordIndex = new AtomicInteger(mRecord.length*fragment.length);
 
@@ -2542,10 +2619,181 @@ public class CompoundTableModel extends AbstractTableModel
 		updateVisibleRecords(false, exclusionFlagNo);
 		}
 
+	/**
+	 * Asynchronous version of setSubStructureExclusion(), which must be called from the
+	 * event dispatch thread and returns immediately. Rows are matched in blocks on all cores.
+	 * While the matching is in progress, the flags of completed row blocks are published
+	 * in regular intervals with isAdjusting=true. The flags of all remaining rows are committed
+	 * in one step on the event dispatch thread, once all rows are matched.
+	 * Any subsequent change of the exclusion flag, e.g. by a new call of this method,
+	 * cancels the matching immediately and discards all results not published yet.
+	 * If the matching fails on any thread, all threads stop, the exclusion flag is cleared,
+	 * such that no partially applied filter remains, and failureListener is notified
+	 * on the event dispatch thread.
+	 * @param exclusionFlagNo no of allocated filter flag
+	 * @param idcodeColumn
+	 * @param fragment
+	 * @param inverse
+	 * @param failureListener null or listener to be informed about a failed matching
+	 */
+	public void setSubStructureExclusionAsync(final int exclusionFlagNo, final int idcodeColumn, final StereoMolecule[] fragment,
+											  final boolean inverse, final ExceptionListener failureListener) {
+		final int generation = cancelAsyncExclusion(exclusionFlagNo);
+		final CompoundRecord[] record = new CompoundRecord[mRecords];
+		System.arraycopy(mRecord, 0, record, 0, mRecords);
+
+		final int fingerprintColumn = getChildColumn(idcodeColumn, DESCRIPTOR_FFP512.shortName);
+
+		// These fragments instances are read my multiple threads simultaneously.
+		// To prevent collision we must calculate all helper arrays in advance
+		for (StereoMolecule f:fragment)
+			f.ensureHelperArrays(Molecule.cHelperParities);
+
+		final int blockCount = (record.length + SSS_BLOCK_SIZE - 1) / SSS_BLOCK_SIZE;
+		final boolean[] isMatch = new boolean[record.length];
+		final AtomicIntegerArray isBlockDone = new AtomicIntegerArray(blockCount);	// volatile write publishes isMatch of block
+		final boolean[] isBlockPublished = new boolean[blockCount];	// accessed from event dispatch thread only
+		final AtomicInteger nextBlock = new AtomicInteger(0);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		new Thread("SSS-Supervisor") {
+			public void run() {
+				int threadCount = Math.min(blockCount, Runtime.getRuntime().availableProcessors());
+				Thread[] worker = new Thread[threadCount];
+				for (int i=0; i<threadCount; i++) {
+					worker[i] = new Thread("SSS-Matcher "+(i+1)) {
+						public void run() {
+							try {
+								match();
+								}
+							catch (Throwable t) {
+								failure.compareAndSet(null, t);
+								}
+							}
+
+						private void match() {
+							SSSearcherWithIndex[] searcher = new SSSearcherWithIndex[fragment.length];
+							for (int j=0; j<fragment.length; j++) {
+								searcher[j] = new SSSearcherWithIndex();
+								searcher[j].setFragment(fragment[j], null);
+								}
+
+							int block = nextBlock.getAndIncrement();
+							while (block < blockCount && failure.get() == null) {
+								int end = Math.min(record.length, (block+1)*SSS_BLOCK_SIZE);
+								for (int row=block*SSS_BLOCK_SIZE; row<end; row++) {
+									if (mExclusionGeneration.get(exclusionFlagNo) != generation)
+										return;
+
+									byte[] idcode = (byte[])record[row].getData(idcodeColumn);
+									if (idcode != null) {
+										int[] index = (int[])record[row].getData(fingerprintColumn);
+										for (int j=0; j<fragment.length; j++) {
+											searcher[j].setMolecule(idcode, index);
+											if (searcher[j].isFragmentInMolecule()) {
+												isMatch[row] = true;
+												break;
+												}
+											}
+										}
+									}
+								isBlockDone.set(block, 1);
+								block = nextBlock.getAndIncrement();
+								}
+							}
+						};
+					worker[i].setPriority(Thread.MIN_PRIORITY);
+					worker[i].start();
+					}
+
+				for (Thread t:worker) {
+					while (t.isAlive()) {
+						try { t.join(SSS_PUBLISH_MILLIS); } catch (InterruptedException e) {}
+						if (mExclusionGeneration.get(exclusionFlagNo) != generation)
+							return;
+						if (t.isAlive() && failure.get() == null)
+							publishSubStructureExclusion(exclusionFlagNo, generation, record, isMatch,
+														 isBlockDone, isBlockPublished, inverse, false);
+						}
+					}
+
+				if (failure.get() != null)
+					abortSubStructureExclusion(exclusionFlagNo, generation, failure.get(), failureListener);
+				else
+					publishSubStructureExclusion(exclusionFlagNo, generation, record, isMatch,
+												 isBlockDone, isBlockPublished, inverse, true);
+				}
+			}.start();
+		}
+
+	/**
+	 * Resets the exclusion flag after a failed asynchronous matching, unless the flag
+	 * was changed in the meantime, and informs the failureListener.
+	 */
+	private void abortSubStructureExclusion(final int exclusionFlagNo, final int generation,
+											final Throwable failure, final ExceptionListener failureListener) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (mExclusionGeneration.get(exclusionFlagNo) != generation)
+					return;
+
+				clearCompoundFlag(exclusionFlagNo);
+				if (failureListener == null)
+					failure.printStackTrace();
+				else
+					failureListener.exceptionThrown((failure instanceof Exception) ?
+							(Exception)failure : new RuntimeException(failure));
+				}
+			});
+		}
+
+	private void publishSubStructureExclusion(final int exclusionFlagNo, final int generation,
+											  final CompoundRecord[] record, final boolean[] isMatch,
+											  final AtomicIntegerArray isBlockDone, final boolean[] isBlockPublished,
+											  final boolean inverse, final boolean isFinal) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (mExclusionGeneration.get(exclusionFlagNo) != generation)
+					return;
+
+				long mask = convertCompoundFlagToMask(exclusionFlagNo);
+				boolean changed = false;
+				for (int block=0; block<isBlockPublished.length; block++) {
+					if (!isBlockPublished[block] && isBlockDone.get(block) != 0) {
+						int end = Math.min(record.length, (block+1)*SSS_BLOCK_SIZE);
+						for (int row=block*SSS_BLOCK_SIZE; row<end; row++) {
+							if (isMatch[row] ^ inverse)
+								record[row].mFlags &= ~mask;
+							else
+								record[row].mFlags |= mask;
+							}
+						isBlockPublished[block] = true;
+						changed = true;
+						}
+					}
+
+				if (changed || isFinal) {
+					mDirtyCompoundFlags |= mask;
+					updateVisibleRecords(!isFinal, exclusionFlagNo);
+					}
+				}
+			});
+		}
+
+	/**
+	 * Invalidates any asynchronous update of the given exclusion flag that is still in progress.
+	 * @param flagNo
+	 * @return the new generation of the exclusion flag
+	 */
+	private int cancelAsyncExclusion(int flagNo) {
+		return (flagNo == -1) ? 0 : mExclusionGeneration.incrementAndGet(flagNo);
+		}
+
 	public void setSimilarityExclusion(int exclusionFlagNo, int descriptorColumn,
 									   StereoMolecule[] molecule,
 									   float[][] similarity, float minSimilarity,
 									   boolean inverse, boolean isAdjusting) {
+		cancelAsyncExclusion(exclusionFlagNo);
 		long mask = convertCompoundFlagToMask(exclusionFlagNo);
 		for (int row=0; row<mRecords; row++) {
 			Object descriptor = mRecord[row].getData(descriptorColumn);
@@ -3699,6 +3947,7 @@ public class CompoundTableModel extends AbstractTableModel
 				mNonExcludedRecord[mNonExcludedRecords++] = mRecord[row];
 				}
 			}
+		mRecordIDToRow = null;
 		}
 
 	/**
@@ -4206,116 +4455,6 @@ class DescriptorCacheEntry {
 		}
 	}
 
-class DoubleComparator implements Comparator<CompoundRecord> {
-	private int mColumn;
-	private boolean mInverse,mSelectedFirst;
-
-	public DoubleComparator(int column, boolean inverse, boolean selectedFirst) {
-		mColumn = column;
-		mInverse = inverse;
-		mSelectedFirst = selectedFirst;
-		}
-
-	public int compare(CompoundRecord o1, CompoundRecord o2) {
-		if (mSelectedFirst && (o1.isSelected() != o2.isSelected()))
-			return o1.isSelected() ? -1 : 1;
-		float d1 = o1.mFloat[mColumn];
-		float d2 = o2.mFloat[mColumn];
-		if (Float.isNaN(d1))
-			return (Float.isNaN(d2)) ? 0 : 1;
-		if (Float.isNaN(d2))
-			return -1;
-		int comparison = (d1 < d2) ? -1 : (d1 == d2) ? 0 : 1;
-		return (mInverse) ? -comparison : comparison;
-		}
-	}
-
-class StringComparator implements Comparator<CompoundRecord> {
-	private int mColumn;
-	private boolean mInverse,mSelectedFirst;
-
-	public StringComparator(int column, boolean inverse, boolean selectedFirst) {
-		mColumn = column;
-		mInverse = inverse;
-		mSelectedFirst = selectedFirst;
-		}
-
-	public int compare(CompoundRecord o1, CompoundRecord o2) {
-		if (mSelectedFirst && (o1.isSelected() != o2.isSelected()))
-			return o1.isSelected() ? -1 : 1;
-		byte[] s1 = (byte[])o1.getData(mColumn);
-		byte[] s2 = (byte[])o2.getData(mColumn);
-		if (s1 == null)
-			return (s2 == null) ? 0 : 1;
-		if (s2 == null)
-			return -1;
-		int comparison = compare(s1, s2);
-		return (mInverse) ? -comparison : comparison;
-		}
-
-	private int compare(byte[] s1, byte[] s2) {
-		for (int i=0; i<s1.length; i++) {
-			if (s2.length == i)
-				return 1;
-			if (s1[i] != s2[i])
-				return (s1[i] < s2[i]) ? -1 : 1;
-			}
-		return (s2.length > s1.length) ? -1 : 0;
-		}
-	}
-
-class IDCodeComparator implements Comparator<CompoundRecord> {
-	private int mColumn;
-	private boolean mInverse,mSelectedFirst;
-	private IDCodeParser mParser;
-
-	public IDCodeComparator(int column, boolean inverse, boolean selectedFirst) {
-		mColumn = column;
-		mInverse = inverse;
-		mSelectedFirst = selectedFirst;
-		mParser = new IDCodeParser(false);
-		}
-
-	public int compare(CompoundRecord o1, CompoundRecord o2) {
-		byte[] s1 = (byte[])o1.getData(mColumn);
-		byte[] s2 = (byte[])o2.getData(mColumn);
-		if (mSelectedFirst && (o1.isSelected() != o2.isSelected()))
-			return o1.isSelected() ? -1 : 1;
-		if (s1 == null)
-			return (s2 == null) ? 0 : 1;
-		if (s2 == null)
-			return -1;
-		int a1 = getAtomCount(s1);
-		int a2 = getAtomCount(s2);
-		int comparison = (a1 < a2) ? -1 : (a1 == a2) ? compare(s1, s2) : 1;
-		return (mInverse) ? -comparison : comparison;
-		}
-
-	private int getAtomCount(byte[] idcode) {
-		int atomCount = 0;
-		int index = 0;
-		while (index < idcode.length) {
-			atomCount += mParser.getAtomCount(idcode, index);
-			while (index<idcode.length && idcode[index] != '\n')
-				index++;
-			index++;
-			}
-
-			// put valid idcodes with 0 atoms at the end of the list
-		return (atomCount == 0) ? Integer.MAX_VALUE : atomCount;
-		}
-
-	private int compare(byte[] s1, byte[] s2) {
-		for (int i=0; i<s1.length; i++) {
-			if (s2.length == i)
-				return 1;
-			if (s1[i] != s2[i])
-				return (s1[i] < s2[i]) ? -1 : 1;
-			}
-		return (s2.length > s1.length) ? -1 : 0;
-		}
-	}
-
 class EntryAnalysis {
 	// The first modifier of any type is the default one if multiple modifiers
 	// of the same type are merged, e.g. for mean generation.
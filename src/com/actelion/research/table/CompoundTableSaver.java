@@ -22,15 +22,22 @@ import java.awt.Frame;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTable;
@@ -39,6 +46,8 @@ import com.actelion.research.chem.IDCodeParser;
 import com.actelion.research.chem.MolfileCreator;
 import com.actelion.research.chem.MolfileV3Creator;
 import com.actelion.research.chem.StereoMolecule;
+import com.actelion.research.chem.descriptor.DescriptorHandler;
+import com.actelion.research.chem.io.CompoundFileHelper;
 import com.actelion.research.chem.io.CompoundTableConstants;
 import com.actelion.research.gui.FileHelper;
 import com.actelion.research.gui.JProgressDialog;
@@ -48,12 +57,21 @@ import com.actelion.research.util.BinaryEncoder;
 public class CompoundTableSaver implements CompoundTableConstants,Runnable {
     public static final String cCurrentFileVersion = "3.1";
 
+    private static final int ROWS_PER_BLOCK = 512;
+    private static final int MAX_PENDING_BLOCKS_PER_THREAD = 4;
+    private static final byte[] SD_RECORD_END = "$$$$".getBytes();
+
     private JTable				mTable;
 	private CompoundTableModel	mTableModel;
 	private JProgressDialog     mProgressDialog;
 	private Frame   			mParentFrame;
     private File                mFile;
 	private Writer              mDataWriter;
+	private OutputStream        mDataStream;
+	private FileChannel         mDataChannel;
+	private byte[]              mLineSeparator;
+	private int[]               mRecordColumn;
+	private boolean[]           mIsTabAfterColumn;
 	private int                 mDataType,mSDColumnStructure,mSDColumnIdentifier,
                                 mSDColumn2DCoordinates,mSDColumn3DCoordinates;
 	private boolean             mVisibleOnly,mToClipboard,mEmbedDetails,mPrefer3D;
@@ -239,10 +257,21 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 	 * @param file a valid file with proper write privileges
 	 */
 	public void saveText(File file) {
+		saveText(file, false);
+		}
+
+	/**
+	 * Exports the associated tableModel's data into a TAB delimited text file without asking any questions.
+	 * Before returning this method calls finalStatus(File file) with file=null if it couldn't be successfully written.
+	 * Error checking should be done before calling this function.
+	 * @param file a valid file with proper write privileges; if the name ends with '.gz', the file is compressed
+	 * @param visibleOnly if true, then only visible records are written
+	 */
+	public void saveText(File file, boolean visibleOnly) {
 		mRuntimeProperties = null;
 		mDataType = FileHelper.cFileTypeTextTabDelimited;
 		mFile = file;
-		mVisibleOnly = false;
+		mVisibleOnly = visibleOnly;
 		mEmbedDetails = false;
 		
 		saveFile();
@@ -253,14 +282,29 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 	 * Before returning this method calls finalStatus(File file) with file=null if it couldn't be successfully written.
 	 * Error checking should be done before calling this function.
 	 * @param file a valid file with proper write privileges
-	 * @param visibleOnly if true, then only visible records are written
-	 * @param embedDetails if true, referenced detail information is retrieved and embedded in the file
+	 * @param fileType FileHelper.cFileTypeSDV2 or FileHelper.cFileTypeSDV3
+	 * @param structureColumn -1 or idcode column
+	 * @param prefer3DCoords
 	 */
 	public void saveSDFile(File file, int fileType, int structureColumn, boolean prefer3DCoords) {
+		saveSDFile(file, fileType, structureColumn, prefer3DCoords, false);
+		}
+
+	/**
+	 * Exports the associated tableModel's data into an SD-file without asking any questions.
+	 * Before returning this method calls finalStatus(File file) with file=null if it couldn't be successfully written.
+	 * Error checking should be done before calling this function.
+	 * @param file a valid file with proper write privileges; if the name ends with '.gz', the file is compressed
+	 * @param fileType FileHelper.cFileTypeSDV2 or FileHelper.cFileTypeSDV3
+	 * @param structureColumn -1 or idcode column
+	 * @param prefer3DCoords
+	 * @param visibleOnly if true, then only visible records are written
+	 */
+	public void saveSDFile(File file, int fileType, int structureColumn, boolean prefer3DCoords, boolean visibleOnly) {
 		mRuntimeProperties = null;
 		mDataType = fileType;
 		mFile = file;
-		mVisibleOnly = false;
+		mVisibleOnly = visibleOnly;
 		mEmbedDetails = false;
 
         mSDColumnStructure = structureColumn;
@@ -299,7 +343,16 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 
 	private void saveFile() {
 		try {
-			mDataWriter = new FileWriter(mFile);
+			FileOutputStream fileStream = new FileOutputStream(mFile);
+			if (CompoundFileHelper.isGZipFile(mFile.getName())) {
+				mDataStream = new GZIPOutputStream(fileStream, 65536);
+				mDataChannel = null;
+				}
+			else {
+				mDataStream = fileStream;
+				mDataChannel = fileStream.getChannel();
+				}
+			mDataWriter = new OutputStreamWriter(mDataStream);
 			mToClipboard = false;
 			processData();
             }
@@ -311,6 +364,8 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 
 	public void copy() {
 		mDataWriter = new StringWriter(1024);
+		mDataStream = null;
+		mDataChannel = null;
 		mDataType = FileHelper.cFileTypeTextTabDelimited;
 		mEmbedDetails = false;
 		mVisibleOnly = false;
@@ -374,15 +429,18 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 		}
 
 	private void writeRecords(BufferedWriter theWriter) throws IOException {
-        int tabs = mTableModel.getTotalColumnCount() - 1;
+		int columnCount = mTableModel.getTotalColumnCount();
+		int[] column = new int[columnCount];
+		boolean[] isTabAfter = new boolean[columnCount];
+		int count = 0;
+        int tabs = columnCount - 1;
 
-        // first write non-displayable columns
+        // first non-displayable columns
         if (mDataType == FileHelper.cFileTypeDataWarrior) {
-            for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
-                if (!mTableModel.isColumnDisplayable(column)) {
-                    theWriter.write(mTableModel.getColumnTitleNoAlias(column));
-                    if (tabs-- > 0)
-                        theWriter.write("\t");
+            for (int c=0; c<columnCount; c++) {
+                if (!mTableModel.isColumnDisplayable(c)) {
+                	column[count] = c;
+                	isTabAfter[count++] = (tabs-- > 0);
                     }
                 }
             }
@@ -390,109 +448,132 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 		if (mToClipboard && mTable != null) {	// selected columns only
 			int[] selectedColumn = mTable.getSelectedColumns();
 			for (int i=0; i<selectedColumn.length; i++) {
-                int column = mTableModel.convertFromDisplayableColumnIndex(
+                column[count] = mTableModel.convertFromDisplayableColumnIndex(
                                   mTable.convertColumnIndexToModel(selectedColumn[i]));
-				theWriter.write(mTableModel.getColumnTitleNoAlias(column));
-                if (mDataType == FileHelper.cFileTypeTextTabDelimited) {
-                    String specialType = mTableModel.getColumnSpecialType(column);
-                    if (specialType != null)
-                        theWriter.write("["+specialType+"]");
-                    }
-				if (i < selectedColumn.length-1)
-					theWriter.write("\t");
+				isTabAfter[count++] = (i < selectedColumn.length-1);
 				}
 			}
 		else {
-            // now write displayable columns in table model order
-            for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
-                if (mTableModel.isColumnDisplayable(column)) {
-                    theWriter.write(mTableModel.getColumnTitleNoAlias(column));
-                    if (mDataType == FileHelper.cFileTypeTextTabDelimited) {
-                        String specialType = mTableModel.getColumnSpecialType(column);
-                        if (specialType != null)
-                            theWriter.write("["+specialType+"]");
-                        }
-                    if (tabs-- > 0)
-                        theWriter.write("\t");
+            // now displayable columns in table model order
+            for (int c=0; c<columnCount; c++) {
+                if (mTableModel.isColumnDisplayable(c)) {
+                	column[count] = c;
+                	isTabAfter[count++] = (tabs-- > 0);
                     }
 				}
 			}
 
-		if (mToClipboard)
-			theWriter.write("\n");
-		else
-			theWriter.newLine();
+		mRecordColumn = new int[count];
+		mIsTabAfterColumn = new boolean[count];
+		System.arraycopy(column, 0, mRecordColumn, 0, count);
+		System.arraycopy(isTabAfter, 0, mIsTabAfterColumn, 0, count);
+
+		for (int i=0; i<count; i++) {
+			theWriter.write(mTableModel.getColumnTitleNoAlias(mRecordColumn[i]));
+            if (mDataType == FileHelper.cFileTypeTextTabDelimited) {
+                String specialType = mTableModel.getColumnSpecialType(mRecordColumn[i]);
+                if (specialType != null)
+                    theWriter.write("["+specialType+"]");
+                }
+			if (mIsTabAfterColumn[i])
+				theWriter.write("\t");
+			}
+
+		mLineSeparator = (mToClipboard ? "\n" : System.getProperty("line.separator")).getBytes();
+		theWriter.write(new String(mLineSeparator));
+
+		writeRecordBlocks(theWriter);
+		}
+
+	private CompoundRecord getRecordToSave(int row) {
+		return mVisibleOnly ? mTableModel.getRecord(row) : mTableModel.getTotalRecord(row);
+		}
+
+	/**
+	 * Encodes all records to be saved in blocks on all available cores and writes the
+	 * encoded blocks in the original order, while the following blocks are encoded.
+	 * If records are saved into a file, then blocks are written as bytes directly
+	 * into the file channel or into the compressing stream after flushing the writer.
+	 * @param theWriter
+	 * @throws IOException
+	 */
+	private void writeRecordBlocks(BufferedWriter theWriter) throws IOException {
+		final int rowCount = mVisibleOnly ? mTableModel.getRowCount() : mTableModel.getTotalRowCount();
+		final int blockCount = (rowCount + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
 
-		int rowCount = mVisibleOnly ? mTableModel.getRowCount() : mTableModel.getTotalRowCount();
-		
 		if (mProgressDialog != null)
 			mProgressDialog.startProgress("Saving Records...", 0, rowCount);
 
-		for (int row=0; row<rowCount; row++) {
-			CompoundRecord record = (mVisibleOnly) ? mTableModel.getRecord(row)
-					   : mTableModel.getTotalRecord(row);
-
-			if (!mToClipboard || mTableModel.isVisibleAndSelected(record)) {
-				if (mProgressDialog != null) {
-					if (mProgressDialog.threadMustDie())
-						break;
-					mProgressDialog.updateProgress(row);
+		// values shown in the table are not necessarily thread-safe; copying to the clipboard is serial
+		int threadCount = mToClipboard ? 1 : Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), blockCount));
+		final BlockPipeline<BlockBuffer> pipeline = new BlockPipeline<BlockBuffer>(threadCount * MAX_PENDING_BLOCKS_PER_THREAD);
+		final AtomicInteger nextBlock = new AtomicInteger();
+
+		Thread[] worker = new Thread[threadCount];
+		for (int i=0; i<threadCount; i++) {
+			worker[i] = new Thread("CompoundTableSaver "+(i+1)) {
+				public void run() {
+					try {
+						RowEncoder encoder = (mDataType == FileHelper.cFileTypeSDV2
+										   || mDataType == FileHelper.cFileTypeSDV3) ?
+								new SDRowEncoder() : new TextRowEncoder();
+						int block = nextBlock.getAndIncrement();
+						while (block < blockCount && pipeline.waitForCapacity(block)) {
+							BlockBuffer buffer = new BlockBuffer();
+							int end = Math.min(rowCount, (block+1)*ROWS_PER_BLOCK);
+							for (int row=block*ROWS_PER_BLOCK; row<end; row++)
+								encoder.encode(getRecordToSave(row), buffer);
+							pipeline.put(block, buffer);
+							block = nextBlock.getAndIncrement();
+							}
+						}
+					catch (Throwable t) {	// includes OutOfMemoryError, which would leave the writing thread waiting
+						pipeline.cancel(t);
+						}
 					}
+				};
+			worker[i].setPriority(Thread.MIN_PRIORITY);
+			worker[i].start();
+			}
 
-                tabs = mTableModel.getTotalColumnCount() - 1;
+		try {
+			for (int block=0; block<blockCount; block++) {
+				if (mProgressDialog != null && mProgressDialog.threadMustDie()) {
+					pipeline.cancel(null);
+					break;
+					}
 
-                if (mDataType == FileHelper.cFileTypeDataWarrior) {
-                    // write non-displayable columns first
-                    for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
-                        if (!mTableModel.isColumnDisplayable(column)) {
-                            theWriter.write(convertNewlines(getValue(record, column)));
-                            if (tabs-- > 0)
-                                theWriter.write("\t");
-                            }
-                        }
-                    }
+				BlockBuffer buffer = pipeline.take(block);
+				if (buffer == null)
+					break;
 
-				if (mToClipboard && mTable != null) {	// selected columns only
-					int[] selectedColumn = mTable.getSelectedColumns();
-					for (int i=0; i<selectedColumn.length; i++) {
-						int column = mTableModel.convertFromDisplayableColumnIndex(
-                                     mTable.convertColumnIndexToModel(selectedColumn[i]));
-						theWriter.write(convertNewlines(getValue(record, column)));
-						if (i < selectedColumn.length-1)
-							theWriter.write("\t");
+				if (mDataStream != null) {
+					theWriter.flush();
+					if (mDataChannel != null) {
+						ByteBuffer byteBuffer = buffer.asByteBuffer();
+						while (byteBuffer.hasRemaining())
+							mDataChannel.write(byteBuffer);
+						}
+					else {
+						buffer.writeTo(mDataStream);
 						}
 					}
 				else {
-		            for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
-		                if (mTableModel.isColumnDisplayable(column)) {
-                            theWriter.write(convertNewlines(getValue(record, column)));
-                            if (tabs-- > 0)
-                                theWriter.write("\t");
-    						}
-		                }
+					theWriter.write(buffer.toString());
 					}
 
-				if (mToClipboard)
-					theWriter.write("\n");
-				else
-					theWriter.newLine();
+				if (mProgressDialog != null)
+					mProgressDialog.updateProgress(Math.min(rowCount, (block+1)*ROWS_PER_BLOCK));
 				}
 			}
-		}
-
-	private String getValue(CompoundRecord record, int column) {
-	    return (mDataType == FileHelper.cFileTypeDataWarrior) ?
-				   (String)mTableModel.encodeDataWithDetail(record, column)
-			 : (mToClipboard) ? // use the display value (mean, max, sum, etc.)
-			       (String)mTableModel.getValue(record, column)
-				 : (String)mTableModel.encodeData(record, column);
-		}
+		finally {
+			pipeline.cancel(null);	// releases waiting workers in case of an exception
+			for (Thread t:worker)
+				try { t.join(); } catch (InterruptedException ie) {}
+			}
 
-	private String convertNewlines(String value) {
-        value = value.replace("\r\n", CompoundTableLoader.NEWLINE_STRING);
-        value = value.replace("\n", CompoundTableLoader.NEWLINE_STRING);
-        value = value.replace("\r", CompoundTableLoader.NEWLINE_STRING);
-        return value;
+		if (pipeline.getException() != null)
+			throw new IOException(pipeline.getException().toString());
 		}
 
     private void writeFileHeader(BufferedWriter theWriter) throws IOException {
@@ -668,63 +749,165 @@ public class CompoundTableSaver implements CompoundTableConstants,Runnable {
 		synchronized(mDataWriter) {
 			BufferedWriter theWriter = new BufferedWriter(mDataWriter);
 
-			if (mProgressDialog != null)
-				mProgressDialog.startProgress("Saving Records...", 0, mTableModel.getTotalRowCount());
+			int count = 0;
+			int[] column = new int[mTableModel.getTotalColumnCount()];
+			for (int c=0; c<mTableModel.getTotalColumnCount(); c++)
+			    if (mTableModel.getColumnSpecialType(c) == null)
+			    	column[count++] = c;
+			mRecordColumn = new int[count];
+			System.arraycopy(column, 0, mRecordColumn, 0, count);
+			mLineSeparator = System.getProperty("line.separator").getBytes();
 
-			StereoMolecule mol = new StereoMolecule();
+			writeRecordBlocks(theWriter);
 
-			IDCodeParser parser2D = new IDCodeParser(true);
-			IDCodeParser parser3D = new IDCodeParser(false);
+			theWriter.close();
+			}
+		}
 
-			for (int row=0; row<mTableModel.getTotalRowCount(); row++) {		    
-				if (mProgressDialog != null) {
-					if (mProgressDialog.threadMustDie())
-						break;
-					mProgressDialog.updateProgress(row);
-					}
+	/**
+	 * Encodes single records into a BlockBuffer. Every encoding thread uses its own instance.
+	 */
+	private abstract class RowEncoder {
+		public abstract void encode(CompoundRecord record, BlockBuffer buffer);
+
+		/**
+		 * Writes the same cell content as encodeData() or encodeDataWithDetail() would return,
+		 * but without creating Strings unless the cell contains a descriptor or detail references.
+		 */
+		protected void encodeCell(CompoundRecord record, int column, DescriptorHandler<Object,Object> handler,
+								  boolean withDetail, BlockBuffer buffer) {
+			if (withDetail && record.getDetailReferences(column) != null) {
+				buffer.writeConvertingNewlines(mTableModel.encodeDataWithDetail(record, column).getBytes());
+				return;
+				}
 
-				CompoundRecord record = mTableModel.getTotalRecord(row);
-				if (mSDColumnStructure != -1) {
-					byte[] idcode = (byte[])record.getData(mSDColumnStructure);
-                    byte[] coords2D = (byte[])record.getData(mSDColumn2DCoordinates);
-                    byte[] coords3D = (byte[])record.getData(mSDColumn3DCoordinates);
-
-					if (idcode != null) {
-	                    if (coords3D != null && mPrefer3D)
-	                    	parser3D.parse(mol, idcode, coords3D);
-	                    else
-	                    	parser2D.parse(mol, idcode, coords2D);
-
-	                    if (mSDColumnIdentifier != -1) {
-	                        byte[] name = (byte[])record.getData(mSDColumnIdentifier);
-	                        if (name != null)
-	                        	mol.setName(new String(name));
-	                    	}
-						}
-                    else {
-                        mol.deleteMolecule();
+			Object data = record.getData(column);
+			if (data != null)
+				buffer.writeConvertingNewlines((handler == null) ? (byte[])data : handler.encode(data).getBytes());
+			}
+		}
+
+	private class TextRowEncoder extends RowEncoder {
+		private DescriptorHandler<Object,Object>[] mDescriptorHandler;
+
+		@SuppressWarnings("unchecked")
+		public TextRowEncoder() {
+			// descriptor handlers are not necessarily thread-safe
+			mDescriptorHandler = new DescriptorHandler[mTableModel.getTotalColumnCount()];
+			for (int column:mRecordColumn)
+				if (mTableModel.getDescriptorHandler(column) != null)
+					mDescriptorHandler[column] = mTableModel.getDescriptorHandler(column).getDeepCopy();
+			}
+
+		public void encode(CompoundRecord record, BlockBuffer buffer) {
+			if (mToClipboard && !mTableModel.isVisibleAndSelected(record))
+				return;
+
+			for (int i=0; i<mRecordColumn.length; i++) {
+				int column = mRecordColumn[i];
+				if (mToClipboard)	// use the display value (mean, max, sum, etc.)
+					buffer.writeConvertingNewlines(((String)mTableModel.getValue(record, column)).getBytes());
+				else
+					encodeCell(record, column, mDescriptorHandler[column], mDataType == FileHelper.cFileTypeDataWarrior, buffer);
+				if (mIsTabAfterColumn[i])
+					buffer.write('\t');
+				}
+			buffer.write(mLineSeparator);
+			}
+		}
+
+	private class SDRowEncoder extends RowEncoder {
+		private StereoMolecule mMol;
+		private IDCodeParser mParser2D,mParser3D;
+		private byte[][] mFieldHeader;
+
+		public SDRowEncoder() {
+			mMol = new StereoMolecule();
+			mParser2D = new IDCodeParser(true);
+			mParser3D = new IDCodeParser(false);
+			mFieldHeader = new byte[mRecordColumn.length][];
+			for (int i=0; i<mRecordColumn.length; i++)
+				mFieldHeader[i] = (">  <"+mTableModel.getColumnTitle(mRecordColumn[i])+">").getBytes();
+			}
+
+		public void encode(CompoundRecord record, BlockBuffer buffer) {
+			if (mSDColumnStructure != -1) {
+				byte[] idcode = (byte[])record.getData(mSDColumnStructure);
+                byte[] coords2D = (byte[])record.getData(mSDColumn2DCoordinates);
+                byte[] coords3D = (byte[])record.getData(mSDColumn3DCoordinates);
+
+				if (idcode != null) {
+                    if (coords3D != null && mPrefer3D)
+                    	mParser3D.parse(mMol, idcode, coords3D);
+                    else
+                    	mParser2D.parse(mMol, idcode, coords2D);
+
+                    if (mSDColumnIdentifier != -1) {
+                        byte[] name = (byte[])record.getData(mSDColumnIdentifier);
+                        if (name != null)
+                        	mMol.setName(new String(name));
                     	}
 					}
+                else {
+                    mMol.deleteMolecule();
+                	}
+				}
 
-                if (mDataType == FileHelper.cFileTypeSDV3)
-                    new MolfileV3Creator(mol).writeMolfile(theWriter);
-                else
-                    new MolfileCreator(mol).writeMolfile(theWriter);
-
-				for (int column=0; column<mTableModel.getTotalColumnCount(); column++) {
-				    if (mTableModel.getColumnSpecialType(column) == null) {
-    					theWriter.write(">  <"+mTableModel.getColumnTitle(column)+">");
-    					theWriter.newLine();
-    					theWriter.write(convertNewlines((String)mTableModel.encodeDataWithDetail(record, column)));
-    		    		theWriter.newLine();
-    					theWriter.newLine();
-    					}
-                    }
+			String molfile = (mDataType == FileHelper.cFileTypeSDV3) ?
+					new MolfileV3Creator(mMol).getMolfile() : new MolfileCreator(mMol).getMolfile();
+			buffer.write(molfile.getBytes());
 
-				theWriter.write("$$$$");
-				theWriter.newLine();
+			for (int i=0; i<mRecordColumn.length; i++) {
+				buffer.write(mFieldHeader[i]);
+				buffer.write(mLineSeparator);
+				encodeCell(record, mRecordColumn[i], null, true, buffer);
+				buffer.write(mLineSeparator);
+				buffer.write(mLineSeparator);
+                }
+
+			buffer.write(SD_RECORD_END);
+			buffer.write(mLineSeparator);
+			}
+		}
+
+	/**
+	 * Writes bytes replacing any CR/LF, LF or CR by CompoundTableLoader.NEWLINE_STRING,
+	 * which is how multi-line cell content is encoded in DataWarrior and text files.
+	 * @param b
+	 * @param out
+	 */
+	public static void writeConvertingNewlines(byte[] b, ByteArrayOutputStream out) {
+		int start = 0;
+		for (int i=0; i<b.length; i++) {
+			if (b[i] == '\n' || b[i] == '\r') {
+				out.write(b, start, i-start);
+				out.write(CompoundTableLoader.NEWLINE_BYTES, 0, CompoundTableLoader.NEWLINE_BYTES.length);
+				if (b[i] == '\r' && i+1<b.length && b[i+1] == '\n')
+					i++;
+				start = i+1;
 				}
-			theWriter.close();
+			}
+		out.write(b, start, b.length-start);
+		}
+
+	/**
+	 * Growable byte array, which receives the encoded records of one block.
+	 */
+	private static class BlockBuffer extends ByteArrayOutputStream {
+		public BlockBuffer() {
+			super(65536);
+			}
+
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+			}
+
+		public void writeConvertingNewlines(byte[] b) {
+			CompoundTableSaver.writeConvertingNewlines(b, this);
+			}
+
+		public ByteBuffer asByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
 			}
 		}
 
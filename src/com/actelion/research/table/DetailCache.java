@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two level cache for detail data, which are not embedded in the data file,
+ * i.e. URL responses and the content of referenced files. The first level keeps
+ * recently used details in memory up to a given total size. If a directory is given,
+ * then persistent details are also written into this directory, which serves as second
+ * level cache that survives application restarts and is trimmed to a given total size
+ * removing the oldest files first. Details expire after a given time on both levels,
+ * such that changed files or URL responses are fetched again. On file systems with POSIX
+ * permissions the directory is restricted to its owner. All methods are thread-safe.
+ */
+public class DetailCache {
+	public static final long DEFAULT_MEMORY_SIZE = 32L << 20;
+	public static final long DEFAULT_DISK_SIZE = 256L << 20;
+	public static final long DEFAULT_MAX_AGE = 24L * 60L * 60L * 1000L;	// one day
+
+	private static final String CACHE_FILE_EXTENSION = ".detail";
+
+	private LinkedHashMap<String,MemoryEntry> mMemoryCache;
+	private long	mMemorySize,mMaxMemorySize,mDiskSize,mMaxDiskSize,mMaxAge;
+	private File	mDirectory;
+
+	/**
+	 * @param directory null or directory for the persistent second level cache
+	 * @param maxMemorySize maximum total byte count of details kept in memory
+	 * @param maxDiskSize maximum total byte count of details kept on disk
+	 * @param maxAge milliseconds after which a cached detail expires
+	 */
+	public DetailCache(File directory, long maxMemorySize, long maxDiskSize, long maxAge) {
+		mMemoryCache = new LinkedHashMap<String,MemoryEntry>(64, 0.75f, true);
+		mMaxMemorySize = maxMemorySize;
+		mMaxDiskSize = maxDiskSize;
+		mMaxAge = maxAge;
+
+		if (directory != null && (directory.isDirectory() || directory.mkdirs()) && restrictToOwner(directory)) {
+			mDirectory = directory;
+			long now = System.currentTimeMillis();
+			for (File file:listCacheFiles()) {
+				if (isExpired(file.lastModified(), now))
+					file.delete();
+				else
+					mDiskSize += file.length();
+				}
+			trimDiskCache();
+			}
+		}
+
+	/**
+	 * Makes the directory inaccessible for other users, such that they can neither read
+	 * cached details nor place files into the cache.
+	 * @param directory
+	 * @return false if the permissions could not be set, e.g. because the directory belongs to another user
+	 */
+	private static boolean restrictToOwner(File directory) {
+		try {
+			PosixFileAttributeView view = Files.getFileAttributeView(directory.toPath(), PosixFileAttributeView.class);
+			if (view != null)	// otherwise, e.g. on Windows, the directory inherits the ACL of the user's home
+				view.setPermissions(PosixFilePermissions.fromString("rwx------"));
+			return true;
+			}
+		catch (Exception e) {
+			return false;
+			}
+		}
+
+	/**
+	 * @param key
+	 * @return cached detail or null, if the key is not cached or if the cached detail has expired
+	 */
+	public byte[] get(String key) {
+		byte[] data = getFromMemory(key);
+		if (data != null || mDirectory == null)
+			return data;
+
+		File file = getCacheFile(key);
+		if (!file.exists())
+			return null;
+
+		// the modification date is the time the detail was fetched
+		long time = file.lastModified();
+		if (isExpired(time, System.currentTimeMillis())) {
+			deleteCacheFile(file);
+			return null;
+			}
+
+		data = readFile(file);
+		if (data != null)
+			putInMemory(key, data, time);
+		return data;
+		}
+
+	/**
+	 * Unlike get() this method never accesses the disk and, thus, may be called
+	 * from the event dispatch thread.
+	 * @param key
+	 * @return detail cached in memory or null, if it is not cached or has expired
+	 */
+	public byte[] getFromMemory(String key) {
+		synchronized(mMemoryCache) {
+			MemoryEntry entry = mMemoryCache.get(key);
+			if (entry == null)
+				return null;
+
+			if (isExpired(entry.time, System.currentTimeMillis())) {
+				mMemoryCache.remove(key);
+				mMemorySize -= entry.data.length;
+				return null;
+				}
+
+			return entry.data;
+			}
+		}
+
+	/**
+	 * Adds a detail to the cache.
+	 * @param key
+	 * @param data
+	 * @param persistent whether the detail shall be cached on disk also
+	 */
+	public void put(String key, byte[] data, boolean persistent) {
+		putInMemory(key, data, System.currentTimeMillis());
+
+		if (persistent && mDirectory != null && data.length <= mMaxDiskSize) {
+			File file = getCacheFile(key);
+			File tempFile = new File(file.getPath()+".tmp");
+			try {
+				FileOutputStream out = new FileOutputStream(tempFile);
+				out.write(data);
+				out.close();
+				synchronized(this) {
+					if (file.exists())
+						deleteCacheFile(file);
+					if (tempFile.renameTo(file))
+						mDiskSize += data.length;
+					else
+						tempFile.delete();
+					}
+				trimDiskCache();
+				}
+			catch (IOException ioe) {
+				tempFile.delete();
+				}
+			}
+		}
+
+	public void clear() {
+		synchronized(mMemoryCache) {
+			mMemoryCache.clear();
+			mMemorySize = 0;
+			}
+		}
+
+	/**
+	 * @param key
+	 * @param data
+	 * @param time when the detail was fetched
+	 */
+	private void putInMemory(String key, byte[] data, long time) {
+		if (data.length > mMaxMemorySize / 4)
+			return;
+
+		synchronized(mMemoryCache) {
+			MemoryEntry oldEntry = mMemoryCache.put(key, new MemoryEntry(data, time));
+			if (oldEntry != null)
+				mMemorySize -= oldEntry.data.length;
+			mMemorySize += data.length;
+
+			Iterator<Map.Entry<String,MemoryEntry>> iterator = mMemoryCache.entrySet().iterator();
+			while (mMemorySize > mMaxMemorySize && iterator.hasNext()) {
+				mMemorySize -= iterator.next().getValue().data.length;
+				iterator.remove();
+				}
+			}
+		}
+
+	private boolean isExpired(long time, long now) {
+		return now - time > mMaxAge;
+		}
+
+	private synchronized void deleteCacheFile(File file) {
+		long length = file.length();
+		if (file.delete())
+			mDiskSize -= length;
+		}
+
+	private synchronized void trimDiskCache() {
+		if (mDiskSize <= mMaxDiskSize)
+			return;
+
+		File[] file = listCacheFiles();
+		Arrays.sort(file, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+				}
+			});
+
+		// trim to 3/4 of the maximum to not trim again with every new file
+		// the oldest files are removed first, because they would expire first
+		long size = 0;
+		for (File f:file)
+			size += f.length();
+		for (int i=0; i<file.length && size>mMaxDiskSize*3/4; i++) {
+			long length = file[i].length();
+			if (file[i].delete())
+				size -= length;
+			}
+		mDiskSize = size;
+		}
+
+	private File[] listCacheFiles() {
+		File[] file = mDirectory.listFiles();
+		if (file == null)
+			return new File[0];
+
+		int count = 0;
+		for (File f:file)
+			if (f.getName().endsWith(CACHE_FILE_EXTENSION))
+				file[count++] = f;
+		return Arrays.copyOf(file, count);
+		}
+
+	private File getCacheFile(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b:digest)
+				name.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+			return new File(mDirectory, name.append(CACHE_FILE_EXTENSION).toString());
+			}
+		catch (Exception e) {	// SHA-1 and UTF-8 are always available
+			return new File(mDirectory, Integer.toHexString(key.hashCode())+CACHE_FILE_EXTENSION);
+			}
+		}
+
+	private byte[] readFile(File file) {
+		try {
+			byte[] data = new byte[(int)file.length()];
+			FileInputStream in = new FileInputStream(file);
+			int offset = 0;
+			while (offset < data.length) {
+				int n = in.read(data, offset, data.length-offset);
+				if (n == -1)
+					break;
+				offset += n;
+				}
+			in.close();
+			return (offset == data.length) ? data : null;
+			}
+		catch (IOException ioe) {
+			return null;
+			}
+		}
+
+	private static class MemoryEntry {
+		private final byte[] data;
+		private final long time;
+
+		public MemoryEntry(byte[] data, long time) {
+			this.data = data;
+			this.time = time;
+			}
+		}
+	}
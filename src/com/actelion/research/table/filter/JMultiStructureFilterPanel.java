@@ -116,25 +116,13 @@ public class JMultiStructureFilterPanel extends JStructureFilterPanel
         	else if (mSimilarity != null && fromIndex == 0 && toIndex+1 >= mSimilarity.length)
         		mSimilarity = null;
         	if (mSimilarity != null) {
-        		if (mSimilarity.length != mStructurePane.getModel().getSize()) {
-        			float[][] newSimilarity = new float[mStructurePane.getModel().getSize()][];
-        			for (int i=0; i<fromIndex; i++)
-        				newSimilarity[i] = mSimilarity[i];
-        			for (int i=toIndex+1; i<newSimilarity.length; i++)
-        				newSimilarity[i] = mSimilarity[i];
-        			mSimilarity = newSimilarity;
-        			}
-                int descriptorColumn = mDescriptorColumn[mComboBox.getSelectedIndex()];
-    			for (int i=0; i<mSimilarity.length; i++) {
-    				if (mSimilarity[i] == null || (i>= fromIndex && i <= toIndex)) {
-	                    mSimilarity[i] = createSimilarityList(getStructure(i), descriptorColumn);
-	
-	                    if (mSimilarity[i] == null) {	// user cancelled SMP dialog
-	                        mComboBox.setSelectedItem(cItemDisabled);
-	                        break;
-	                    	}
-	    				}
-    				}
+        		// A new array is needed, because a background calculation may still fill the old one.
+        		// Similarities of changed structures are calculated again by updateExclusion().
+    			float[][] newSimilarity = new float[mStructurePane.getModel().getSize()][];
+    			for (int i=0; i<newSimilarity.length && i<mSimilarity.length; i++)
+    				if (i < fromIndex || i > toIndex)
+    					newSimilarity[i] = mSimilarity[i];
+    			mSimilarity = newSimilarity;
         		}
             }
 
@@ -22,12 +22,14 @@ import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.beans.ExceptionListener;
 import java.util.Hashtable;
 
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -55,7 +57,8 @@ public abstract class JStructureFilterPanel extends JFilterPanel
 
     private Frame		mParentFrame;
     private JSlider		mSimilaritySlider;
-    private int			mCurrentDescriptorColumn;
+    private int			mCurrentDescriptorColumn,mPendingDescriptorColumn;
+    private volatile float[][]	mPendingSimilarity;
 
     public JStructureFilterPanel(Frame parent, CompoundTableModel tableModel, int column, int exclusionFlag) {
 		super(tableModel, column, exclusionFlag, false);
@@ -223,7 +226,17 @@ public abstract class JStructureFilterPanel extends JFilterPanel
 			mTableModel.clearCompoundFlag(mExclusionFlag);
 		else {
 			if (((String)mComboBox.getSelectedItem()).equals(cItemContains)) {
-				mTableModel.setSubStructureExclusion(mExclusionFlag, mColumnIndex, getStructures(), isInverse());
+				// Interactive changes are matched in the background to keep the UI responsive.
+				// Macros and settings changes need the filter to be applied when returning.
+				if (mIsUserChange && SwingUtilities.isEventDispatchThread())
+					mTableModel.setSubStructureExclusionAsync(mExclusionFlag, mColumnIndex, getStructures(), isInverse(),
+							new ExceptionListener() {
+								public void exceptionThrown(Exception e) {
+									disableAfterFailure(e);
+									}
+								});
+				else
+					mTableModel.setSubStructureExclusion(mExclusionFlag, mColumnIndex, getStructures(), isInverse());
                 }
             else if (((String)mComboBox.getSelectedItem()).equals(cItemDisabled)) {
                 mTableModel.clearCompoundFlag(mExclusionFlag);
@@ -234,6 +247,16 @@ public abstract class JStructureFilterPanel extends JFilterPanel
                 if (mSimilarity == null)
                 	mSimilarity = new float[getStructureCount()][];
 
+				// Like substructure matches, missing similarities of interactive changes are
+				// calculated in the background. Slow descriptors and very large tables use
+				// a progress dialog instead, which allows to cancel the calculation.
+				if (mIsUserChange && SwingUtilities.isEventDispatchThread()
+				 && !needsSimilarityProgressDialog(descriptorColumn) && isSimilarityMissing()) {
+					if (mPendingSimilarity != mSimilarity || mPendingDescriptorColumn != descriptorColumn)
+						createSimilarityListsAsync(descriptorColumn);
+					return;	// updateExclusion() is called again, when the similarities are available
+					}
+
             	for (int i=0; i<getStructureCount(); i++) {
             		if (mSimilarity[i] == null) {
             			mSimilarity[i] = createSimilarityList(getStructure(i), descriptorColumn);
@@ -262,16 +285,93 @@ public abstract class JStructureFilterPanel extends JFilterPanel
 		}
 
 	protected float[] createSimilarityList(StereoMolecule mol, int descriptorColumn) {
-        return (DESCRIPTOR_Flexophore.shortName.equals(mTableModel.getColumnSpecialType(descriptorColumn))
-        	 || mTableModel.getTotalRowCount() > 400000) ?
+        return needsSimilarityProgressDialog(descriptorColumn) ?
 
         	// if we have the slow 3DPPMM2 then use a progress dialog
         	createSimilarityListSMP(mol, descriptorColumn)
 
-            // else calculate similarity list in event dispatcher thread
+            // else calculate similarity list in the calling thread
         	: mTableModel.createSimilarityList(mol, descriptorColumn);
 		}
 
+	private boolean needsSimilarityProgressDialog(int descriptorColumn) {
+		return DESCRIPTOR_Flexophore.shortName.equals(mTableModel.getColumnSpecialType(descriptorColumn))
+			|| mTableModel.getTotalRowCount() > 400000;
+		}
+
+	private boolean isSimilarityMissing() {
+		for (int i=0; i<getStructureCount(); i++)
+			if (mSimilarity[i] == null)
+				return true;
+		return false;
+		}
+
+	/**
+	 * Calculates all missing similarity lists of mSimilarity in a background thread.
+	 * When done, the lists are put into mSimilarity on the event dispatch thread and the
+	 * exclusion is updated, unless mSimilarity was replaced in the meantime, i.e. if the
+	 * structures, the descriptor or the table rows have changed.
+	 * @param descriptorColumn
+	 */
+	private void createSimilarityListsAsync(final int descriptorColumn) {
+		final float[][] similarity = mSimilarity;
+		final StereoMolecule[] structure = getStructures();
+		mPendingSimilarity = similarity;
+		mPendingDescriptorColumn = descriptorColumn;
+
+		new Thread("Similarity Filter") {
+			public void run() {
+				final float[][] result = new float[similarity.length][];
+				try {
+					for (int i=0; i<similarity.length; i++) {
+						if (mPendingSimilarity != similarity)
+							return;
+						if (similarity[i] == null)
+							result[i] = mTableModel.createSimilarityList(structure[i], descriptorColumn);
+						}
+					}
+				catch (final Exception e) {
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (mPendingSimilarity != similarity)
+								return;
+
+							mPendingSimilarity = null;
+							if (mSimilarity == similarity)	// otherwise rows were changed while calculating and the result is not used anyway
+								disableAfterFailure(e);
+							}
+						});
+					return;
+					}
+
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (mPendingSimilarity != similarity || mSimilarity != similarity)
+							return;
+
+						mPendingSimilarity = null;
+						for (int i=0; i<similarity.length; i++)
+							if (similarity[i] == null)
+								similarity[i] = result[i];
+						mCurrentDescriptorColumn = descriptorColumn;
+						updateExclusion();
+						}
+					});
+				}
+			}.start();
+		}
+
+	/**
+	 * Sets this filter to <disabled> after its background calculation failed.
+	 * The table model has already cleared the exclusion flag in case of a failed matching.
+	 * @param e
+	 */
+	private void disableAfterFailure(Exception e) {
+		e.printStackTrace();
+		mComboBox.setSelectedItem(cItemDisabled);
+		JOptionPane.showMessageDialog(mParentFrame, "The structure filter failed and was set to <disabled>:\n"+e);
+		}
+
 	protected abstract boolean supportsSSS();
 	protected abstract boolean supportsSim();
 	protected abstract int getStructureCount();
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.table.view;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maintains exact order statistics of the visible values of all box plot cells
+ * (combinations of hv index and category) such that changes of row visibility,
+ * e.g. when dragging a filter slider, don't require the cells to be rebuilt.
+ * The values of all points, visible or not, are sorted once per cell. A Fenwick tree
+ * over the sorted positions of every cell counts the visible values, which allows
+ * adding or removing a point and locating the k-th visible value in log(n) time.
+ * Additionally, the count and sum of visible values are maintained per cell.
+ * A full rebuild, which sorts the cells in parallel, is only needed if the cell
+ * assignment or the value of any point changes.<br>
+ * Usage: call setPoint() for every point between begin() and finish().
+ */
+class BoxPlotStatistics {
+	private static final int MIN_VALUES_PER_THREAD = 65536;
+
+	private int			mPointCount,mCellCount;
+	private int[]		mPointCell,mPointPosition,mCellOffset,mTree,mCellHighBit,mVisibleCount;
+	private float[]		mPointValue,mSortedValue;
+	private double[]	mSum;
+	private boolean[]	mIsVisible,mIsVisibleAtPosition;
+
+	private int[]		mNewPointCell;
+	private float[]		mNewPointValue;
+	private boolean[]	mNewIsVisible;
+	private boolean		mNeedsRebuild;
+
+	/**
+	 * Starts an update of all points. Afterwards setPoint() must be called once for
+	 * every point followed by a call of finish().
+	 * @param pointCount
+	 * @param cellCount
+	 */
+	public void begin(int pointCount, int cellCount) {
+		mNeedsRebuild = (pointCount != mPointCount || cellCount != mCellCount || mPointCell == null);
+		if (mNewPointCell == null || mNewPointCell.length < pointCount) {
+			mNewPointCell = new int[pointCount];
+			mNewPointValue = new float[pointCount];
+			mNewIsVisible = new boolean[pointCount];
+			}
+		mPointCount = pointCount;
+		mCellCount = cellCount;
+		}
+
+	/**
+	 * @param point index of the point
+	 * @param cell -1 or cell index, which must be valid if the point is visible
+	 * @param value
+	 * @param isVisible whether the value shall contribute to the statistics
+	 */
+	public void setPoint(int point, int cell, float value, boolean isVisible) {
+		if (cell < 0 || cell >= mCellCount || Float.isNaN(value)) {
+			cell = -1;
+			value = 0f;
+			isVisible = false;
+			}
+		mNewPointCell[point] = cell;
+		mNewPointValue[point] = value;
+		mNewIsVisible[point] = isVisible;
+		if (!mNeedsRebuild
+		 && (mPointCell[point] != cell || Float.floatToIntBits(mPointValue[point]) != Float.floatToIntBits(value)))
+			mNeedsRebuild = true;
+		}
+
+	/**
+	 * Applies all visibility changes since the last update or rebuilds the statistics,
+	 * if the cell assignment or the value of any point has changed.
+	 * @return true if the statistics had to be rebuilt
+	 */
+	public boolean finish() {
+		if (mNeedsRebuild) {
+			rebuild();
+			return true;
+			}
+
+		for (int point=0; point<mPointCount; point++)
+			if (mIsVisible[point] != mNewIsVisible[point])
+				setVisible(point, mNewIsVisible[point]);
+
+		return false;
+		}
+
+	/**
+	 * @param cell
+	 * @return number of visible values in the cell
+	 */
+	public int getCount(int cell) {
+		return mVisibleCount[cell];
+		}
+
+	/**
+	 * @param cell
+	 * @return sum of all visible values in the cell
+	 */
+	public double getSum(int cell) {
+		return mSum[cell];
+		}
+
+	/**
+	 * @param cell
+	 * @param k 0-based rank among the visible values of the cell
+	 * @return the k-th smallest visible value of the cell
+	 */
+	public float getOrderStatistic(int cell, int k) {
+		int offset = mCellOffset[cell];
+		int size = mCellOffset[cell+1] - offset;
+		int position = 0;	// 1-based Fenwick position
+		int remaining = k+1;
+		for (int bit=mCellHighBit[cell]; bit!=0; bit>>=1) {
+			int next = position + bit;
+			if (next <= size && mTree[offset+next-1] < remaining) {
+				position = next;
+				remaining -= mTree[offset+next-1];
+				}
+			}
+		return mSortedValue[offset+position];
+		}
+
+	/**
+	 * Calculates a percentile from the visible values of the cell interpolating
+	 * between adjacent order statistics.
+	 * @param cell cell with at least one visible value
+	 * @param cutoff
+	 * @return
+	 */
+	public float getPercentile(int cell, double cutoff) {
+		int count = mVisibleCount[cell];
+		int index = (int)(cutoff * ((float)count - 0.999999));
+		double value = getOrderStatistic(cell, index);
+		float percentile = (float)value;
+		if (0.0001 + index < cutoff * (count - 1))
+			percentile += cutoff * (getOrderStatistic(cell, index+1) - value);
+		return percentile;
+		}
+
+	/**
+	 * @param cell
+	 * @param limit
+	 * @return the smallest visible value, which is not smaller than limit, or NaN
+	 */
+	public float getSmallestValueNotBelow(int cell, float limit) {
+		int rank = getVisibleCountBefore(cell, lowerBound(cell, limit));
+		return (rank < mVisibleCount[cell]) ? getOrderStatistic(cell, rank) : Float.NaN;
+		}
+
+	/**
+	 * @param cell
+	 * @param limit
+	 * @return the largest visible value, which is not larger than limit, or NaN
+	 */
+	public float getLargestValueNotAbove(int cell, float limit) {
+		int rank = getVisibleCountBefore(cell, upperBound(cell, limit));
+		return (rank != 0) ? getOrderStatistic(cell, rank-1) : Float.NaN;
+		}
+
+	/**
+	 * @param cell
+	 * @return sorted visible values of the cell
+	 */
+	public double[] getVisibleValues(int cell) {
+		double[] value = new double[mVisibleCount[cell]];
+		int count = 0;
+		for (int i=mCellOffset[cell]; i<mCellOffset[cell+1]; i++)
+			if (mIsVisibleAtPosition[i])
+				value[count++] = mSortedValue[i];
+		return value;
+		}
+
+	private void setVisible(int point, boolean isVisible) {
+		mIsVisible[point] = isVisible;
+		int cell = mPointCell[point];
+		int offset = mCellOffset[cell];
+		int size = mCellOffset[cell+1] - offset;
+		int position = mPointPosition[point];
+		mIsVisibleAtPosition[offset+position] = isVisible;
+		int delta = isVisible ? 1 : -1;
+		mVisibleCount[cell] += delta;
+		mSum[cell] += isVisible ? mPointValue[point] : -mPointValue[point];
+		for (int i=position+1; i<=size; i+=(i & -i))
+			mTree[offset+i-1] += delta;
+		}
+
+	/**
+	 * @return number of visible values at sorted positions < position
+	 */
+	private int getVisibleCountBefore(int cell, int position) {
+		int offset = mCellOffset[cell];
+		int count = 0;
+		for (int i=position; i>0; i-=(i & -i))
+			count += mTree[offset+i-1];
+		return count;
+		}
+
+	private int lowerBound(int cell, float limit) {
+		int offset = mCellOffset[cell];
+		int low = 0;
+		int high = mCellOffset[cell+1] - offset;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mSortedValue[offset+middle] < limit)
+				low = middle + 1;
+			else
+				high = middle;
+			}
+		return low;
+		}
+
+	private int upperBound(int cell, float limit) {
+		int offset = mCellOffset[cell];
+		int low = 0;
+		int high = mCellOffset[cell+1] - offset;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mSortedValue[offset+middle] <= limit)
+				low = middle + 1;
+			else
+				high = middle;
+			}
+		return low;
+		}
+
+	private void rebuild() {
+		mPointCell = Arrays.copyOf(mNewPointCell, mPointCount);
+		mPointValue = Arrays.copyOf(mNewPointValue, mPointCount);
+		mIsVisible = Arrays.copyOf(mNewIsVisible, mPointCount);
+
+		mCellOffset = new int[mCellCount+1];
+		for (int point=0; point<mPointCount; point++)
+			if (mPointCell[point] != -1)
+				mCellOffset[mPointCell[point]+1]++;
+		for (int cell=0; cell<mCellCount; cell++)
+			mCellOffset[cell+1] += mCellOffset[cell];
+
+		// sort keys contain the value as order preserving int and the point index
+		final int valueCount = mCellOffset[mCellCount];
+		final long[] key = new long[valueCount];
+		int[] index = Arrays.copyOf(mCellOffset, mCellCount);
+		for (int point=0; point<mPointCount; point++) {
+			int cell = mPointCell[point];
+			if (cell != -1) {
+				int bits = Float.floatToIntBits(mPointValue[point]);
+				bits ^= (bits >> 31) & 0x7FFFFFFF;
+				key[index[cell]++] = ((long)bits << 32) | point;
+				}
+			}
+
+		mPointPosition = new int[mPointCount];
+		mSortedValue = new float[valueCount];
+		mTree = new int[valueCount];
+		mIsVisibleAtPosition = new boolean[valueCount];
+		mCellHighBit = new int[mCellCount];
+		mVisibleCount = new int[mCellCount];
+		mSum = new double[mCellCount];
+
+		final AtomicInteger nextCell = new AtomicInteger();
+		int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), 1 + valueCount / MIN_VALUES_PER_THREAD);
+		if (threadCount == 1) {
+			buildCells(key, nextCell);
+			return;
+			}
+
+		Thread[] worker = new Thread[threadCount];
+		for (int i=0; i<threadCount; i++) {
+			worker[i] = new Thread("BoxPlot Statistics "+(i+1)) {
+				public void run() {
+					buildCells(key, nextCell);
+					}
+				};
+			worker[i].start();
+			}
+		for (Thread t:worker)
+			try { t.join(); } catch (InterruptedException ie) {}
+		}
+
+	private void buildCells(long[] key, AtomicInteger nextCell) {
+		int cell = nextCell.getAndIncrement();
+		while (cell < mCellCount) {
+			int offset = mCellOffset[cell];
+			int size = mCellOffset[cell+1] - offset;
+			Arrays.sort(key, offset, offset+size);
+
+			int highBit = Integer.highestOneBit(Math.max(1, size));
+			mCellHighBit[cell] = highBit;
+
+			int count = 0;
+			double sum = 0.0;
+			for (int i=0; i<size; i++) {
+				int point = (int)key[offset+i];
+				mPointPosition[point] = i;
+				mSortedValue[offset+i] = mPointValue[point];
+				if (mIsVisible[point]) {
+					mIsVisibleAtPosition[offset+i] = true;
+					mTree[offset+i]++;
+					count++;
+					sum += mPointValue[point];
+					}
+				}
+
+			// convert visibility flags into Fenwick tree in linear time
+			for (int i=1; i<=size; i++) {
+				int parent = i + (i & -i);
+				if (parent <= size)
+					mTree[offset+parent-1] += mTree[offset+i-1];
+				}
+
+			mVisibleCount[cell] = count;
+			mSum[cell] = sum;
+			cell = nextCell.getAndIncrement();
+			}
+		}
+	}
@@ -494,6 +494,10 @@ public class JStructureGrid extends JScrollPane
 					}
 				}
 			}
+		else if (e.getType() == CompoundTableEvent.cChangeStructureHighlighting) {
+			if (mStructureColumn == e.getSpecifier())
+				needsUpdate = true;
+			}
 		else if (e.getType() == CompoundTableEvent.cChangeColumnData) {
 			if (mStructureColumn == e.getSpecifier())
 				needsUpdate = true;
@@ -39,7 +39,6 @@ import java.io.StringWriter;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Random;
 import java.util.TreeMap;
@@ -187,6 +186,7 @@ public abstract class JVisualization extends JComponent
 	private Color					mViewBackground,mTitleBackground;
 	private boolean					mLassoSelecting,mRectangleSelecting,mApplyLocalExclusionScheduled;
 	private Polygon			 	mLassoRegion;
+	private BoxPlotStatistics		mBoxPlotStatistics;
 	private DetailPopupProvider	 mDetailPopupProvider;
 
 	public JVisualization(CompoundTableModel tableModel,
@@ -1881,62 +1881,41 @@ public abstract class JVisualization extends JComponent
 		mChartInfo = boxPlotInfo;
 		boxPlotInfo.barAxis = doubleAxis;
 
-		// create array with all visible values separated by hv and cat
-		int[][] vCount = new int[mHVCount][catCount];
+		// update order statistics of all visible values separated by hv and cat
+		if (mBoxPlotStatistics == null)
+			mBoxPlotStatistics = new BoxPlotStatistics();
+		mBoxPlotStatistics.begin(mDataPoints, mHVCount*catCount);
 		for (int i=0; i<mDataPoints; i++) {
-			if (isVisibleExcludeNaN(mPoint[i])) {
-				int cat = getChartCategoryIndex(mPoint[i]);
-				int hv = mPoint[i].hvIndex;
-				vCount[hv][cat]++;
-				}
-			}
-		double[][][] value = new double[mHVCount][catCount][];
-		for (int hv=0; hv<mHVCount; hv++)
-			for (int cat=0; cat<catCount; cat++)
-				if (vCount[hv][cat] != 0)
-					value[hv][cat] = new double[vCount[hv][cat]];
-
-		// fill in values
-		vCount = new int[mHVCount][catCount];
-		for (int i=0; i<mDataPoints; i++) {
-			if (isVisibleExcludeNaN(mPoint[i])) {
-				int hv = mPoint[i].hvIndex;
-				int cat = getChartCategoryIndex(mPoint[i]);
-				float d = getValue(mPoint[i].record, boxPlotInfo.barAxis);
-				boxPlotInfo.barValue[hv][cat] += d;
-				value[hv][cat][vCount[hv][cat]] = d;
-				vCount[hv][cat]++;
-				}
+			int cat = getChartCategoryIndex(mPoint[i]);
+			int cell = (cat < 0 || cat >= catCount) ? -1 : mPoint[i].hvIndex*catCount+cat;
+			mBoxPlotStatistics.setPoint(i, cell, getValue(mPoint[i].record, boxPlotInfo.barAxis), isVisibleExcludeNaN(mPoint[i]));
 			}
+		mBoxPlotStatistics.finish();
 
+		int[][] vCount = new int[mHVCount][catCount];
 		boxPlotInfo.boxQ1 = new float[mHVCount][catCount];
 		boxPlotInfo.median = new float[mHVCount][catCount];
 		boxPlotInfo.boxQ3 = new float[mHVCount][catCount];
 		boxPlotInfo.boxLAV = new float[mHVCount][catCount];
 		boxPlotInfo.boxUAV = new float[mHVCount][catCount];
 
-		// calculate statistical parameters from sorted values
+		// calculate statistical parameters from order statistics
 		for (int hv=0; hv<mHVCount; hv++) {
 			for (int cat=0; cat<catCount; cat++) {
+				int cell = hv*catCount+cat;
+				vCount[hv][cat] = mBoxPlotStatistics.getCount(cell);
 				if (vCount[hv][cat] != 0) {
-					Arrays.sort(value[hv][cat]);
-					boxPlotInfo.boxQ1[hv][cat] = getPercentile(value[hv][cat], 0.25f);
-					boxPlotInfo.median[hv][cat] = getPercentile(value[hv][cat], 0.50f);
-					boxPlotInfo.boxQ3[hv][cat] = getPercentile(value[hv][cat], 0.75f);
-					boxPlotInfo.barValue[hv][cat] /= vCount[hv][cat];
-	
+					boxPlotInfo.boxQ1[hv][cat] = mBoxPlotStatistics.getPercentile(cell, 0.25f);
+					boxPlotInfo.median[hv][cat] = mBoxPlotStatistics.getPercentile(cell, 0.50f);
+					boxPlotInfo.boxQ3[hv][cat] = mBoxPlotStatistics.getPercentile(cell, 0.75f);
+					boxPlotInfo.barValue[hv][cat] = (float)(mBoxPlotStatistics.getSum(cell) / vCount[hv][cat]);
+
 					// set lower and upper adjacent values
 					float iqr = boxPlotInfo.boxQ3[hv][cat] - boxPlotInfo.boxQ1[hv][cat];
 					float lowerLimit = boxPlotInfo.boxQ1[hv][cat] - 1.5f * iqr;
 					float upperLimit = boxPlotInfo.boxQ3[hv][cat] + 1.5f * iqr;
-					int i = 0;
-					while (value[hv][cat][i] < lowerLimit)
-						i++;
-					boxPlotInfo.boxLAV[hv][cat] = (float)value[hv][cat][i];
-					i = value[hv][cat].length - 1;
-					while (value[hv][cat][i] > upperLimit)
-						i--;
-					boxPlotInfo.boxUAV[hv][cat] = (float)value[hv][cat][i];
+					boxPlotInfo.boxLAV[hv][cat] = mBoxPlotStatistics.getSmallestValueNotBelow(cell, lowerLimit);
+					boxPlotInfo.boxUAV[hv][cat] = mBoxPlotStatistics.getLargestValueNotAbove(cell, upperLimit);
 
 					if (mChartType == cChartTypeWhiskerPlot)
 						boxPlotInfo.pointsInCategory[hv][cat] = vCount[hv][cat];
@@ -1967,7 +1946,9 @@ public abstract class JVisualization extends JComponent
 									}
 								if (mBoxplotShowPValue) {
 									try {
-										boxPlotInfo.pValue[hv][cat] = (float) new TTestImpl().tTest(value[hv][cat], value[refHV][refCat]);
+										boxPlotInfo.pValue[hv][cat] = (float) new TTestImpl().tTest(
+												mBoxPlotStatistics.getVisibleValues(hv*catCount+cat),
+												mBoxPlotStatistics.getVisibleValues(refHV*catCount+refCat));
 										}
 									catch (IllegalArgumentException e) {
 										boxPlotInfo.pValue[hv][cat] = Float.NaN;
@@ -2664,14 +2645,6 @@ public abstract class JVisualization extends JComponent
 		return index;
 		}
 
-	protected float getPercentile(double[] value, double cutoff) {
-		int index = (int)(cutoff * ((float)value.length - 0.999999));
-		float percentile = (float)value[index];
-		if (0.0001 + index < cutoff * (value.length - 1))
-			percentile += cutoff * (value[index+1] - value[index]);
-		return percentile;
-		}
-
 	public void mouseClicked(MouseEvent e) {
 		if ((e.getModifiers() & InputEvent.BUTTON1_MASK) != 0) {
 			VisualizationPoint marker = findMarker(e.getX(), e.getY());
@@ -52,7 +52,6 @@ import java.util.Comparator;
 import javax.imageio.ImageIO;
 
 import com.actelion.research.calc.CorrelationCalculator;
-import com.actelion.research.calc.INumericalDataColumn;
 import com.actelion.research.chem.Depictor2D;
 import com.actelion.research.chem.DepictorTransformation;
 import com.actelion.research.chem.IDCodeParser;
@@ -113,6 +112,7 @@ public class JVisualization2D extends JVisualization {
 
 	private Graphics		mG;
 	private float[]			mCorrelationCoefficient;
+	private int[][]			mCorrelationSortOrder;
 	private float			mFontScaling,mMarkerTransparency;
 	private int				mBorder,mCurveInfo,mBackgroundHCount,mBackgroundVCount,
 							mBackgroundColorRadius,mBackgroundColorFading,mBackgroundColorConsidered,
@@ -2469,81 +2469,50 @@ System.out.println("used:"+(System.currentTimeMillis()-millis));
 		setFontHeight(scaledFontHeight);
 		mG.setColor(getContrastGrey(SCALE_STRONG));
 
-		mCorrelationCoefficient = new float[mHVCount];
-		if (mHVCount == 1) {
-			float r = (float)CorrelationCalculator.calculateCorrelation(
-					new INumericalDataColumn() {
-						public int getValueCount() {
-							return mDataPoints;
-							}
-						public double getValueAt(int row) {
-							return isVisibleExcludeNaN(mPoint[row]) ? getValue(mPoint[row].record, 0) : Float.NaN;
-							}
-						},
-					new INumericalDataColumn() {
-						public int getValueCount() {
-							return mDataPoints;
-							}
-						public double getValueAt(int row) {
-							return isVisibleExcludeNaN(mPoint[row]) ? getValue(mPoint[row].record, 1) : Float.NaN;
-							}
-						},
-					mShownCorrelationType);
-			String s = "r="+DoubleFormat.toString(r, 3)
-					 + " ("+CorrelationCalculator.TYPE_NAME[mShownCorrelationType]+")";
-			mG.drawString(s, baseGraphRect.x+baseGraphRect.width-mG.getFontMetrics().stringWidth(s),
-							 baseGraphRect.y+baseGraphRect.height-scaledFontHeight/2);
-			mCorrelationCoefficient[0] = r;
+		// the sort order of all values on both axes is cached until the coordinates change
+		if (mShownCorrelationType == CorrelationCalculator.TYPE_SPEARMAN
+		 && (mCorrelationSortOrder == null || mCorrelationSortOrder[0].length != mDataPoints)) {
+			mCorrelationSortOrder = new int[2][];
+			for (int axis=0; axis<2; axis++) {
+				float[] value = new float[mDataPoints];
+				for (int i=0; i<mDataPoints; i++)
+					value[i] = getValue(mPoint[i].record, axis);
+				mCorrelationSortOrder[axis] = CorrelationCalculator.getSortOrder(value);
+				}
 			}
-		else {
-			int[] count = new int[mHVCount];
-			for (int i=0; i<mDataPoints; i++)
-				if (isVisibleExcludeNaN(mPoint[i]))
-					count[mPoint[i].hvIndex]++;
-			float[][][] value = new float[mHVCount][2][];
-			for (int hv=0; hv<mHVCount; hv++) {
-				value[hv][0] = new float[count[hv]];
-				value[hv][1] = new float[count[hv]];
+
+		float[] x = new float[mDataPoints];
+		float[] y = new float[mDataPoints];
+		int[] hvIndex = (mHVCount == 1) ? null : new int[mDataPoints];
+		int[] count = new int[mHVCount];
+		for (int i=0; i<mDataPoints; i++) {
+			if (isVisibleExcludeNaN(mPoint[i])) {
+				x[i] = getValue(mPoint[i].record, 0);
+				y[i] = getValue(mPoint[i].record, 1);
+				count[mPoint[i].hvIndex]++;
 				}
-			count = new int[mHVCount];
-			for (int i=0; i<mDataPoints; i++) {
-				if (isVisibleExcludeNaN(mPoint[i])) {
-					value[mPoint[i].hvIndex][0][count[mPoint[i].hvIndex]] = getValue(mPoint[i].record, 0);
-					value[mPoint[i].hvIndex][1][count[mPoint[i].hvIndex]] = getValue(mPoint[i].record, 1);
-					count[mPoint[i].hvIndex]++;
-					}
+			else {
+				x[i] = Float.NaN;
+				y[i] = Float.NaN;
 				}
+			if (hvIndex != null)
+				hvIndex[i] = mPoint[i].hvIndex;
+			}
 
-			for (int hv=0; hv<mHVCount; hv++) {
-				if (count[hv] >= 2) {
-					final float[][] _value = value[hv];
-					float r = (float)CorrelationCalculator.calculateCorrelation(
-							new INumericalDataColumn() {
-								public int getValueCount() {
-									return _value[0].length;
-									}
-								public double getValueAt(int row) {
-									return _value[0][row];
-									}
-								},
-							new INumericalDataColumn() {
-								public int getValueCount() {
-									return _value[1].length;
-									}
-								public double getValueAt(int row) {
-									return _value[1][row];
-									}
-								},
-							mShownCorrelationType);
-
-					int hOffset = mSplitter.getHIndex(hv) * mSplitter.getGridWidth();
-					int vOffset = mSplitter.getVIndex(hv) * mSplitter.getGridHeight();
-					String s = "r="+DoubleFormat.toString(r, 3)
-							 + " ("+CorrelationCalculator.TYPE_NAME[mShownCorrelationType]+")";
-					mG.drawString(s, hOffset+baseGraphRect.x+baseGraphRect.width-mG.getFontMetrics().stringWidth(s),
-									 vOffset+baseGraphRect.y+baseGraphRect.height-scaledFontHeight/2);
-					mCorrelationCoefficient[hv] = r;
-					}
+		int[] xOrder = (mCorrelationSortOrder == null) ? null : mCorrelationSortOrder[0];
+		int[] yOrder = (mCorrelationSortOrder == null) ? null : mCorrelationSortOrder[1];
+		double[] r = CorrelationCalculator.calculateCorrelation(x, y, hvIndex, mHVCount, xOrder, yOrder, mShownCorrelationType);
+
+		mCorrelationCoefficient = new float[mHVCount];
+		for (int hv=0; hv<mHVCount; hv++) {
+			if (mHVCount == 1 || count[hv] >= 2) {
+				int hOffset = (mHVCount == 1) ? 0 : mSplitter.getHIndex(hv) * mSplitter.getGridWidth();
+				int vOffset = (mHVCount == 1) ? 0 : mSplitter.getVIndex(hv) * mSplitter.getGridHeight();
+				String s = "r="+DoubleFormat.toString((float)r[hv], 3)
+						 + " ("+CorrelationCalculator.TYPE_NAME[mShownCorrelationType]+")";
+				mG.drawString(s, hOffset+baseGraphRect.x+baseGraphRect.width-mG.getFontMetrics().stringWidth(s),
+								 vOffset+baseGraphRect.y+baseGraphRect.height-scaledFontHeight/2);
+				mCorrelationCoefficient[hv] = (float)r[hv];
 				}
 			}
 		}
@@ -3642,6 +3611,7 @@ System.out.println("used:"+(System.currentTimeMillis()-millis));
 	private void calculateCoordinates(Graphics g, Rectangle bounds) {
 		int size = Math.min(bounds.width, bounds.height);
 		mBorder = size/32;
+		mCorrelationSortOrder = null;
 
 		calculateNaNArea(bounds.width, bounds.height);
 		calculateScaleDimensions(g, bounds.width, bounds.height);
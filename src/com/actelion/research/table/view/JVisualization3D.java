@@ -126,6 +126,8 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 	private static final int STEREO_CURSOR_WIDTH = 12;
 	private static final int STEREO_CURSOR_LENGTH = 40;
 	private static final int MAX_FONT_HEIGHT = 32;
+	private static final int MIN_POINTS_FOR_TILED_RENDERING = 20000;
+	private static final int MAX_MARKERS_WHILE_ADJUSTING = 50000;
 
 	public static final int cAvailableShapeCount = cPoint.length;
 	private static final int cSphere = 0;
@@ -177,6 +179,9 @@ public class JVisualization3D extends JVisualization implements ComponentListene
     private Matrix3f			mNullRotationMatrix;
 	private ExecutorService		mExecutor;
 	private V3DWorker[]			mV3DWorker;
+	private int[][]				mTilePoint;
+	private int[]				mTilePointCount;
+	private short[]				mMarkerColix;
 	private ArrayList<RotationListener> mRotationListenerList;
 
     public JVisualization3D(Frame owner,
@@ -253,6 +258,9 @@ public class JVisualization3D extends JVisualization implements ComponentListene
     		mG3D.destroy();
     	if (m2ndG3D != null)
     		m2ndG3D.destroy();
+    	if (mV3DWorker != null)
+    		for (V3DWorker worker:mV3DWorker)
+    			worker.destroy();
     	}
 
     public void componentResized(ComponentEvent e) {}
@@ -1985,11 +1993,22 @@ public class JVisualization3D extends JVisualization implements ComponentListene
         boolean showAnyLabels = showAnyLabels();
         boolean isTreeView = isTreeViewGraph();
 
+		int stride = getAdjustingStride();
+
+		if (mV3DWorker != null && clipRect == null && !showAnyLabels) {
+			int tiledPointCount = (mDataPoints + stride - 1) / stride;
+			if (tiledPointCount >= MIN_POINTS_FOR_TILED_RENDERING) {
+				drawMarkersSMP(focusFlagNo, stride);
+				return;
+				}
+			}
+
 		// If two markers with equal coordinates are drawn in a Graphics3D
 		// then the first to be drawn is the one finally visible!
 		// This is inverse to the JVisualization2D and since 
+		int visibleIndex = 0;
 		for (int i=mDataPoints-1; i>=0; i--) {
-			if (isVisible(mPoint[i])) {
+			if (isVisible(mPoint[i]) && (stride == 1 || visibleIndex++ % stride == 0)) {
 				boolean outOfFocus = focusFlagNo != -1 && !mPoint[i].record.isFlagSet(focusFlagNo);
 
 				VisualizationPoint3D vp = (VisualizationPoint3D)mPoint[i];
@@ -2027,6 +2046,93 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 			}
 		}
 
+	/**
+	 * While the user rotates or otherwise adjusts the view, only every n-th visible
+	 * marker is drawn to keep the frame rate high. This returns n, which is 1 if
+	 * all markers shall be drawn.
+	 * @return stride between drawn visible markers
+	 */
+	private int getAdjustingStride() {
+		if (!mIsAdjusting || mDataPoints <= MAX_MARKERS_WHILE_ADJUSTING)
+			return 1;
+
+		int visibleCount = 0;
+		for (int i=0; i<mDataPoints; i++)
+			if (isVisible(mPoint[i]))
+				visibleCount++;
+
+		return (visibleCount + MAX_MARKERS_WHILE_ADJUSTING - 1) / MAX_MARKERS_WHILE_ADJUSTING;
+		}
+
+	/**
+	 * Draws all markers using one V3DWorker per horizontal screen tile. Markers are
+	 * colored and binned into the tiles they cover on this thread. Then every worker
+	 * rasterizes its tile's markers with its own Graphics3D and merges the tile into
+	 * mG3D considering the z-buffer.
+	 * @param focusFlagNo
+	 * @param stride draw only every stride-th visible marker
+	 */
+	private void drawMarkersSMP(int focusFlagNo, int stride) {
+		int renderWidth = mG3D.getRenderWidth();
+		int renderHeight = mG3D.getRenderHeight();
+		int tileHeight = mAAFactor * ((renderHeight / mAAFactor + mThreadCount - 1) / mThreadCount);
+
+		if (mMarkerColix == null || mMarkerColix.length < mDataPoints)
+			mMarkerColix = new short[mDataPoints];
+		if (mTilePoint == null || mTilePoint.length != mThreadCount) {
+			mTilePoint = new int[mThreadCount][];
+			mTilePointCount = new int[mThreadCount];
+			}
+		for (int t=0; t<mThreadCount; t++) {
+			mTilePointCount[t] = 0;
+			if (mTilePoint[t] == null)
+				mTilePoint[t] = new int[2 * mDataPoints / mThreadCount];
+			}
+
+		int visibleIndex = 0;
+		for (int i=mDataPoints-1; i>=0; i--) {
+			if (isVisible(mPoint[i]) && (stride == 1 || visibleIndex++ % stride == 0)) {
+				VisualizationPoint3D vp = (VisualizationPoint3D)mPoint[i];
+				float size = mContentScaling*getMarkerSize(vp);
+				if (size == 0f)
+					continue;
+
+				boolean outOfFocus = focusFlagNo != -1 && !vp.record.isFlagSet(focusFlagNo);
+			    Color color = (vp == mActivePoint) ? Color.red
+			            	: (vp.record.isSelected()
+                               && mFocusHitlist != cFocusOnSelection) ?
+                            		   VisualizationColor.cSelectedColor : mMarkerColor.getColorList()[vp.colorIndex];
+			    if (vp == mHighlightedPoint && mIsAdjusting)
+			        color = color.darker().darker();
+			    if (outOfFocus || isNaN(vp))
+			        color = VisualizationColor.grayOutColor(color);
+			    mMarkerColix[i] = Graphics3D.getColix(color.getRGB());
+			    mG3D.setColix(mMarkerColix[i]);	// creates shared shade tables before workers need them
+
+				// markers extend at most 1.3 times their size from their center
+				int y = mContentScaling*vp.screenY;
+				int extent = (int)(1.3f*size*vp.zoom) + mContentScaling + 1;
+				int firstTile = Math.max(0, (y-extent) / tileHeight);
+				int lastTile = Math.min(mThreadCount-1, (y+extent) / tileHeight);
+				for (int t=firstTile; t<=lastTile; t++) {
+					if (mTilePointCount[t] == mTilePoint[t].length)
+						mTilePoint[t] = Arrays.copyOf(mTilePoint[t], Math.max(1024, 2 * mTilePoint[t].length));
+					mTilePoint[t][mTilePointCount[t]++] = i;
+					}
+				}
+			}
+
+		CountDownLatch doneSignal = new CountDownLatch(mThreadCount);
+		for (V3DWorker worker:mV3DWorker) {
+			worker.initPaintMarkers(renderWidth / mAAFactor, tileHeight, doneSignal);
+			mExecutor.execute(worker);
+			}
+		try {
+			doneSignal.await();
+			}
+		catch (InterruptedException e) {}
+		}
+
 	private void drawConnectionLines(Rectangle clipRect) {
 	    if (mConnectionColumn != cColumnUnassigned) {
 	    	if (mAbsoluteConnectionLineWidth < 0.5f)
@@ -2442,16 +2548,20 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 			}
 		
 		void draw(short colix) {
-			mG3D.setColix(colix);
+			draw(mG3D, colix);
+			}
+
+		void draw(Graphics3D g3D, short colix) {
+			g3D.setColix(colix);
 		    switch (type) {
 		    case cSphere:
-			    mG3D.fillSphereCentered((int)(this.size*cDiameter[cSphere]), screenPoint[0]);
+			    g3D.fillSphereCentered((int)(this.size*cDiameter[cSphere]), screenPoint[0]);
 			    break;
 		    case cCone:
-		    	mG3D.fillCone(Graphics3D.ENDCAPS_FLAT, (int)(this.size*cDiameter[cCone]), screenPoint[0], screenPoint[1]);
+		    	g3D.fillCone(Graphics3D.ENDCAPS_FLAT, (int)(this.size*cDiameter[cCone]), screenPoint[0], screenPoint[1]);
 			    break;
 		    case cCylinder:
-		    	mG3D.fillCylinder(Graphics3D.ENDCAPS_FLAT, (int)(this.size*cDiameter[cCylinder]), screenPoint[0], screenPoint[1]);
+		    	g3D.fillCylinder(Graphics3D.ENDCAPS_FLAT, (int)(this.size*cDiameter[cCylinder]), screenPoint[0], screenPoint[1]);
 			    break;
 			default:
 			    for (int i=0; i<faceCount; i++) {
@@ -2459,15 +2569,24 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 			        Point3i p2 = screenPoint[pointOfFace[i][1]];
 			        Point3i p3 = screenPoint[pointOfFace[i][2]];
 			        if (isFaceVisible(p1, p2, p3)) {
-			        	mG3D.calcSurfaceShade(p1, p2, p3);
-			        	mG3D.fillTriangle(p1, p2, p3);
+			        	g3D.calcSurfaceShade(p1, p2, p3);
+			        	g3D.fillTriangle(p1, p2, p3);
 			            if (pointOfFace[i].length == 4)
-			            	mG3D.fillTriangle(p2, p3, screenPoint[pointOfFace[i][3]]);
+			            	g3D.fillTriangle(p2, p3, screenPoint[pointOfFace[i][3]]);
 			        	}
 			    	}
 		    	}
 			}
 
+		/**
+		 * Moves the calculated screen points vertically, e.g. into the coordinate system of a tile.
+		 * @param dy
+		 */
+		void translateY(int dy) {
+			for (int i=0; i<screenPoint.length; i++)
+				screenPoint[i].y += dy;
+			}
+
 		private void drawLabels(VisualizationPoint3D vp, Color color, boolean isTreeView, Rectangle clipRect) {
             if (mLabelColumn[MarkerLabelDisplayer.cMidCenter] != cColumnUnassigned
 			 && (!mLabelsInTreeViewOnly || isTreeView))
@@ -2629,6 +2748,7 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 	private class V3DWorker implements Runnable {
 		private static final int PAINT_CONTENT = 1;
 		private static final int MERGE_IMAGES = 2;
+		private static final int PAINT_MARKERS = 3;
 
 		private CountDownLatch mDoneSignal;
 		private int mThreadIndex;
@@ -2638,11 +2758,26 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 		private int[] mRGB,mRGB1,mRGB2;
 		private Graphics mG;
 		private Rectangle mGraphBounds;
+		private Graphics3D mTileG3D;
+		private ComposedObject[] mTileMarker;
+		private int mTileWindowWidth,mTileHeight;
 
 		private V3DWorker(int threadIndex) {
 			mThreadIndex = threadIndex;
 			}
 
+		/**
+		 * @param windowWidth width of the tile in window pixels
+		 * @param tileHeight height of the tile in render pixels
+		 * @param doneSignal
+		 */
+		public void initPaintMarkers(int windowWidth, int tileHeight, CountDownLatch doneSignal) {
+			mAction = PAINT_MARKERS;
+			mTileWindowWidth = windowWidth;
+			mTileHeight = tileHeight;
+			mDoneSignal = doneSignal;
+			}
+
 /*		public void initPaintContent(Graphics g, Rectangle graphBounds, Rectangle area, CountDownLatch doneSignal) {
 			mAction = PAINT_CONTENT;
 			mG = g;
@@ -2683,10 +2818,53 @@ public class JVisualization3D extends JVisualization implements ComponentListene
 			case MERGE_IMAGES:
 				mergeStereoImageArea(mRGB, mRGB1, mRGB2, mIsOdd, mSubArea);
 				break;
+			case PAINT_MARKERS:
+				try {
+					paintTileMarkers();
+					}
+				catch (Exception e) {
+					e.printStackTrace();
+					}
+				break;
 				}
 			mDoneSignal.countDown();
 			}
 
+		public void destroy() {
+			if (mTileG3D != null) {
+				mTileG3D.destroy();
+				mTileG3D = null;
+				}
+			}
+
+		private void paintTileMarkers() {
+			if (mTileG3D == null) {
+				mTileG3D = new Graphics3D(JVisualization3D.this);
+				mTileG3D.setBackgroundTransparent(false);
+				mTileG3D.setSlabAndDepthValues(Integer.MIN_VALUE, Integer.MAX_VALUE, true);
+				mTileMarker = new ComposedObject[cAvailableShapeCount];
+				for (int i=0; i<cAvailableShapeCount; i++)
+					mTileMarker[i] = new ComposedObject(i, cPoint[i], cPointOfFace[i]);
+				}
+
+			boolean antialiasing = (mAAFactor == 2);
+			mTileG3D.setWindowParameters(mTileWindowWidth, mTileHeight / mAAFactor, antialiasing);
+			mTileG3D.beginRendering(mNullRotationMatrix);
+
+			int yOffset = mThreadIndex * mTileHeight;
+			int[] point = mTilePoint[mThreadIndex];
+			int count = mTilePointCount[mThreadIndex];
+			for (int i=0; i<count; i++) {
+				VisualizationPoint3D vp = (VisualizationPoint3D)mPoint[point[i]];
+				ComposedObject marker = mTileMarker[vp.shape];
+				marker.calculate(vp);
+				marker.translateY(-yOffset);
+				marker.draw(mTileG3D, mMarkerColix[point[i]]);
+				}
+
+			mG3D.mergeTile(mTileG3D, yOffset);
+			}
+
 		/**
 		 * Calculate the sub-area that this worker needs to work on.
 		 * All parameters of input area and sub-area are even numbers.
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ *
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.util;
+
+/**
+ * Open-addressing hash table that maps byte array keys, e.g. idcodes or other canonical
+ * structure keys, to int values, e.g. row indexes. Keys are represented by 128-bit
+ * MurmurHash3 values, which are kept in primitive arrays. Key arrays are referenced,
+ * but not copied, and are compared byte by byte only if their 128-bit hashes are equal.
+ * Thus, checking whether a key is a duplicate typically needs O(1) time without
+ * touching any key content. This class is not thread-safe. However, hashes may be
+ * calculated in parallel with hash128() and then passed to put().
+ */
+public class ByteArrayHashTable {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] mHash1,mHash2;
+	private byte[][] mKey;
+	private int[] mValue;
+	private int mSize,mMask;
+
+	public ByteArrayHashTable() {
+		this(MIN_CAPACITY);
+		}
+
+	/**
+	 * @param expectedSize number of keys expected to be put into the table
+	 */
+	public ByteArrayHashTable(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+		}
+
+	public int size() {
+		return mSize;
+		}
+
+	/**
+	 * Adds the key unless an equal key is already in the table.
+	 * @param key
+	 * @param value
+	 * @return value associated with an equal key that was put before or -1, if key was added
+	 */
+	public int put(byte[] key, int value) {
+		long[] hash = new long[2];
+		hash128(key, hash);
+		return put(key, hash[0], hash[1], value);
+		}
+
+	/**
+	 * Adds the key unless an equal key is already in the table.
+	 * @param key
+	 * @param hash1 first half of the key's hash as calculated by hash128()
+	 * @param hash2 second half of the key's hash as calculated by hash128()
+	 * @param value
+	 * @return value associated with an equal key that was put before or -1, if key was added
+	 */
+	public int put(byte[] key, long hash1, long hash2, int value) {
+		int slot = findSlot(key, hash1, hash2);
+		if (mKey[slot] != null)
+			return mValue[slot];
+
+		mHash1[slot] = hash1;
+		mHash2[slot] = hash2;
+		mKey[slot] = key;
+		mValue[slot] = value;
+		if (++mSize > (mMask >>> 1))
+			allocate(2 * (mMask + 1));
+		return -1;
+		}
+
+	/**
+	 * @param key
+	 * @return value associated with key or -1, if the table doesn't contain the key
+	 */
+	public int get(byte[] key) {
+		long[] hash = new long[2];
+		hash128(key, hash);
+		return get(key, hash[0], hash[1]);
+		}
+
+	public int get(byte[] key, long hash1, long hash2) {
+		int slot = findSlot(key, hash1, hash2);
+		return (mKey[slot] == null) ? -1 : mValue[slot];
+		}
+
+	public boolean containsKey(byte[] key) {
+		return get(key) != -1;
+		}
+
+	/**
+	 * @return slot containing the key or empty slot, where the key should be put
+	 */
+	private int findSlot(byte[] key, long hash1, long hash2) {
+		int slot = (int)hash1 & mMask;
+		while (mKey[slot] != null) {
+			if (mHash1[slot] == hash1 && mHash2[slot] == hash2 && equals(mKey[slot], key))
+				return slot;
+			slot = (slot + 1) & mMask;
+			}
+		return slot;
+		}
+
+	private void allocate(int capacity) {
+		long[] oldHash1 = mHash1;
+		long[] oldHash2 = mHash2;
+		byte[][] oldKey = mKey;
+		int[] oldValue = mValue;
+
+		mHash1 = new long[capacity];
+		mHash2 = new long[capacity];
+		mKey = new byte[capacity][];
+		mValue = new int[capacity];
+		mMask = capacity - 1;
+
+		if (oldKey != null) {
+			for (int i=0; i<oldKey.length; i++) {
+				if (oldKey[i] != null) {
+					int slot = (int)oldHash1[i] & mMask;
+					while (mKey[slot] != null)
+						slot = (slot + 1) & mMask;
+					mHash1[slot] = oldHash1[i];
+					mHash2[slot] = oldHash2[i];
+					mKey[slot] = oldKey[i];
+					mValue[slot] = oldValue[i];
+					}
+				}
+			}
+		}
+
+	private static boolean equals(byte[] b1, byte[] b2) {
+		if (b1 == b2)
+			return true;
+		if (b1.length != b2.length)
+			return false;
+		for (int i=0; i<b1.length; i++)
+			if (b1[i] != b2[i])
+				return false;
+		return true;
+		}
+
+	/**
+	 * Calculates the 128-bit MurmurHash3 (x64 variant, seed 0) of the given bytes.
+	 * @param data
+	 * @param hash array receiving both 64-bit halves of the hash
+	 */
+	public static void hash128(byte[] data, long[] hash) {
+		int length = data.length;
+		int blocks = length >>> 4;
+		long h1 = 0;
+		long h2 = 0;
+
+		for (int i=0; i<blocks; i++) {
+			long k1 = getLong(data, 16*i);
+			long k2 = getLong(data, 16*i+8);
+
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+			}
+
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks << 4;
+		for (int i=length-1; i>=tail+8; i--)
+			k2 = (k2 << 8) | (data[i] & 0xFFL);
+		for (int i=Math.min(length, tail+8)-1; i>=tail; i--)
+			k1 = (k1 << 8) | (data[i] & 0xFFL);
+		if (length - tail > 8) {
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			}
+		if (length > tail) {
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+			}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+
+		hash[0] = h1;
+		hash[1] = h2;
+		}
+
+	private static long getLong(byte[] data, int index) {
+		long value = 0;
+		for (int i=7; i>=0; i--)
+			value = (value << 8) | (data[index+i] & 0xFFL);
+		return value;
+		}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+		}
+	}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Actelion Pharmaceuticals Ltd., Gewerbestrasse 16, CH-4123 Allschwil, Switzerland
+ *
+ * This file is part of DataWarrior.
+ * 
+ * DataWarrior is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * DataWarrior is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with DataWarrior.
+ * If not, see http://www.gnu.org/licenses/.
+ *
+ * @author Thomas Sander
+ */
+
+package com.actelion.research.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Registry of knowledge bases (parameter files, fragment lists, statistics) that are
+ * parsed from resources on first use. Every knowledge base is registered with a loader,
+ * which is run at most once, either on demand through load() or by startWarmUp(),
+ * which loads all registered knowledge bases on a low priority background thread,
+ * such that the first chemistry task of a session doesn't stall.
+ * The time needed to load every knowledge base and the cause of a failed load
+ * are recorded and can be retrieved with getLoadReport(), which is printed after
+ * the warm-up, if the system property 'development' is set.
+ */
+public class KnowledgeBaseRegistry {
+	private static final LinkedHashMap<String,Entry> sEntryMap = new LinkedHashMap<String,Entry>();
+
+	/**
+	 * Registers a knowledge base. The loader must be thread-safe in the sense that it may be
+	 * called while the owning class initializes itself lazily from another thread.
+	 * Registering a name twice has no effect.
+	 * @param name
+	 * @param loader
+	 */
+	public static void register(String name, Runnable loader) {
+		synchronized(sEntryMap) {
+			if (!sEntryMap.containsKey(name))
+				sEntryMap.put(name, new Entry(name, loader));
+			}
+		}
+
+	/**
+	 * Loads the knowledge base, if it was not loaded before, and waits until it is available.
+	 * @param name
+	 * @return false if the name is not registered or if loading failed
+	 */
+	public static boolean load(String name) {
+		Entry entry;
+		synchronized(sEntryMap) {
+			entry = sEntryMap.get(name);
+			}
+		return entry != null && entry.load();
+		}
+
+	/**
+	 * Starts a background thread with minimum priority that loads all registered
+	 * knowledge bases, which were not loaded yet. In development mode the load
+	 * report is printed to the console once all knowledge bases are loaded.
+	 */
+	public static void startWarmUp() {
+		final ArrayList<Entry> entryList;
+		synchronized(sEntryMap) {
+			entryList = new ArrayList<Entry>(sEntryMap.values());
+			}
+
+		Thread t = new Thread("Knowledge Base Warm-Up") {
+			public void run() {
+				for (Entry entry:entryList)
+					entry.load();
+				if (System.getProperty("development") != null)
+					System.out.print("Knowledge base warm-up:\n"+getLoadReport());
+				}
+			};
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.setDaemon(true);
+		t.start();
+		}
+
+	/**
+	 * @return one line per registered knowledge base with its load status and time
+	 */
+	public static String getLoadReport() {
+		StringBuilder sb = new StringBuilder();
+		synchronized(sEntryMap) {
+			for (Entry entry:sEntryMap.values()) {
+				sb.append(entry.mName).append(": ");
+				if (entry.mLoadMillis != -1)
+					sb.append(entry.mLoadMillis).append(" ms");
+				else if (entry.mFailure != null)
+					sb.append("failed (").append(entry.mFailure).append(")");
+				else
+					sb.append("not loaded");
+				sb.append('\n');
+				}
+			}
+		return sb.toString();
+		}
+
+	private static class Entry {
+		private final String mName;
+		private final Runnable mLoader;
+		private volatile long mLoadMillis;
+		private volatile Throwable mFailure;
+
+		public Entry(String name, Runnable loader) {
+			mName = name;
+			mLoader = loader;
+			mLoadMillis = -1;
+			}
+
+		public synchronized boolean load() {
+			if (mLoadMillis == -1 && mFailure == null) {
+				long start = System.currentTimeMillis();
+				try {
+					mLoader.run();
+					mLoadMillis = System.currentTimeMillis() - start;
+					}
+				catch (Throwable t) {
+					mFailure = t;
+					}
+				}
+			return mFailure == null;
+			}
+		}
+	}
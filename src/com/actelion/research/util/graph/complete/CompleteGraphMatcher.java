@@ -51,6 +51,14 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 	
 	private SolutionCompleteGraph solutionBest;
 	
+	/**
+	 * Candidate solutions are built in this probe and only copied into a pooled
+	 * solution if they are new and valid.
+	 */
+	private SolutionCompleteGraph solutionProbe;
+	
+	private List<SolutionCompleteGraph> liSolutionScored;
+	
 	private long validSolutions;
 	
 	private long createdSolutions;
@@ -97,6 +105,10 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 		arrIndexQueryTmp = new byte [MAX_NUM_NODES];
 		
 		solutionBest = new SolutionCompleteGraph();
+		
+		solutionProbe = new SolutionCompleteGraph();
+		
+		liSolutionScored = new ArrayList<SolutionCompleteGraph>(SIZE_LIST_SOLUTION);
 	}
 	
 	
@@ -109,6 +121,16 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 	}
 	
 	
+	/**
+	 * Cheap upper bound of the similarity that <code>calculateSimilarity()</code>
+	 * may return for the current base and query. Node similarities calculated here
+	 * are memorized by the objective and reused by a subsequent search.
+	 * @return
+	 */
+	public double calculateSimilarityUpperBound () {
+		return objectiveCompleteGraph.getSimilarityUpperBound();
+	}
+	
 	private void initSearch(){
 		
 		cm.reset();
@@ -201,7 +223,9 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 		
 		List<SolutionCompleteGraph> hsSolution = liliSolution.get(maxNumNodesWithSolution);
 				
-		List<SolutionCompleteGraph> li = new ArrayList<SolutionCompleteGraph>();
+		List<SolutionCompleteGraph> li = liSolutionScored;
+		
+		li.clear();
 		
 		for (SolutionCompleteGraph solution : hsSolution) {
 			
@@ -216,6 +240,8 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 		
 		solutionBest.copyIntoThis(li.get(li.size()-1));
 		
+		li.clear();
+		
 		double similarity = solutionBest.getSimilarity();
 		
 		return similarity;
@@ -235,8 +261,11 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 		
 		int heap = solution.getSizeHeap();
 
-		for (int i = 0; i < arrIndexBaseTmp.length; i++) {
+		for (int i = 0; i < nodesBase; i++) {
 			arrIndexBaseTmp[i]=0;
+		}
+		
+		for (int i = 0; i < nodesQuery; i++) {
 			arrIndexQueryTmp[i]=0;
 		}
 		
@@ -254,30 +283,20 @@ public class CompleteGraphMatcher<T extends ICompleteGraph> {
 						
 						if(objectiveCompleteGraph.areNodesMapping(indexNodeQuery, indexNodeBase)){
 						
-							SolutionCompleteGraph solutionNew = cm.getWithCopy(solution);
+							solutionProbe.copyIntoThis(solution);
 							
-							solutionNew.copyIntoThis(solution);
+							solutionProbe.setNodesQuery(nodesQuery);
 							
-							solutionNew.setNodesQuery(nodesQuery);
-							
-							solutionNew.add(indexNodeQuery, indexNodeBase);
+							solutionProbe.add(indexNodeQuery, indexNodeBase);
 							
 							createdSolutions++;
 							
-							if(hsSolution.contains(solutionNew)) {
-								cm.back(solutionNew);
-							} else {
-																
-								if(objectiveCompleteGraph.isValidSolution(solutionNew)){
-									
-									
-									hsSolution.add(solutionNew);
-									validSolutionFound=true;
-									validSolutions++;
-									
-								} else {
-									cm.back(solutionNew);
-								}
+							if(!hsSolution.contains(solutionProbe)
+							 && objectiveCompleteGraph.isValidSolution(solutionProbe)) {
+								
+								hsSolution.add(cm.getWithCopy(solutionProbe));
+								validSolutionFound=true;
+								validSolutions++;
 							}
 						} 
 					}
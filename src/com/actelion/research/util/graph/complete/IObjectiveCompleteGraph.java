@@ -26,5 +26,11 @@ public interface IObjectiveCompleteGraph<T extends ICompleteGraph> {
 	public abstract boolean isValidSolution(SolutionCompleteGraph solution);
 	
 	public abstract float getSimilarity(SolutionCompleteGraph solution);
+	
+	/**
+	 * @return a value that is not lower than the similarity of any solution
+	 * for the current base and query.
+	 */
+	public abstract float getSimilarityUpperBound();
 
 }
@@ -111,7 +111,7 @@ public class SolutionCompleteGraph extends AMemorizedObject implements Comparabl
 		
 		SolutionCompleteGraph s = (SolutionCompleteGraph)obj;
 		
-		if(sizeHeap != s.sizeHeap){
+		if(sizeHeap != s.sizeHeap || hash != s.hash){
 			return false;
 		}
 		
@@ -156,9 +156,10 @@ public class SolutionCompleteGraph extends AMemorizedObject implements Comparabl
 	
 	public void reset() {
 		
-		for (int i = 0; i < arrSolution.length; i++) {
+		// Only the entries referenced by the heap may differ from the default.
+		for (int i = 0; i < sizeHeap; i++) {
 			
-			arrSolution[i] = CompleteGraphMatcher.DEFAULT_VAL;
+			arrSolution[heapIndexQuery[i]] = CompleteGraphMatcher.DEFAULT_VAL;
 			
 			heapIndexBase[i] = CompleteGraphMatcher.DEFAULT_VAL;
 			
@@ -394,6 +394,35 @@ final public class Graphics3D implements JmolRendererInterface {
     currentlyRendering = false;
   }
 
+  /**
+   * Merges the opaque content of a tile into this buffer. The tile must have been
+   * rendered with the same render width and antialiasing mode as this buffer, but may
+   * be of smaller height. Tile pixels replace pixels of this buffer, if they are
+   * closer to the viewer. Tiles covering distinct row ranges may be merged concurrently.
+   * The tile's rendering cycle is closed without downsampling its buffer.
+   *
+   * @param tile Graphics3D that rendered a horizontal band of this buffer
+   * @param yOffset first row of this buffer covered by the tile (render coordinates)
+   */
+  public void mergeTile(Graphics3D tile, int yOffset) {
+    if (!currentlyRendering || !tile.currentlyRendering || tile.width != width)
+      return;
+    int[] tpbuf = tile.pbuf;
+    int[] tzbuf = tile.zbuf;
+    int rows = Math.min(tile.height, height - yOffset);
+    for (int y = 0; y < rows; y++) {
+      int t = y * width;
+      int offset = (y + yOffset) * width;
+      for (int x = width; --x >= 0; t++, offset++) {
+        if (tzbuf[t] < zbuf[offset]) {
+          zbuf[offset] = tzbuf[t];
+          pbuf[offset] = tpbuf[t];
+        }
+      }
+    }
+    tile.currentlyRendering = false;
+  }
+
   int anaglyphLength;
   public void snapshotAnaglyphChannelBytes() {
     if (currentlyRendering)
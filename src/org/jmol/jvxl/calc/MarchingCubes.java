@@ -23,7 +23,9 @@
  */
 package org.jmol.jvxl.calc;
 
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Point3f;
 import javax.vecmath.Point3i;
@@ -79,8 +81,6 @@ public class MarchingCubes extends TriangleData  {
   private int nY, nZ;
   private int yzCount;
   
-  private float fractionOutside;
-  private boolean integrateSquared = true;
   private BitSet bsVoxels;
 
   private StringBuffer edgeData = new StringBuffer();
@@ -210,6 +210,11 @@ public class MarchingCubes extends TriangleData  {
       // we are starting at the top corner, in the next to last
       // cell on the next to last row of the next to last plane(!)
     }
+    SurfaceCubes[] surfaceCubes = null;
+    if (mode == MODE_CUBE) {
+      calculateInsideVoxels();
+      surfaceCubes = findSurfaceCubes();
+    }
     int cellIndex0 = cubeCountY * cubeCountZ - 1;
     int cellIndex = cellIndex0;
     resetIndexPlane(isoPointIndexPlanes[1]);
@@ -230,6 +235,13 @@ public class MarchingCubes extends TriangleData  {
       isoPointIndexPlanes[0] = isoPointIndexPlanes[1];
       isoPointIndexPlanes[1] = resetIndexPlane(indexPlane);
       
+      // with cube data the surface cubicals of this plane are already known
+      
+      if (mode == MODE_CUBE) {
+        processSurfaceCubes(x, surfaceCubes[x]);
+        continue;
+      }
+
       // now scan the plane of cubicals
       
       for (int y = cubeCountY; --y >= 0; pt--) {
@@ -253,23 +265,15 @@ public class MarchingCubes extends TriangleData  {
                   + offset.z, pti, yzPlanes[yzPlanePts[i]]);
               isInside = bsVoxels.get(pti);
               break;
+            default:
             case MODE_BITSET:
               isInside = bsVoxels.get(pti);
               vertexValues[i] = (isInside ? 1 : 0);
               break;
-            default:
-            case MODE_CUBE:
-              vertexValues[i] = volumeData.voxelData[x + offset.x][y + offset.y][z
-                  + offset.z];
-              if (isSquared)
-                vertexValues[i] *= vertexValues[i];
-              isInside = isInside(vertexValues[i], cutoff, isCutoffAbsolute);
             }
             if (isInside) {
               bsVoxels.set(pti);
               insideMask |= Pwr2[i];
-            } else {
-              fractionOutside += (integrateSquared ? vertexValues[i] * vertexValues[i] : vertexValues[i]);
             }
           }
 
@@ -287,27 +291,161 @@ public class MarchingCubes extends TriangleData  {
           
           // This cube is straddling the cutoff. We must check all edges 
 
-          if (!processOneCubical(insideMask, x, y, z, pt)
-              || isContoured)
-            continue;
-
-          // the inside mask serves to define the triangles necessary 
-          // if just creating JVXL files, this step is unnecessary
-
-          byte[] triangles = triangleTable2[insideMask];
-          for (int i = triangles.length; (i -= 4) >= 0;)
-            addTriangle(triangles[i], triangles[i + 1], 
-                triangles[i + 2], triangles[i + 3]);
+          processCubical(insideMask, x, y, z, pt);
         }
       }
     }
 
     //Logger.checkTimer("Jmol mc getEdgeData");
 
-    //System.out.println("MarchingCubes: fractionOutside = " + fractionOutside/8);
     return edgeData.toString();
   }
 
+  private void processCubical(int insideMask, int x, int y, int z, int pt) {
+    if (!processOneCubical(insideMask, x, y, z, pt)
+        || isContoured)
+      return;
+
+    // the inside mask serves to define the triangles necessary 
+    // if just creating JVXL files, this step is unnecessary
+
+    byte[] triangles = triangleTable2[insideMask];
+    for (int i = triangles.length; (i -= 4) >= 0;)
+      addTriangle(triangles[i], triangles[i + 1], 
+          triangles[i + 2], triangles[i + 3]);
+  }
+
+  /*
+   * With cube data the scan for cubicals straddling the cutoff is done
+   * in parallel, one x plane at a time, into a buffer per plane that keeps
+   * the cubicals in scanning order together with their vertex values.
+   * Edge points and triangles are then created from these buffers plane
+   * by plane in the original x order, because the surface reader assigns
+   * vertex indexes and the JVXL edge data depend on that sequence.
+   * 
+   */
+
+  private static class SurfaceCubes {
+    int count;
+    int[] yzIndex = new int[16];
+    int[] insideMask = new int[16];
+    float[] values = new float[128];
+
+    void add(int yz, int mask) {
+      if (count == yzIndex.length) {
+        yzIndex = Arrays.copyOf(yzIndex, 2 * count);
+        insideMask = Arrays.copyOf(insideMask, 2 * count);
+        values = Arrays.copyOf(values, 16 * count);
+      }
+      yzIndex[count] = yz;
+      insideMask[count++] = mask;
+    }
+  }
+
+  private SurfaceCubes[] findSurfaceCubes() {
+    final float[][][] voxelData = volumeData.voxelData;
+    final SurfaceCubes[] surfaceCubes = new SurfaceCubes[cubeCountX];
+    final AtomicInteger nextPlane = new AtomicInteger();
+    Runnable task = new Runnable() {
+      public void run() {
+        for (int x = nextPlane.getAndIncrement(); x < cubeCountX; x = nextPlane.getAndIncrement()) {
+          SurfaceCubes cubes = new SurfaceCubes();
+          for (int y = cubeCountY; --y >= 0;) {
+            for (int z = cubeCountZ; --z >= 0;) {
+              int pt = x * yzCount + y * nZ + z;
+              int insideMask = 0;
+              for (int i = 8; --i >= 0;)
+                if (bsVoxels.get(pt + linearOffsets[i]))
+                  insideMask |= Pwr2[i];
+              if (insideMask == 0 || insideMask == 0xFF)
+                continue;
+              int offset = cubes.count << 3;
+              cubes.add(y * nZ + z, insideMask);
+              for (int i = 0; i < 8; i++) {
+                Point3i vertex = cubeVertexOffsets[i];
+                float value = voxelData[x + vertex.x][y + vertex.y][z + vertex.z];
+                cubes.values[offset + i] = (isSquared ? value * value : value);
+              }
+            }
+          }
+          surfaceCubes[x] = cubes;
+        }
+      }
+    };
+    runTask(task, Math.min(Runtime.getRuntime().availableProcessors(), cubeCountX),
+        (cubeCountX + 1) * yzCount >= MIN_VOXELS_FOR_THREADING);
+    return surfaceCubes;
+  }
+
+  private void processSurfaceCubes(int x, SurfaceCubes cubes) {
+    for (int i = 0; i < cubes.count; i++) {
+      int yz = cubes.yzIndex[i];
+      System.arraycopy(cubes.values, i << 3, vertexValues, 0, 8);
+      processCubical(cubes.insideMask[i], x, yz / nZ, yz % nZ, x * yzCount + yz);
+    }
+  }
+
+  private final static int MIN_VOXELS_FOR_THREADING = 32768;
+
+  private static void runTask(Runnable task, int threadCount, boolean isThreaded) {
+    if (threadCount < 2 || !isThreaded) {
+      task.run();
+      return;
+    }
+    Thread[] worker = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+      (worker[i] = new Thread(task, "Marching Cubes " + (i + 1))).start();
+    for (int i = 0; i < threadCount; i++)
+      try {
+        worker[i].join();
+      } catch (InterruptedException e) {
+        // ignore
+      }
+  }
+
+  /**
+   * Sets the bits of all voxels inside the cutoff. The voxel data are split
+   * into ranges of complete 64-bit words, which are processed in parallel.
+   * 
+   */
+  private void calculateInsideVoxels() {
+    final float[][][] voxelData = volumeData.voxelData;
+    final int nX = cubeCountX + 1;
+    final int pointCount = nX * yzCount;
+    final long[] words = new long[(pointCount + 63) >> 6];
+    final int wordsPerBlock = 256;
+    final int blockCount = (words.length + wordsPerBlock - 1) / wordsPerBlock;
+    final AtomicInteger nextBlock = new AtomicInteger();
+    Runnable task = new Runnable() {
+      public void run() {
+        for (int block = nextBlock.getAndIncrement(); block < blockCount; block = nextBlock.getAndIncrement()) {
+          int pt = block * wordsPerBlock << 6;
+          int ptEnd = Math.min(pointCount, (block + 1) * wordsPerBlock << 6);
+          int x = pt / yzCount;
+          int y = (pt % yzCount) / nZ;
+          int z = pt % nZ;
+          for (; pt < ptEnd; pt++) {
+            float value = voxelData[x][y][z];
+            if (isSquared)
+              value *= value;
+            if (isInside(value, cutoff, isCutoffAbsolute))
+              words[pt >> 6] |= (1L << pt);
+            if (++z == nZ) {
+              z = 0;
+              if (++y == nY) {
+                y = 0;
+                x++;
+              }
+            }
+          }
+        }
+      }
+    };
+    runTask(task, Math.min(Runtime.getRuntime().availableProcessors(), blockCount),
+        pointCount >= MIN_VOXELS_FOR_THREADING);
+    bsVoxels = BitSet.valueOf(words);
+  }
+
   Vector3f vTemp = new Vector3f();
 
   private void addTriangle(int ia, int ib, int ic, int edgeType) {
@@ -23,7 +23,11 @@
  */
 package org.jmol.jvxl.readers;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Point3f;
 import javax.vecmath.Point3i;
@@ -267,173 +271,277 @@ class IsoSolventReader extends AtomDataReader {
 
   final Point3f ptXyzTemp = new Point3f();
 
-  void generateSolventCube(boolean isFirstPass) {
-    float distance = params.distance;
-    float rA, rB;
-    Point3f ptA;
-    Point3f ptY0 = new Point3f(), ptZ0 = new Point3f();
-    Point3i pt0 = new Point3i(), pt1 = new Point3i();
+  /*
+   * The voxel grid is filled slab-wise along x on multiple threads. Every slab
+   * is owned by one thread, which processes all atoms (or trough atom pairs)
+   * whose grid box intersects the slab in the original order, such that
+   * every voxel receives the same sequence of updates as in a serial run.
+   * Trough atom pairs are collected beforehand, because the atom iterator
+   * of the AtomDataServer is not thread-safe.
+   * 
+   */
+
+  private final static int MIN_VOXELS_FOR_THREADING = 32768;
+
+  void generateSolventCube(final boolean isFirstPass) {
+    final float distance = params.distance;
     float value = (doSmoothProperty ? Float.NaN : Float.MAX_VALUE);
     if (Logger.debugging)
       Logger.startTimer();
     for (int x = 0; x < nPointsX; ++x)
       for (int y = 0; y < nPointsY; ++y)
-        for (int z = 0; z < nPointsZ; ++z)
-          voxelData[x][y][z] = value;
+        Arrays.fill(voxelData[x][y], value);
     if (dataType == Parameters.SURFACE_NOMAP)
       return;
     int atomCount = myAtomCount;
-    float property[][][] = null;
+    float[][][] property = null;
     if (isProperty) {
       atomCount = firstNearbyAtom;
       property = new float[nPointsX][nPointsY][nPointsZ];
       value = (doSmoothProperty ? 0 : Float.NaN);
       for (int x = 0; x < nPointsX; ++x)
         for (int y = 0; y < nPointsY; ++y)
-          for (int z = 0; z < nPointsZ; ++z)
-            property[x][y][z] = value;
+          Arrays.fill(property[x][y], value);
     }
+    final float[][][] prop = property;
     float maxRadius = 0;
     float r0 = (isFirstPass && isCavity ? cavityRadius : 0);
-    boolean isWithin = (isFirstPass && distance != Float.MAX_VALUE && point != null);
+    final boolean isWithin = (isFirstPass && distance != Float.MAX_VALUE && point != null);
+    final int[][] atomBox = new int[atomCount][];
+    Point3i pt0 = new Point3i(), pt1 = new Point3i();
     for (int iAtom = 0; iAtom < atomCount; iAtom++) {
-      ptA = atomXyz[iAtom];
-      rA = atomRadius[iAtom];
+      Point3f ptA = atomXyz[iAtom];
+      float rA = atomRadius[iAtom];
       if (rA > maxRadius)
         maxRadius = rA;
       if (isWithin && ptA.distance(point) > distance + rA + 0.5)
         continue;
-      boolean isNearby = (iAtom >= firstNearbyAtom);
       setGridLimitsForAtom(ptA, rA + r0, pt0, pt1);
-      volumeData.voxelPtToXYZ(pt0.x, pt0.y, pt0.z, ptXyzTemp);
-      for (int i = pt0.x; i < pt1.x; i++) {
-        ptY0.set(ptXyzTemp);
-        for (int j = pt0.y; j < pt1.y; j++) {
-          ptZ0.set(ptXyzTemp);
-          for (int k = pt0.z; k < pt1.z; k++) {
-            float v = ptXyzTemp.distance(ptA) - rA;
-            if (doSmoothProperty) {
-              v = 1 / (v + rA);
-              v *= v;
-              v *= v;
-              if (Float.isNaN(voxelData[i][j][k]))
-                voxelData[i][j][k] = 0;
-              if (!Float.isNaN(atomProp[iAtom]))
-                property[i][j][k] += atomProp[iAtom] * v;
-              voxelData[i][j][k] += v;
-            } else if (v < voxelData[i][j][k]) {
-              voxelData[i][j][k] = (isNearby || isWithin
-                  && ptXyzTemp.distance(point) > distance ? Float.NaN : v);
-              if (isProperty)
-                property[i][j][k] = atomProp[iAtom];
+      atomBox[iAtom] = new int[] { pt0.x, pt0.y, pt0.z, pt1.x, pt1.y, pt1.z };
+    }
+    runSlabParallel(new SlabTask() {
+      public void process(int x0, int x1) {
+        Point3f ptV = new Point3f(), ptY0 = new Point3f(), ptZ0 = new Point3f();
+        for (int iAtom = 0; iAtom < atomBox.length; iAtom++) {
+          int[] box = atomBox[iAtom];
+          if (box == null || box[3] <= x0 || box[0] >= x1)
+            continue;
+          Point3f ptA = atomXyz[iAtom];
+          float rA = atomRadius[iAtom];
+          boolean isNearby = (iAtom >= firstNearbyAtom);
+          int iStart = Math.max(box[0], x0);
+          int iEnd = Math.min(box[3], x1);
+          volumeData.voxelPtToXYZ(iStart, box[1], box[2], ptV);
+          for (int i = iStart; i < iEnd; i++) {
+            ptY0.set(ptV);
+            for (int j = box[1]; j < box[4]; j++) {
+              ptZ0.set(ptV);
+              float[] voxelRow = voxelData[i][j];
+              for (int k = box[2]; k < box[5]; k++) {
+                float v = ptV.distance(ptA) - rA;
+                if (doSmoothProperty) {
+                  v = 1 / (v + rA);
+                  v *= v;
+                  v *= v;
+                  if (Float.isNaN(voxelRow[k]))
+                    voxelRow[k] = 0;
+                  if (!Float.isNaN(atomProp[iAtom]))
+                    prop[i][j][k] += atomProp[iAtom] * v;
+                  voxelRow[k] += v;
+                } else if (v < voxelRow[k]) {
+                  voxelRow[k] = (isNearby || isWithin
+                      && ptV.distance(point) > distance ? Float.NaN : v);
+                  if (isProperty)
+                    prop[i][j][k] = atomProp[iAtom];
+                }
+                ptV.add(volumetricVectors[2]);
+              }
+              ptV.set(ptZ0);
+              ptV.add(volumetricVectors[1]);
             }
-            ptXyzTemp.add(volumetricVectors[2]);
+            ptV.set(ptY0);
+            ptV.add(volumetricVectors[0]);
           }
-          ptXyzTemp.set(ptZ0);
-          ptXyzTemp.add(volumetricVectors[1]);
         }
-        ptXyzTemp.set(ptY0);
-        ptXyzTemp.add(volumetricVectors[0]);
       }
-    }
+    });
     if (isCavity && isFirstPass)
       return;
     if (doCalculateTroughs) {
-      Point3i ptA0 = new Point3i();
-      Point3i ptB0 = new Point3i();
-      Point3i ptA1 = new Point3i();
-      Point3i ptB1 = new Point3i();
-      for (int iAtom = 0; iAtom < firstNearbyAtom - 1; iAtom++)
-        if (atomNo[iAtom] > 0) {
-          ptA = atomXyz[iAtom];
-          rA = atomRadius[iAtom] + solventRadius;
-          int iatomA = atomIndex[iAtom];
-          if (isWithin && ptA.distance(point) > distance + rA + 0.5)
-            continue;
-          setGridLimitsForAtom(ptA, rA - solventRadius, ptA0, ptA1);
-          AtomIndexIterator iter = atomDataServer.getWithinAtomSetIterator(
-              iatomA, rA + solventRadius + maxRadius, bsMySelected, true, true); //true ==> only atom index > this atom accepted
-          while (iter.hasNext()) {
-            int iatomB = iter.next();
-            Point3f ptB = atomXyz[myIndex[iatomB]];
-            rB = atomData.atomRadius[iatomB] + solventRadius;
-            if (isWithin && ptB.distance(point) > distance + rB + 0.5)
-              continue;
-            if (params.thePlane != null
-                && Math.abs(volumeData.distancePointToPlane(ptB)) > 2 * rB)
-              continue;
-
-            float dAB = ptA.distance(ptB);
-            if (dAB >= rA + rB)
+      final List<TroughPair> pairs = getTroughPairs(isWithin, maxRadius);
+      runSlabParallel(new SlabTask() {
+        public void process(int x0, int x1) {
+          Point3f ptV = new Point3f(), ptY0 = new Point3f(), ptZ0 = new Point3f();
+          Point3f ptS = new Point3f();
+          for (int p = 0; p < pairs.size(); p++) {
+            TroughPair pair = pairs.get(p);
+            int[] box = pair.box;
+            if (box[3] <= x0 || box[0] >= x1)
               continue;
-            //defining pt0 and pt1 very crudely -- this could be refined
-            setGridLimitsForAtom(ptB, rB - solventRadius, ptB0, ptB1);
-            pt0.x = Math.min(ptA0.x, ptB0.x);
-            pt0.y = Math.min(ptA0.y, ptB0.y);
-            pt0.z = Math.min(ptA0.z, ptB0.z);
-            pt1.x = Math.max(ptA1.x, ptB1.x);
-            pt1.y = Math.max(ptA1.y, ptB1.y);
-            pt1.z = Math.max(ptA1.z, ptB1.z);
-            volumeData.voxelPtToXYZ(pt0.x, pt0.y, pt0.z, ptXyzTemp);
-            for (int i = pt0.x; i < pt1.x; i++) {
-              ptY0.set(ptXyzTemp);
-              for (int j = pt0.y; j < pt1.y; j++) {
-                ptZ0.set(ptXyzTemp);
-                for (int k = pt0.z; k < pt1.z; k++) {
-                  float dVS = checkSpecialVoxel(ptA, rA, ptB, rB, dAB,
-                      ptXyzTemp);
+            Point3f ptA = atomXyz[pair.atomA];
+            Point3f ptB = atomXyz[pair.atomB];
+            int iStart = Math.max(box[0], x0);
+            int iEnd = Math.min(box[3], x1);
+            volumeData.voxelPtToXYZ(iStart, box[1], box[2], ptV);
+            for (int i = iStart; i < iEnd; i++) {
+              ptY0.set(ptV);
+              for (int j = box[1]; j < box[4]; j++) {
+                ptZ0.set(ptV);
+                float[] voxelRow = voxelData[i][j];
+                for (int k = box[2]; k < box[5]; k++) {
+                  float dVS = checkSpecialVoxel(ptA, pair.rA, ptB, pair.rB,
+                      pair.dAB, ptV, ptS);
                   if (!Float.isNaN(dVS)) {
                     float v = solventRadius - dVS;
-                    if (v < voxelData[i][j][k]) {
-                      voxelData[i][j][k] = (isWithin
-                          && ptXyzTemp.distance(point) > distance ? Float.NaN
+                    if (v < voxelRow[k]) {
+                      voxelRow[k] = (isWithin
+                          && ptV.distance(point) > distance ? Float.NaN
                           : v);
                     }
                   }
-                  ptXyzTemp.add(volumetricVectors[2]);
+                  ptV.add(volumetricVectors[2]);
                 }
-                ptXyzTemp.set(ptZ0);
-                ptXyzTemp.add(volumetricVectors[1]);
+                ptV.set(ptZ0);
+                ptV.add(volumetricVectors[1]);
               }
-              ptXyzTemp.set(ptY0);
-              ptXyzTemp.add(volumetricVectors[0]);
+              ptV.set(ptY0);
+              ptV.add(volumetricVectors[0]);
             }
           }
         }
+      });
     }
     if (doSmoothProperty) {
-      for (int x = 0; x < nPointsX; ++x)
-        for (int y = 0; y < nPointsY; ++y)
-          for (int z = 0; z < nPointsZ; ++z)
-            if (!Float.isNaN(voxelData[x][y][z]))
-                voxelData[x][y][z] = property[x][y][z] / voxelData[x][y][z];
+      runSlabParallel(new SlabTask() {
+        public void process(int x0, int x1) {
+          for (int x = x0; x < x1; ++x)
+            for (int y = 0; y < nPointsY; ++y)
+              for (int z = 0; z < nPointsZ; ++z)
+                if (!Float.isNaN(voxelData[x][y][z]))
+                  voxelData[x][y][z] = prop[x][y][z] / voxelData[x][y][z];
+        }
+      });
       return;
     } else if (isProperty) {
       volumeData.voxelData = property;
       setVolumeData(volumeData);
       initializeVolumetricData();
     }
-    if (params.thePlane == null) {
-      for (int x = 0; x < nPointsX; ++x)
-        for (int y = 0; y < nPointsY; ++y)
-          for (int z = 0; z < nPointsZ; ++z)
-            if (voxelData[x][y][z] == Float.MAX_VALUE)
-              voxelData[x][y][z] = Float.NaN;
-    } else { //solvent planes just focus on negative values
-      value = 0.001f;
-      for (int x = 0; x < nPointsX; ++x)
-        for (int y = 0; y < nPointsY; ++y)
-          for (int z = 0; z < nPointsZ; ++z)
-            if (voxelData[x][y][z] < value) {
-              // Float.NaN will also match ">=" this way
-            } else {
-              voxelData[x][y][z] = value;
-            }
-    }
+    final boolean isPlane = (params.thePlane != null);
+    runSlabParallel(new SlabTask() {
+      public void process(int x0, int x1) {
+        for (int x = x0; x < x1; ++x)
+          for (int y = 0; y < nPointsY; ++y) {
+            float[] voxelRow = voxelData[x][y];
+            for (int z = 0; z < nPointsZ; ++z)
+              if (!isPlane) {
+                if (voxelRow[z] == Float.MAX_VALUE)
+                  voxelRow[z] = Float.NaN;
+              } else if (voxelRow[z] < 0.001f) {
+                // solvent planes just focus on negative values
+                // Float.NaN will also match ">=" this way
+              } else {
+                voxelRow[z] = 0.001f;
+              }
+          }
+      }
+    });
     if (Logger.debugging)
       Logger.checkTimer("solvent surface time");
   }
 
+  private static class TroughPair {
+    int atomA, atomB;
+    float rA, rB, dAB;
+    int[] box;
+  }
+
+  private List<TroughPair> getTroughPairs(boolean isWithin, float maxRadius) {
+    float distance = params.distance;
+    List<TroughPair> pairs = new ArrayList<TroughPair>();
+    Point3i ptA0 = new Point3i();
+    Point3i ptB0 = new Point3i();
+    Point3i ptA1 = new Point3i();
+    Point3i ptB1 = new Point3i();
+    for (int iAtom = 0; iAtom < firstNearbyAtom - 1; iAtom++)
+      if (atomNo[iAtom] > 0) {
+        Point3f ptA = atomXyz[iAtom];
+        float rA = atomRadius[iAtom] + solventRadius;
+        int iatomA = atomIndex[iAtom];
+        if (isWithin && ptA.distance(point) > distance + rA + 0.5)
+          continue;
+        setGridLimitsForAtom(ptA, rA - solventRadius, ptA0, ptA1);
+        AtomIndexIterator iter = atomDataServer.getWithinAtomSetIterator(
+            iatomA, rA + solventRadius + maxRadius, bsMySelected, true, true); //true ==> only atom index > this atom accepted
+        while (iter.hasNext()) {
+          int iatomB = iter.next();
+          Point3f ptB = atomXyz[myIndex[iatomB]];
+          float rB = atomData.atomRadius[iatomB] + solventRadius;
+          if (isWithin && ptB.distance(point) > distance + rB + 0.5)
+            continue;
+          if (params.thePlane != null
+              && Math.abs(volumeData.distancePointToPlane(ptB)) > 2 * rB)
+            continue;
+
+          float dAB = ptA.distance(ptB);
+          if (dAB >= rA + rB)
+            continue;
+          //defining pt0 and pt1 very crudely -- this could be refined
+          setGridLimitsForAtom(ptB, rB - solventRadius, ptB0, ptB1);
+          TroughPair pair = new TroughPair();
+          pair.atomA = iAtom;
+          pair.atomB = myIndex[iatomB];
+          pair.rA = rA;
+          pair.rB = rB;
+          pair.dAB = dAB;
+          pair.box = new int[] { Math.min(ptA0.x, ptB0.x),
+              Math.min(ptA0.y, ptB0.y), Math.min(ptA0.z, ptB0.z),
+              Math.max(ptA1.x, ptB1.x), Math.max(ptA1.y, ptB1.y),
+              Math.max(ptA1.z, ptB1.z) };
+          pairs.add(pair);
+        }
+      }
+    return pairs;
+  }
+
+  private interface SlabTask {
+    void process(int x0, int x1);
+  }
+
+  /**
+   * Splits the x-range of the voxel grid into slabs, which are processed
+   * by multiple threads, each slab by exactly one thread.
+   * 
+   * @param task
+   */
+  private void runSlabParallel(final SlabTask task) {
+    int threadCount = Math.min(Runtime.getRuntime().availableProcessors(),
+        nPointsX);
+    if (threadCount < 2 || nPointsX * nPointsY * nPointsZ < MIN_VOXELS_FOR_THREADING) {
+      task.process(0, nPointsX);
+      return;
+    }
+    final int slabWidth = Math.max(1, nPointsX / (4 * threadCount));
+    final int slabCount = (nPointsX + slabWidth - 1) / slabWidth;
+    final AtomicInteger nextSlab = new AtomicInteger();
+    Thread[] worker = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      worker[t] = new Thread("Isosurface Slab " + (t + 1)) {
+        public void run() {
+          for (int slab = nextSlab.getAndIncrement(); slab < slabCount; slab = nextSlab.getAndIncrement())
+            task.process(slab * slabWidth, Math.min(nPointsX, (slab + 1) * slabWidth));
+        }
+      };
+      worker[t].start();
+    }
+    for (int t = 0; t < threadCount; t++)
+      try {
+        worker[t].join();
+      } catch (InterruptedException e) {
+        // ignore
+      }
+  }
+
   void setGridLimitsForAtom(Point3f ptA, float rA, Point3i pt0, Point3i pt1) {
     int n = (isProperty ? 4 : 1);
     volumeData.xyzToVoxelPt(ptA.x - rA, ptA.y - rA, ptA.z - rA, pt0);
@@ -458,10 +566,8 @@ class IsoSolventReader extends AtomDataReader {
       pt1.z = nPointsZ;
   }
 
-  final Point3f ptS = new Point3f();
-
   float checkSpecialVoxel(Point3f ptA, float rAS, Point3f ptB, float rBS,
-                          float dAB, Point3f ptV) {
+                          float dAB, Point3f ptV, Point3f ptS) {
     /*
      * Checking here for voxels that are in the situation:
      * 